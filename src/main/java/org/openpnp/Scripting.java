@@ -5,19 +5,23 @@ import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.io.File;
-import java.io.FileReader;
 import java.nio.file.FileSystems;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
@@ -44,6 +48,43 @@ public class Scripting {
     File scriptsDirectory;
     File eventsDirectory;
     WatchService watcher;
+    /**
+     * Event scripts by event name. Rebuilt on the next event after the file watcher reports a
+     * change, null until then.
+     */
+    volatile Map<String, List<File>> eventScripts;
+    /**
+     * One engine per script extension and thread, so scripts run on different threads never
+     * share an engine, and never wait for each other. Every execution gets fresh Bindings, so
+     * scripts still don't see each other's variables.
+     */
+    final ThreadLocal<Map<String, ScriptEngine>> engines = ThreadLocal.withInitial(HashMap::new);
+    /**
+     * Scripts compiled by the engines of the thread.
+     */
+    final ThreadLocal<Map<File, CachedScript>> scripts = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * A script read, and compiled if the engine supports it, for as long as the file is
+     * unchanged.
+     */
+    static class CachedScript {
+        final long lastModified;
+        final long length;
+        final String source;
+        final CompiledScript compiledScript;
+
+        CachedScript(File file, String source, CompiledScript compiledScript) {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.source = source;
+            this.compiledScript = compiledScript;
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
 
     public Scripting() {
         // Collect all the script filename extensions we know how to handle from the list of
@@ -121,6 +162,7 @@ public class Scripting {
         try {
             watcher = FileSystems.getDefault().newWatchService();
             watchDirectory(getScriptsDirectory());
+            watchDirectory(eventsDirectory);
             Thread thread = new Thread(() -> {
                 for (;;) {
                     try {
@@ -129,6 +171,7 @@ public class Scripting {
                         key.pollEvents();
                         key.reset();
                         // rescan
+                        invalidateEventScripts();
                         synchronizeMenu(menu, getScriptsDirectory());
                     }
                     catch (Exception e) {
@@ -155,6 +198,7 @@ public class Scripting {
 
             @Override
             public void actionPerformed(ActionEvent e) {
+                invalidateEventScripts();
                 synchronizeMenu(menu, getScriptsDirectory());
             }
         });
@@ -286,36 +330,90 @@ public class Scripting {
     }
     
     public void execute(File script, Map<String, Object> additionalGlobals) throws Exception {
-        ScriptEngine engine =
-                manager.getEngineByExtension(Files.getFileExtension(script.getName()));
+        ScriptEngine engine = getEngine(script);
+        CachedScript cachedScript = getCachedScript(script, engine);
 
-        engine.put("config", Configuration.get());
-        engine.put("machine", Configuration.get().getMachine());
-        engine.put("gui", MainFrame.get());
-        engine.put("scripting", this);
-        engine.put(ScriptEngine.FILENAME, script.getName());
+        Bindings bindings = engine.createBindings();
+        bindings.put("config", Configuration.get());
+        bindings.put("machine", Configuration.get().getMachine());
+        bindings.put("gui", MainFrame.get());
+        bindings.put("scripting", this);
+        bindings.put(ScriptEngine.FILENAME, script.getName());
 
         if (additionalGlobals != null) {
-            for (String name : additionalGlobals.keySet()) {
-                engine.put(name, additionalGlobals.get(name));
-            }
+            bindings.putAll(additionalGlobals);
+        }
+
+        eval(engine, cachedScript, bindings);
+    }
+
+    private static void eval(ScriptEngine engine, CachedScript cachedScript, Bindings bindings)
+            throws Exception {
+        if (cachedScript.compiledScript != null) {
+            cachedScript.compiledScript.eval(bindings);
+        }
+        else {
+            engine.eval(cachedScript.source, bindings);
+        }
+    }
+
+    private ScriptEngine getEngine(File script) throws Exception {
+        String extension = Files.getFileExtension(script.getName());
+        ScriptEngine engine =
+                engines.get().computeIfAbsent(extension, e -> manager.getEngineByExtension(e));
+        if (engine == null) {
+            throw new Exception("No script engine found for " + script.getName());
         }
+        return engine;
+    }
 
-        try (FileReader reader = new FileReader(script)) {
-            engine.eval(reader);
+    private CachedScript getCachedScript(File script, ScriptEngine engine) throws Exception {
+        CachedScript cachedScript = scripts.get().get(script);
+        if (cachedScript != null && cachedScript.isCurrent(script)) {
+            return cachedScript;
         }
+        String source = FileUtils.readFileToString(script);
+        CompiledScript compiledScript = null;
+        if (engine instanceof Compilable) {
+            compiledScript = ((Compilable) engine).compile(source);
+        }
+        cachedScript = new CachedScript(script, source, compiledScript);
+        scripts.get().put(script, cachedScript);
+        return cachedScript;
     }
 
     public void on(String event, Map<String, Object> globals) throws Exception {
-        Logger.trace("Scripting.on " + event);
-        for (File script : FileUtils.listFiles(eventsDirectory, extensions, false)) {
-            if (!script.isFile()) {
-                continue;
-            }
-            if (FilenameUtils.getBaseName(script.getName()).equals(event)) {
-                Logger.trace("Scripting.on found " + script.getName());
-                execute(script, globals);
+        Logger.trace("Scripting.on {}", event);
+        for (File script : getEventScripts(event)) {
+            Logger.trace("Scripting.on found {}", script.getName());
+            execute(script, globals);
+        }
+    }
+
+    private List<File> getEventScripts(String event) {
+        Map<String, List<File>> eventScripts = this.eventScripts;
+        if (eventScripts == null) {
+            eventScripts = indexEventScripts();
+        }
+        return eventScripts.getOrDefault(event, Collections.emptyList());
+    }
+
+    private synchronized Map<String, List<File>> indexEventScripts() {
+        if (eventScripts == null) {
+            Map<String, List<File>> index = new HashMap<>();
+            for (File script : FileUtils.listFiles(eventsDirectory, extensions, false)) {
+                if (!script.isFile()) {
+                    continue;
+                }
+                index.computeIfAbsent(FilenameUtils.getBaseName(script.getName()),
+                        k -> new ArrayList<>()).add(script);
             }
+            eventScripts = index;
         }
+        return eventScripts;
+    }
+
+    private synchronized void invalidateEventScripts() {
+        eventScripts = null;
     }
 }
@@ -892,6 +892,30 @@ public class MainFrame extends JFrame {
         return true;
     }
 
+    /**
+     * Save the configuration, writing the files in the background. The configuration is still
+     * serialized on the calling thread, which must be the event dispatch thread. Errors are
+     * reported once the files are written.
+     */
+    public void saveConfigInBackground() {
+        try {
+            Preferences.userRoot().flush();
+        }
+        catch (Exception e) {
+            MessageBoxes.errorBox(MainFrame.this, "Save Preferences", e); //$NON-NLS-1$
+        }
+
+        configuration.saveInBackground().whenComplete((result, e) -> {
+            if (e != null) {
+                SwingUtilities.invokeLater(() -> MessageBoxes.errorBox(MainFrame.this,
+                        "Configuration Save Error", e)); //$NON-NLS-1$
+            }
+            else {
+                Logger.debug("Config saved successfully!"); //$NON-NLS-1$
+            }
+        });
+    }
+
     public boolean quit() {
         Logger.info("Shutting down..."); //$NON-NLS-1$
         try {
@@ -1046,7 +1070,7 @@ public class MainFrame extends JFrame {
     private Action saveConfigAction = new AbstractAction(Translations.getString("Menu.File.SaveConfiguration")) { //$NON-NLS-1$
         @Override
         public void actionPerformed(ActionEvent arg0) {
-			saveConfig();
+            saveConfigInBackground();
         }
     };
 
@@ -19,16 +19,19 @@
 
 package org.openpnp.gui.components;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
@@ -42,10 +45,12 @@ import java.awt.event.MouseWheelListener;
 import java.awt.font.TextLayout;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.io.File;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -54,6 +59,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.prefs.Preferences;
 
 import javax.imageio.ImageIO;
@@ -63,8 +69,11 @@ import javax.swing.SwingUtilities;
 
 import org.openpnp.CameraListener;
 import org.openpnp.gui.MainFrame;
+import org.openpnp.gui.components.reticle.FiducialReticle;
+import org.openpnp.gui.components.reticle.FootprintReticle;
 import org.openpnp.gui.components.reticle.Reticle;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Nozzle;
@@ -79,6 +88,8 @@ public class CameraView extends JComponent implements CameraListener {
     private static final String PREF_RETICLE = "CamerView.reticle";
     private static final String PREF_ZOOM_INCREMENT = "CamerView.zoomIncrement";
     private static final String PREF_RENDERING_QUALITY = "CamerView.renderingQuality";
+    private static final String PREF_BACKGROUND_RENDERING = "CamerView.backgroundRendering";
+    private static final String PREF_MAXIMUM_FPS = "CamerView.maximumFps";
     private static final double DEFAULT_ZOOM_INCREMENT = 0.01;
 
     private static final String DEFAULT_RETICLE_KEY = "DEFAULT_RETICLE_KEY";
@@ -210,7 +221,39 @@ public class CameraView extends JComponent implements CameraListener {
         Low, High, BestScale
     }
     RenderingQuality renderingQuality = RenderingQuality.Low;
-    
+
+    /**
+     * If true, frames are scaled into a VolatileImage on a background thread, so that painting
+     * only needs to copy it to the screen.
+     */
+    private boolean backgroundRendering = true;
+
+    /**
+     * The maximum rate at which frames are rendered to the view, 0 for as fast as the camera
+     * delivers them.
+     */
+    private double maximumFps = 0;
+
+    /**
+     * Double buffered frames, scaled to the full component size. The back buffer is rendered off
+     * the EDT, then swapped to the front for painting. Both are guarded by renderLock.
+     */
+    private final Object renderLock = new Object();
+    private VolatileImage frontBuffer;
+    private VolatileImage backBuffer;
+    // The scaling the front buffer was rendered with.
+    private List<Object> frontBufferGeometry;
+    private final AtomicBoolean renderScheduled = new AtomicBoolean();
+    private volatile long lastRenderTime = 0;
+
+    /**
+     * The reticles that only depend on their parameters are drawn into this layer, which is only
+     * redrawn when any of the parameters in reticleLayerKey change.
+     */
+    private BufferedImage reticleLayer;
+    private List<Object> reticleLayerKey;
+    private int reticleGeneration = 0;
+
     public CameraView() {
         setBackground(Color.black);
         setOpaque(true);
@@ -251,6 +294,14 @@ public class CameraView extends JComponent implements CameraListener {
         return PREF_RENDERING_QUALITY + "." + camera.getId();
     }
 
+    private String getBackgroundRenderingPrefKey() {
+        return PREF_BACKGROUND_RENDERING + "." + camera.getId();
+    }
+
+    private String getMaximumFpsPrefKey() {
+        return PREF_MAXIMUM_FPS + "." + camera.getId();
+    }
+
     public void addActionListener(CameraViewActionListener listener) {
         if (!actionListeners.contains(listener)) {
             actionListeners.add(listener);
@@ -298,6 +349,8 @@ public class CameraView extends JComponent implements CameraListener {
         catch (Exception e) {
             // ignore errors
         }
+        backgroundRendering = prefs.getBoolean(getBackgroundRenderingPrefKey(), true);
+        maximumFps = prefs.getDouble(getMaximumFpsPrefKey(), 0);
 
     }
 
@@ -335,6 +388,8 @@ public class CameraView extends JComponent implements CameraListener {
         }
         else {
             reticles.put(key, reticle);
+            // Reticle properties are changed in place, so any set must redraw the layer.
+            reticleGeneration++;
         }
     }
 
@@ -343,6 +398,7 @@ public class CameraView extends JComponent implements CameraListener {
     }
 
     public Reticle removeReticle(Object key) {
+        reticleGeneration++;
         return reticles.remove(key);
     }
 
@@ -381,6 +437,31 @@ public class CameraView extends JComponent implements CameraListener {
         calculateScalingData();
     }
 
+    public boolean isBackgroundRendering() {
+        return backgroundRendering;
+    }
+
+    public void setBackgroundRendering(boolean backgroundRendering) {
+        prefs.putBoolean(getBackgroundRenderingPrefKey(), backgroundRendering);
+        this.backgroundRendering = backgroundRendering;
+        if (!backgroundRendering) {
+            synchronized (renderLock) {
+                frontBuffer = flushBuffer(frontBuffer);
+                backBuffer = flushBuffer(backBuffer);
+            }
+        }
+        requestRender();
+    }
+
+    public double getMaximumFps() {
+        return maximumFps;
+    }
+
+    public void setMaximumFps(double maximumFps) {
+        prefs.putDouble(getMaximumFpsPrefKey(), maximumFps);
+        this.maximumFps = maximumFps;
+    }
+
     /**
      * Causes a short flash in the CameraView to get the user's attention.
      */
@@ -504,7 +585,197 @@ public class CameraView extends JComponent implements CameraListener {
         }
         fps = 1000.0 / fpsAverage.next(System.currentTimeMillis() - lastFrameReceivedTime);
         lastFrameReceivedTime = System.currentTimeMillis();
-        repaint();
+        if (backgroundRendering || maximumFps > 0) {
+            requestRender();
+        }
+        else {
+            repaint();
+        }
+    }
+
+    /**
+     * Schedules the latest frame to be rendered and painted, no sooner than maximumFps allows.
+     * Frames received while a render is pending are not rendered, only the latest one is.
+     */
+    private void requestRender() {
+        if (!renderScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = 0;
+        if (maximumFps > 0) {
+            delay = Math.max(0, lastRenderTime + (long) (1000 / maximumFps) - System.currentTimeMillis());
+        }
+        scheduledExecutor.schedule(() -> {
+            renderScheduled.set(false);
+            lastRenderTime = System.currentTimeMillis();
+            if (backgroundRendering) {
+                try {
+                    renderFrame();
+                }
+                catch (Exception e) {
+                    Logger.debug(e);
+                }
+            }
+            repaint();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Renders the last frame into the back buffer with the current scaling, then swaps it to the
+     * front. Runs on the scheduledExecutor, not on the EDT.
+     */
+    private void renderFrame() {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        BufferedImage image;
+        List<Object> geometry;
+        int x, y, w, h;
+        synchronized (this) {
+            image = lastFrame;
+            geometry = getBufferGeometry();
+            x = imageX;
+            y = imageY;
+            w = scaledWidth;
+            h = scaledHeight;
+        }
+        if (gc == null || image == null || !isShowing() || getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        VolatileImage buffer;
+        synchronized (renderLock) {
+            buffer = backBuffer;
+            backBuffer = null;
+        }
+        do {
+            if (buffer == null || buffer.getWidth() != getWidth() || buffer.getHeight() != getHeight()
+                    || buffer.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                flushBuffer(buffer);
+                buffer = gc.createCompatibleVolatileImage(getWidth(), getHeight());
+            }
+            Graphics2D g2d = buffer.createGraphics();
+            try {
+                g2d.setColor(getBackground());
+                g2d.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
+                drawFrame(g2d, image, x, y, w, h);
+            }
+            finally {
+                g2d.dispose();
+            }
+        } while (buffer.contentsLost());
+        synchronized (renderLock) {
+            if (!backgroundRendering) {
+                flushBuffer(buffer);
+                return;
+            }
+            backBuffer = frontBuffer;
+            frontBuffer = buffer;
+            frontBufferGeometry = geometry;
+        }
+    }
+
+    private static VolatileImage flushBuffer(VolatileImage buffer) {
+        if (buffer != null) {
+            buffer.flush();
+        }
+        return null;
+    }
+
+    /**
+     * Everything the rendered buffer depends on, except the frame itself.
+     */
+    private List<Object> getBufferGeometry() {
+        return Arrays.asList(getWidth(), getHeight(), imageX, imageY, scaledWidth, scaledHeight,
+                renderingQuality, getBackground());
+    }
+
+    private void drawFrame(Graphics2D g2d, BufferedImage image, int x, int y, int w, int h) {
+        if (renderingQuality == RenderingQuality.Low) {
+            g2d.drawImage(image, x, y, w, h, null);
+        }
+        else {
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            AffineTransform t = new AffineTransform();
+            double scaleW = ((double)w)/image.getWidth();
+            double scaleH = ((double)h)/image.getHeight();
+            // Scaled
+            t.translate(x, y);
+            t.scale(scaleW, scaleH);
+            g2d.drawImage(image, t, null);
+        }
+    }
+
+    /**
+     * Copies the front buffer to the screen, if it was rendered with the current scaling.
+     * 
+     * @return false if the frame must be drawn directly.
+     */
+    private boolean paintFrontBuffer(Graphics2D g2d) {
+        synchronized (renderLock) {
+            if (frontBuffer == null || !getBufferGeometry().equals(frontBufferGeometry)
+                    || frontBuffer.validate(getGraphicsConfiguration()) != VolatileImage.IMAGE_OK) {
+                return false;
+            }
+            g2d.drawImage(frontBuffer, 0, 0, null);
+            return !frontBuffer.contentsLost();
+        }
+    }
+
+    private void paintReticles(Graphics2D g2d, int centerX, int centerY, double c) {
+        LengthUnit units = camera.getUnitsPerPixel().getUnits();
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        boolean layered = false;
+        if (gc != null) {
+            List<Object> key = Arrays.asList(reticleGeneration, units, scaledUnitsPerPixelX,
+                    scaledUnitsPerPixelY, centerX, centerY, scaledWidth, scaledHeight, c,
+                    getWidth(), getHeight(), g2d.getRenderingHints());
+            if (!key.equals(reticleLayerKey)) {
+                if (reticleLayer == null || reticleLayer.getWidth() != getWidth()
+                        || reticleLayer.getHeight() != getHeight()) {
+                    reticleLayer = gc.createCompatibleImage(getWidth(), getHeight(), 
+                            Transparency.TRANSLUCENT);
+                }
+                Graphics2D layerG2d = reticleLayer.createGraphics();
+                try {
+                    layerG2d.setComposite(AlphaComposite.Clear);
+                    layerG2d.fillRect(0, 0, reticleLayer.getWidth(), reticleLayer.getHeight());
+                    layerG2d.setComposite(AlphaComposite.SrcOver);
+                    layerG2d.setRenderingHints(g2d.getRenderingHints());
+                    for (Reticle reticle : reticles.values()) {
+                        if (isLayeredReticle(reticle)) {
+                            reticle.draw(layerG2d, units, scaledUnitsPerPixelX,
+                                    scaledUnitsPerPixelY, centerX, centerY,
+                                    scaledWidth, scaledHeight, c);
+                        }
+                    }
+                }
+                finally {
+                    layerG2d.dispose();
+                }
+                reticleLayerKey = key;
+            }
+            g2d.drawImage(reticleLayer, 0, 0, null);
+            layered = true;
+        }
+        for (Reticle reticle : reticles.values()) {
+            if (!(layered && isLayeredReticle(reticle))) {
+                reticle.draw(g2d, units, scaledUnitsPerPixelX,
+                        scaledUnitsPerPixelY, centerX, centerY,
+                        scaledWidth, scaledHeight, c);
+            }
+        }
+    }
+
+    /**
+     * The reticles in the reticle package are drawn from their own properties and the draw()
+     * arguments alone, others, like those of the processes, may follow the mouse and must be
+     * drawn every time. The footprint and fiducial reticles draw shapes that are edited in place,
+     * e.g. in the package vision settings, without setting the reticle again, so they are drawn
+     * every time, too.
+     */
+    private static boolean isLayeredReticle(Reticle reticle) {
+        return reticle.getClass().getPackage() == Reticle.class.getPackage()
+                && !(reticle instanceof FootprintReticle) && !(reticle instanceof FiducialReticle);
     }
 
     /**
@@ -571,6 +842,11 @@ public class CameraView extends JComponent implements CameraListener {
             // setSelection() handles updating the scaled rectangle
             setSelection(selection);
         }
+
+        if (backgroundRendering) {
+            // Render again with the new scaling, even if no new frame arrives.
+            requestRender();
+        }
     }
 
     @Override
@@ -584,31 +860,21 @@ public class CameraView extends JComponent implements CameraListener {
         g.setColor(getBackground());
         g2d.fillRect(ins.left, ins.top, width, height);
         if (image != null) {
-            // Only render if there is a valid image.
-            if (renderingQuality == RenderingQuality.Low) {
-                g2d.drawImage(lastFrame, imageX, imageY, scaledWidth, scaledHeight, null);
+            // Only render if there is a valid image. Use the frame rendered in the background, 
+            // if there is one.
+            if (!(backgroundRendering && paintFrontBuffer(g2d))) {
+                drawFrame(g2d, image, imageX, imageY, scaledWidth, scaledHeight);
             }
-            else {
+            if (renderingQuality != RenderingQuality.Low) {
                 g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
                 g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
                 g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-                AffineTransform t = new AffineTransform();
-                double scaleW = ((double)scaledWidth)/image.getWidth();
-                double scaleH = ((double)scaledHeight)/image.getHeight();
-                // Scaled
-                t.translate(imageX, imageY);
-                t.scale(scaleW, scaleH);
-                g2d.drawImage(lastFrame, t, null);
             }
 
             double c = MainFrame.get().getMachineControls().getSelectedTool().getLocation()
                     .getRotation();
 
-            for (Reticle reticle : reticles.values()) {
-                reticle.draw(g2d, camera.getUnitsPerPixel().getUnits(), scaledUnitsPerPixelX,
-                        scaledUnitsPerPixelY, ins.left + (width / 2), ins.top + (height / 2),
-                        scaledWidth, scaledHeight, c);
-            }
+            paintReticles(g2d, ins.left + (width / 2), ins.top + (height / 2), c);
 
             if (text != null) {
                 drawTextOverlay(g2d, 10, 10, text);
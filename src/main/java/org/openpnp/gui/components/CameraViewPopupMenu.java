@@ -49,6 +49,7 @@ public class CameraViewPopupMenu extends JPopupMenu {
     private JMenu reticleMenu;
     private JMenu reticleOptionsMenu;
     private JMenu renderingQualityMenu;
+    private JMenu maximumFpsMenu;
 
     public CameraViewPopupMenu(CameraView cameraView) {
         this.cameraView = cameraView;
@@ -61,6 +62,14 @@ public class CameraViewPopupMenu extends JPopupMenu {
 
         add(renderingQualityMenu);
 
+        JCheckBoxMenuItem chkBackgroundRendering = new JCheckBoxMenuItem(backgroundRenderingAction);
+        chkBackgroundRendering.setSelected(cameraView.isBackgroundRendering());
+        add(chkBackgroundRendering);
+
+        maximumFpsMenu = createMaximumFpsMenu();
+
+        add(maximumFpsMenu);
+
         reticleMenu = createReticleMenu();
 
         add(reticleMenu);
@@ -200,6 +209,27 @@ public class CameraViewPopupMenu extends JPopupMenu {
         return subMenu;
     }
 
+    private JMenu createMaximumFpsMenu() {
+        JMenu subMenu = new JMenu("Maximum Preview FPS");
+        ButtonGroup buttonGroup = new ButtonGroup();
+        for (double fps : new double[] {0, 30, 15, 10, 5}) {
+            JRadioButtonMenuItem menuItem =
+                    new JRadioButtonMenuItem(fps == 0 ? "Unlimited" : String.valueOf((int) fps));
+            buttonGroup.add(menuItem);
+            if (cameraView.getMaximumFps() == fps) {
+                menuItem.setSelected(true);
+            }
+            menuItem.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    cameraView.setMaximumFps(fps);
+                }
+            });
+            subMenu.add(menuItem);
+        }
+        return subMenu;
+    }
+
     private JMenu createReticleMenu() {
         JMenu menu = new JMenu("Reticle");
 
@@ -543,6 +573,13 @@ public class CameraViewPopupMenu extends JPopupMenu {
         }
     };
 
+    private Action backgroundRenderingAction = new AbstractAction("Render in Background?") {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            cameraView.setBackgroundRendering(((JCheckBoxMenuItem) e.getSource()).isSelected());
+        }
+    };
+
     private Action noReticleAction = new AbstractAction("None") {
         @Override
         public void actionPerformed(ActionEvent arg0) {
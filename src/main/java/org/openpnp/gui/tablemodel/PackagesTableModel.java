@@ -21,7 +21,6 @@ package org.openpnp.gui.tablemodel;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.table.AbstractTableModel;
@@ -41,7 +40,7 @@ public class PackagesTableModel extends AbstractTableModel implements PropertyCh
     public PackagesTableModel(Configuration configuration) {
         this.configuration = configuration;
         configuration.addPropertyChangeListener("packages", this);
-        packages = new ArrayList<>(configuration.getPackages());
+        packages = configuration.getPackages();
 
     }
 
@@ -104,7 +103,7 @@ public class PackagesTableModel extends AbstractTableModel implements PropertyCh
 
     @Override
     public void propertyChange(PropertyChangeEvent arg0) {
-        packages = new ArrayList<>(configuration.getPackages());
+        packages = configuration.getPackages();
         fireTableDataChanged();
     }
 }
@@ -21,7 +21,6 @@ package org.openpnp.gui.tablemodel;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.swing.table.AbstractTableModel;
@@ -44,7 +43,7 @@ public class PartsTableModel extends AbstractTableModel implements PropertyChang
 
     public PartsTableModel() {
         Configuration.get().addPropertyChangeListener("parts", this);
-        parts = new ArrayList<>(Configuration.get().getParts());
+        parts = Configuration.get().getParts();
     }
 
     @Override
@@ -128,7 +127,7 @@ public class PartsTableModel extends AbstractTableModel implements PropertyChang
 
     @Override
     public void propertyChange(PropertyChangeEvent arg0) {
-        parts = new ArrayList<>(Configuration.get().getParts());
+        parts = Configuration.get().getParts();
         fireTableDataChanged();
     }
 }
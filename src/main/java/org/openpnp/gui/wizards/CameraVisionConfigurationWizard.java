@@ -103,10 +103,12 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
                         FormSpecs.RELATED_GAP_ROWSPEC,
                         FormSpecs.DEFAULT_ROWSPEC,
                         FormSpecs.RELATED_GAP_ROWSPEC,
+                        FormSpecs.DEFAULT_ROWSPEC,
+                        FormSpecs.RELATED_GAP_ROWSPEC,
                         RowSpec.decode("default:grow"),}));
 
         lblSettleMethod = new JLabel("Settle Method");
-        panelVision.add(lblSettleMethod, "2, 2, 1, 3, right, default");
+        panelVision.add(lblSettleMethod, "2, 2, right, default");
 
         settleMethod = new JComboBox(AbstractCamera.SettleMethod.values());
         settleMethod.addItemListener(new ItemListener() {
@@ -114,7 +116,14 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
                 adaptDialog();
             }
         });
-        panelVision.add(settleMethod, "4, 2, 1, 3, fill, default");
+        panelVision.add(settleMethod, "4, 2, fill, default");
+
+        lblSettlePredictive = new JLabel("Predictive?");
+        lblSettlePredictive.setToolTipText("<html>\nLearn the settle time per move distance and speed and only start comparing images <br/>\nonce the camera is predicted to be settled.\n</html>");
+        panelVision.add(lblSettlePredictive, "2, 4, right, default");
+
+        settlePredictive = new JCheckBox("");
+        panelVision.add(settlePredictive, "4, 4");
 
         lblSettleTimeMs = new JLabel("Settle Time (ms)");
         panelVision.add(lblSettleTimeMs, "8, 2, right, center");
@@ -221,6 +230,14 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         panelVision.add(settleMaskCircle, "4, 12, fill, default");
         settleMaskCircle.setColumns(10);
 
+        lblSettleMaxSize = new JLabel("Max. Size (Pixel)");
+        lblSettleMaxSize.setToolTipText("<html>\nThe compared images are halved until neither width nor height is larger than this. <br/>\nSmaller images are much faster to compare. New cameras use 256, 0 compares the images at full resolution.\n</html>");
+        panelVision.add(lblSettleMaxSize, "2, 14, right, default");
+
+        settleMaxSize = new JTextField();
+        panelVision.add(settleMaxSize, "4, 14, fill, default");
+        settleMaxSize.setColumns(10);
+
         lblSettleDiagnostics = new JLabel("Diagnostics?");
         lblSettleDiagnostics.setToolTipText("Enable graphical diagnostics and replay of settle frames.");
         panelVision.add(lblSettleDiagnostics, "8, 12, right, default");
@@ -234,7 +251,7 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         panelVision.add(settleDiagnostics, "10, 12");
 
         lblSettleGraph = new JLabel("<html>\r\n<body style=\"text-align:right\">\r\n<p>\r\nDifference <span style=\"color:#FF0000\">&mdash;&mdash;</span>\r\n</p>\r\n<p>\r\nThreshold <span style=\"color:#00BB00\">&mdash;&mdash;</span>\r\n</p>\r\n<p>\r\nCapture <span style=\"color:#005BD9\">&mdash;&mdash;</span>\r\n</p>\r\n</body>\r\n</html>");
-        panelVision.add(lblSettleGraph, "2, 14");
+        panelVision.add(lblSettleGraph, "2, 16");
 
         settleGraph = new SimpleGraphView();
         settleGraph.addPropertyChangeListener(new PropertyChangeListener() {
@@ -246,7 +263,7 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
             }
         });
         settleGraph.setFont(new Font("Dialog", Font.PLAIN, 11));
-        panelVision.add(settleGraph, "4, 14, 11, 1, default, fill");
+        panelVision.add(settleGraph, "4, 16, 11, 1, default, fill");
     }
 
     private void adaptDialog() {
@@ -264,6 +281,9 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         lblSettleDebounce.setVisible(!fixedTime);
         settleDebounce.setVisible(!fixedTime);
 
+        lblSettlePredictive.setVisible(!fixedTime);
+        settlePredictive.setVisible(!fixedTime);
+
         lblSettleFullColor.setVisible(!fixedTime);
         settleFullColor.setVisible(!fixedTime);
 
@@ -276,6 +296,9 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         lblSettleMaskCircle.setVisible(!fixedTime);
         settleMaskCircle.setVisible(!fixedTime);
 
+        lblSettleMaxSize.setVisible(!fixedTime);
+        settleMaxSize.setVisible(!fixedTime);
+
         lblContrastEnhance.setVisible(!fixedTime);
         settleContrastEnhance.setVisible(!fixedTime);
 
@@ -298,10 +321,12 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         addWrappedBinding(camera, "settleTimeoutMs", settleTimeoutMs, "text", longConverter);
         addWrappedBinding(camera, "settleDebounce", settleDebounce, "text", intConverter);
         addWrappedBinding(camera, "settleThreshold", settleThreshold, "text", doubleConverter);
+        addWrappedBinding(camera, "settlePredictive", settlePredictive, "selected");
         addWrappedBinding(camera, "settleFullColor", settleFullColor, "selected");
         addWrappedBinding(camera, "settleGaussianBlur", settleGaussianBlur, "text", intConverter);
         addWrappedBinding(camera, "settleGradients", settleGradients, "selected");
         addWrappedBinding(camera, "settleMaskCircle", settleMaskCircle, "text", doubleConverter);
+        addWrappedBinding(camera, "settleMaxSize", settleMaxSize, "text", intConverter);
         addWrappedBinding(camera, "settleContrastEnhance", settleContrastEnhance, "text", doubleConverter);
         addWrappedBinding(camera, "settleDiagnostics", settleDiagnostics, "selected");
         addWrappedBinding(camera, "settleGraph", settleGraph, "graph");
@@ -313,6 +338,7 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
         ComponentDecorators.decorateWithAutoSelect(settleThreshold);
         ComponentDecorators.decorateWithAutoSelect(settleGaussianBlur);
         ComponentDecorators.decorateWithAutoSelect(settleMaskCircle);
+        ComponentDecorators.decorateWithAutoSelect(settleMaxSize);
         ComponentDecorators.decorateWithAutoSelect(settleContrastEnhance);
 
         if (camera.getHead() != null) {
@@ -469,6 +495,10 @@ public class CameraVisionConfigurationWizard extends AbstractConfigurationWizard
     private JLabel lblSettleThreshold;
     private JTextField settleGaussianBlur;
     private JLabel lblSettleGaussianBlur;
+    private JLabel lblSettleMaxSize;
+    private JTextField settleMaxSize;
+    private JLabel lblSettlePredictive;
+    private JCheckBox settlePredictive;
     private JLabel lblSettleFullColor;
     private JCheckBox settleFullColor;
     private JLabel lblSettleMaskCircle;
@@ -120,7 +120,8 @@ public class Neoden4Camera extends ReferenceCamera implements Runnable {
             try {
                 BufferedImage image = internalCapture();
                 if (image != null) { 
-                    broadcastCapture(captureForPreview());
+                    long captureTime = System.currentTimeMillis();
+                    broadcastCapture(captureForPreview(), captureTime);
                 }
             } catch (Exception e) {
                 e.printStackTrace();
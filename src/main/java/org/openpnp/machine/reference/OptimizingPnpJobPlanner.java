@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.machine.reference;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.SimplePnpJobPlanner;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Placement;
+import org.openpnp.spi.Camera;
+import org.openpnp.spi.Feeder;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.NozzleTip;
+import org.openpnp.spi.PnpJobPlanner;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+import org.openpnp.spi.base.AbstractPnpJobProcessor;
+import org.openpnp.util.Utils2D;
+import org.pmw.tinylog.Logger;
+import org.simpleframework.xml.Attribute;
+import org.simpleframework.xml.Root;
+
+/**
+ * A planner that plans the whole job up front instead of one cycle at a time. A simple cost
+ * model built from the feeder pick locations, the placement locations and the nozzle tip change
+ * time is used to decide which placements are handled together in one cycle and when nozzle
+ * tips are changed.
+ *
+ * Nozzle tips are kept as long as they still have work to do. When a nozzle runs out of work
+ * the tip that serves the most placements no other loaded tip can handle is loaded, and a tip
+ * change that only adds parallelism is done only if the saved cycles pay for it. Within a cycle
+ * placements are chained so that the travel from feeder to feeder and from placement to
+ * placement is minimal.
+ *
+ * The resulting schedule is handed out one cycle per call to plan(). If the pending placements
+ * no longer match the schedule, for instance because a placement errored and was deferred, the
+ * remaining job is planned again.
+ *
+ * To use it, set the planner of the ReferencePnpJobProcessor in machine.xml:
+ * <pre>
+ * &lt;planner class="org.openpnp.machine.reference.OptimizingPnpJobPlanner"/&gt;
+ * </pre>
+ */
+@Root
+public class OptimizingPnpJobPlanner implements PnpJobPlanner {
+    /**
+     * Average XY travel speed of the head, used to turn distances into time.
+     */
+    @Attribute(required = false)
+    protected double feedRateMmPerSec = 250;
+
+    /**
+     * Time it takes to unload one nozzle tip and load another.
+     */
+    @Attribute(required = false)
+    protected double nozzleTipChangeTimeSec = 10;
+
+    /**
+     * Fixed time per placement for feed, pick, align and place, excluding XY travel.
+     */
+    @Attribute(required = false)
+    protected double placementTimeSec = 1;
+
+    /**
+     * If true placements are only reordered among parts of similar height, so that tall
+     * parts are still placed after short ones as with the PartHeight job order.
+     */
+    @Attribute(required = false)
+    protected boolean preserveHeightOrder = true;
+
+    private List<List<PlannedPlacement>> schedule = new ArrayList<>();
+
+    private double estimatedJobTimeSec;
+
+    private double estimatedSimpleJobTimeSec;
+
+    @Override
+    public synchronized List<PlannedPlacement> plan(Head head, List<JobPlacement> jobPlacements) {
+        if (!isScheduleCurrent(jobPlacements)) {
+            planJob(head, jobPlacements);
+        }
+        if (schedule.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return schedule.remove(0);
+    }
+
+    /**
+     * The schedule is current if it contains exactly the pending job placements.
+     */
+    protected boolean isScheduleCurrent(List<JobPlacement> jobPlacements) {
+        Set<JobPlacement> scheduled = new HashSet<>();
+        for (List<PlannedPlacement> cycle : schedule) {
+            for (PlannedPlacement plannedPlacement : cycle) {
+                scheduled.add(plannedPlacement.jobPlacement);
+            }
+        }
+        return scheduled.size() == jobPlacements.size() && scheduled.containsAll(jobPlacements);
+    }
+
+    protected void planJob(Head head, List<JobPlacement> jobPlacements) {
+        long t = System.currentTimeMillis();
+        CostModel costModel = new CostModel(head, jobPlacements);
+
+        Map<Nozzle, NozzleTip> loadedNozzleTips = getLoadedNozzleTips(head);
+        List<JobPlacement> remaining = new ArrayList<>(jobPlacements);
+        List<List<PlannedPlacement>> schedule = new ArrayList<>();
+        PlannedPlacement last = null;
+        while (!remaining.isEmpty()) {
+            List<PlannedPlacement> cycle =
+                    planCycle(head, costModel, remaining, loadedNozzleTips, last);
+            if (cycle.isEmpty()) {
+                Logger.warn("Unable to plan {} remaining placements.", remaining.size());
+                break;
+            }
+            for (PlannedPlacement plannedPlacement : cycle) {
+                remaining.remove(plannedPlacement.jobPlacement);
+                loadedNozzleTips.put(plannedPlacement.nozzle, plannedPlacement.nozzleTip);
+            }
+            last = cycle.get(cycle.size() - 1);
+            schedule.add(cycle);
+        }
+        this.schedule = schedule;
+
+        List<List<PlannedPlacement>> simpleSchedule = simulateSimplePlanner(head, jobPlacements);
+        Estimate estimate = costModel.estimate(getLoadedNozzleTips(head), schedule);
+        Estimate simpleEstimate = costModel.estimate(getLoadedNozzleTips(head), simpleSchedule);
+        estimatedJobTimeSec = estimate.timeSec;
+        estimatedSimpleJobTimeSec = simpleEstimate.timeSec;
+
+        DecimalFormat df = new DecimalFormat("###,##0.0");
+        Logger.info(
+                "Planned {} placements in {}ms: {} cycles, {} nozzle tip changes, estimated {} sec. SimplePnpJobPlanner: {} cycles, {} nozzle tip changes, estimated {} sec.",
+                jobPlacements.size(), System.currentTimeMillis() - t, schedule.size(),
+                estimate.nozzleTipChanges, df.format(estimate.timeSec), simpleSchedule.size(),
+                simpleEstimate.nozzleTipChanges, df.format(simpleEstimate.timeSec));
+    }
+
+    protected List<PlannedPlacement> planCycle(Head head, CostModel costModel,
+            List<JobPlacement> remaining, Map<Nozzle, NozzleTip> loadedNozzleTips,
+            PlannedPlacement last) {
+        List<JobPlacement> candidates = getCandidates(head, remaining);
+
+        /**
+         * First keep every loaded nozzle tip that still has work to do in this cycle.
+         */
+        Map<Nozzle, NozzleTip> nozzleTips = new HashMap<>();
+        for (Nozzle nozzle : head.getNozzles()) {
+            NozzleTip nozzleTip = loadedNozzleTips.get(nozzle);
+            if (nozzleTip != null && countCompatible(nozzleTip, candidates) > 0) {
+                nozzleTips.put(nozzle, nozzleTip);
+            }
+        }
+
+        /**
+         * Then consider a nozzle tip change for the idle nozzles.
+         */
+        for (Nozzle nozzle : head.getNozzles()) {
+            if (nozzleTips.containsKey(nozzle)) {
+                continue;
+            }
+            NozzleTip nozzleTip = chooseNozzleTip(head, nozzle, costModel, candidates, remaining,
+                    loadedNozzleTips, nozzleTips);
+            if (nozzleTip != null) {
+                nozzleTips.put(nozzle, nozzleTip);
+            }
+        }
+
+        /**
+         * Finally chain the placements, always taking the nozzle and placement that add the
+         * least travel to the cycle. If preserveHeightOrder is set the shortest placement is
+         * taken first and travel only decides between placements of the same height.
+         */
+        List<PlannedPlacement> cycle = new ArrayList<>();
+        Set<JobPlacement> taken = new HashSet<>();
+        PlannedPlacement previous = last;
+        while (!nozzleTips.isEmpty()) {
+            Nozzle bestNozzle = null;
+            JobPlacement bestJobPlacement = null;
+            double bestHeight = Double.MAX_VALUE;
+            double bestCost = Double.MAX_VALUE;
+            for (Nozzle nozzle : head.getNozzles()) {
+                NozzleTip nozzleTip = nozzleTips.get(nozzle);
+                if (nozzleTip == null) {
+                    continue;
+                }
+                for (JobPlacement jobPlacement : candidates) {
+                    if (taken.contains(jobPlacement) || !isCompatible(nozzleTip, jobPlacement)) {
+                        continue;
+                    }
+                    double height = preserveHeightOrder ? jobPlacement.getPartHeight() : 0;
+                    double cost = costModel.getChainCost(previous, jobPlacement);
+                    if (height < bestHeight || (height == bestHeight && cost < bestCost)) {
+                        bestHeight = height;
+                        bestCost = cost;
+                        bestNozzle = nozzle;
+                        bestJobPlacement = jobPlacement;
+                    }
+                }
+            }
+            if (bestNozzle == null) {
+                break;
+            }
+            previous = new PlannedPlacement(bestNozzle, nozzleTips.remove(bestNozzle),
+                    bestJobPlacement);
+            cycle.add(previous);
+            taken.add(bestJobPlacement);
+        }
+
+        if (preserveHeightOrder) {
+            cycle.sort(Comparator.comparing(plannedPlacement -> {
+                return plannedPlacement.jobPlacement.getPartHeight();
+            }));
+            trimToHeightOrder(cycle, remaining);
+        }
+        return cycle;
+    }
+
+    /**
+     * Remove the placements from the cycle that are taller than a placement that remains for a
+     * later cycle, so that no part is placed after a taller one. The cycle must be sorted by
+     * height. The shortest placements are always kept, so that the job makes progress even if
+     * the shortest remaining placement can't be handled right now.
+     */
+    protected void trimToHeightOrder(List<PlannedPlacement> cycle,
+            List<JobPlacement> remaining) {
+        Set<JobPlacement> planned = new HashSet<>();
+        for (PlannedPlacement plannedPlacement : cycle) {
+            planned.add(plannedPlacement.jobPlacement);
+        }
+        double maxHeight = Double.MAX_VALUE;
+        for (JobPlacement jobPlacement : remaining) {
+            if (!planned.contains(jobPlacement)) {
+                maxHeight = Math.min(maxHeight, jobPlacement.getPartHeight());
+            }
+        }
+        for (int i = cycle.size() - 1; i > 0; i--) {
+            if (cycle.get(i).jobPlacement.getPartHeight() > maxHeight) {
+                cycle.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Returns the placements that may be planned in the next cycle. If preserveHeightOrder is
+     * set these are the placements no taller than the n'th shortest remaining placement, n
+     * being the number of nozzles, which is what a first-fit planner would consider.
+     */
+    protected List<JobPlacement> getCandidates(Head head, List<JobPlacement> remaining) {
+        if (!preserveHeightOrder) {
+            return remaining;
+        }
+        List<Double> heights = new ArrayList<>();
+        for (JobPlacement jobPlacement : remaining) {
+            heights.add(jobPlacement.getPartHeight());
+        }
+        heights.sort(null);
+        double maxHeight =
+                heights.get(Math.min(heights.size(), Math.max(1, head.getNozzles().size())) - 1);
+        List<JobPlacement> candidates = new ArrayList<>();
+        for (JobPlacement jobPlacement : remaining) {
+            if (jobPlacement.getPartHeight() <= maxHeight) {
+                candidates.add(jobPlacement);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Choose the nozzle tip to load on an idle nozzle, or null if the nozzle should stay idle.
+     * Tips that serve placements none of the tips already chosen for this cycle can handle are
+     * preferred. A tip that only adds another nozzle to the job is loaded only if the cycles it
+     * saves take longer than the change itself.
+     */
+    protected NozzleTip chooseNozzleTip(Head head, Nozzle nozzle, CostModel costModel,
+            List<JobPlacement> candidates, List<JobPlacement> remaining,
+            Map<Nozzle, NozzleTip> loadedNozzleTips, Map<Nozzle, NozzleTip> nozzleTips) {
+        Set<NozzleTip> unavailable = new HashSet<>(nozzleTips.values());
+        for (Nozzle other : head.getNozzles()) {
+            if (other != nozzle && loadedNozzleTips.get(other) != null) {
+                unavailable.add(loadedNozzleTips.get(other));
+            }
+        }
+
+        NozzleTip best = null;
+        int bestExclusive = 0;
+        int bestTotal = 0;
+        for (NozzleTip nozzleTip : nozzle.getCompatibleNozzleTips()) {
+            if (unavailable.contains(nozzleTip) || countCompatible(nozzleTip, candidates) == 0) {
+                continue;
+            }
+            int exclusive = 0;
+            int total = 0;
+            for (JobPlacement jobPlacement : remaining) {
+                if (!isCompatible(nozzleTip, jobPlacement)) {
+                    continue;
+                }
+                total++;
+                boolean served = false;
+                for (NozzleTip chosen : nozzleTips.values()) {
+                    if (isCompatible(chosen, jobPlacement)) {
+                        served = true;
+                        break;
+                    }
+                }
+                if (!served) {
+                    exclusive++;
+                }
+            }
+            if (exclusive > bestExclusive
+                    || (exclusive == bestExclusive && total > bestTotal)) {
+                best = nozzleTip;
+                bestExclusive = exclusive;
+                bestTotal = total;
+            }
+        }
+        if (best == null || bestExclusive > 0) {
+            return best;
+        }
+
+        /**
+         * With k nozzles busy the shared placements take total / k cycles, with one more nozzle
+         * total / (k + 1) cycles.
+         */
+        int busy = Math.max(1, nozzleTips.size());
+        double savedCycles = bestTotal / (double) busy - bestTotal / (double) (busy + 1);
+        double changeTime = best == loadedNozzleTips.get(nozzle) ? 0 : nozzleTipChangeTimeSec;
+        if (savedCycles * costModel.getCycleTravelTimeSec() > changeTime) {
+            return best;
+        }
+        return null;
+    }
+
+    /**
+     * Run the SimplePnpJobPlanner over the whole job without touching the machine, for
+     * comparison.
+     */
+    protected List<List<PlannedPlacement>> simulateSimplePlanner(Head head,
+            List<JobPlacement> jobPlacements) {
+        SimplePnpJobPlanner planner = new SimplePnpJobPlanner();
+        Map<Nozzle, NozzleTip> loadedNozzleTips = getLoadedNozzleTips(head);
+        List<JobPlacement> remaining = new ArrayList<>(jobPlacements);
+        List<List<PlannedPlacement>> schedule = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            // plan() removes the planned job placements from remaining.
+            List<PlannedPlacement> cycle = planner.plan(head, remaining, loadedNozzleTips);
+            if (cycle.isEmpty()) {
+                break;
+            }
+            for (PlannedPlacement plannedPlacement : cycle) {
+                loadedNozzleTips.put(plannedPlacement.nozzle, plannedPlacement.nozzleTip);
+            }
+            schedule.add(cycle);
+        }
+        return schedule;
+    }
+
+    protected static Map<Nozzle, NozzleTip> getLoadedNozzleTips(Head head) {
+        Map<Nozzle, NozzleTip> loadedNozzleTips = new HashMap<>();
+        for (Nozzle nozzle : head.getNozzles()) {
+            loadedNozzleTips.put(nozzle, nozzle.getNozzleTip());
+        }
+        return loadedNozzleTips;
+    }
+
+    protected static boolean isCompatible(NozzleTip nozzleTip, JobPlacement jobPlacement) {
+        return jobPlacement.getPlacement()
+                           .getPart()
+                           .getPackage()
+                           .getCompatibleNozzleTips()
+                           .contains(nozzleTip);
+    }
+
+    protected static int countCompatible(NozzleTip nozzleTip, List<JobPlacement> jobPlacements) {
+        int count = 0;
+        for (JobPlacement jobPlacement : jobPlacements) {
+            if (isCompatible(nozzleTip, jobPlacement)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static class Estimate {
+        public final double timeSec;
+        public final int nozzleTipChanges;
+
+        public Estimate(double timeSec, int nozzleTipChanges) {
+            this.timeSec = timeSec;
+            this.nozzleTipChanges = nozzleTipChanges;
+        }
+    }
+
+    /**
+     * Machine time model. Feeder and placement locations are resolved once per planning run
+     * and travel time is the time of the longer of the X and Y moves, since the axes move
+     * independently.
+     */
+    protected class CostModel {
+        private final Map<JobPlacement, Location> pickLocations = new HashMap<>();
+        private final Map<JobPlacement, Location> placementLocations = new HashMap<>();
+        private Location alignmentLocation;
+        private double cycleTravelTimeSec;
+
+        public CostModel(Head head, List<JobPlacement> jobPlacements) {
+            Machine machine = head.getMachine();
+            double pickX = 0, pickY = 0, placeX = 0, placeY = 0;
+            for (JobPlacement jobPlacement : jobPlacements) {
+                Placement placement = jobPlacement.getPlacement();
+                Location placementLocation = Utils2D
+                        .calculateBoardPlacementLocation(jobPlacement.getBoardLocation(),
+                                placement.getLocation())
+                        .convertToUnits(LengthUnit.Millimeters);
+                placementLocations.put(jobPlacement, placementLocation);
+                placeX += placementLocation.getX();
+                placeY += placementLocation.getY();
+
+                try {
+                    Feeder feeder = AbstractPnpJobProcessor.findFeeder(machine, placement.getPart());
+                    Location pickLocation =
+                            feeder.getPickLocation().convertToUnits(LengthUnit.Millimeters);
+                    pickLocations.put(jobPlacement, pickLocation);
+                    pickX += pickLocation.getX();
+                    pickY += pickLocation.getY();
+                }
+                catch (Exception e) {
+                    // Without a pick location the feeder simply doesn't add to the cost.
+                    Logger.debug("No pick location for {}: {}", jobPlacement, e.getMessage());
+                }
+            }
+            for (Camera camera : machine.getCameras()) {
+                if (camera.getLooking() == Camera.Looking.Up) {
+                    alignmentLocation =
+                            camera.getLocation().convertToUnits(LengthUnit.Millimeters);
+                    break;
+                }
+            }
+            if (!pickLocations.isEmpty() && !placementLocations.isEmpty()) {
+                Location pickCenter = new Location(LengthUnit.Millimeters,
+                        pickX / pickLocations.size(), pickY / pickLocations.size(), 0, 0);
+                Location placeCenter = new Location(LengthUnit.Millimeters,
+                        placeX / placementLocations.size(), placeY / placementLocations.size(),
+                        0, 0);
+                cycleTravelTimeSec = 2 * getTravelTimeSec(pickCenter, placeCenter);
+            }
+        }
+
+        /**
+         * Estimated time of the travel between feeders and board that every cycle pays
+         * regardless of how many nozzles are busy.
+         */
+        public double getCycleTravelTimeSec() {
+            return cycleTravelTimeSec;
+        }
+
+        public double getTravelTimeSec(Location a, Location b) {
+            if (a == null || b == null) {
+                return 0;
+            }
+            double dx = Math.abs(a.getX() - b.getX());
+            double dy = Math.abs(a.getY() - b.getY());
+            return Math.max(dx, dy) / feedRateMmPerSec;
+        }
+
+        /**
+         * The travel added by handling jobPlacement right after previous, both at the feeders
+         * and on the board.
+         */
+        public double getChainCost(PlannedPlacement previous, JobPlacement jobPlacement) {
+            if (previous == null) {
+                return 0;
+            }
+            return getTravelTimeSec(pickLocations.get(previous.jobPlacement),
+                    pickLocations.get(jobPlacement))
+                    + getTravelTimeSec(placementLocations.get(previous.jobPlacement),
+                            placementLocations.get(jobPlacement));
+        }
+
+        /**
+         * Estimate the machine time of a schedule: nozzle tip changes, travel along all pick
+         * locations, to the bottom camera, along all placement locations, plus the fixed time
+         * per placement.
+         */
+        public Estimate estimate(Map<Nozzle, NozzleTip> loadedNozzleTips,
+                List<List<PlannedPlacement>> schedule) {
+            double timeSec = 0;
+            int nozzleTipChanges = 0;
+            Location location = null;
+            for (List<PlannedPlacement> cycle : schedule) {
+                for (PlannedPlacement plannedPlacement : cycle) {
+                    if (loadedNozzleTips.get(plannedPlacement.nozzle) != plannedPlacement.nozzleTip) {
+                        loadedNozzleTips.put(plannedPlacement.nozzle, plannedPlacement.nozzleTip);
+                        nozzleTipChanges++;
+                        timeSec += nozzleTipChangeTimeSec;
+                    }
+                }
+                for (PlannedPlacement plannedPlacement : cycle) {
+                    Location pickLocation = pickLocations.get(plannedPlacement.jobPlacement);
+                    timeSec += getTravelTimeSec(location, pickLocation);
+                    location = pickLocation == null ? location : pickLocation;
+                }
+                if (alignmentLocation != null) {
+                    timeSec += getTravelTimeSec(location, alignmentLocation);
+                    location = alignmentLocation;
+                }
+                for (PlannedPlacement plannedPlacement : cycle) {
+                    Location placementLocation =
+                            placementLocations.get(plannedPlacement.jobPlacement);
+                    timeSec += getTravelTimeSec(location, placementLocation);
+                    location = placementLocation;
+                    timeSec += placementTimeSec;
+                }
+            }
+            return new Estimate(timeSec, nozzleTipChanges);
+        }
+    }
+
+    /**
+     * Estimated machine time of the job as planned on the last planning run.
+     */
+    public double getEstimatedJobTimeSec() {
+        return estimatedJobTimeSec;
+    }
+
+    /**
+     * Estimated machine time of the same job if it was planned by SimplePnpJobPlanner.
+     */
+    public double getEstimatedSimpleJobTimeSec() {
+        return estimatedSimpleJobTimeSec;
+    }
+
+    public double getFeedRateMmPerSec() {
+        return feedRateMmPerSec;
+    }
+
+    public void setFeedRateMmPerSec(double feedRateMmPerSec) {
+        this.feedRateMmPerSec = feedRateMmPerSec;
+    }
+
+    public double getNozzleTipChangeTimeSec() {
+        return nozzleTipChangeTimeSec;
+    }
+
+    public void setNozzleTipChangeTimeSec(double nozzleTipChangeTimeSec) {
+        this.nozzleTipChangeTimeSec = nozzleTipChangeTimeSec;
+    }
+
+    public double getPlacementTimeSec() {
+        return placementTimeSec;
+    }
+
+    public void setPlacementTimeSec(double placementTimeSec) {
+        this.placementTimeSec = placementTimeSec;
+    }
+
+    public boolean isPreserveHeightOrder() {
+        return preserveHeightOrder;
+    }
+
+    public void setPreserveHeightOrder(boolean preserveHeightOrder) {
+        this.preserveHeightOrder = preserveHeightOrder;
+    }
+}
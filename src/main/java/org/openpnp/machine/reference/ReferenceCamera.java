@@ -21,9 +21,11 @@ package org.openpnp.machine.reference;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -32,7 +34,6 @@ import javax.swing.Action;
 import javax.swing.JOptionPane;
 
 import org.opencv.calib3d.Calib3d;
-import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
@@ -118,8 +119,17 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
     private CalibrationCallback calibrationCallback;
     private int calibrationCountGoal = 25;
 
-    private Mat undistortionMap1;
-    private Mat undistortionMap2;
+    /**
+     * Maps from each pixel of the transformed image to the cropped image, see
+     * updateTransformMaps().
+     */
+    private Mat transformMapX;
+    private Mat transformMapY;
+    private Object[] transformMapKey;
+    private Mat inputMat;
+    private Mat croppedMat;
+    private Mat transformedMat;
+    private final Object transformLock = new Object();
 
     private LensCalibration lensCalibration;
     
@@ -152,6 +162,26 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
         return image;
     }
     
+    /**
+     * Waits for the machine to complete any pending motion before settling, since the driver
+     * may return from a move before the move is finished. If the controller reports an error for
+     * one of the streamed commands, this is where it shows up. It is thrown as a RuntimeException,
+     * since the machine may not be where the image is expected to be taken.
+     */
+    @Override
+    public BufferedImage settleAndCapture(Rectangle roi) {
+        try {
+            getDriver().waitForCompletion(this);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        return super.settleAndCapture(roi);
+    }
+
     /**
      * Captures an image using captureRaw(), applies local transformations and returns the image.
      */
@@ -351,36 +381,33 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
 
     // TODO Optimization: We could skip the convert to and from Mat if no transforms are needed.
     protected BufferedImage transformImage(BufferedImage image) {
-        Mat mat = OpenCvUtils.toMat(image);
-
-        mat = crop(mat);
-
-        mat = calibrate(mat);
+        // The Mats used along the way are kept and reused for the next frame.
+        synchronized (transformLock) {
+            if (inputMat == null) {
+                inputMat = new Mat();
+                croppedMat = new Mat();
+                transformedMat = new Mat();
+            }
+            Mat mat = OpenCvUtils.toMat(image, inputMat);
 
-        mat = undistort(mat);
+            mat = crop(mat);
 
-        // apply affine transformations
-        mat = scale(mat, scaleWidth, scaleHeight);
-        
-        mat = rotate(mat, rotation);
+            Mat calibratedMat = calibrate(mat);
 
-        mat = offset(mat, offsetX, offsetY);
-        
-        mat = deinterlace(mat);
-
-        if (flipX || flipY) {
-            int flipCode;
-            if (flipX && flipY) {
-                flipCode = -1;
+            // Undistortion, scaling, rotation, offset, deinterlacing and flipping are applied
+            // together by a single remap.
+            if (updateTransformMaps(calibratedMat.size())) {
+                Imgproc.remap(calibratedMat, transformedMat, transformMapX, transformMapY,
+                        Imgproc.INTER_LINEAR);
+                image = OpenCvUtils.toBufferedImage(transformedMat);
             }
             else {
-                flipCode = flipX ? 0 : 1;
+                image = OpenCvUtils.toBufferedImage(calibratedMat);
+            }
+            if (calibratedMat != mat) {
+                calibratedMat.release();
             }
-            Core.flip(mat, mat, flipCode);
         }
-
-        image = OpenCvUtils.toBufferedImage(mat);
-        mat.release();
         
         if (image != null) { 
             // save the new image dimensions
@@ -400,106 +427,162 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
                     cw,
                     ch);
             Mat tmp = new Mat(mat, roi);
-            tmp.copyTo(mat);
+            tmp.copyTo(croppedMat);
             tmp.release();
+            return croppedMat;
         }
         return mat;
     }
-    
-    private Mat deinterlace(Mat mat) {
-        if (!deinterlace) {
-            return mat;
-        }
-        Mat dst = new Mat(mat.size(), mat.type());
-        for (int i = 0; i < mat.rows() / 2; i++) {
-            mat.row(i).copyTo(dst.row(i * 2));
-            mat.row(i + mat.rows() / 2).copyTo(dst.row(i * 2 + 1));
-        }
-        mat.release();
-        return dst;
-    }
 
-    private static Mat rotate(Mat mat, double rotation) {
-        if (rotation == 0D) {
-            return mat;
+    /**
+     * Make sure transformMapX and transformMapY are up to date for the given (cropped) image size
+     * and the current settings. The maps are only rebuilt when the size or one of the settings
+     * changes.
+     * 
+     * @param size
+     * @return false if no transform is needed at all.
+     */
+    private boolean updateTransformMaps(Size size) {
+        boolean undistort = calibration.isEnabled();
+        boolean scale = (scaleWidth != 0 && scaleHeight != 0);
+        if (!undistort && !scale && rotation == 0D && offsetX == 0 && offsetY == 0
+                && !deinterlace && !flipX && !flipY) {
+            return false;
+        }
+        Object[] key = new Object[] {size.width, size.height, undistort, scaleWidth, scaleHeight,
+                rotation, offsetX, offsetY, deinterlace, flipX, flipY};
+        if (transformMapX != null && Arrays.equals(key, transformMapKey)) {
+            return true;
+        }
+        releaseTransformMaps();
+
+        int cropWidth = (int) size.width;
+        int cropHeight = (int) size.height;
+
+        // Undistortion maps the undistorted image to the cropped image.
+        float[] undistortX = null;
+        float[] undistortY = null;
+        if (undistort) {
+            Mat map1 = new Mat();
+            Mat map2 = new Mat();
+            Mat rectification = Mat.eye(3, 3, CvType.CV_32F);
+            Calib3d.initUndistortRectifyMap(calibration.getCameraMatrixMat(),
+                    calibration.getDistortionCoefficientsMat(), rectification,
+                    calibration.getCameraMatrixMat(), size, CvType.CV_32FC1, map1, map2);
+            rectification.release();
+            undistortX = new float[cropWidth * cropHeight];
+            undistortY = new float[cropWidth * cropHeight];
+            map1.get(0, 0, undistortX);
+            map2.get(0, 0, undistortY);
+            map1.release();
+            map2.release();
         }
 
-        // See:
-        // http://stackoverflow.com/questions/22041699/rotate-an-image-without-cropping-in-opencv-in-c
-        Point center = new Point(mat.width() / 2D, mat.height() / 2D);
-        Mat mapMatrix = Imgproc.getRotationMatrix2D(center, rotation, 1.0);
-
-        // determine bounding rectangle
-        Rect bbox = new RotatedRect(center, mat.size(), rotation).boundingRect();
-        // adjust transformation matrix
-        double[] cx = mapMatrix.get(0, 2);
-        double[] cy = mapMatrix.get(1, 2);
-        cx[0] += bbox.width / 2D - center.x;
-        cy[0] += bbox.height / 2D - center.y;
-        mapMatrix.put(0, 2, cx);
-        mapMatrix.put(1, 2, cy);
-
-        Mat dst = new Mat(bbox.width, bbox.height, mat.type());
-        Imgproc.warpAffine(mat, dst, mapMatrix, bbox.size(), Imgproc.INTER_LINEAR);
-        mat.release();
-
-        mapMatrix.release();
+        // Scaling maps the scaled image to the undistorted image.
+        int scaledWidth = scale ? scaleWidth : cropWidth;
+        int scaledHeight = scale ? scaleHeight : cropHeight;
 
-        return dst;
+        // Rotation maps the rotated image, sized to the bounding box of the rotated scaled image,
+        // to the scaled image. See:
+        // http://stackoverflow.com/questions/22041699/rotate-an-image-without-cropping-in-opencv-in-c
+        int width = scaledWidth;
+        int height = scaledHeight;
+        double[] inverse = null;
+        if (rotation != 0D) {
+            Point center = new Point(scaledWidth / 2D, scaledHeight / 2D);
+            Mat mapMatrix = Imgproc.getRotationMatrix2D(center, rotation, 1.0);
+            Rect bbox = new RotatedRect(center, new Size(scaledWidth, scaledHeight), rotation)
+                    .boundingRect();
+            double[] cx = mapMatrix.get(0, 2);
+            double[] cy = mapMatrix.get(1, 2);
+            cx[0] += bbox.width / 2D - center.x;
+            cy[0] += bbox.height / 2D - center.y;
+            mapMatrix.put(0, 2, cx);
+            mapMatrix.put(1, 2, cy);
+            Mat inverseMatrix = new Mat();
+            Imgproc.invertAffineTransform(mapMatrix, inverseMatrix);
+            inverse = new double[6];
+            inverseMatrix.get(0, 0, inverse);
+            inverseMatrix.release();
+            mapMatrix.release();
+            width = bbox.width;
+            height = bbox.height;
+        }
+
+        // Offset, deinterlacing and flipping keep the size of the rotated image.
+        float[] mapX = new float[width * height];
+        float[] mapY = new float[width * height];
+        int half = height / 2;
+        for (int row = 0; row < height; row++) {
+            // Walk back from the final image to the cropped image, one step at a time.
+            int v = flipX ? height - 1 - row : row;
+            if (deinterlace && v < half * 2) {
+                v = (v % 2 == 0) ? v / 2 : v / 2 + half;
+            }
+            for (int col = 0; col < width; col++) {
+                double x = (flipY ? width - 1 - col : col) - offsetX;
+                double y = v - offsetY;
+                if (inverse != null) {
+                    double rx = inverse[0] * x + inverse[1] * y + inverse[2];
+                    double ry = inverse[3] * x + inverse[4] * y + inverse[5];
+                    x = rx;
+                    y = ry;
+                }
+                if (scale) {
+                    x = (x + 0.5) * cropWidth / scaledWidth - 0.5;
+                    y = (y + 0.5) * cropHeight / scaledHeight - 0.5;
+                }
+                int i = row * width + col;
+                if (undistort) {
+                    mapX[i] = interpolate(undistortX, cropWidth, cropHeight, x, y);
+                    mapY[i] = interpolate(undistortY, cropWidth, cropHeight, x, y);
+                }
+                else {
+                    mapX[i] = (float) x;
+                    mapY[i] = (float) y;
+                }
+            }
+        }
+        transformMapX = new Mat(height, width, CvType.CV_32FC1);
+        transformMapY = new Mat(height, width, CvType.CV_32FC1);
+        transformMapX.put(0, 0, mapX);
+        transformMapY.put(0, 0, mapY);
+        transformMapKey = key;
+        return true;
     }
 
-    private static Mat offset(Mat mat, int offsetX, int offsetY) {
-        if (offsetX == 0D && offsetY == 0D) {
-            return mat;
+    /**
+     * Bilinear lookup in a width x height map. Outside of the map -1 is returned, which remap()
+     * renders as black, just like the individual transforms did.
+     */
+    private static float interpolate(float[] map, int width, int height, double x, double y) {
+        if (x < 0 || y < 0 || x > width - 1 || y > height - 1) {
+            return -1;
         }
-
-        Mat mapMatrix = new Mat(2, 3, CvType.CV_32F) {
-            {
-                put(0, 0, 1, 0, offsetX);
-                put(1, 0, 0, 1, offsetY);
-            }
-        };
-
-        Mat dst = mat.clone();
-        Imgproc.warpAffine(mat, dst, mapMatrix, mat.size(), Imgproc.INTER_LINEAR);
-        mat.release();
-
-        mapMatrix.release();
-
-        return dst;
-    }
-    
-    private static Mat scale(Mat mat, int scaleWidth, int scaleHeight) {
-        if (scaleWidth == 0 || scaleHeight == 0) {
-            return mat;
+        int x0 = Math.min((int) x, width - 2);
+        int y0 = Math.min((int) y, height - 2);
+        if (x0 < 0 || y0 < 0) {
+            // Degenerate one pixel wide or high map.
+            return map[(int) y * width + (int) x];
         }
-        Mat dst = new Mat();
-        Imgproc.resize(mat, dst, new Size(scaleWidth, scaleHeight));
-        mat.release();
-        return dst;
+        double fx = x - x0;
+        double fy = y - y0;
+        int i = y0 * width + x0;
+        double top = map[i] + (map[i + 1] - map[i]) * fx;
+        double bottom = map[i + width] + (map[i + width + 1] - map[i + width]) * fx;
+        return (float) (top + (bottom - top) * fy);
     }
 
-    private Mat undistort(Mat mat) {
-        if (!calibration.isEnabled()) {
-            return mat;
+    private void releaseTransformMaps() {
+        if (transformMapX != null) {
+            transformMapX.release();
+            transformMapX = null;
         }
-
-        if (undistortionMap1 == null || undistortionMap2 == null) {
-            undistortionMap1 = new Mat();
-            undistortionMap2 = new Mat();
-            Mat rectification = Mat.eye(3, 3, CvType.CV_32F);
-            Calib3d.initUndistortRectifyMap(calibration.getCameraMatrixMat(),
-                    calibration.getDistortionCoefficientsMat(), rectification,
-                    calibration.getCameraMatrixMat(), mat.size(), CvType.CV_32FC1, undistortionMap1,
-                    undistortionMap2);
-            rectification.release();
+        if (transformMapY != null) {
+            transformMapY.release();
+            transformMapY = null;
         }
-
-        Mat dst = mat.clone();
-        Imgproc.remap(mat, dst, undistortionMap1, undistortionMap2, Imgproc.INTER_LINEAR);
-        mat.release();
-
-        return dst;
+        transformMapKey = null;
     }
 
     private Mat calibrate(Mat mat) {
@@ -546,13 +629,8 @@ public abstract class ReferenceCamera extends AbstractCamera implements Referenc
 
     protected void clearCalibrationCache() {
         // Clear the calibration cache
-        if (undistortionMap1 != null) {
-            undistortionMap1.release();
-            undistortionMap1 = null;
-        }
-        if (undistortionMap2 != null) {
-            undistortionMap2.release();
-            undistortionMap2 = null;
+        synchronized (transformLock) {
+            releaseTransformMaps();
         }
     }
 
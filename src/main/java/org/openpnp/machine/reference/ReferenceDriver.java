@@ -25,6 +25,7 @@ import org.openpnp.model.Location;
 import org.openpnp.spi.Movable.MoveToOption;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.WizardConfigurable;
+import org.openpnp.util.SampleRing;
 
 /**
  * Defines the interface for a simple driver that the ReferenceMachine can drive. All methods result
@@ -122,6 +123,30 @@ public interface ReferenceDriver extends WizardConfigurable, PropertySheetHolder
         return null;
     }
 
+    /**
+     * Get the values the controller reports for the given Actuator on its own, without being
+     * read, or null if it doesn't. Callers wait on the returned samples instead of reading the
+     * Actuator in a loop.
+     * 
+     * @param actuator
+     * @return
+     */
+    public default SampleRing getActuatorSamples(ReferenceActuator actuator) {
+        return null;
+    }
+
+    /**
+     * Wait until the machine has executed all the commands sent so far. Drivers that return
+     * before the controller has finished a command, e.g. by streaming commands, must
+     * implement this. It is called before anything that depends on the physical state of the
+     * machine, such as capturing an image or timing a dwell.
+     * 
+     * @param hm The HeadMountable that is about to be used, may be null.
+     * @throws Exception
+     */
+    public default void waitForCompletion(ReferenceHeadMountable hm) throws Exception {
+    }
+
     /**
      * Attempts to enable the Driver, turning on all outputs.
      * 
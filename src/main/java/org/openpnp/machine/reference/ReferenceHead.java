@@ -30,6 +30,7 @@ import org.openpnp.machine.reference.psh.CamerasPropertySheetHolder;
 import org.openpnp.machine.reference.psh.NozzlesPropertySheetHolder;
 import org.openpnp.machine.reference.wizards.ReferenceHeadConfigurationWizard;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.HeadMountable;
 import org.openpnp.spi.PropertySheetHolder;
@@ -107,10 +108,24 @@ public class ReferenceHead extends AbstractHead {
             throw new Exception(String.format("Can't move %s to %s, outside of soft limits on head %s.",
                     hm.getName(), location, getName()));
         }
+        double distance = getMotionDistance(hm.getLocation(), location);
         getDriver().moveTo(hm, location, speed);
+        getMachine().recordMotion(distance, speed);
         getMachine().fireMachineHeadActivity(this);
     }
 
+    /**
+     * The X/Y/Z distance of a move in millimeters, axes the move leaves alone (NaN) don't count.
+     */
+    private static double getMotionDistance(Location from, Location to) {
+        from = from.convertToUnits(LengthUnit.Millimeters);
+        to = to.convertToUnits(LengthUnit.Millimeters);
+        double dx = Double.isNaN(to.getX()) ? 0 : to.getX() - from.getX();
+        double dy = Double.isNaN(to.getY()) ? 0 : to.getY() - from.getY();
+        double dz = Double.isNaN(to.getZ()) ? 0 : to.getZ() - from.getZ();
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
     @Override
     public String toString() {
         return getName();
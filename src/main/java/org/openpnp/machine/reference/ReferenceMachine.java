@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import javax.swing.Action;
 
@@ -70,6 +71,7 @@ import org.openpnp.spi.Camera;
 import org.openpnp.spi.Feeder;
 import org.openpnp.spi.FiducialLocator;
 import org.openpnp.spi.Head;
+import org.openpnp.spi.HeadMountable;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.PartAlignment;
 import org.openpnp.spi.PnpJobProcessor;
@@ -109,6 +111,27 @@ public class ReferenceMachine extends AbstractMachine {
         return driver;
     }
 
+    @Override
+    protected Set<Object> getTaskResources(Object... resources) {
+        Set<Object> taskResources = super.getTaskResources(resources);
+        // Motion and actuators go through the one driver, which can only serve one task at a
+        // time. Capturing from a camera does not, so a camera is a resource of its own. A task
+        // that moves a head mounted camera must pass the head as well. Cameras still wait for
+        // the driver to complete the motion before settling, the driver synchronizes that with
+        // the commands sent by other tasks.
+        for (Object resource : resources) {
+            if (resource instanceof Camera) {
+                continue;
+            }
+            if (resource instanceof Head || resource instanceof HeadMountable
+                    || resource instanceof Actuator) {
+                taskResources.add(driver);
+                break;
+            }
+        }
+        return taskResources;
+    }
+
     public void setDriver(ReferenceDriver driver) throws Exception {
         if (driver != this.driver) {
             setEnabled(false);
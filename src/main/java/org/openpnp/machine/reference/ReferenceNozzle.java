@@ -33,6 +33,7 @@ import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.Movable.MoveToOption;
 import org.openpnp.spi.base.AbstractNozzle;
 import org.openpnp.util.MovableUtils;
+import org.openpnp.util.SampleRing;
 import org.openpnp.util.SimpleGraph;
 import org.openpnp.util.Utils2D;
 import org.pmw.tinylog.Logger;
@@ -834,10 +835,94 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
         actuatePump(false);
     }
 
+    /**
+     * Get the vacuum levels the driver receives from the controller on its own, or null if the
+     * vacuum actuator is only read on request.
+     */
+    protected SampleRing getVacuumSamples() throws Exception {
+        Actuator actuator = getVacuumActuator();
+        if (actuator instanceof ReferenceActuator) {
+            return getDriver().getActuatorSamples((ReferenceActuator) actuator);
+        }
+        return null;
+    }
+
+    /**
+     * How long to wait for a vacuum report after the commands sent so far have been executed. A
+     * controller that only reports changes may not send one, the latest report is then still
+     * current.
+     */
+    protected static final long VACUUM_REPORT_TIMEOUT_MS = 500;
+
     protected double readVacuumLevel() throws Exception {
+        SampleRing samples = getVacuumSamples();
+        if (samples != null && samples.getCount() > 0) {
+            // The controller reports the level on its own. Reports received so far may have been
+            // measured before the last commands were executed, so wait for a newer one.
+            getDriver().waitForCompletion(this);
+            long count = samples.getCount();
+            samples.await(count, VACUUM_REPORT_TIMEOUT_MS);
+            return samples.get(samples.getCount() - 1);
+        }
         return Double.parseDouble(getVacuumActuator().read());
     }
 
+    /**
+     * Record the vacuum level in the graph until the timeout or, with checkRange, until the level
+     * is between low and high. If the controller reports the vacuum level on its own, every report
+     * is recorded as it arrives, otherwise the vacuum actuator is read in a loop.
+     * 
+     * @return The last vacuum level.
+     */
+    protected double recordVacuumLevels(SimpleGraph vacuumGraph, long timeout, boolean checkRange,
+            double low, double high) throws Exception {
+        SimpleGraph.DataRow vacuumData = vacuumGraph.getRow(ReferenceNozzleTip.PRESSURE, ReferenceNozzleTip.VACUUM);
+        SampleRing samples = getVacuumSamples();
+        double vacuumLevel;
+        if (samples == null || samples.getCount() == 0) {
+            do {
+                vacuumLevel = readVacuumLevel();
+                vacuumData.recordDataPoint(vacuumGraph.getT(), vacuumLevel);
+                if (checkRange && vacuumLevel >= low && vacuumLevel <= high) {
+                    // within range, we're done
+                    break;
+                }
+            }
+            while (System.currentTimeMillis() < timeout);
+            return vacuumLevel;
+        }
+        // Reports received so far may have been measured before the last commands were executed,
+        // only the ones arriving after that are recorded and checked. If none arrives, the latest
+        // one is still current, as with controllers that only report changes.
+        getDriver().waitForCompletion(this);
+        final long first = samples.getCount();
+        final long firstTimeout = System.currentTimeMillis() + VACUUM_REPORT_TIMEOUT_MS;
+        long next = first;
+        vacuumLevel = samples.get(first - 1);
+        while (true) {
+            long count = samples.getCount();
+            next = Math.max(next, count - samples.getCapacity() + 1);
+            for (; next < count; next++) {
+                double level = samples.get(next);
+                if (Double.isNaN(level)) {
+                    continue;
+                }
+                vacuumLevel = level;
+                vacuumData.recordDataPoint(vacuumGraph.getT(), vacuumLevel);
+                if (checkRange && vacuumLevel >= low && vacuumLevel <= high) {
+                    // within range, we're done
+                    return vacuumLevel;
+                }
+            }
+            // Wait for at least one new report, even if the timeout is shorter.
+            long remaining = (count > first ? timeout : Math.max(timeout, firstTimeout))
+                    - System.currentTimeMillis();
+            if (remaining <= 0 || !samples.await(count, remaining)) {
+                return vacuumLevel;
+            }
+        }
+    }
+
     protected boolean isPartOnGraphEnabled() {
         ReferenceNozzleTip nt = getNozzleTip();
         return nt.getMethodPartOn() != VacuumMeasurementMethod.None
@@ -879,6 +964,8 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
     }
 
     protected void establishPickVacuumLevel(int milliseconds) throws Exception {
+        // the dwell starts when the valve has actually been switched
+        getDriver().waitForCompletion(this);
         ReferenceNozzleTip nt = getNozzleTip();
         SimpleGraph vacuumGraph = nt.getVacuumPartOnGraph();
         if (vacuumGraph != null) {
@@ -886,18 +973,8 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
             vacuumGraph.getRow(ReferenceNozzleTip.BOOLEAN, ReferenceNozzleTip.VALVE_ON)
             .recordDataPoint(vacuumGraph.getT(), 1);
             long timeout = System.currentTimeMillis() + milliseconds;
-            SimpleGraph.DataRow vacuumData = vacuumGraph.getRow(ReferenceNozzleTip.PRESSURE, ReferenceNozzleTip.VACUUM);
-            double vacuumLevel;
-            do {
-                vacuumLevel = readVacuumLevel();
-                vacuumData.recordDataPoint(vacuumGraph.getT(), vacuumLevel);
-                if (nt.isEstablishPartOnLevel() 
-                        && vacuumLevel >= nt.getVacuumLevelPartOnLow() && vacuumLevel <= nt.getVacuumLevelPartOnHigh()) {
-                    // within range, we're done
-                    break;
-                }
-            }
-            while (System.currentTimeMillis() < timeout);
+            double vacuumLevel = recordVacuumLevels(vacuumGraph, timeout, nt.isEstablishPartOnLevel(),
+                    nt.getVacuumLevelPartOnLow(), nt.getVacuumLevelPartOnHigh());
             // valve is still on
             vacuumGraph.getRow(ReferenceNozzleTip.BOOLEAN, ReferenceNozzleTip.VALVE_ON)
                 .recordDataPoint(vacuumGraph.getT(), 1);
@@ -913,6 +990,8 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
     }
 
     protected void establishPlaceVacuumLevel(int milliseconds) throws Exception {
+        // the dwell starts when the valve has actually been switched
+        getDriver().waitForCompletion(this);
         ReferenceNozzleTip nt = getNozzleTip();
         SimpleGraph vacuumGraph = nt.getVacuumPartOffGraph();
         if (vacuumGraph != null) {
@@ -920,18 +999,8 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
             vacuumGraph.getRow(ReferenceNozzleTip.BOOLEAN, ReferenceNozzleTip.VALVE_ON)
             .recordDataPoint(vacuumGraph.getT(), 0);
             long timeout = System.currentTimeMillis() + milliseconds;
-            SimpleGraph.DataRow vacuumData = vacuumGraph.getRow(ReferenceNozzleTip.PRESSURE, ReferenceNozzleTip.VACUUM);
-            double vacuumLevel;
-            do {
-                vacuumLevel = readVacuumLevel();
-                vacuumData.recordDataPoint(vacuumGraph.getT(), vacuumLevel);
-                if (nt.isEstablishPartOffLevel() 
-                        && vacuumLevel >= nt.getVacuumLevelPartOffLow() && vacuumLevel <= nt.getVacuumLevelPartOffHigh()) {
-                    // within range, we're done
-                    break;
-                }
-            }
-            while (System.currentTimeMillis() < timeout);
+            double vacuumLevel = recordVacuumLevels(vacuumGraph, timeout, nt.isEstablishPartOffLevel(),
+                    nt.getVacuumLevelPartOffLow(), nt.getVacuumLevelPartOffHigh());
             // valve is still off
             vacuumGraph.getRow(ReferenceNozzleTip.BOOLEAN, ReferenceNozzleTip.VALVE_ON)
                 .recordDataPoint(vacuumGraph.getT(), 0);
@@ -947,6 +1016,7 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
     }
 
     protected double probePartOffVacuumLevel(int probingMilliseconds, int dwellMilliseconds) throws Exception {
+        getDriver().waitForCompletion(this);
         ReferenceNozzleTip nt = getNozzleTip();
         SimpleGraph vacuumGraph = null;
         double returnedVacuumLevel = Double.NaN; // this should always be overwritten in one or the other if/else combo 
@@ -984,13 +1054,7 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
                 .recordDataPoint(vacuumGraph.getT(), 1);
                 // record the slope of the vacuum level
                 long timeout = System.currentTimeMillis() + probingMilliseconds;
-                SimpleGraph.DataRow vacuumData = vacuumGraph.getRow(ReferenceNozzleTip.PRESSURE, ReferenceNozzleTip.VACUUM);
-                double vacuumLevel;
-                do {
-                    vacuumLevel = readVacuumLevel();
-                    vacuumData.recordDataPoint(vacuumGraph.getT(), vacuumLevel);
-                }
-                while (System.currentTimeMillis() < timeout);
+                double vacuumLevel = recordVacuumLevels(vacuumGraph, timeout, false, 0, 0);
                 // record valve still on 
                 vacuumGraph.getRow(ReferenceNozzleTip.BOOLEAN, ReferenceNozzleTip.VALVE_ON)
                 .recordDataPoint(vacuumGraph.getT(), 1);
@@ -1017,13 +1081,7 @@ public class ReferenceNozzle extends AbstractNozzle implements ReferenceHeadMoun
             .recordDataPoint(vacuumGraph.getT(), 0);
             // record the slope of the vacuum level
             long timeout = System.currentTimeMillis() + dwellMilliseconds;
-            SimpleGraph.DataRow vacuumData = vacuumGraph.getRow(ReferenceNozzleTip.PRESSURE, ReferenceNozzleTip.VACUUM);
-            double vacuumLevel;
-            do {
-                vacuumLevel = readVacuumLevel();
-                vacuumData.recordDataPoint(vacuumGraph.getT(), vacuumLevel);
-            }
-            while (System.currentTimeMillis() < timeout);
+            double vacuumLevel = recordVacuumLevels(vacuumGraph, timeout, false, 0, 0);
             // record valve still off
             vacuumGraph.getRow(ReferenceNozzleTip.BOOLEAN, ReferenceNozzleTip.VALVE_ON)
             .recordDataPoint(vacuumGraph.getT(), 0);
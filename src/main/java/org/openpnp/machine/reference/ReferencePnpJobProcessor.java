@@ -26,7 +26,10 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import org.openpnp.gui.support.Wizard;
@@ -78,6 +81,9 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     @Attribute(required = false)
     protected int maxVisionRetries = 3;
 
+    @Attribute(required = false)
+    protected boolean overlapAlignment = false;
+
     @Element(required = false)
     public PnpJobPlanner planner = new SimplePnpJobPlanner();
 
@@ -90,6 +96,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     protected List<JobPlacement> jobPlacements = new ArrayList<>();
 
     private Step currentStep = null;
+
+    private ExecutorService alignmentExecutor;
     
     long startTime;
     int totalPartsPlaced;
@@ -731,41 +739,45 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             
             if (partAlignment == null) {
                 plannedPlacement.alignmentOffsets = null;
+                plannedPlacement.alignmentFuture = null;
                 Logger.debug("Not aligning {} as no compatible enabled aligners defined", part);
                 return this;
             }
 
-            align(plannedPlacement, partAlignment);
+            if (isOverlapAlignment()) {
+                startAlignment(plannedPlacement, partAlignment);
+            }
+            else {
+                align(plannedPlacement, partAlignment, getMaxVisionRetries(), null);
+            }
             
             checkPartOn(nozzle);
 
             return this;
         }
         
-        private void align(PlannedPlacement plannedPlacement, PartAlignment partAlignment) throws JobProcessorException {
+        /**
+         * Capture the part and leave the processing of the images running in the background,
+         * so that the head can already move on. The result is collected by the Place step.
+         */
+        private void startAlignment(PlannedPlacement plannedPlacement, PartAlignment partAlignment) throws JobProcessorException {
             final Nozzle nozzle = plannedPlacement.nozzle;
             final JobPlacement jobPlacement = plannedPlacement.jobPlacement;
             final Placement placement = jobPlacement.getPlacement();
             final BoardLocation boardLocation = jobPlacement.getBoardLocation();
             final Part part = placement.getPart();
 
-            Exception lastException = null;
-            for (int i = 0; i < ReferencePnpJobProcessor.this.getMaxVisionRetries(); i++) {
-                fireTextStatus("Aligning %s for %s.", part.getId(), placement.getId());
-                try {
-                    plannedPlacement.alignmentOffsets = VisionUtils.findPartAlignmentOffsets(
-                            partAlignment,
-                            part,
-                            boardLocation,
-                            placement.getLocation(), nozzle);
-                    Logger.debug("Align {} with {}, offsets {}", part, nozzle, plannedPlacement.alignmentOffsets);
-                    return;
-                }
-                catch (Exception e) {
-                    lastException = e;
-                }
+            fireTextStatus("Aligning %s for %s.", part.getId(), placement.getId());
+            try {
+                plannedPlacement.alignmentFuture = VisionUtils.startPartAlignment(
+                        partAlignment,
+                        part,
+                        boardLocation,
+                        placement.getLocation(), nozzle, getAlignmentExecutor());
+            }
+            catch (Exception e) {
+                align(plannedPlacement, partAlignment, getMaxVisionRetries() - 1, e);
             }
-            throw new JobProcessorException(part, lastException);
         }
         
         private void checkPartOn(Nozzle nozzle) throws JobProcessorException {
@@ -803,6 +815,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             final Part part = placement.getPart();
             final BoardLocation boardLocation = plannedPlacement.jobPlacement.getBoardLocation();
 
+            finishAlignment(plannedPlacement);
+
             Location placementLocation = getPlacementLocation(plannedPlacement);
             
             scriptBeforeAssembly(plannedPlacement, placementLocation);
@@ -826,6 +840,30 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
             return this;
         }
         
+        /**
+         * Wait for an alignment started by the Align step. If it failed the part is aligned again
+         * the usual way, with the remaining retries.
+         */
+        private void finishAlignment(PlannedPlacement plannedPlacement) throws JobProcessorException {
+            if (plannedPlacement.alignmentFuture == null) {
+                return;
+            }
+            final Nozzle nozzle = plannedPlacement.nozzle;
+            final Part part = plannedPlacement.jobPlacement.getPlacement().getPart();
+            try {
+                plannedPlacement.alignmentOffsets = VisionUtils.getPartAlignmentOffsets(
+                        plannedPlacement.alignmentFuture, part, nozzle);
+                Logger.debug("Align {} with {}, offsets {}", part, nozzle, plannedPlacement.alignmentOffsets);
+            }
+            catch (Exception e) {
+                Logger.debug("Align {} with {} failed, retrying: {}", part, nozzle, e.getMessage());
+                align(plannedPlacement, findPartAligner(machine, part), getMaxVisionRetries() - 1, e);
+            }
+            // Only forget the Future once there are offsets, so that the step runs the alignment
+            // again if it is retried after an error.
+            plannedPlacement.alignmentFuture = null;
+        }
+
         private void place(Nozzle nozzle, Part part, Placement placement, Location placementLocation) throws JobProcessorException {
             fireTextStatus("Placing %s for %s.", part.getId(), placement.getId());
             
@@ -980,6 +1018,46 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         }
     }
     
+    /**
+     * Align the part, making up to the given number of attempts. lastException is reported if
+     * no attempts are left.
+     */
+    private void align(PlannedPlacement plannedPlacement, PartAlignment partAlignment, int attempts, Exception lastException) throws JobProcessorException {
+        final Nozzle nozzle = plannedPlacement.nozzle;
+        final JobPlacement jobPlacement = plannedPlacement.jobPlacement;
+        final Placement placement = jobPlacement.getPlacement();
+        final BoardLocation boardLocation = jobPlacement.getBoardLocation();
+        final Part part = placement.getPart();
+
+        for (int i = 0; i < attempts; i++) {
+            fireTextStatus("Aligning %s for %s.", part.getId(), placement.getId());
+            try {
+                plannedPlacement.alignmentOffsets = VisionUtils.findPartAlignmentOffsets(
+                        partAlignment,
+                        part,
+                        boardLocation,
+                        placement.getLocation(), nozzle);
+                Logger.debug("Align {} with {}, offsets {}", part, nozzle, plannedPlacement.alignmentOffsets);
+                return;
+            }
+            catch (Exception e) {
+                lastException = e;
+            }
+        }
+        throw new JobProcessorException(part, lastException);
+    }
+
+    private synchronized ExecutorService getAlignmentExecutor() {
+        if (alignmentExecutor == null) {
+            alignmentExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "PartAlignment");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return alignmentExecutor;
+    }
+
     protected class FinishCycle implements Step {
         public Step step() throws JobProcessorException {
             discardAll(head);
@@ -1111,6 +1189,18 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
         this.maxVisionRetries = maxVisionRetries;
     }
 
+    public boolean isOverlapAlignment() {
+        return overlapAlignment;
+    }
+
+    /**
+     * If true the Align step only captures the parts and leaves processing the images to worker
+     * threads, so the head can move on while vision runs. The results are joined before placing.
+     */
+    public void setOverlapAlignment(boolean overlapAlignment) {
+        this.overlapAlignment = overlapAlignment;
+    }
+
     protected abstract class PlannedPlacementStep implements Step {
         protected final List<PlannedPlacement> plannedPlacements;
         private Set<PlannedPlacement> completed = new HashSet<>();
@@ -1280,6 +1370,25 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
     public static class SimplePnpJobPlanner implements PnpJobPlanner {
         @Override
         public List<PlannedPlacement> plan(Head head, List<JobPlacement> jobPlacements) {
+            Map<Nozzle, NozzleTip> loadedNozzleTips = new HashMap<>();
+            for (Nozzle nozzle : head.getNozzles()) {
+                loadedNozzleTips.put(nozzle, nozzle.getNozzleTip());
+            }
+            return plan(head, jobPlacements, loadedNozzleTips);
+        }
+
+        /**
+         * Plan a cycle as if the nozzles had the given nozzle tips loaded. This allows the
+         * planner to be simulated over a whole job without touching the machine, see
+         * OptimizingPnpJobPlanner.
+         * 
+         * @param head
+         * @param jobPlacements
+         * @param loadedNozzleTips
+         * @return
+         */
+        public List<PlannedPlacement> plan(Head head, List<JobPlacement> jobPlacements,
+                Map<Nozzle, NozzleTip> loadedNozzleTips) {
             /**
              * Create an empty List<PlannedPlacement> which will hold the results.
              */
@@ -1304,7 +1413,8 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
              * respective lists so that we don't plan the same one again.
              */
             for (Nozzle nozzle : new ArrayList<>(nozzles)) {
-                PlannedPlacement plannedPlacement = planWithoutNozzleTipChange(nozzle, jobPlacements);
+                PlannedPlacement plannedPlacement = planWithoutNozzleTipChange(nozzle,
+                        loadedNozzleTips.get(nozzle), jobPlacements);
                 if (plannedPlacement != null) {
                     plannedPlacements.add(plannedPlacement);
                     jobPlacements.remove(plannedPlacement.jobPlacement);
@@ -1350,14 +1460,26 @@ public class ReferencePnpJobProcessor extends AbstractPnpJobProcessor {
          */
         protected PlannedPlacement planWithoutNozzleTipChange(Nozzle nozzle, 
                 List<JobPlacement> jobPlacements) {
-            if (nozzle.getNozzleTip() == null) {
+            return planWithoutNozzleTipChange(nozzle, nozzle.getNozzleTip(), jobPlacements);
+        }
+
+        /**
+         * Same as planWithoutNozzleTipChange(Nozzle, List) but using the given nozzle tip as the
+         * one loaded on the nozzle.
+         * @param nozzle
+         * @param nozzleTip
+         * @param jobPlacements
+         * @return
+         */
+        protected PlannedPlacement planWithoutNozzleTipChange(Nozzle nozzle, NozzleTip nozzleTip,
+                List<JobPlacement> jobPlacements) {
+            if (nozzleTip == null) {
                 return null;
             }
             for (JobPlacement jobPlacement : jobPlacements) {
                 Placement placement = jobPlacement.getPlacement();
                 Part part = placement.getPart();
                 org.openpnp.model.Package pkg = part.getPackage();
-                NozzleTip nozzleTip = nozzle.getNozzleTip();
                 if (pkg.getCompatibleNozzleTips().contains(nozzleTip)) {
                     return new PlannedPlacement(nozzle, nozzleTip, jobPlacement);
                 }
@@ -165,7 +165,8 @@ public class ImageCamera extends ReferenceCamera implements Runnable {
 
     public void run() {
         while (!Thread.interrupted()) {
-            broadcastCapture(captureForPreview());
+            long captureTime = System.currentTimeMillis();
+            broadcastCapture(captureForPreview(), captureTime);
             try {
                 Thread.sleep(1000 / fps);
             }
@@ -134,7 +134,8 @@ public class OnvifIPCamera extends ReferenceCamera implements Runnable {
             try {
                 BufferedImage image = internalCapture();
                 if (image != null) {
-                    broadcastCapture(captureForPreview());
+                    long captureTime = System.currentTimeMillis();
+                    broadcastCapture(captureForPreview(), captureTime);
                 }
             }
             catch (Exception e) {
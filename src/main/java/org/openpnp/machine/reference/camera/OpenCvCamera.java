@@ -96,7 +96,8 @@ public class OpenCvCamera extends ReferenceCamera implements Runnable {
     public void run() {
         while (!Thread.interrupted()) {
             try {
-                broadcastCapture(captureForPreview());
+                long captureTime = System.currentTimeMillis();
+                broadcastCapture(captureForPreview(), captureTime);
             }
             catch (Exception e) {
                 e.printStackTrace();
@@ -170,6 +170,7 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
                     return null;
                 }
             }
+            long captureTime = System.currentTimeMillis();
             BufferedImage img = stream.capture();
             /**
              * We don't ever want to "waste" an image. So even if the thread is running at a low
@@ -189,7 +190,7 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
              * directly. Most of the other implementations just call captureForPreview() which
              * handles the transform, but because of the above we can't do that.
              */
-            broadcastCapture(transformImage(img));
+            broadcastCapture(transformImage(img), captureTime);
             return img;
         }
         catch (Exception e) {
@@ -208,9 +209,10 @@ public class OpenPnpCaptureCamera extends ReferenceCamera implements Runnable {
             try {
                 ensureOpen();
                 if (stream.hasNewFrame()) {
+                    long captureTime = System.currentTimeMillis();
                     BufferedImage img = stream.capture();
                     img = transformImage(img);
-                    broadcastCapture(img);
+                    broadcastCapture(img, captureTime);
                 }
             }
             catch (Exception e) {
@@ -127,7 +127,8 @@ public class SwitcherCamera extends ReferenceCamera implements Runnable {
 
     public void run() {
         while (!Thread.interrupted()) {
-            broadcastCapture(captureForPreview());
+            long captureTime = System.currentTimeMillis();
+            broadcastCapture(captureForPreview(), captureTime);
             try {
                 Thread.sleep(1000 / fps);
             }
@@ -94,7 +94,8 @@ public class Webcams extends ReferenceCamera implements Runnable, WebcamImageTra
     public void run() {
         while (!Thread.interrupted()) {
             try {
-                broadcastCapture(captureForPreview());
+                long captureTime = System.currentTimeMillis();
+                broadcastCapture(captureForPreview(), captureTime);
             }
             catch (Exception e) {
                 e.printStackTrace();
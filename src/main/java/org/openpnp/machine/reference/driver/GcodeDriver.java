@@ -8,7 +8,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -35,12 +37,14 @@ import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.model.Named;
 import org.openpnp.model.Part;
+import org.openpnp.spi.Actuator;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.HeadMountable;
 import org.openpnp.spi.Movable.MoveToOption;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.base.SimplePropertySheetHolder;
+import org.openpnp.util.SampleRing;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
@@ -79,7 +83,9 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         ACTUATE_STRING_COMMAND(true, "Id", "Name", "Index", "StringValue"),
         ACTUATOR_READ_COMMAND(true, "Id", "Name", "Index"),
         ACTUATOR_READ_WITH_DOUBLE_COMMAND(true, "Id", "Name", "Index", "DoubleValue", "IntegerValue"),
-        ACTUATOR_READ_REGEX(true);
+        ACTUATOR_READ_REGEX(true),
+        ACTUATOR_REPORT_COMMAND(true, "Id", "Name", "Index"),
+        ACTUATOR_REPORT_REGEX(true);
 
         final boolean headMountable;
         final String[] variableNames;
@@ -116,6 +122,13 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         @ElementList(required = false, inline = true, entry = "text", data = true)
         public ArrayList<String> commands = new ArrayList<>();
 
+        /**
+         * The command text compiled as a regex and as a template. Both are built on first use
+         * and dropped whenever the text is changed through setCommand().
+         */
+        private volatile Pattern pattern;
+        private volatile CommandTemplate template;
+
         public Command(String headMountableId, CommandType type, String text) {
             this.headMountableId = headMountableId;
             this.type = type;
@@ -130,12 +143,32 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
                 String[] commands = text.split("\n");
                 this.commands.addAll(Arrays.asList(commands));
             }
+            pattern = null;
+            template = null;
         }
 
         public String getCommand() {
             return Joiner.on('\n').join(commands);
         }
 
+        public Pattern getPattern() {
+            Pattern pattern = this.pattern;
+            if (pattern == null) {
+                pattern = Pattern.compile(getCommand());
+                this.pattern = pattern;
+            }
+            return pattern;
+        }
+
+        public CommandTemplate getTemplate() {
+            CommandTemplate template = this.template;
+            if (template == null) {
+                template = new CommandTemplate(getCommand());
+                this.template = template;
+            }
+            return template;
+        }
+
         private Command() {
 
         }
@@ -177,6 +210,16 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
     @Attribute(required = false)
     protected boolean backslashEscapedCharactersEnabled = false;
 
+    /**
+     * The number of commands that may be sent to the controller before their confirmation is
+     * received. With the default of 1 every command waits for its confirmation. With larger
+     * values moves and actuations are streamed so the controller's planner can blend them, and
+     * the driver only waits at synchronization points such as actuator reads, camera captures
+     * and MOVE_TO_COMPLETE_REGEX waits.
+     */
+    @Attribute(required = false)
+    protected int maxUnacknowledgedCommands = 1;
+
     @Element(required = false)
     protected Location homingFiducialLocation = new Location(LengthUnit.Millimeters);
 
@@ -197,6 +240,37 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
     private boolean connected;
     private LinkedBlockingQueue<String> responseQueue = new LinkedBlockingQueue<>();
     private GcodeDriver parent = null;
+    /*
+     * Streaming state, guarded by this. Camera tasks call waitForCompletion() concurrently with the
+     * task that moves the head, see ReferenceMachine.getTaskResources(), so sending commands and
+     * collecting their responses from responseQueue is synchronized.
+     */
+    private int unacknowledgedCommands;
+    private ReferenceHeadMountable pendingMoveToComplete;
+
+    /**
+     * Number of actuator report samples kept per actuator.
+     */
+    private static final int actuatorReportCapacity = 256;
+
+    /**
+     * An actuator whose value the controller reports on its own, matched by the reader thread.
+     */
+    private static class ActuatorReport {
+        final Pattern pattern;
+        final SampleRing samples = new SampleRing(actuatorReportCapacity);
+
+        ActuatorReport(Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * The actuator reports by actuator id. Set up on connect, the reader thread only reads the
+     * array.
+     */
+    private final Map<String, ActuatorReport> actuatorReports = new ConcurrentHashMap<>();
+    private volatile ActuatorReport[] actuatorReportArray = new ActuatorReport[0];
     
     @Commit
     public void commit() {
@@ -239,6 +313,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         getCommunications().connect();
 
         connected = false;
+        unacknowledgedCommands = 0;
+        pendingMoveToComplete = null;
         readerThread = new Thread(this);
         readerThread.setDaemon(true);
         readerThread.start();
@@ -262,6 +338,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         // Send startup Gcode
         sendGcode(getCommand(null, CommandType.CONNECT_COMMAND));
 
+        startActuatorReports();
+
         connected = true;
     }
 
@@ -293,15 +371,16 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
     public void home(ReferenceHead head) throws Exception {
         // Home is sent with an infinite timeout since it's tough to tell how long it will
         // take.
-        String command = getCommand(null, CommandType.HOME_COMMAND);
-        command = substituteVariable(command, "Id", head.getId());
-        command = substituteVariable(command, "Name", head.getName());
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("Id", head.getId());
+        variables.put("Name", head.getName());
+        String command = formatCommand(null, CommandType.HOME_COMMAND, variables);
         long timeout = -1;
         List<String> responses = sendGcode(command, timeout);
 
         // Check home complete response against user's regex
-        String homeCompleteRegex = getCommand(null, CommandType.HOME_COMPLETE_REGEX);
-        String commandErrorRegex = getCommand(null, CommandType.COMMAND_ERROR_REGEX);
+        Pattern homeCompleteRegex = getCommandPattern(null, CommandType.HOME_COMPLETE_REGEX);
+        Pattern commandErrorRegex = getCommandPattern(null, CommandType.COMMAND_ERROR_REGEX);
         if (homeCompleteRegex != null) {
             if (timeout == -1) {
                 timeout = Long.MAX_VALUE;
@@ -445,6 +524,41 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         return c.getCommand();
     }
 
+    /**
+     * Get the compiled regex of the command, or null if the command is not defined.
+     */
+    public Pattern getCommandPattern(HeadMountable hm, CommandType type) {
+        Command c = getCommand(hm, type, true);
+        if (c == null) {
+            return null;
+        }
+        return c.getPattern();
+    }
+
+    /**
+     * Get the compiled template of the command, or null if the command is not defined.
+     */
+    public CommandTemplate getCommandTemplate(HeadMountable hm, CommandType type) {
+        Command c = getCommand(hm, type, true);
+        if (c == null) {
+            return null;
+        }
+        return c.getTemplate();
+    }
+
+    /**
+     * Format the command with the given variables, or return null if the command is not
+     * defined.
+     */
+    protected String formatCommand(HeadMountable hm, CommandType type,
+            Map<String, Object> variables) {
+        CommandTemplate template = getCommandTemplate(hm, type);
+        if (template == null) {
+            return null;
+        }
+        return template.format(variables);
+    }
+
     public void setCommand(HeadMountable hm, CommandType type, String text) {
         Command c = getCommand(hm, type, false);
         if (text == null || text.trim().length() == 0) {
@@ -541,7 +655,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         Axis zAxis = getAxis(hm, Axis.Type.Z);
         Axis rotationAxis = getAxis(hm, Axis.Type.Rotation);
         
-        String command = getCommand(hm, CommandType.MOVE_TO_COMMAND);
+        CommandTemplate template = getCommandTemplate(hm, CommandType.MOVE_TO_COMMAND);
+        String command = null;
         
         // If the command has forced-output coordinate variables "XF", "YF", "ZF" and "RotationF", 
         // always include the corresponding axis in the command.
@@ -555,10 +670,11 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         // location such as with Z-probing or relative moves in custom Gcode.
         // Note there is no need for separate backlash compensation variables, as these are always 
         // substituted alongside. 
-        boolean includeX = (xAxis != null && hasVariable(command, "XF"));
-        boolean includeY = (yAxis != null && hasVariable(command, "YF"));
-        boolean includeZ = (zAxis != null && hasVariable(command, "ZF"));
-        boolean includeRotation = (rotationAxis != null && hasVariable(command, "RotationF"));
+        boolean includeX = (xAxis != null && template != null && template.hasVariable("XF"));
+        boolean includeY = (yAxis != null && template != null && template.hasVariable("YF"));
+        boolean includeZ = (zAxis != null && template != null && template.hasVariable("ZF"));
+        boolean includeRotation = (rotationAxis != null && template != null
+                && template.hasVariable("RotationF"));
 
         // Handle NaNs, which means don't move this axis for this move. We set the appropriate
         // axis reference to null, which we'll check for later. If the axis is force-included 
@@ -620,10 +736,11 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         // Only do something if there at least one axis included in the move
         if (xAxis != null || yAxis != null || zAxis != null || rotationAxis != null) {
 
-            command = substituteVariable(command, "Id", hm.getId());
-            command = substituteVariable(command, "Name", hm.getName());
-            command = substituteVariable(command, "FeedRate", maxFeedRate * speed);
-            command = substituteVariable(command, "BacklashFeedRate", maxFeedRate * speed * backlashFeedRateFactor);
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("Id", hm.getId());
+            variables.put("Name", hm.getName());
+            variables.put("FeedRate", maxFeedRate * speed);
+            variables.put("BacklashFeedRate", maxFeedRate * speed * backlashFeedRateFactor);
 
             /**
              * NSF gets applied to X and is multiplied by Y
@@ -652,91 +769,93 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
             
             if (includeX) {
                 double newX = x + nonSquarenessFactor * y;
-                command = substituteVariable(command, "X", newX);
-                command = substituteVariable(command, "XF", newX);
-                command = substituteVariable(command, "BacklashOffsetX", x + backlashOffsetX + nonSquarenessFactor * y); // Backlash Compensation
-                command = substituteVariable(command, "XDecreasing", newX < xAxis.getCoordinate() ? true : null);
-                command = substituteVariable(command, "XIncreasing", newX > xAxis.getCoordinate() ? true : null);
+                variables.put("X", newX);
+                variables.put("XF", newX);
+                variables.put("BacklashOffsetX", x + backlashOffsetX + nonSquarenessFactor * y); // Backlash Compensation
+                variables.put("XDecreasing", newX < xAxis.getCoordinate() ? true : null);
+                variables.put("XIncreasing", newX > xAxis.getCoordinate() ? true : null);
                 if (xAxis.getPreMoveCommand() != null) {
                     String preMoveCommand = xAxis.getPreMoveCommand();
                     preMoveCommand = substituteVariable(preMoveCommand, "Coordinate", xAxis.getCoordinate());
-                    sendGcode(preMoveCommand);
+                    streamGcode(preMoveCommand);
                 }
                 xAxis.setCoordinate(x);
             }
             else {
-            	command = substituteVariable(command, "X", null);
-            	command = substituteVariable(command, "XF", null);
-                command = substituteVariable(command, "BacklashOffsetX", null); // Backlash Compensation
-                command = substituteVariable(command, "XDecreasing", null);
-                command = substituteVariable(command, "XIncreasing", null);
+            	variables.put("X", null);
+            	variables.put("XF", null);
+                variables.put("BacklashOffsetX", null); // Backlash Compensation
+                variables.put("XDecreasing", null);
+                variables.put("XIncreasing", null);
             }
 
             if (includeY) {
-            	command = substituteVariable(command, "Y", y);
-            	command = substituteVariable(command, "YF", y);
-                command = substituteVariable(command, "BacklashOffsetY", y + backlashOffsetY); // Backlash Compensation
-                command = substituteVariable(command, "YDecreasing", y < yAxis.getCoordinate() ? true : null);
-                command = substituteVariable(command, "YIncreasing", y > yAxis.getCoordinate() ? true : null);
+            	variables.put("Y", y);
+            	variables.put("YF", y);
+                variables.put("BacklashOffsetY", y + backlashOffsetY); // Backlash Compensation
+                variables.put("YDecreasing", y < yAxis.getCoordinate() ? true : null);
+                variables.put("YIncreasing", y > yAxis.getCoordinate() ? true : null);
                 if (yAxis.getPreMoveCommand() != null) {
                     String preMoveCommand = yAxis.getPreMoveCommand();
                     preMoveCommand = substituteVariable(preMoveCommand, "Coordinate", yAxis.getCoordinate());
-                    sendGcode(preMoveCommand);
+                    streamGcode(preMoveCommand);
                 }
             }
             else {
-            	command = substituteVariable(command, "Y", null);
-            	command = substituteVariable(command, "YF", null);
-                command = substituteVariable(command, "BacklashOffsetY", null); // Backlash Compensation
-                command = substituteVariable(command, "YDecreasing", null);
-                command = substituteVariable(command, "YIncreasing", null);
+            	variables.put("Y", null);
+            	variables.put("YF", null);
+                variables.put("BacklashOffsetY", null); // Backlash Compensation
+                variables.put("YDecreasing", null);
+                variables.put("YIncreasing", null);
             }
 
             if (includeZ) {
-            	command = substituteVariable(command, "Z", z);
-            	command = substituteVariable(command, "ZF", z);
-                command = substituteVariable(command, "BacklashOffsetZ", z + backlashOffsetZ); // Backlash Compensation
-                command = substituteVariable(command, "ZDecreasing", z < zAxis.getCoordinate() ? true : null);
-                command = substituteVariable(command, "ZIncreasing", z > zAxis.getCoordinate() ? true : null);
+            	variables.put("Z", z);
+            	variables.put("ZF", z);
+                variables.put("BacklashOffsetZ", z + backlashOffsetZ); // Backlash Compensation
+                variables.put("ZDecreasing", z < zAxis.getCoordinate() ? true : null);
+                variables.put("ZIncreasing", z > zAxis.getCoordinate() ? true : null);
                 if (zAxis.getPreMoveCommand() != null) {
                     String preMoveCommand = zAxis.getPreMoveCommand();
                     preMoveCommand = substituteVariable(preMoveCommand, "Coordinate", zAxis.getCoordinate());
-                    sendGcode(preMoveCommand);
+                    streamGcode(preMoveCommand);
                 }
             }
             else {
-                command = substituteVariable(command, "Z", null);
-                command = substituteVariable(command, "ZF", null);
-                command = substituteVariable(command, "BacklashOffsetZ", null); // Backlash Compensation
-                command = substituteVariable(command, "ZDecreasing", null);
-                command = substituteVariable(command, "ZIncreasing", null);
+                variables.put("Z", null);
+                variables.put("ZF", null);
+                variables.put("BacklashOffsetZ", null); // Backlash Compensation
+                variables.put("ZDecreasing", null);
+                variables.put("ZIncreasing", null);
             }
 
             if (includeRotation) {
-            	command = substituteVariable(command, "Rotation", rotation);
-            	command = substituteVariable(command, "RotationF", rotation);
-                command = substituteVariable(command, "BacklashOffsetRotation", rotation + backlashOffsetR); // Backlash Compensation
-                command = substituteVariable(command, "RotationDecreasing", rotation < rotationAxis.getCoordinate() ? true : null);
-                command = substituteVariable(command, "RotationIncreasing", rotation > rotationAxis.getCoordinate() ? true : null);
+            	variables.put("Rotation", rotation);
+            	variables.put("RotationF", rotation);
+                variables.put("BacklashOffsetRotation", rotation + backlashOffsetR); // Backlash Compensation
+                variables.put("RotationDecreasing", rotation < rotationAxis.getCoordinate() ? true : null);
+                variables.put("RotationIncreasing", rotation > rotationAxis.getCoordinate() ? true : null);
                 if (rotationAxis.getPreMoveCommand() != null) {
                     String preMoveCommand = rotationAxis.getPreMoveCommand();
                     preMoveCommand = substituteVariable(preMoveCommand, "Coordinate", rotationAxis.getCoordinate());
-                    sendGcode(preMoveCommand);
+                    streamGcode(preMoveCommand);
                 }
             }
             else {
-                command = substituteVariable(command, "Rotation", null);
-                command = substituteVariable(command, "RotationF", null);
-                command = substituteVariable(command, "BacklashOffsetRotation", null); // Backlash Compensation
-                command = substituteVariable(command, "RotationDecreasing", null);
-                command = substituteVariable(command, "RotationIncreasing", null);
+                variables.put("Rotation", null);
+                variables.put("RotationF", null);
+                variables.put("BacklashOffsetRotation", null); // Backlash Compensation
+                variables.put("RotationDecreasing", null);
+                variables.put("RotationIncreasing", null);
+            }
+
+            if (template != null) {
+                command = template.format(variables);
             }
 
             // Only give a command when move is necessary
             if (includeX || includeY || includeZ || includeRotation) {
 
-                List<String> responses = sendGcode(command);
-
                 /*
                  * If moveToCompleteRegex is specified we need to wait until we match the regex in a
                  * response before continuing. We first search the initial responses from the
@@ -744,9 +863,18 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
                  * timeoutMillis while searching the responses for the regex. As soon as it is
                  * matched we continue. If it's not matched within the timeout or the controller
                  * reports an error, we throw an Exception.
+                 * 
+                 * Without a moveToCompleteRegex the move may be streamed.
                  */
-                String moveToCompleteRegex = getCommand(hm, CommandType.MOVE_TO_COMPLETE_REGEX);
-                String commandErrorRegex = getCommand(hm, CommandType.COMMAND_ERROR_REGEX);
+                Pattern moveToCompleteRegex = getCommandPattern(hm, CommandType.MOVE_TO_COMPLETE_REGEX);
+                Pattern commandErrorRegex = getCommandPattern(hm, CommandType.COMMAND_ERROR_REGEX);
+                List<String> responses;
+                if (moveToCompleteRegex != null) {
+                    responses = sendGcode(command);
+                }
+                else {
+                    responses = streamGcode(command);
+                }
                 if (moveToCompleteRegex != null) {
                     if (!containsMatch(responses, moveToCompleteRegex)) {
                         long t = System.currentTimeMillis();
@@ -796,19 +924,41 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         // if there was a move
         if (hasMoved) {
             /*
-             * If moveToCompleteCommand is specified, send it
+             * If moveToCompleteCommand is specified, send it. When streaming it is deferred to the
+             * next synchronization point, see waitForCompletion().
              */
             command = getCommand(hm, CommandType.MOVE_TO_COMPLETE_COMMAND);
             if (command != null) {
+                if (isStreaming()) {
+                    synchronized (this) {
+                        pendingMoveToComplete = hm;
+                    }
+                }
+                else {
                     sendGcode(command);
+                }
             }
         }
 
     }
 
-    private boolean containsMatch(List<String> responses, String regex) {
+    @Override
+    public synchronized void waitForCompletion(ReferenceHeadMountable hm) throws Exception {
+        if (pendingMoveToComplete != null) {
+            String command = getCommand(pendingMoveToComplete, CommandType.MOVE_TO_COMPLETE_COMMAND);
+            pendingMoveToComplete = null;
+            sendGcode(command);
+        }
+        collectAcknowledgements(0, timeoutMilliseconds);
+
+        for (ReferenceDriver driver : subDrivers) {
+            driver.waitForCompletion(hm);
+        }
+    }
+
+    private boolean containsMatch(List<String> responses, Pattern regex) {
         for (String response : responses) {
-            if (response.matches(regex)) {
+            if (regex.matcher(response).matches()) {
                 return true;
             }
         }
@@ -817,14 +967,14 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
 
     @Override
     public void actuate(ReferenceActuator actuator, boolean on) throws Exception {
-        String command = getCommand(actuator, CommandType.ACTUATE_BOOLEAN_COMMAND);
-        command = substituteVariable(command, "Id", actuator.getId());
-        command = substituteVariable(command, "Name", actuator.getName());
-        command = substituteVariable(command, "Index", actuator.getIndex());
-        command = substituteVariable(command, "BooleanValue", on);
-        command = substituteVariable(command, "True", on ? on : null);
-        command = substituteVariable(command, "False", on ? null : on);
-        sendGcode(command);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("Id", actuator.getId());
+        variables.put("Name", actuator.getName());
+        variables.put("Index", actuator.getIndex());
+        variables.put("BooleanValue", on);
+        variables.put("True", on ? on : null);
+        variables.put("False", on ? null : on);
+        streamGcode(formatCommand(actuator, CommandType.ACTUATE_BOOLEAN_COMMAND, variables));
 
         for (ReferenceDriver driver : subDrivers) {
             driver.actuate(actuator, on);
@@ -833,13 +983,13 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
 
     @Override
     public void actuate(ReferenceActuator actuator, double value) throws Exception {
-        String command = getCommand(actuator, CommandType.ACTUATE_DOUBLE_COMMAND);
-        command = substituteVariable(command, "Id", actuator.getId());
-        command = substituteVariable(command, "Name", actuator.getName());
-        command = substituteVariable(command, "Index", actuator.getIndex());
-        command = substituteVariable(command, "DoubleValue", value);
-        command = substituteVariable(command, "IntegerValue", (int) value);
-        sendGcode(command);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("Id", actuator.getId());
+        variables.put("Name", actuator.getName());
+        variables.put("Index", actuator.getIndex());
+        variables.put("DoubleValue", value);
+        variables.put("IntegerValue", (int) value);
+        streamGcode(formatCommand(actuator, CommandType.ACTUATE_DOUBLE_COMMAND, variables));
 
         for (ReferenceDriver driver : subDrivers) {
             driver.actuate(actuator, value);
@@ -848,12 +998,12 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
     
     @Override
     public void actuate(ReferenceActuator actuator, String value) throws Exception {
-        String command = getCommand(actuator, CommandType.ACTUATE_STRING_COMMAND);
-        command = substituteVariable(command, "Id", actuator.getId());
-        command = substituteVariable(command, "Name", actuator.getName());
-        command = substituteVariable(command, "Index", actuator.getIndex());
-        command = substituteVariable(command, "StringValue", value);
-        sendGcode(command);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("Id", actuator.getId());
+        variables.put("Name", actuator.getName());
+        variables.put("Index", actuator.getIndex());
+        variables.put("StringValue", value);
+        streamGcode(formatCommand(actuator, CommandType.ACTUATE_STRING_COMMAND, variables));
 
         for (ReferenceDriver driver : subDrivers) {
             driver.actuate(actuator, value);
@@ -876,29 +1026,32 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
          * 3. If the top level driver cannot either service the command or have a sub-driver
          *    service the command it should throw. 
          */
-        String command;
+        CommandTemplate template;
         if (parameter == null) {
-            command = getCommand(actuator, CommandType.ACTUATOR_READ_COMMAND);
+            template = getCommandTemplate(actuator, CommandType.ACTUATOR_READ_COMMAND);
         }
         else {
-            command = getCommand(actuator, CommandType.ACTUATOR_READ_WITH_DOUBLE_COMMAND);
+            template = getCommandTemplate(actuator, CommandType.ACTUATOR_READ_WITH_DOUBLE_COMMAND);
         }
-        String regex = getCommand(actuator, CommandType.ACTUATOR_READ_REGEX);
-        if (command != null && regex != null) {
+        Pattern pattern = getCommandPattern(actuator, CommandType.ACTUATOR_READ_REGEX);
+        if (template != null && pattern != null) {
             /**
              * This driver has the command and regex defined, so it must service the command.
              */
-            command = substituteVariable(command, "Id", actuator.getId());
-            command = substituteVariable(command, "Name", actuator.getName());
-            command = substituteVariable(command, "Index", actuator.getIndex());
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("Id", actuator.getId());
+            variables.put("Name", actuator.getName());
+            variables.put("Index", actuator.getIndex());
             if (parameter != null) {
-                command = substituteVariable(command, "DoubleValue", parameter);
-                command = substituteVariable(command, "IntegerValue", (int) parameter.doubleValue());
+                variables.put("DoubleValue", parameter);
+                variables.put("IntegerValue", (int) parameter.doubleValue());
             }
+            String command = template.format(variables);
 
+            // A read must see the machine in the state the preceding commands left it in.
+            waitForCompletion(actuator);
             List<String> responses = sendGcode(command);
 
-            Pattern pattern = Pattern.compile(regex);
             for (String line : responses) {
                 Matcher matcher = pattern.matcher(line);
                 if (matcher.matches()) {
@@ -960,6 +1113,67 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         return actuatorRead(actuator, null); 
     }
 
+    /**
+     * Set up parsing of the ACTUATOR_REPORT_REGEX of every actuator that has one and send its
+     * ACTUATOR_REPORT_COMMAND, if any, to make the controller start reporting.
+     */
+    protected void startActuatorReports() throws Exception {
+        actuatorReports.clear();
+        for (Command command : commands) {
+            if (command.type != CommandType.ACTUATOR_REPORT_REGEX || command.headMountableId == null
+                    || command.headMountableId.equals("*") || command.getPattern() == null) {
+                continue;
+            }
+            actuatorReports.put(command.headMountableId, new ActuatorReport(command.getPattern()));
+        }
+        actuatorReportArray = actuatorReports.values().toArray(new ActuatorReport[0]);
+
+        for (String id : actuatorReports.keySet()) {
+            Actuator actuator = findActuator(id);
+            if (actuator == null) {
+                Logger.warn("ACTUATOR_REPORT_REGEX defined for unknown actuator {}", id);
+                continue;
+            }
+            Map<String, Object> variables = new HashMap<>();
+            variables.put("Id", actuator.getId());
+            variables.put("Name", actuator.getName());
+            variables.put("Index", actuator instanceof ReferenceActuator ? ((ReferenceActuator) actuator).getIndex() : 0);
+            String command = formatCommand(actuator, CommandType.ACTUATOR_REPORT_COMMAND, variables);
+            if (command != null) {
+                sendGcode(command);
+            }
+        }
+    }
+
+    private static Actuator findActuator(String id) {
+        Actuator actuator = Configuration.get().getMachine().getActuator(id);
+        if (actuator != null) {
+            return actuator;
+        }
+        for (Head head : Configuration.get().getMachine().getHeads()) {
+            actuator = head.getActuator(id);
+            if (actuator != null) {
+                return actuator;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public SampleRing getActuatorSamples(ReferenceActuator actuator) {
+        ActuatorReport report = actuatorReports.get(actuator.getId());
+        if (report != null) {
+            return report.samples;
+        }
+        for (ReferenceDriver driver : subDrivers) {
+            SampleRing samples = driver.getActuatorSamples(actuator);
+            if (samples != null) {
+                return samples;
+            }
+        }
+        return null;
+    }
+
     @Override
     public String actuatorRead(ReferenceActuator actuator, double parameter) throws Exception {
         return actuatorRead(actuator, (Double) parameter);
@@ -968,6 +1182,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
     public synchronized void disconnect() {
         disconnectRequested = true;
         connected = false;
+        unacknowledgedCommands = 0;
+        pendingMoveToComplete = null;
 
         try {
             if (readerThread != null && readerThread.isAlive()) {
@@ -1000,7 +1216,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         return sendGcode(gCode, timeoutMilliseconds);
     }
 
-    protected List<String> sendGcode(String gCode, long timeout) throws Exception {
+    protected synchronized List<String> sendGcode(String gCode, long timeout) throws Exception {
         if (gCode == null) {
             return new ArrayList<>();
         }
@@ -1025,8 +1241,10 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         return sendCommand(command, timeoutMilliseconds);
     }
 
-    public List<String> sendCommand(String command, long timeout) throws Exception {
-        List<String> responses = new ArrayList<>();
+    public synchronized List<String> sendCommand(String command, long timeout) throws Exception {
+        // Confirmations of streamed commands are still expected, so they must be collected
+        // before the queue is flushed.
+        List<String> responses = collectAcknowledgements(0, timeout);
 
         // Read any responses that might be queued up so that when we wait
         // for a response to a command we actually wait for the one we expect.
@@ -1036,25 +1254,17 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         return sendCommandNoFlush(command, timeout);
     }
 
-    protected List<String> sendCommandNoFlush(String command, long timeout) throws Exception {
-        List<String> responses = new ArrayList<>();
+    protected synchronized List<String> sendCommandNoFlush(String command, long timeout)
+            throws Exception {
+        // Responses received while waiting for streamed commands are kept, since the caller
+        // may be looking for one of them.
+        List<String> responses = collectAcknowledgements(0, timeout);
 
         Logger.debug("sendCommand({}, {})...", command, timeout);
 
         // Send the command, if one was specified
         if (command != null) {
-            if (backslashEscapedCharactersEnabled) {
-                command = unescape(command);
-            }
-            Logger.trace("[{}] >> {}", getCommunications().getConnectionName(), command);
-            try {
-                getCommunications().writeLine(command);
-            }
-            catch (IOException ex) {
-                Logger.error("Failed to write command: ", command);
-                disconnect();
-                Configuration.get().getMachine().setEnabled(false);
-            }
+            command = writeCommand(command);
         }
 
         // Collect responses till we find one with the confirmation or we timeout. Return
@@ -1066,6 +1276,8 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         boolean found = false;
         boolean foundError = false;
         String errorResponse = "";
+        Pattern confirmRegex = getCommandPattern(null, CommandType.COMMAND_CONFIRM_REGEX);
+        Pattern errorRegex = getCommandPattern(null, CommandType.COMMAND_ERROR_REGEX);
         // Loop until we've timed out
         while (System.currentTimeMillis() - t < timeout) {
             // Wait to see if a response came in. We wait up until the number of millis remaining
@@ -1079,13 +1291,13 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
             // Store the response that was received
             responses.add(response);
             // If the response is an ok or error we're done
-            if (response.matches(getCommand(null, CommandType.COMMAND_CONFIRM_REGEX))) {
+            if (confirmRegex.matcher(response).matches()) {
                 found = true;
                 break;
             }
 
-            if (getCommand(null, CommandType.COMMAND_ERROR_REGEX) != null) {
-                if (response.matches(getCommand(null, CommandType.COMMAND_ERROR_REGEX))) {
+            if (errorRegex != null) {
+                if (errorRegex.matcher(response).matches()) {
                     foundError = true;
                     errorResponse = response;
                     break;
@@ -1108,17 +1320,142 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         return responses;
     }
 
+    private String writeCommand(String command) throws Exception {
+        if (backslashEscapedCharactersEnabled) {
+            command = unescape(command);
+        }
+        Logger.trace("[{}] >> {}", getCommunications().getConnectionName(), command);
+        try {
+            getCommunications().writeLine(command);
+        }
+        catch (IOException ex) {
+            Logger.error("Failed to write command: ", command);
+            disconnect();
+            Configuration.get().getMachine().setEnabled(false);
+        }
+        return command;
+    }
+
+    public boolean isStreaming() {
+        return maxUnacknowledgedCommands > 1;
+    }
+
+    /**
+     * Send Gcode without waiting for the confirmation, as long as no more than
+     * maxUnacknowledgedCommands are unconfirmed. Only for commands whose responses are not
+     * needed by the caller. Errors raised by the controller for streamed commands are reported
+     * by the next command that waits for confirmations. If streaming is disabled this is the
+     * same as sendGcode(). 
+     */
+    protected synchronized List<String> streamGcode(String gCode) throws Exception {
+        if (!isStreaming()) {
+            return sendGcode(gCode);
+        }
+        List<String> responses = new ArrayList<>();
+        if (gCode == null) {
+            return responses;
+        }
+        for (String command : gCode.split("\n")) {
+            command = command.trim();
+            if (command.length() == 0) {
+                continue;
+            }
+            // Wait for a credit to become available.
+            responses.addAll(collectAcknowledgements(maxUnacknowledgedCommands - 1,
+                    timeoutMilliseconds));
+            command = writeCommand(command);
+            unacknowledgedCommands++;
+            Logger.debug("streamCommand({}) with {} unacknowledged", command,
+                    unacknowledgedCommands);
+        }
+        return responses;
+    }
+
+    /**
+     * Wait until no more than maxRemaining streamed commands are unconfirmed and return the
+     * responses received meanwhile.
+     */
+    protected synchronized List<String> collectAcknowledgements(int maxRemaining, long timeout)
+            throws Exception {
+        List<String> responses = new ArrayList<>();
+        if (timeout == -1) {
+            timeout = Long.MAX_VALUE;
+        }
+        long t = System.currentTimeMillis();
+        Pattern confirmRegex = getCommandPattern(null, CommandType.COMMAND_CONFIRM_REGEX);
+        Pattern errorRegex = getCommandPattern(null, CommandType.COMMAND_ERROR_REGEX);
+        while (unacknowledgedCommands > maxRemaining) {
+            if (System.currentTimeMillis() - t >= timeout) {
+                unacknowledgedCommands = 0;
+                resynchronize(0);
+                throw new Exception("Timeout waiting for response to streamed commands.");
+            }
+            String response = responseQueue.poll(timeout - (System.currentTimeMillis() - t),
+                    TimeUnit.MILLISECONDS);
+            if (response == null) {
+                continue;
+            }
+            responses.add(response);
+            if (confirmRegex.matcher(response).matches()) {
+                unacknowledgedCommands--;
+            }
+            else if (errorRegex != null && errorRegex.matcher(response).matches()) {
+                // The error answers one command, the others are still in flight.
+                int remaining = unacknowledgedCommands - 1;
+                unacknowledgedCommands = 0;
+                resynchronize(remaining);
+                throw new Exception("Controller raised an error: " + response);
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Get back in step with the controller after streamed commands failed, so that the
+     * confirmations of the commands still in flight are not taken for the confirmation of a later
+     * command. Waits for the remaining confirmations, flushes the responses and makes a round
+     * trip with the MOVE_TO_COMPLETE_COMMAND, if one is set. Errors are only logged, the caller
+     * reports the original one.
+     */
+    private synchronized void resynchronize(int remaining) {
+        try {
+            long t = System.currentTimeMillis();
+            Pattern confirmRegex = getCommandPattern(null, CommandType.COMMAND_CONFIRM_REGEX);
+            Pattern errorRegex = getCommandPattern(null, CommandType.COMMAND_ERROR_REGEX);
+            while (remaining > 0 && System.currentTimeMillis() - t < timeoutMilliseconds) {
+                String response = responseQueue.poll(
+                        timeoutMilliseconds - (System.currentTimeMillis() - t),
+                        TimeUnit.MILLISECONDS);
+                if (response == null) {
+                    continue;
+                }
+                if (confirmRegex.matcher(response).matches()
+                        || (errorRegex != null && errorRegex.matcher(response).matches())) {
+                    remaining--;
+                }
+            }
+            responseQueue.clear();
+            String command = getCommand(null, CommandType.MOVE_TO_COMPLETE_COMMAND);
+            if (command != null) {
+                sendGcode(command);
+            }
+        }
+        catch (Exception e) {
+            Logger.warn(e, "Resynchronizing with the controller failed.");
+        }
+    }
+
     public void run() {
+        // Reused for every line, the read path itself does not allocate.
+        StringBuilder lineBuilder = new StringBuilder();
         while (!disconnectRequested) {
             String line;
             try {
-                line = getCommunications().readLine();
-                if (line == null) {
+                if (!getCommunications().readLine(lineBuilder)) {
                     // Line read failed eg. due to socket closure
                     Logger.error("Failed to read gcode response");
                     return;
                 }
-                line = line.trim();
             }
             catch (TimeoutException ex) {
                 continue;
@@ -1127,10 +1464,12 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
                 Logger.error("Read error", e);
                 return;
             }
-            line = line.trim();
+            line = lineBuilder.toString().trim();
             Logger.trace("[{}] << {}", getCommunications().getConnectionName(), line);
             // extract a position report, if present
             processPositionReport(line);
+            // extract actuator reports, if any
+            processActuatorReports(line);
             // add to the responseQueue (even if it happens to be a position report, it might still also contain the "ok"
             // acknowledgment e.g. on Smoothieware)
             responseQueue.offer(line);
@@ -1138,18 +1477,17 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
     }
 
     private boolean processPositionReport(String line) {
-        if (getCommand(null, CommandType.POSITION_REPORT_REGEX) == null) {
+        Pattern positionReportRegex = getCommandPattern(null, CommandType.POSITION_REPORT_REGEX);
+        if (positionReportRegex == null) {
             return false;
         }
 
-        if (!line.matches(getCommand(null, CommandType.POSITION_REPORT_REGEX))) {
+        Matcher matcher = positionReportRegex.matcher(line);
+        if (!matcher.matches()) {
             return false;
         }
 
         Logger.trace("Position report: {}", line);
-        Matcher matcher =
-                Pattern.compile(getCommand(null, CommandType.POSITION_REPORT_REGEX)).matcher(line);
-        matcher.matches();
         for (Axis axis : axes) {
             try {
                 String s = matcher.group(axis.getName());
@@ -1168,6 +1506,23 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         return true;
     }
 
+    private void processActuatorReports(String line) {
+        for (ActuatorReport report : actuatorReportArray) {
+            Matcher matcher = report.pattern.matcher(line);
+            if (!matcher.matches()) {
+                continue;
+            }
+            try {
+                report.samples.add(Double.parseDouble(matcher.group("Value")));
+            }
+            catch (Exception e) {
+                Logger.warn("Error processing actuator report {}: {}", line, e);
+            }
+        }
+    }
+
+    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}");
+
     /**
      * Find matches of variables in the format {Name:Format} and replace them with the specified
      * value formatted using String.format with the specified Format. Format is optional and
@@ -1178,7 +1533,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
             return command;
         }
         StringBuffer sb = new StringBuffer();
-        Matcher matcher = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}").matcher(command);
+        Matcher matcher = VARIABLE_PATTERN.matcher(command);
         while (matcher.find()) {
             String n = matcher.group(1);
             if (!n.equals(name)) {
@@ -1204,7 +1559,7 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         if (command == null) {
             return false;
         }
-        Matcher matcher = Pattern.compile("\\{(\\w+)(?::(.+?))?\\}").matcher(command);
+        Matcher matcher = VARIABLE_PATTERN.matcher(command);
         while (matcher.find()) {
             String n = matcher.group(1);
             if (!n.equals(name)) {
@@ -1334,6 +1689,14 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         this.backlashFeedRateFactor = BacklashFeedRateFactor;
     }
     
+    public int getMaxUnacknowledgedCommands() {
+        return maxUnacknowledgedCommands;
+    }
+
+    public void setMaxUnacknowledgedCommands(int maxUnacknowledgedCommands) {
+        this.maxUnacknowledgedCommands = maxUnacknowledgedCommands;
+    }
+
     public void setNonSquarenessFactor(double NonSquarenessFactor) {
         this.nonSquarenessFactor = NonSquarenessFactor;
     }
@@ -1497,6 +1860,74 @@ public class GcodeDriver extends AbstractReferenceDriver implements Named, Runna
         }
     }
 
+    /**
+     * A command parsed once into its literal text and its {Name:Format} variables, so that it
+     * can be formatted in a single pass. Variables without a value in the map given to
+     * format() are kept as they are, just like substituteVariable() would leave them.
+     */
+    public static class CommandTemplate {
+        private final List<String> literals = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<String> formats = new ArrayList<>();
+        private final List<String> texts = new ArrayList<>();
+
+        public CommandTemplate(String command) {
+            Matcher matcher = VARIABLE_PATTERN.matcher(command);
+            int start = 0;
+            while (matcher.find()) {
+                literals.add(command.substring(start, matcher.start()));
+                names.add(matcher.group(1));
+                String format = matcher.group(2);
+                formats.add(format == null ? "%s" : format);
+                texts.add(matcher.group());
+                start = matcher.end();
+            }
+            literals.add(command.substring(start));
+        }
+
+        public boolean hasVariable(String name) {
+            return names.contains(name);
+        }
+
+        /**
+         * Replace the variables with the values formatted using String.format with the
+         * variable's Format. A null value replaces the variable with "". The formatted value is
+         * treated like a Matcher.appendReplacement() replacement, so the result is the same as
+         * calling substituteVariable() for each variable.
+         */
+        public String format(Map<String, Object> variables) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < names.size(); i++) {
+                sb.append(literals.get(i));
+                String name = names.get(i);
+                if (!variables.containsKey(name)) {
+                    sb.append(texts.get(i));
+                    continue;
+                }
+                Object value = variables.get(name);
+                if (value == null) {
+                    continue;
+                }
+                String v = String.format((Locale) null, formats.get(i), value);
+                if (v.indexOf('$') < 0 && v.indexOf('\\') < 0) {
+                    sb.append(v);
+                }
+                else {
+                    // substituteVariable() hands the value to Matcher.appendReplacement(), which
+                    // treats $ as a group reference and \ as an escape. Keep that behavior for
+                    // existing configurations.
+                    Matcher matcher = VARIABLE_PATTERN.matcher(texts.get(i));
+                    matcher.find();
+                    StringBuffer replaced = new StringBuffer();
+                    matcher.appendReplacement(replaced, v);
+                    sb.append(replaced);
+                }
+            }
+            sb.append(literals.get(names.size()));
+            return sb.toString();
+        }
+    }
+
     public interface AxisTransform {
         /**
          * Transform the specified raw coordinate into it's corresponding transformed coordinate.
@@ -50,6 +50,13 @@ public abstract class ReferenceDriverCommunications {
     @Attribute(required=false)
     protected LineEndingType lineEndingType = LineEndingType.LF;
 
+    /**
+     * Bytes read in bulk but not yet consumed, from readPosition to readLimit.
+     */
+    private final byte[] readBuffer = new byte[4096];
+    private int readPosition;
+    private int readLimit;
+
     abstract public void connect() throws Exception;
     abstract public void disconnect() throws Exception;
 
@@ -57,7 +64,32 @@ public abstract class ReferenceDriverCommunications {
 
     abstract public void writeBytes(byte[] data) throws IOException;
 
-    abstract public int read() throws TimeoutException, IOException;
+    /**
+     * Read as many bytes as are available, up to the size of the buffer, into the start of the
+     * buffer. Blocks for the default timeout if none are available. If the read times out a
+     * TimeoutException is thrown. Any other failure to read results in an IOExeption;
+     *
+     * @param buffer
+     * @return The number of bytes read, or -1 if the end of the stream was reached.
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    abstract protected int read(byte[] buffer) throws TimeoutException, IOException;
+
+    /**
+     * Read a single byte from the input stream. Blocks for the default timeout. If the read times
+     * out a TimeoutException is thrown. Any other failure to read results in an IOExeption;
+     *
+     * @return The byte, or -1 if the end of the stream was reached.
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    public int read() throws TimeoutException, IOException {
+        if (readPosition == readLimit && !fillReadBuffer()) {
+            return -1;
+        }
+        return readBuffer[readPosition++] & 0xff;
+    }
 
     /**
      * Read a line from the input stream. Blocks for the default timeout. If the read times out a
@@ -71,9 +103,22 @@ public abstract class ReferenceDriverCommunications {
         return readUntil("\r\n");
     }
 
+    /**
+     * Like readLine() but reads the line into the given StringBuilder, replacing its contents,
+     * so that a reader thread can reuse the same StringBuilder for every line.
+     *
+     * @param line
+     * @return false if the end of the stream was reached.
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    public boolean readLine(StringBuilder line) throws TimeoutException, IOException {
+        return readUntil("\r\n", line);
+    }
+
     public void writeLine(String data) throws IOException {
-        writeBytes(data.getBytes());
-        writeBytes(getLineEndingType().getLineEnding().getBytes());
+        // One write, so that the line ending is not held back by Nagle's algorithm on TCP.
+        writeBytes((data + getLineEndingType().getLineEnding()).getBytes());
     }
 
     /**
@@ -86,23 +131,63 @@ public abstract class ReferenceDriverCommunications {
      * @throws IOException
      */
     public String readUntil(String characters) throws TimeoutException, IOException {
-        StringBuffer line = new StringBuffer();
+        StringBuilder line = new StringBuilder();
+        if (!readUntil(characters, line)) {
+            return null;
+        }
+        return line.toString();
+    }
+
+    /**
+     * Like readUntil(String) but reads into the given StringBuilder, replacing its contents.
+     *
+     * @param characters list of ending characters
+     * @param line
+     * @return false if the end of the stream was reached.
+     * @throws TimeoutException
+     * @throws IOException
+     */
+    public boolean readUntil(String characters, StringBuilder line) throws TimeoutException, IOException {
+        line.setLength(0);
         while (true) {
-            int ch = read();
-            if (ch == -1) {
-                return null;
+            if (readPosition == readLimit && !fillReadBuffer()) {
+                return false;
             }
-            else if (characters.indexOf((char)ch) >= 0) {
-                if (line.length() > 0) {
-                    return line.toString();
+            // Split the line from the buffered bytes in place.
+            while (readPosition < readLimit) {
+                char ch = (char) (readBuffer[readPosition++] & 0xff);
+                if (characters.indexOf(ch) >= 0) {
+                    if (line.length() > 0) {
+                        return true;
+                    }
+                }
+                else {
+                    line.append(ch);
                 }
             }
-            else {
-                line.append((char) ch);
-            }
         }
     }
 
+    private boolean fillReadBuffer() throws TimeoutException, IOException {
+        readPosition = 0;
+        readLimit = 0;
+        int l = read(readBuffer);
+        if (l == -1) {
+            return false;
+        }
+        readLimit = l;
+        return true;
+    }
+
+    /**
+     * Discard any bytes that were read but not consumed yet. Should be called when the
+     * connection is closed, so that a new connection does not see data from the old one.
+     */
+    protected void clearReadBuffer() {
+        readPosition = 0;
+        readLimit = 0;
+    }
+
     public void write(int d) throws IOException {
         byte[] b = new byte[] { (byte) d };
         writeBytes(b);
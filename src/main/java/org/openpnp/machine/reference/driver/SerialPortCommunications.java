@@ -118,6 +118,7 @@ public class SerialPortCommunications extends ReferenceDriverCommunications {
             serialPort.closePort();
             serialPort = null;
         }
+        clearReadBuffer();
     }
 
 
@@ -136,16 +137,16 @@ public class SerialPortCommunications extends ReferenceDriverCommunications {
         return portNames.toArray(new String[] {});
     }
 
-    public int read() throws TimeoutException, IOException {
-        byte[] b = new byte[1];
-        int l = serialPort.readBytes(b, 1);
+    protected int read(byte[] buffer) throws TimeoutException, IOException {
+        // In semi blocking mode this returns as soon as any bytes are available.
+        int l = serialPort.readBytes(buffer, buffer.length);
         if (l == -1) {
             throw new IOException("Read error.");
         }
         if (l == 0) {
             throw new TimeoutException("Read timeout.");
         }
-        return b[0];
+        return l;
     }
 
     public void writeBytes(byte[] data) throws IOException {
@@ -1,9 +1,8 @@
 package org.openpnp.machine.reference.driver;
 
-import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.concurrent.TimeoutException;
@@ -27,13 +26,13 @@ public class TcpCommunications extends ReferenceDriverCommunications {
 
 
     protected Socket clientSocket;
-    protected BufferedReader input;
+    protected InputStream input;
     protected DataOutputStream output;
 
     public synchronized void connect() throws Exception {
         disconnect();
         clientSocket = new Socket(ipAddress,port);
-        input = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+        input = clientSocket.getInputStream();
         output = new DataOutputStream(clientSocket.getOutputStream());
     }
 
@@ -44,15 +43,19 @@ public class TcpCommunications extends ReferenceDriverCommunications {
             output = null;
             clientSocket = null;
         }
+        clearReadBuffer();
     }
 
     public String getConnectionName(){
         return "tcp://" + ipAddress + ":" + port;
     }
 
-    public int read() throws TimeoutException, IOException {
+    protected int read(byte[] buffer) throws TimeoutException, IOException {
         try {
-            return input.read();
+            return input.read(buffer);
+        }
+        catch (SocketTimeoutException ex) {
+            throw new TimeoutException(ex.getMessage());
         }
         catch (IOException ex) {
             if (ex.getCause() instanceof SocketTimeoutException) {
@@ -76,6 +76,8 @@ public class GcodeDriverSettings extends AbstractConfigurationWizard {
                 FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,
                 FormSpecs.RELATED_GAP_ROWSPEC,
+                FormSpecs.DEFAULT_ROWSPEC,
+                FormSpecs.RELATED_GAP_ROWSPEC,
                 FormSpecs.DEFAULT_ROWSPEC,}));
         
         JLabel lblUnits = new JLabel("Units");
@@ -173,6 +175,16 @@ public class GcodeDriverSettings extends AbstractConfigurationWizard {
                 + "where xxxx is four hexidecimal characters.  Also permits \\t for tab, \\b for backspace, \\n for line "
                 + "feed, \\r for carriage return, and \\f for form feed.");
         settingsPanel.add(backslashEscapedCharacters, "4, 14");
+        
+        JLabel lblMaxUnacknowledgedCommands = new JLabel("Max. Unacknowledged Commands");
+        lblMaxUnacknowledgedCommands.setToolTipText("Number of commands that may be sent to the controller "
+                + "before their confirmation is received. 1 waits for each command. Larger values stream "
+                + "moves and actuations so the controller can blend the moves.");
+        settingsPanel.add(lblMaxUnacknowledgedCommands, "2, 16, right, default");
+        
+        maxUnacknowledgedCommandsTf = new JTextField();
+        settingsPanel.add(maxUnacknowledgedCommandsTf, "4, 16, fill, default");
+        maxUnacknowledgedCommandsTf.setColumns(5);
     }
 
     @Override
@@ -195,6 +207,7 @@ public class GcodeDriverSettings extends AbstractConfigurationWizard {
         addWrappedBinding(driver, "name", driverName, "text");
         addWrappedBinding(driver, "visualHomingEnabled", visualHoming, "selected");
         addWrappedBinding(driver, "backslashEscapedCharactersEnabled", backslashEscapedCharacters, "selected");
+        addWrappedBinding(driver, "maxUnacknowledgedCommands", maxUnacknowledgedCommandsTf, "text", intConverter);
         
         ComponentDecorators.decorateWithAutoSelect(maxFeedRateTf);
         ComponentDecorators.decorateWithAutoSelect(backlashOffsetXTf);
@@ -206,6 +219,7 @@ public class GcodeDriverSettings extends AbstractConfigurationWizard {
         ComponentDecorators.decorateWithAutoSelect(commandTimeoutTf);
         ComponentDecorators.decorateWithAutoSelect(connectWaitTimeTf);
         ComponentDecorators.decorateWithAutoSelect(driverName);
+        ComponentDecorators.decorateWithAutoSelect(maxUnacknowledgedCommandsTf);
     }
 
     public final Action exportProfileAction = new AbstractAction() {
@@ -347,6 +361,7 @@ public class GcodeDriverSettings extends AbstractConfigurationWizard {
     private JTextField driverName;
     private JCheckBox visualHoming;
     private JCheckBox backslashEscapedCharacters;
+    private JTextField maxUnacknowledgedCommandsTf;
 
     static class HeadMountableItem {
         private HeadMountable hm;
@@ -732,8 +732,11 @@ extends AbstractReferenceFeederConfigurationWizard {
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            UiUtils.submitUiMachineTask(() -> {
-                feeder.showFeatures();
+            UiUtils.messageBoxOnException(() -> {
+                // Only captures from the camera, so it can run while other tasks move.
+                UiUtils.submitUiMachineTask(() -> {
+                    feeder.showFeatures();
+                }, feeder, feeder.getCamera());
             });
         }
     };
@@ -830,14 +833,17 @@ extends AbstractReferenceFeederConfigurationWizard {
         @Override
         public void actionPerformed(ActionEvent e) {
             applyAction.actionPerformed(e);
-            UiUtils.submitUiMachineTask(() -> {
-                MovableUtils.moveToLocationAtSafeZ(feeder.getCamera(), feeder.getNominalVisionLocation());
-                StringBuilder report = new StringBuilder();
-                feeder.performOcr(OcrWrongPartAction.ChangePart, false, report);
-                if (report.length() == 0) {
-                    report.append("No action taken.");
-                }
-                JOptionPane.showMessageDialog(getTopLevelAncestor(), "<html>"+report+"</html>", "OCR Report", JOptionPane.INFORMATION_MESSAGE);
+            UiUtils.messageBoxOnException(() -> {
+                Camera camera = feeder.getCamera();
+                UiUtils.submitUiMachineTask(() -> {
+                    MovableUtils.moveToLocationAtSafeZ(camera, feeder.getNominalVisionLocation());
+                    StringBuilder report = new StringBuilder();
+                    feeder.performOcr(OcrWrongPartAction.ChangePart, false, report);
+                    if (report.length() == 0) {
+                        report.append("No action taken.");
+                    }
+                    JOptionPane.showMessageDialog(getTopLevelAncestor(), "<html>"+report+"</html>", "OCR Report", JOptionPane.INFORMATION_MESSAGE);
+                }, feeder, camera, camera.getHead());
             });
         }
     };
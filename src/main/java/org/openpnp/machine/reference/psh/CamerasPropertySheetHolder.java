@@ -17,6 +17,7 @@ import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.PropertySheetHolder;
+import org.openpnp.spi.base.AbstractCamera;
 import org.openpnp.spi.base.SimplePropertySheetHolder;
 import org.pmw.tinylog.Logger;
 
@@ -67,6 +68,11 @@ public class CamerasPropertySheetHolder extends SimplePropertySheetHolder {
                 catch (Exception e) {
                     Logger.debug("Couldn't set default vision provider.");
                 }
+
+                if (camera instanceof AbstractCamera) {
+                    ((AbstractCamera) camera)
+                            .setSettleMaxSize(AbstractCamera.DEFAULT_SETTLE_MAX_SIZE);
+                }
                 
                 if (head != null) {
                     head.addCamera(camera);
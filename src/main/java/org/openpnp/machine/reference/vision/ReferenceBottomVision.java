@@ -1,7 +1,12 @@
 package org.openpnp.machine.reference.vision;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -34,6 +39,7 @@ import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.ElementMap;
 import org.simpleframework.xml.Root;
+import org.simpleframework.xml.core.Commit;
 
 public class ReferenceBottomVision implements PartAlignment {
 
@@ -60,6 +66,24 @@ public class ReferenceBottomVision implements PartAlignment {
     @ElementMap(required = false)
     protected Map<String, PartSettings> partSettingsByPartId = new HashMap<>();
 
+    /**
+     * Unused copies of the pipelines for findOffsetsAsync(), by pipeline. Copies are made
+     * through XML, so they are kept for the next alignment instead of being made every time.
+     */
+    private final Map<CvPipeline, Deque<CvPipeline>> pipelineCopies = new HashMap<>();
+
+    private int pipelineCopiesGeneration;
+
+    @Commit
+    public void commit() {
+        for (PartSettings partSettings : partSettingsByPartId.values()) {
+            partSettings.bottomVision = this;
+        }
+        // Parts with identical pipelines share one instead of keeping their own copy.
+        VisionUtils.sharePipelines(pipeline, partSettingsByPartId.values(),
+                partSettings -> partSettings.pipeline, PartSettings::setSharedPipeline);
+    }
+
     @Override
     public PartAlignmentOffset findOffsets(Part part, BoardLocation boardLocation,
             Location placementLocation, Nozzle nozzle) throws Exception {
@@ -78,8 +102,7 @@ public class ReferenceBottomVision implements PartAlignment {
 
         Camera camera = VisionUtils.getBottomVisionCamera();
 
-        if ((partSettings.getPreRotateUsage() == PreRotateUsage.Default && preRotate)
-                || (partSettings.getPreRotateUsage() == PreRotateUsage.AlwaysOn)) {
+        if (isPreRotate(partSettings)) {
             return findOffsetsPreRotate(part, boardLocation, placementLocation, nozzle, camera,
                     partSettings);
         }
@@ -88,6 +111,63 @@ public class ReferenceBottomVision implements PartAlignment {
                     partSettings);
         }
     }
+
+    @Override
+    public Future<PartAlignmentOffset> findOffsetsAsync(Part part, BoardLocation boardLocation,
+            Location placementLocation, Nozzle nozzle, Executor executor) throws Exception {
+        PartSettings partSettings = getPartSettings(part);
+
+        // Pre-rotate alignment moves the nozzle between its passes depending on the results, so
+        // it has to be done in one go.
+        if (!isEnabled() || !partSettings.isEnabled() || isPreRotate(partSettings)) {
+            return PartAlignment.super.findOffsetsAsync(part, boardLocation, placementLocation,
+                    nozzle, executor);
+        }
+
+        if (part == null || nozzle.getPart() == null) {
+            throw new Exception("No part on nozzle.");
+        }
+        if (part != nozzle.getPart()) {
+            throw new Exception("Part mismatch with part on nozzle.");
+        }
+
+        Camera camera = VisionUtils.getBottomVisionCamera();
+        Location wantedLocation = getCameraLocationAtPartHeight(part, camera, nozzle, 0.);
+
+        MovableUtils.moveToLocationAtSafeZ(nozzle, wantedLocation);
+
+        // The part pipeline may be shared with other parts, including ones that are still being
+        // processed, so each alignment works on its own copy.
+        CvPipeline partPipeline = partSettings.getPipeline();
+        int generation = getPipelineCopiesGeneration();
+        CvPipeline pipeline = takePipelineCopy(partPipeline);
+        try {
+            setPipelineProperties(pipeline, camera, part, nozzle);
+            pipeline.capture();
+        }
+        catch (Exception e) {
+            pipeline.release();
+            throw e;
+        }
+
+        FutureTask<PartAlignmentOffset> task = new FutureTask<>(() -> {
+            try {
+                pipeline.processCaptured();
+                return getPostRotateOffsets(pipeline, part, partSettings,
+                        getPipelineResult(pipeline, part));
+            }
+            finally {
+                returnPipelineCopy(partPipeline, pipeline, generation);
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    private boolean isPreRotate(PartSettings partSettings) {
+        return (partSettings.getPreRotateUsage() == PreRotateUsage.Default && preRotate)
+                || (partSettings.getPreRotateUsage() == PreRotateUsage.AlwaysOn);
+    }
     
     public Location getCameraLocationAtPartHeight(Part part, Camera camera, Nozzle nozzle, double angle) {
         return camera.getLocation(nozzle)
@@ -201,34 +281,39 @@ public class ReferenceBottomVision implements PartAlignment {
 
         try (CvPipeline pipeline = partSettings.getPipeline()) {
             RotatedRect rect = processPipelineAndGetResult(pipeline, camera, part, nozzle);
-            camera=(Camera)pipeline.getProperty("camera");
-
-            Logger.debug("Bottom vision part {} result rect {}", part.getId(), rect);
-
-            // Create the offsets object. This is the physical distance from
-            // the center of the camera to the located part.
-            Location offsets = VisionUtils.getPixelCenterOffsets(camera, rect.center.x, rect.center.y);
-
-            double angleOffset = VisionUtils.getPixelAngle(camera, rect.angle);
-            // Most OpenCV Pipelines can only tell us the angle of the recognized rectangle in a   
-            // wrapping-around range of 0° .. 90° as it has no notion of which rectangle side 
-            // is which. We can assume that the part is never picked more than +/-45º rotated.
-            // So we change the range wrapping-around to -45° .. +45°. See angleNorm():
-            if (partSettings.getMaxRotation() == MaxRotation.Adjust ) {
-                angleOffset = angleNorm(angleOffset);
-            } else {
-                // turning more than 180° in one direction makes no sense
-                angleOffset = angleNorm(angleOffset, 180);
-            }
+            return getPostRotateOffsets(pipeline, part, partSettings, rect);
+        }
+    }
 
-            // Set the angle on the offsets.
-            offsets = offsets.derive(null, null, null, angleOffset);
-            Logger.debug("Final offsets {}", offsets);
+    private PartAlignmentOffset getPostRotateOffsets(CvPipeline pipeline, Part part,
+            PartSettings partSettings, RotatedRect rect) {
+        Camera camera = (Camera) pipeline.getProperty("camera");
 
-            displayResult(pipeline, part, offsets, camera);
+        Logger.debug("Bottom vision part {} result rect {}", part.getId(), rect);
+
+        // Create the offsets object. This is the physical distance from
+        // the center of the camera to the located part.
+        Location offsets = VisionUtils.getPixelCenterOffsets(camera, rect.center.x, rect.center.y);
 
-            return new PartAlignmentOffset(offsets, false);
+        double angleOffset = VisionUtils.getPixelAngle(camera, rect.angle);
+        // Most OpenCV Pipelines can only tell us the angle of the recognized rectangle in a   
+        // wrapping-around range of 0° .. 90° as it has no notion of which rectangle side 
+        // is which. We can assume that the part is never picked more than +/-45º rotated.
+        // So we change the range wrapping-around to -45° .. +45°. See angleNorm():
+        if (partSettings.getMaxRotation() == MaxRotation.Adjust ) {
+            angleOffset = angleNorm(angleOffset);
+        } else {
+            // turning more than 180° in one direction makes no sense
+            angleOffset = angleNorm(angleOffset, 180);
         }
+
+        // Set the angle on the offsets.
+        offsets = offsets.derive(null, null, null, angleOffset);
+        Logger.debug("Final offsets {}", offsets);
+
+        displayResult(pipeline, part, offsets, camera);
+
+        return new PartAlignmentOffset(offsets, false);
     }
 
     private static void displayResult(CvPipeline pipeline, Part part, Location offsets, Camera camera) {
@@ -245,13 +330,25 @@ public class ReferenceBottomVision implements PartAlignment {
         }
     }
 
-    private static RotatedRect processPipelineAndGetResult(CvPipeline pipeline, Camera camera, Part part,
+    private RotatedRect processPipelineAndGetResult(CvPipeline pipeline, Camera camera, Part part,
             Nozzle nozzle) throws Exception {
+        setPipelineProperties(pipeline, camera, part, nozzle);
+        pipeline.process();
+        return getPipelineResult(pipeline, part);
+    }
+
+    private void setPipelineProperties(CvPipeline pipeline, Camera camera, Part part,
+            Nozzle nozzle) {
         pipeline.setProperty("camera", camera);
         pipeline.setProperty("part", part);
         pipeline.setProperty("nozzle", nozzle);
-        pipeline.process();
+        // Only the part needs to settle, not the rest of the image.
+        pipeline.setProperty("settleRoi", part.getPackage() == null ? null
+                : VisionUtils.getSettleRoi(camera, part.getPackage().getFootprint(),
+                        maxLinearOffset));
+    }
 
+    private static RotatedRect getPipelineResult(CvPipeline pipeline, Part part) throws Exception {
         Result result = pipeline.getResult(VisionUtils.PIPELINE_RESULTS_NAME);
 
         // Fall back to the old name of "result" instead of "results" for backwards
@@ -333,6 +430,46 @@ public class ReferenceBottomVision implements PartAlignment {
 
     public void setPipeline(CvPipeline pipeline) {
         this.pipeline = pipeline;
+        clearPipelineCopies();
+    }
+
+    private synchronized int getPipelineCopiesGeneration() {
+        return pipelineCopiesGeneration;
+    }
+
+    /**
+     * Take an unused copy of the pipeline, or make a new one.
+     */
+    private CvPipeline takePipelineCopy(CvPipeline pipeline) throws CloneNotSupportedException {
+        synchronized (this) {
+            Deque<CvPipeline> copies = pipelineCopies.get(pipeline);
+            if (copies != null && !copies.isEmpty()) {
+                return copies.pop();
+            }
+        }
+        return pipeline.clone();
+    }
+
+    /**
+     * Give a copy taken with takePipelineCopy() back for reuse, unless the copies were cleared
+     * since it was taken.
+     */
+    private void returnPipelineCopy(CvPipeline pipeline, CvPipeline copy, int generation) {
+        copy.release();
+        synchronized (this) {
+            if (generation == pipelineCopiesGeneration) {
+                pipelineCopies.computeIfAbsent(pipeline, k -> new ArrayDeque<>()).push(copy);
+            }
+        }
+    }
+
+    /**
+     * Drop the copies of the pipelines used for alignment. Must be called when a pipeline may
+     * have been changed.
+     */
+    public synchronized void clearPipelineCopies() {
+        pipelineCopies.clear();
+        pipelineCopiesGeneration++;
     }
 
     public boolean isEnabled() {
@@ -443,22 +580,28 @@ public class ReferenceBottomVision implements PartAlignment {
         @Attribute(required = false)
         protected MaxRotation maxRotation = MaxRotation.Adjust;
         
-        @Element
+        /**
+         * The part's own pipeline, or null if the part uses the default pipeline of the
+         * ReferenceBottomVision.
+         */
+        @Element(required = false)
         protected CvPipeline pipeline;
 
+        /**
+         * True if the pipeline is shared with other parts, so it must be copied before it is
+         * edited.
+         */
+        protected boolean pipelineShared;
+
+        protected ReferenceBottomVision bottomVision;
+
         public PartSettings() {
 
         }
 
         public PartSettings(ReferenceBottomVision bottomVision) {
+            this.bottomVision = bottomVision;
             setEnabled(bottomVision.isEnabled());
-            try {
-                setPipeline(bottomVision.getPipeline()
-                                        .clone());
-            }
-            catch (Exception e) {
-                throw new Error(e);
-            }
         }
 
         public boolean isEnabled() {
@@ -477,12 +620,54 @@ public class ReferenceBottomVision implements PartAlignment {
             this.preRotateUsage = preRotateUsage;
         }
 
+        /**
+         * Get the pipeline used for this part. This is the shared default pipeline unless the
+         * part has its own, so use getEditablePipeline() to change it.
+         */
         public CvPipeline getPipeline() {
+            if (pipeline == null) {
+                return bottomVision == null ? null : bottomVision.getPipeline();
+            }
+            return pipeline;
+        }
+
+        /**
+         * Get the part's own pipeline, copying the default pipeline first if the part uses it.
+         */
+        public CvPipeline getEditablePipeline() throws CloneNotSupportedException {
+            if (bottomVision != null) {
+                bottomVision.clearPipelineCopies();
+            }
+            if (pipeline == null || pipelineShared) {
+                // Copy the pipeline in effect, so the other parts using it are not changed.
+                CvPipeline inEffect = getPipeline();
+                pipeline = inEffect == null ? createDefaultPipeline() : inEffect.clone();
+                pipelineShared = false;
+            }
             return pipeline;
         }
 
+        /**
+         * Set the part's own pipeline. Null makes the part use the default pipeline.
+         */
         public void setPipeline(CvPipeline pipeline) {
             this.pipeline = pipeline;
+            pipelineShared = false;
+            if (bottomVision != null) {
+                bottomVision.clearPipelineCopies();
+            }
+        }
+
+        /**
+         * Use a pipeline that is shared with other parts, or the default pipeline if it is null.
+         */
+        void setSharedPipeline(CvPipeline pipeline) {
+            this.pipeline = pipeline;
+            pipelineShared = pipeline != null;
+        }
+
+        public boolean isUsingDefaultPipeline() {
+            return pipeline == null;
         }
         
         public MaxRotation getMaxRotation() {
@@ -51,6 +51,7 @@ import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.ElementMap;
 import org.simpleframework.xml.Root;
+import org.simpleframework.xml.core.Commit;
 
 import com.google.common.collect.Sets;
 
@@ -74,7 +75,17 @@ public class ReferenceFiducialLocator implements FiducialLocator {
     
     @Element(required = false)
     protected FiducialLocatorTolerances tolerances = new FiducialLocatorTolerances();
-    
+
+    @Commit
+    public void commit() {
+        for (PartSettings partSettings : partSettingsByPartId.values()) {
+            partSettings.fiducialLocator = this;
+        }
+        // Parts with identical pipelines share one instead of keeping their own copy.
+        VisionUtils.sharePipelines(pipeline, partSettingsByPartId.values(),
+                partSettings -> partSettings.pipeline, PartSettings::setSharedPipeline);
+    }
+
     public static class FiducialLocatorTolerances {
         protected double scalingTolerance = 0.05; //unitless
         protected double shearingTolerance = 0.05; //unitless
@@ -362,6 +373,9 @@ public class ReferenceFiducialLocator implements FiducialLocator {
             pipeline.setProperty("part", part);
             pipeline.setProperty("package", pkg);
             pipeline.setProperty("footprint", footprint);
+            // Only the fiducial needs to settle, wherever it is within the tolerance.
+            pipeline.setProperty("settleRoi", VisionUtils.getSettleRoi(camera, footprint,
+                    tolerances.boardLocationTolerance));
             
             for (int i = 0; i < repeatFiducialRecognition; i++) {
                 List<KeyPoint> keypoints;
@@ -555,28 +569,71 @@ public class ReferenceFiducialLocator implements FiducialLocator {
         @Attribute
         protected boolean enabled;
 
-        @Element
+        /**
+         * The part's own pipeline, or null if the part uses the default pipeline of the
+         * ReferenceFiducialLocator.
+         */
+        @Element(required = false)
         protected CvPipeline pipeline;
 
+        /**
+         * True if the pipeline is shared with other parts, so it must be copied before it is
+         * edited.
+         */
+        protected boolean pipelineShared;
+
+        protected ReferenceFiducialLocator fiducialLocator;
+
         public PartSettings() {
 
         }
 
         public PartSettings(ReferenceFiducialLocator fiducialLocator) {
-            try {
-                setPipeline(fiducialLocator.getPipeline().clone());
-            }
-            catch (Exception e) {
-                throw new Error(e);
-            }
+            this.fiducialLocator = fiducialLocator;
         }
 
+        /**
+         * Get the pipeline used for this part. This is the shared default pipeline unless the
+         * part has its own, so use getEditablePipeline() to change it.
+         */
         public CvPipeline getPipeline() {
+            if (pipeline == null) {
+                return fiducialLocator == null ? null : fiducialLocator.getPipeline();
+            }
             return pipeline;
         }
 
+        /**
+         * Get the part's own pipeline, copying the default pipeline first if the part uses it.
+         */
+        public CvPipeline getEditablePipeline() throws CloneNotSupportedException {
+            if (pipeline == null || pipelineShared) {
+                // Copy the pipeline in effect, so the other parts using it are not changed.
+                CvPipeline inEffect = getPipeline();
+                pipeline = inEffect == null ? createDefaultPipeline() : inEffect.clone();
+                pipelineShared = false;
+            }
+            return pipeline;
+        }
+
+        /**
+         * Set the part's own pipeline. Null makes the part use the default pipeline.
+         */
         public void setPipeline(CvPipeline pipeline) {
             this.pipeline = pipeline;
+            pipelineShared = false;
+        }
+
+        /**
+         * Use a pipeline that is shared with other parts, or the default pipeline if it is null.
+         */
+        void setSharedPipeline(CvPipeline pipeline) {
+            this.pipeline = pipeline;
+            pipelineShared = pipeline != null;
+        }
+
+        public boolean isUsingDefaultPipeline() {
+            return pipeline == null;
         }
     }  
 }
@@ -2,6 +2,8 @@ package org.openpnp.machine.reference.vision.wizards;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -114,8 +116,7 @@ public class ReferenceBottomVisionConfigurationWizard extends AbstractConfigurat
                 UiUtils.messageBoxOnException(() -> {
                     for (PartSettings partSettings : bottomVision.getPartSettingsByPartId()
                                                                  .values()) {
-                        partSettings.setPipeline(bottomVision.getPipeline()
-                                                             .clone());
+                        partSettings.setPipeline(null);
                     }
                     MessageBoxes.infoBox("Parts Reset",
                             "All custom part pipelines have been reset.");
@@ -181,6 +182,13 @@ public class ReferenceBottomVisionConfigurationWizard extends AbstractConfigurat
 		pipeline.setProperty("nozzle", MainFrame.get().getMachineControls().getSelectedNozzle());
         CvPipelineEditor editor = new CvPipelineEditor(pipeline);
         JDialog dialog = new CvPipelineEditorDialog(MainFrame.get(), "Bottom Vision Pipeline", editor);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowDeactivated(WindowEvent e) {
+                // Alignments must not keep using copies of the pipeline made before the edits.
+                bottomVision.clearPipelineCopies();
+            }
+        });
         dialog.setVisible(true);
 }
 
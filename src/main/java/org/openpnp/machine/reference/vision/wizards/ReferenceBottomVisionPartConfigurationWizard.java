@@ -2,6 +2,8 @@ package org.openpnp.machine.reference.vision.wizards;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -80,8 +82,13 @@ public class ReferenceBottomVisionPartConfigurationWizard extends AbstractConfig
 
         JButton btnTestAlighment = new JButton("Test Alignment");
         btnTestAlighment.addActionListener((e) -> {
-            UiUtils.submitUiMachineTask(() -> {
-                testAlignment();
+            UiUtils.messageBoxOnException(() -> {
+                Nozzle nozzle = MainFrame.get()
+                                         .getMachineControls()
+                                         .getSelectedNozzle();
+                UiUtils.submitUiMachineTask(() -> {
+                    testAlignment(nozzle);
+                }, nozzle.getHead(), nozzle, VisionUtils.getBottomVisionCamera());
             });
         });
         
@@ -119,8 +126,7 @@ public class ReferenceBottomVisionPartConfigurationWizard extends AbstractConfig
                     null, JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
             if (result == JOptionPane.YES_OPTION) {
                 UiUtils.messageBoxOnException(() -> {
-                    partSettings.setPipeline(bottomVision.getPipeline()
-                                                         .clone());
+                    partSettings.setPipeline(null);
                     editPipeline();
                 });
             }
@@ -135,7 +141,7 @@ public class ReferenceBottomVisionPartConfigurationWizard extends AbstractConfig
         panel.add(comboBoxMaxRotation, "4, 10, fill, default");
     }
 
-    private void testAlignment() throws Exception {
+    private void testAlignment(Nozzle nozzle) throws Exception {
         if (!bottomVision.isEnabled()) {
             MessageBoxes.errorBox(getTopLevelAncestor(), "Error",
                     "Bottom vision is not enabled in Machine Setup.");
@@ -148,10 +154,6 @@ public class ReferenceBottomVisionPartConfigurationWizard extends AbstractConfig
             return;
         }
 
-        Nozzle nozzle = MainFrame.get()
-                                 .getMachineControls()
-                                 .getSelectedNozzle();
-
         // perform the alignment
         PartAlignment.PartAlignmentOffset alignmentOffset = VisionUtils.findPartAlignmentOffsets(
                 bottomVision, part, null, new Location(LengthUnit.Millimeters), nozzle);
@@ -203,12 +205,19 @@ public class ReferenceBottomVisionPartConfigurationWizard extends AbstractConfig
     }
 
     private void editPipeline() throws Exception {
-        CvPipeline pipeline = partSettings.getPipeline();
+        CvPipeline pipeline = partSettings.getEditablePipeline();
         pipeline.setProperty("camera", VisionUtils.getBottomVisionCamera());
 		pipeline.setProperty("nozzle", MainFrame.get().getMachineControls().getSelectedNozzle());
 
         CvPipelineEditor editor = new CvPipelineEditor(pipeline);
         JDialog dialog = new CvPipelineEditorDialog(MainFrame.get(), "Bottom Vision Pipeline", editor);
+        dialog.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowDeactivated(WindowEvent e) {
+                // Alignments must not keep using copies of the pipeline made before the edits.
+                bottomVision.clearPipelineCopies();
+            }
+        });
         dialog.setVisible(true);
 }
 
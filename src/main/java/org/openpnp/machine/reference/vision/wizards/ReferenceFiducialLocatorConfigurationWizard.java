@@ -104,7 +104,7 @@ public class ReferenceFiducialLocatorConfigurationWizard extends AbstractConfigu
                 UiUtils.messageBoxOnException(() -> {
                     for (PartSettings partSettings : fiducialLocator.getPartSettingsByPartId()
                             .values()) {
-                        partSettings.setPipeline(fiducialLocator.getPipeline().clone());
+                        partSettings.setPipeline(null);
                     }
                     MessageBoxes.infoBox("Parts Reset",
                             "All custom part pipelines have been reset.");
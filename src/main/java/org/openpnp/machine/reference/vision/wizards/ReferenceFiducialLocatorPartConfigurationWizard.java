@@ -76,7 +76,7 @@ public class ReferenceFiducialLocatorPartConfigurationWizard extends AbstractCon
                     null, JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
             if (result == JOptionPane.YES_OPTION) {
                 UiUtils.messageBoxOnException(() -> {
-                    partSettings.setPipeline(fiducialLocator.getPipeline().clone());
+                    partSettings.setPipeline(null);
                     editPipeline();
                 });
             }
@@ -85,7 +85,7 @@ public class ReferenceFiducialLocatorPartConfigurationWizard extends AbstractCon
     }
 
     private void editPipeline() throws Exception {
-        CvPipeline pipeline = partSettings.getPipeline();
+        CvPipeline pipeline = partSettings.getEditablePipeline();
         Camera camera = Configuration.get().getMachine().getDefaultHead().getDefaultCamera();
         pipeline.setProperty("camera", camera);
         pipeline.setProperty("part", part);
@@ -25,6 +25,7 @@ import java.util.Map;
 
 import org.openpnp.model.Board.Side;
 import org.openpnp.model.Placement.Type;
+import org.openpnp.util.Utils2D;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.Element;
 import org.simpleframework.xml.ElementMap;
@@ -60,6 +61,11 @@ public class BoardLocation extends AbstractModelObject {
      */
     private AffineTransform placementTransform;
 
+    /**
+     * The compiled placement transform, see getBoardPlacementTransform().
+     */
+    private volatile Utils2D.BoardPlacementTransform boardPlacementTransform;
+
     BoardLocation() {
         setLocation(new Location(LengthUnit.Millimeters));
     }
@@ -141,6 +147,7 @@ public class BoardLocation extends AbstractModelObject {
     public void setSide(Side side) {
         Object oldValue = this.side;
         this.side = side;
+        boardPlacementTransform = null;
         firePropertyChange("side", oldValue, side);
     }
 
@@ -218,9 +225,24 @@ public class BoardLocation extends AbstractModelObject {
     public void setPlacementTransform(AffineTransform placementTransform) {
         Object oldValue = this.placementTransform;
         this.placementTransform = placementTransform;
+        boardPlacementTransform = null;
         firePropertyChange("placementTransform", oldValue, placementTransform);
     }
 
+    /**
+     * Get the transform from placement locations on the board to machine locations. It is
+     * compiled once and reused until the location, side, placement transform or board dimensions
+     * change.
+     */
+    public Utils2D.BoardPlacementTransform getBoardPlacementTransform() {
+        Utils2D.BoardPlacementTransform boardPlacementTransform = this.boardPlacementTransform;
+        if (boardPlacementTransform == null || !boardPlacementTransform.isValidFor(this)) {
+            boardPlacementTransform = new Utils2D.BoardPlacementTransform(this);
+            this.boardPlacementTransform = boardPlacementTransform;
+        }
+        return boardPlacementTransform;
+    }
+
     @Override
     public String toString() {
         return String.format("board (%s), location (%s), side (%s)", boardFile, location, side);
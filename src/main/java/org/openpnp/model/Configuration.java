@@ -23,13 +23,24 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.prefs.Preferences;
 
 import org.apache.commons.io.FileUtils;
@@ -74,8 +85,21 @@ public class Configuration extends AbstractModelObject {
     private static final int PREF_VERTICAL_SCROLL_UNIT_INCREMENT_DEF = 16;
     private static final String imgurClientId = "620fc1fa8ee0180";
 
-    private LinkedHashMap<String, Package> packages = new LinkedHashMap<>();
-    private LinkedHashMap<String, Part> parts = new LinkedHashMap<>();
+    /**
+     * Packages can be changed through their footprint without firing a property change, so they
+     * are kept once they have been read.
+     */
+    private LazyLibrary<Package> packages = new LazyLibrary<>(Package.class, "openpnp-packages",
+            list -> {
+                PackagesConfigurationHolder holder = new PackagesConfigurationHolder();
+                holder.packages = new ArrayList<>(list);
+                return holder;
+            }, false);
+    private LazyLibrary<Part> parts = new LazyLibrary<>(Part.class, "openpnp-parts", list -> {
+        PartsConfigurationHolder holder = new PartsConfigurationHolder();
+        holder.parts = new ArrayList<>(list);
+        return holder;
+    }, true);
     private Machine machine;
     private LinkedHashMap<File, Board> boards = new LinkedHashMap<>();
     private boolean loaded;
@@ -85,6 +109,23 @@ public class Configuration extends AbstractModelObject {
     private Scripting scripting;
     private EventBus bus = new EventBus();
 
+    /**
+     * The configuration files as they were last saved, so that saving can skip the files whose
+     * content did not change. Guarded by this.
+     */
+    private Map<File, SavedFile> savedFiles = new HashMap<>();
+    private ExecutorService saveExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Configuration Save");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * A save that was queued but has not started writing yet, and the content it will write.
+     * Guarded by saveExecutor.
+     */
+    private CompletableFuture<Void> pendingSave;
+    private Map<File, byte[]> pendingContents;
+
     public static Configuration get() {
         if (instance == null) {
             throw new Error("Configuration instance not yet initialized.");
@@ -306,72 +347,161 @@ public class Configuration extends AbstractModelObject {
         scripting = new Scripting();
     }
 
-    public synchronized void save() throws Exception {
+    /**
+     * Save the configuration. The files are written by the same thread as background saves, so
+     * they are never overwritten with older content.
+     */
+    public void save() throws Exception {
+        Map<File, byte[]> contents = serialize();
+        try {
+            write(contents).get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Save the configuration without waiting for the files to be written. The configuration is
+     * serialized on the calling thread, so it must be called from the thread that changes the
+     * configuration, like save(). Only the writing is done in the background. Content that was
+     * queued but is not being written yet is replaced by the newer content, so a burst of
+     * requests results in at most one more write per file.
+     * 
+     * @return A future that completes when the files are written, or exceptionally with the error
+     *         that stopped it.
+     */
+    public CompletableFuture<Void> saveInBackground() {
+        try {
+            return write(serialize());
+        }
+        catch (Exception e) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Serialize the configuration files.
+     * 
+     * @return The content of each file, in the order they are written.
+     */
+    private synchronized Map<File, byte[]> serialize() throws Exception {
+        Map<File, byte[]> contents = new LinkedHashMap<>();
+        File file = new File(configurationDirectory, "machine.xml");
         try {
-            saveMachine(new File(configurationDirectory, "machine.xml"));
+            contents.put(file, serializeMachine());
         }
         catch (Exception e) {
             throw new Exception("Error while saving machine.xml (" + e.getMessage() + ")", e);
         }
+        File packagesFile = new File(configurationDirectory, "packages.xml");
         try {
-            savePackages(new File(configurationDirectory, "packages.xml"));
+            packages.save(packagesFile, content -> contents.put(packagesFile, content));
         }
         catch (Exception e) {
             throw new Exception("Error while saving packages.xml (" + e.getMessage() + ")", e);
         }
+        File partsFile = new File(configurationDirectory, "parts.xml");
         try {
-            saveParts(new File(configurationDirectory, "parts.xml"));
+            parts.save(partsFile, content -> contents.put(partsFile, content));
         }
         catch (Exception e) {
             throw new Exception("Error while saving parts.xml (" + e.getMessage() + ")", e);
         }
+        return contents;
     }
 
-    public Package getPackage(String id) {
-        if (id == null) {
-            return null;
+    /**
+     * Queue the contents to be written by the save thread.
+     */
+    private CompletableFuture<Void> write(Map<File, byte[]> contents) {
+        synchronized (saveExecutor) {
+            pendingContents = contents;
+            if (pendingSave != null) {
+                return pendingSave;
+            }
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            pendingSave = future;
+            saveExecutor.execute(() -> {
+                Map<File, byte[]> pending;
+                synchronized (saveExecutor) {
+                    pending = pendingContents;
+                    pendingContents = null;
+                    pendingSave = null;
+                }
+                try {
+                    for (Map.Entry<File, byte[]> entry : pending.entrySet()) {
+                        try {
+                            writeIfChanged(entry.getKey(), entry.getValue());
+                        }
+                        catch (Exception e) {
+                            throw new Exception("Error while saving " + entry.getKey().getName()
+                                    + " (" + e.getMessage() + ")", e);
+                        }
+                    }
+                    future.complete(null);
+                }
+                catch (Exception e) {
+                    Logger.error(e, "Background configuration save failed.");
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
         }
-        return packages.get(id.toUpperCase());
     }
 
+    public Package getPackage(String id) {
+        return packages.get(id);
+    }
+
+    /**
+     * Get the packages. The list is a snapshot whose packages are read from packages.xml as they
+     * are accessed.
+     */
     public List<Package> getPackages() {
-        return Collections.unmodifiableList(new ArrayList<>(packages.values()));
+        return packages.list();
     }
 
     public void addPackage(Package pkg) {
         if (null == pkg.getId()) {
             throw new Error("Package with null Id cannot be added to Configuration.");
         }
-        packages.put(pkg.getId().toUpperCase(), pkg);
+        packages.put(pkg);
         firePropertyChange("packages", null, packages);
     }
 
     public void removePackage(Package pkg) {
-        packages.remove(pkg.getId().toUpperCase());
+        packages.remove(pkg.getId());
         firePropertyChange("packages", null, packages);
     }
 
     public Part getPart(String id) {
-        if (id == null) {
-            return null;
-        }
-        return parts.get(id.toUpperCase());
+        return parts.get(id);
     }
 
+    /**
+     * Get the parts. The list is a snapshot whose parts are read from parts.xml as they are
+     * accessed, so only copy it if all the parts are needed.
+     */
     public List<Part> getParts() {
-        return Collections.unmodifiableList(new ArrayList<>(parts.values()));
+        return parts.list();
     }
 
     public void addPart(Part part) {
         if (null == part.getId()) {
             throw new Error("Part with null Id cannot be added to Configuration.");
         }
-        parts.put(part.getId().toUpperCase(), part);
+        parts.put(part);
         firePropertyChange("parts", null, parts);
     }
 
     public void removePart(Part part) {
-        parts.remove(part.getId().toUpperCase());
+        parts.remove(part.getId());
         firePropertyChange("parts", null, parts);
     }
 
@@ -400,15 +530,75 @@ public class Configuration extends AbstractModelObject {
         return board;
     }
     
-    private static void serializeObject(Object o, File file) throws Exception {
+    private byte[] serializeObject(Object o) throws Exception {
         Serializer serializer = createSerializer();
-        // This write forces any errors that will appear to happen before we start writing to
-        // the file, which keeps us from writing a partial configuration to the real file.
-        serializer.write(o, new ByteArrayOutputStream());
-        FileOutputStream out = new FileOutputStream(file);
+        // Serialize to memory first, so any errors happen before we touch the real file.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         serializer.write(o, out);
         out.write('\n');
-        out.close();
+        return out.toByteArray();
+    }
+
+    private static class SavedFile {
+        final byte[] digest;
+        final long length;
+        final long lastModified;
+
+        SavedFile(File file, byte[] digest) {
+            this.digest = digest;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        boolean isUnchanged(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    /**
+     * Replace the file with the content, unless it already has exactly that content. The content
+     * is written to a temporary file in the same directory, which is then renamed over the file,
+     * so a failed or interrupted save never leaves a partially written configuration behind.
+     */
+    private synchronized void writeIfChanged(File file, byte[] content) throws Exception {
+        byte[] digest = digest(content);
+        SavedFile saved = savedFiles.get(file);
+        byte[] fileDigest = null;
+        if (saved != null && saved.isUnchanged(file)) {
+            fileDigest = saved.digest;
+        }
+        else if (file.exists()) {
+            // Not saved by us yet, or changed since.
+            fileDigest = digest(Files.readAllBytes(file.toPath()));
+        }
+        if (Arrays.equals(digest, fileDigest)) {
+            savedFiles.put(file, new SavedFile(file, digest));
+            return;
+        }
+
+        File temp = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        try {
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(content);
+                out.getFD().sync();
+            }
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        savedFiles.put(file, new SavedFile(file, digest));
+    }
+
+    private static byte[] digest(byte[] content) throws Exception {
+        return MessageDigest.getInstance("SHA-1").digest(content);
     }
 
     private void loadMachine(File file) throws Exception {
@@ -417,39 +607,23 @@ public class Configuration extends AbstractModelObject {
         machine = holder.machine;
     }
 
-    private void saveMachine(File file) throws Exception {
+    private byte[] serializeMachine() throws Exception {
         MachineConfigurationHolder holder = new MachineConfigurationHolder();
         holder.machine = machine;
-        serializeObject(holder, file);
+        return serializeObject(holder);
     }
 
+    /**
+     * Packages and parts are only indexed when loading, see LazyLibrary.
+     */
     private void loadPackages(File file) throws Exception {
-        Serializer serializer = createSerializer();
-        PackagesConfigurationHolder holder =
-                serializer.read(PackagesConfigurationHolder.class, file);
-        for (Package pkg : holder.packages) {
-            addPackage(pkg);
-        }
-    }
-
-    private void savePackages(File file) throws Exception {
-        PackagesConfigurationHolder holder = new PackagesConfigurationHolder();
-        holder.packages = new ArrayList<>(packages.values());
-        serializeObject(holder, file);
+        packages.load(file);
+        firePropertyChange("packages", null, packages);
     }
 
     private void loadParts(File file) throws Exception {
-        Serializer serializer = createSerializer();
-        PartsConfigurationHolder holder = serializer.read(PartsConfigurationHolder.class, file);
-        for (Part part : holder.parts) {
-            addPart(part);
-        }
-    }
-
-    private void saveParts(File file) throws Exception {
-        PartsConfigurationHolder holder = new PartsConfigurationHolder();
-        holder.parts = new ArrayList<>(parts.values());
-        serializeObject(holder, file);
+        parts.load(file);
+        firePropertyChange("parts", null, parts);
     }
 
     public Job loadJob(File file) throws Exception {
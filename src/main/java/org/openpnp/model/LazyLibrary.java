@@ -0,0 +1,573 @@
+/*
+ * Copyright (C) 2011 Jason von Nieda <jason@vonnieda.org>
+ *
+ * This file is part of OpenPnP.
+ *
+ * OpenPnP is free software: you can redistribute it and/or modify it under the terms of the GNU
+ * General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * OpenPnP is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even
+ * the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+ * Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with OpenPnP. If not, see
+ * <http://www.gnu.org/licenses/>.
+ *
+ * For more information about OpenPnP visit http://openpnp.org
+ */
+
+package org.openpnp.model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.simpleframework.xml.Serializer;
+
+/**
+ * A library of Identifiables, such as the parts or packages, backed by a configuration file that
+ * is only indexed when it is loaded. Loading keeps the content of the file and scans it for the id
+ * and byte range of each entry without parsing it, and an entry is only read into an object when
+ * it is first asked for. Entries are always read from the content loaded or last saved, never from
+ * the file again, so changes made to the file by others can't be mixed in.
+ *
+ * Objects are held with a SoftReference until they fire a property change, so entries that were
+ * only looked at can be collected again and are read again if needed. Saving copies the entries
+ * that were not changed from the content as they are and only serializes the others.
+ *
+ * Ids are matched ignoring case, like Configuration always did.
+ */
+public class LazyLibrary<T extends Identifiable> {
+    public interface FileWriter {
+        void write(byte[] content) throws Exception;
+    }
+
+    private class Entry {
+        final String id;
+        /**
+         * Byte range of the entry in the file, or -1 if it is not in the file.
+         */
+        long offset = -1;
+        int length;
+        SoftReference<T> cached;
+        /**
+         * Set for entries that changed or are not in the file, and so must not be collected.
+         */
+        T pinned;
+        boolean watched;
+        final PropertyChangeListener changeListener = new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent evt) {
+                pin(Entry.this, evt.getSource());
+            }
+        };
+
+        Entry(String id) {
+            this.id = id;
+        }
+    }
+
+    private final Class<T> type;
+    private final String rootName;
+    private final Function<List<T>, Object> holderFactory;
+    private final boolean softReferences;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private File file;
+    /**
+     * The content of the file as loaded or last saved. The entries' byte ranges refer to it.
+     */
+    private byte[] content;
+    private Serializer serializer;
+
+    /**
+     * @param type The class of the entries.
+     * @param rootName The name of the root element of the file.
+     * @param holderFactory Creates the object that is serialized as the root element for a list of
+     *        entries.
+     * @param softReferences If false, entries are pinned as soon as they are read. Use this for
+     *        classes that can be changed without firing property changes.
+     */
+    public LazyLibrary(Class<T> type, String rootName, Function<List<T>, Object> holderFactory,
+            boolean softReferences) {
+        this.type = type;
+        this.rootName = rootName;
+        this.holderFactory = holderFactory;
+        this.softReferences = softReferences;
+    }
+
+    /**
+     * Index the file, replacing all entries. Entries are not read until they are asked for.
+     */
+    public synchronized void load(File file) throws Exception {
+        entries.clear();
+        this.file = file;
+        content = Files.readAllBytes(file.toPath());
+        String encoding;
+        try (InputStream in = new ByteArrayInputStream(content)) {
+            encoding = scan(in, (id, offset, length) -> {
+                if (id == null) {
+                    throw new Exception("Entry without id at byte " + offset);
+                }
+                Entry entry = new Entry(id);
+                entry.offset = offset;
+                entry.length = length;
+                entries.put(id.toUpperCase(), entry);
+            });
+        }
+        if (encoding != null && !encoding.equalsIgnoreCase("UTF-8")) {
+            // Entries can't be read on their own or copied into a UTF-8 file, so read them all
+            // now and serialize them when saving.
+            String prolog = "<?xml version=\"1.0\" encoding=\"" + encoding + "\"?>";
+            List<Entry> list = new ArrayList<>(entries.values());
+            entries.clear();
+            for (Entry entry : list) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                out.write(prolog.getBytes(StandardCharsets.US_ASCII));
+                out.write(read(entry));
+                T o = getSerializer().read(type, new ByteArrayInputStream(out.toByteArray()));
+                put(o);
+            }
+        }
+    }
+
+    public synchronized T get(String id) {
+        if (id == null) {
+            return null;
+        }
+        Entry entry = entries.get(id.toUpperCase());
+        if (entry == null) {
+            return null;
+        }
+        return materialize(entry);
+    }
+
+    public synchronized boolean contains(String id) {
+        return id != null && entries.containsKey(id.toUpperCase());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Add an entry, replacing one with the same id.
+     */
+    public synchronized void put(T o) {
+        Entry entry = new Entry(o.getId());
+        entry.pinned = o;
+        entries.put(o.getId().toUpperCase(), entry);
+    }
+
+    public synchronized void remove(String id) {
+        entries.remove(id.toUpperCase());
+    }
+
+    /**
+     * Get a snapshot of the entries. Entries are read as they are accessed through the list, so a
+     * table showing the list only reads the rows that are displayed.
+     */
+    public synchronized List<T> list() {
+        final List<Entry> snapshot = new ArrayList<>(entries.values());
+        return Collections.unmodifiableList(new View(snapshot));
+    }
+
+    private class View extends AbstractList<T> implements RandomAccess {
+        private final List<Entry> snapshot;
+
+        View(List<Entry> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public T get(int index) {
+            synchronized (LazyLibrary.this) {
+                return materialize(snapshot.get(index));
+            }
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size();
+        }
+    }
+
+    /**
+     * Write the library and re-index it to the written content. Entries that were not changed are
+     * copied from the current content, the others are serialized. The writer may only queue the
+     * content to be written later, entries are read from the content either way.
+     *
+     * @param file The file being written.
+     * @param writer Writes the content to the file.
+     */
+    public synchronized void save(File file, FileWriter writer) throws Exception {
+        List<Entry> list = new ArrayList<>(entries.values());
+        long[] offsets = new long[list.size()];
+        int[] lengths = new int[list.size()];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("<" + rootName + ">\n").getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < list.size(); i++) {
+            Entry entry = list.get(i);
+            byte[] bytes;
+            if (entry.pinned != null || entry.offset < 0) {
+                bytes = serialize(materialize(entry));
+            }
+            else {
+                bytes = read(entry);
+            }
+            out.write("   ".getBytes(StandardCharsets.UTF_8));
+            offsets[i] = out.size();
+            lengths[i] = bytes.length;
+            out.write(bytes);
+            out.write('\n');
+        }
+        out.write(("</" + rootName + ">\n").getBytes(StandardCharsets.UTF_8));
+        byte[] content = out.toByteArray();
+
+        this.file = file;
+        this.content = content;
+        for (int i = 0; i < list.size(); i++) {
+            Entry entry = list.get(i);
+            entry.offset = offsets[i];
+            entry.length = lengths[i];
+            if (entry.pinned != null && softReferences) {
+                // It is saved now, so it can be collected again until it changes.
+                entry.cached = new SoftReference<>(entry.pinned);
+                watch(entry, entry.pinned);
+                entry.pinned = null;
+            }
+        }
+
+        writer.write(content);
+    }
+
+    private T materialize(Entry entry) {
+        if (entry.pinned != null) {
+            return entry.pinned;
+        }
+        T o = entry.cached == null ? null : entry.cached.get();
+        if (o != null) {
+            return o;
+        }
+        try {
+            o = getSerializer().read(type, new ByteArrayInputStream(read(entry)));
+        }
+        catch (Exception e) {
+            throw new Error("Error while reading " + entry.id + " from " + file.getName() + " ("
+                    + e.getMessage() + ")", e);
+        }
+        if (softReferences) {
+            entry.cached = new SoftReference<>(o);
+            entry.watched = false;
+            watch(entry, o);
+        }
+        else {
+            entry.pinned = o;
+        }
+        return o;
+    }
+
+    private void watch(Entry entry, T o) {
+        if (!entry.watched && o instanceof AbstractModelObject) {
+            ((AbstractModelObject) o).addPropertyChangeListener(entry.changeListener);
+            entry.watched = true;
+        }
+    }
+
+    /**
+     * Pin the entry's object because it changed. The listener is per entry, so this also works
+     * for changes of the id.
+     */
+    private synchronized void pin(Entry entry, Object o) {
+        if (entry.cached != null && entry.cached.get() == o) {
+            entry.pinned = type.cast(o);
+        }
+    }
+
+    private byte[] read(Entry entry) {
+        return Arrays.copyOfRange(content, (int) entry.offset, (int) entry.offset + entry.length);
+    }
+
+    /**
+     * Serialize an entry the way it appears in the file, by serializing a holder with just the
+     * entry and cutting the entry out of it.
+     */
+    private byte[] serialize(T o) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        getSerializer().write(holderFactory.apply(Collections.singletonList(o)), out);
+        byte[] bytes = out.toByteArray();
+        int start = indexOf(bytes, '>', 0) + 1;
+        while (start < bytes.length && bytes[start] != '<') {
+            start++;
+        }
+        int end = bytes.length;
+        while (end > start && bytes[end - 1] != '<') {
+            end--;
+        }
+        end--;
+        while (end > start && Character.isWhitespace(bytes[end - 1])) {
+            end--;
+        }
+        byte[] entry = new byte[end - start];
+        System.arraycopy(bytes, start, entry, 0, entry.length);
+        return entry;
+    }
+
+    private static int indexOf(byte[] bytes, int b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Serializer getSerializer() {
+        if (serializer == null) {
+            serializer = Configuration.createSerializer();
+        }
+        return serializer;
+    }
+
+    interface ElementHandler {
+        void element(String id, long offset, int length) throws Exception;
+    }
+
+    private static final Pattern idPattern =
+            Pattern.compile("\\sid\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+    private static final Pattern encodingPattern =
+            Pattern.compile("\\sencoding\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+
+    /**
+     * Scan an XML document for the children of the root element, without parsing them. Calls the
+     * handler with the id attribute and the byte range of each.
+     *
+     * @return The encoding given in the XML declaration, or null.
+     */
+    static String scan(InputStream in, ElementHandler handler) throws Exception {
+        Scanner scanner = new Scanner(in);
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        String encoding = null;
+        int depth = 0;
+        long childStart = 0;
+        String childId = null;
+        int c;
+        while ((c = scanner.read()) != -1) {
+            if (c != '<') {
+                continue;
+            }
+            long start = scanner.pos - 1;
+            c = scanner.read();
+            if (c == '?') {
+                tag.reset();
+                scanner.readUntil("?>", tag);
+                String pi = new String(tag.toByteArray(), StandardCharsets.US_ASCII);
+                if (depth == 0 && pi.startsWith("xml")) {
+                    encoding = attribute(encodingPattern, pi);
+                }
+            }
+            else if (c == '!') {
+                c = scanner.read();
+                if (c == '-') {
+                    scanner.readUntil("-->", null);
+                }
+                else if (c == '[') {
+                    scanner.readUntil("]]>", null);
+                }
+                else {
+                    scanner.skipDeclaration();
+                }
+            }
+            else if (c == '/') {
+                scanner.readTag(null);
+                depth--;
+                if (depth == 1) {
+                    handler.element(childId, childStart, (int) (scanner.pos - childStart));
+                }
+            }
+            else {
+                tag.reset();
+                tag.write(c);
+                boolean empty = scanner.readTag(tag);
+                if (depth == 1) {
+                    childStart = start;
+                    childId = attribute(idPattern,
+                            new String(tag.toByteArray(), StandardCharsets.UTF_8));
+                    if (empty) {
+                        handler.element(childId, childStart, (int) (scanner.pos - childStart));
+                    }
+                }
+                if (!empty) {
+                    depth++;
+                }
+            }
+        }
+        if (depth != 0) {
+            throw new Exception("Unexpected end of file");
+        }
+        return encoding;
+    }
+
+    private static String attribute(Pattern pattern, String tag) {
+        Matcher matcher = pattern.matcher(tag);
+        if (!matcher.find()) {
+            return null;
+        }
+        String value = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+        return unescape(value);
+    }
+
+    static String unescape(String s) {
+        if (s.indexOf('&') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            int end = c == '&' ? s.indexOf(';', i) : -1;
+            if (end < 0) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            String entity = s.substring(i + 1, end);
+            if (entity.equals("amp")) {
+                sb.append('&');
+            }
+            else if (entity.equals("lt")) {
+                sb.append('<');
+            }
+            else if (entity.equals("gt")) {
+                sb.append('>');
+            }
+            else if (entity.equals("quot")) {
+                sb.append('"');
+            }
+            else if (entity.equals("apos")) {
+                sb.append('\'');
+            }
+            else if (entity.startsWith("#x")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            }
+            else if (entity.startsWith("#")) {
+                sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            }
+            else {
+                sb.append(s, i, end + 1);
+            }
+            i = end + 1;
+        }
+        return sb.toString();
+    }
+
+    private static class Scanner {
+        final InputStream in;
+        long pos;
+
+        Scanner(InputStream in) {
+            this.in = in;
+        }
+
+        int read() throws IOException {
+            int c = in.read();
+            if (c != -1) {
+                pos++;
+            }
+            return c;
+        }
+
+        /**
+         * Read up to and including the terminator, keeping what comes before it in out, if given.
+         */
+        void readUntil(String terminator, ByteArrayOutputStream out) throws IOException {
+            int n = terminator.length();
+            int matched = 0;
+            int c;
+            while ((c = read()) != -1) {
+                if (out != null) {
+                    out.write(c);
+                }
+                if (c == terminator.charAt(matched)) {
+                    matched++;
+                    if (matched == n) {
+                        return;
+                    }
+                }
+                else if (matched > 0 && c == terminator.charAt(matched - 1)) {
+                    // A run of the repeated character, like "--->" or "]]]>".
+                }
+                else {
+                    matched = c == terminator.charAt(0) ? 1 : 0;
+                }
+            }
+            throw new IOException("Unexpected end of file, missing " + terminator);
+        }
+
+        /**
+         * Skip a declaration like DOCTYPE, including an internal subset.
+         */
+        void skipDeclaration() throws IOException {
+            int brackets = 0;
+            int c;
+            while ((c = read()) != -1) {
+                if (c == '[') {
+                    brackets++;
+                }
+                else if (c == ']') {
+                    brackets--;
+                }
+                else if (c == '>' && brackets <= 0) {
+                    return;
+                }
+            }
+            throw new IOException("Unexpected end of file in declaration");
+        }
+
+        /**
+         * Read the rest of a tag up to and including the closing '>'.
+         *
+         * @return true if the tag ended with "/>".
+         */
+        boolean readTag(ByteArrayOutputStream out) throws IOException {
+            int quote = 0;
+            int last = 0;
+            int c;
+            while ((c = read()) != -1) {
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                }
+                else if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                else if (c == '>') {
+                    return last == '/';
+                }
+                if (out != null) {
+                    out.write(c);
+                }
+                last = c;
+            }
+            throw new IOException("Unexpected end of file in tag");
+        }
+    }
+}
@@ -19,7 +19,6 @@
 
 package org.openpnp.model;
 
-import org.openpnp.ConfigurationListener;
 import org.simpleframework.xml.Attribute;
 import org.simpleframework.xml.core.Persist;
 
@@ -41,7 +40,7 @@ public class Part extends AbstractModelObject implements Identifiable {
 
     private Package packag;
 
-    @Attribute
+    @Attribute(required = false)
     private String packageId;
 
     @Attribute(required = false)
@@ -55,18 +54,12 @@ public class Part extends AbstractModelObject implements Identifiable {
 
     public Part(String id) {
         this.id = id;
-        Configuration.get().addListener(new ConfigurationListener.Adapter() {
-            @Override
-            public void configurationLoaded(Configuration configuration) throws Exception {
-                if (getPackage() == null) {
-                    setPackage(configuration.getPackage(packageId));
-                }
-            }
-        });
     }
 
     @Persist
     private void persist() {
+        // A package that no longer exists is not kept.
+        Package packag = getPackage();
         packageId = (packag == null ? null : packag.getId());
     }
 
@@ -82,7 +75,9 @@ public class Part extends AbstractModelObject implements Identifiable {
      * @param id
      */
     public void setId(String id) {
+        Object oldValue = this.id;
         this.id = id;
+        firePropertyChange("id", oldValue, id);
     }
 
     public String getName() {
@@ -123,12 +118,18 @@ public class Part extends AbstractModelObject implements Identifiable {
     }
 
     public Package getPackage() {
+        // Parts are read on demand, so the package is resolved when it is first asked for rather
+        // than when the configuration is loaded.
+        if (packag == null && packageId != null) {
+            packag = Configuration.get().getPackage(packageId);
+        }
         return packag;
     }
 
     public void setPackage(Package packag) {
         Object oldValue = this.packag;
         this.packag = packag;
+        this.packageId = (packag == null ? null : packag.getId());
         firePropertyChange("package", oldValue, packag);
     }
 
@@ -19,6 +19,7 @@
 
 package org.openpnp.spi;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.Closeable;
 
@@ -84,6 +85,17 @@ public interface Camera extends HeadMountable, WizardConfigurable,
      */
     public BufferedImage settleAndCapture();
 
+    /**
+     * Same as settleAndCapture(), but only the region of interest needs to settle. Cameras that
+     * compare images to settle only compare this region.
+     * 
+     * @param roi The region of interest in pixels.
+     * @return
+     */
+    public default BufferedImage settleAndCapture(Rectangle roi) {
+        return settleAndCapture();
+    }
+
     /**
      * Registers a listener to receive continuous images from the camera.
      * 
@@ -203,6 +203,22 @@ public interface Machine extends WizardConfigurable, PropertySheetHolder, Closea
     public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback,
             boolean ignoreEnabled);
 
+    /**
+     * Submit a task that only uses the given resources, such as a Head, Camera, Actuator or
+     * Feeder. The resources must include everything the task uses, e.g. a feeder task that moves
+     * the head must include the Head. If the machine runs tasks concurrently, tasks whose
+     * resources do not overlap may run at the same time, while tasks that do overlap run in the
+     * order they were submitted. A task without resources uses the whole machine, which is what
+     * the other submit() methods do. Otherwise see submit(Callable, FutureCallback, boolean).
+     * 
+     * @param callable
+     * @param callback
+     * @param ignoreEnabled
+     * @param resources
+     */
+    public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback,
+            boolean ignoreEnabled, Object... resources);
+
     public Head getDefaultHead() throws Exception;
 
     public List<PartAlignment> getPartAlignments();
@@ -1,5 +1,9 @@
 package org.openpnp.spi;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
 import org.openpnp.gui.support.Wizard;
 import org.openpnp.model.BoardLocation;
 import org.openpnp.model.Location;
@@ -52,6 +56,27 @@ public interface PartAlignment extends Identifiable, Named, PropertySheetHolder
      * @throws Exception if the alignment fails for any reason. The caller may retry.
      */
     PartAlignmentOffset findOffsets(Part part, BoardLocation boardLocation, Location placementLocation, Nozzle nozzle) throws Exception;
+
+    /**
+     * Start the part alignment operation and return once the nozzle is free to move again.
+     * Implementations that can capture the part first and process the captured images later
+     * should do the processing on the given executor, so that the caller can move the head while
+     * it runs. The default implementation performs the whole alignment in findOffsets() and
+     * returns an already completed Future.
+     * @param part
+     * @param boardLocation
+     * @param placementLocation
+     * @param nozzle
+     * @param executor
+     * @return
+     * @throws Exception if the capture fails. Failures of the processing are reported by the
+     * Future.
+     */
+    default Future<PartAlignmentOffset> findOffsetsAsync(Part part, BoardLocation boardLocation,
+            Location placementLocation, Nozzle nozzle, Executor executor) throws Exception {
+        return CompletableFuture.completedFuture(
+                findOffsets(part, boardLocation, placementLocation, nozzle));
+    }
     
     /**
      * Get a Wizard for configuring the PartAlignment instance properties for a specific
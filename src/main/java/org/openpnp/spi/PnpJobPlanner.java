@@ -1,6 +1,7 @@
 package org.openpnp.spi;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.openpnp.spi.PnpJobProcessor.JobPlacement;
 
@@ -11,6 +12,7 @@ public interface PnpJobPlanner {
         public final NozzleTip nozzleTip;
         public Feeder feeder;
         public PartAlignment.PartAlignmentOffset alignmentOffsets;
+        public Future<PartAlignment.PartAlignmentOffset> alignmentFuture;
 
         public PlannedPlacement(Nozzle nozzle, NozzleTip nozzleTip, JobPlacement jobPlacement) {
             this.nozzle = nozzle;
@@ -1,6 +1,7 @@
 package org.openpnp.spi.base;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.ArrayList;
@@ -11,6 +12,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.Icon;
 import javax.swing.SwingUtilities;
@@ -36,9 +40,12 @@ import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
 import org.openpnp.spi.Head;
 import org.openpnp.spi.HeadMountable;
+import org.openpnp.spi.Machine;
 import org.openpnp.spi.VisionProvider;
 import org.openpnp.spi.Movable.MoveToOption;
+import org.openpnp.util.ImageBufferPool;
 import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.SettleTimeModel;
 import org.openpnp.util.SimpleGraph;
 import org.pmw.tinylog.Logger;
 import org.simpleframework.xml.Attribute;
@@ -152,12 +159,29 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
     @Attribute(required = false)
     protected double settleMaskCircle = 0.0;
 
+    /**
+     * The images compared for settling are halved until they are no larger than this in either
+     * dimension. 0 compares them at full resolution, which is what cameras configured before
+     * this setting existed keep doing. New cameras get DEFAULT_SETTLE_MAX_SIZE.
+     */
+    @Attribute(required = false)
+    protected int settleMaxSize = 0;
+
+    public static final int DEFAULT_SETTLE_MAX_SIZE = 256;
+
     @Attribute(required = false)
     protected double settleContrastEnhance = 0.0;
 
     @Attribute(required = false)
     protected boolean settleDiagnostics = false;
 
+    /**
+     * Learn the settle time per move distance and speed and only start comparing images once the
+     * camera is predicted to be settled.
+     */
+    @Attribute(required = false)
+    protected boolean settlePredictive = false;
+
 
     @Commit
     protected void commit() throws Exception {
@@ -177,6 +201,16 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
 
     protected Set<ListenerEntry> listeners = Collections.synchronizedSet(new HashSet<>());
 
+    /**
+     * Delivers the frames to the listeners, shared by all cameras. Threads are only kept while
+     * listeners are busy.
+     */
+    private static final ExecutorService frameDispatcher = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "CameraFrameDispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     protected Head head;
 
     protected Integer width;
@@ -193,10 +227,19 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
     
     protected TreeMap<Double, BufferedImage> recordedImages = null;
     protected TreeMap<Double, BufferedImage> heatMappedImages = null;
+    // Scrubbing through the recorded images converts the same sized frames over and over.
+    private ImageBufferPool recordedImageBufferPool = new ImageBufferPool(2);
     protected Double recordedImagePlayed = null;
     private SimpleGraph settleGraph = null;
     private int recordedMaskDiameter;
 
+    private SettleTimeModel settleTimeModel = new SettleTimeModel();
+    private long settleMotionSequence = 0;
+    // Results of the last autoSettleAndCapture(), used to learn the settle time.
+    private long settleObservedMs;
+    private boolean settleUnstable;
+    private boolean settleTimedOut;
+
     public AbstractCamera() {
         this.id = Configuration.createId("CAM");
         this.name = getClass().getSimpleName();
@@ -282,7 +325,13 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
 
     @Override
     public void stopContinuousCapture(CameraListener listener) {
-        listeners.remove(new ListenerEntry(listener));
+        listeners.removeIf(entry -> {
+            if (entry.listener.equals(listener)) {
+                entry.stop();
+                return true;
+            }
+            return false;
+        });
     }
 
     @Override
@@ -327,15 +376,33 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
         }
     }
 
-    private BufferedImage autoSettleAndCapture() {
+    /**
+     * Captures images until the difference between two consecutive ones is below the threshold.
+     * Only the region of interest is compared, scaled down to settleMaxSize. Sets settleObservedMs
+     * to the time since t0 when the image was first stable and settleUnstable if any of the
+     * differences was above the threshold. Sets settleTimedOut if the image never got stable.
+     * 
+     * @param t0 The time the move ended. Timeout and observed settle time are relative to it.
+     * @param roi The region of interest in pixels, or null for the center of the image as given
+     *        by settleMaskCircle.
+     */
+    private BufferedImage autoSettleAndCapture(long t0, Rectangle roi) {
+        // Buffers reused for all frames. The prepared images alternate between the two settleMats.
+        Mat frameMat = new Mat();
+        Mat[] workMats = new Mat[] { new Mat(), new Mat() };
+        Mat gradientMat = new Mat();
+        Mat[] settleMats = new Mat[] { new Mat(), new Mat() };
         Mat mask = null;
         Mat maskFullsize = null;
         Mat lastSettleMat = null;
 
         try {
-            long t0 = System.currentTimeMillis();
             long timeout = t0 + settleTimeoutMs;
             int debounceCount = 0;
+            long tLastFrame = t0;
+            long tStable = t0;
+            settleUnstable = false;
+            settleTimedOut = false;
             final double seq = 0.01;
             SimpleGraph settleGraph = startDiagnostics();
             TreeMap<Double, BufferedImage> settleImages = null;
@@ -351,6 +418,7 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
                 }
 
                 // The actual capture.
+                long tFrame = System.currentTimeMillis();
                 BufferedImage image = capture();
 
                 double tCapture = 0.0; 
@@ -361,63 +429,68 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
                     settleGraph.getRow(BOOLEAN, CAPTURE).recordDataPoint(settleGraph.getT(), 0);
                 }
 
-                // Convert to Mat and if not full color, convert to gray.
-                Mat mat = OpenCvUtils.toMat(image);
-                if (!settleFullColor) {
-                    Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2GRAY);
-                }
-
-                // Gaussian blur is the most expensive operation, so if it is large, we rescale the image instead.
-                // This is effectively a box blur followed (later) by a Gaussian blur, i.e. still reasonable quality.
-                // Rescaling will also make all subsequent steps significantly faster.
-                // Do these calculations up front.
-                final int resizeToMaxGaussianKernelSize = 5;
-                int gaussianBlurEff = settleGaussianBlur;
-                int divisor = (resizeToMaxGaussianKernelSize > resizeToMaxGaussianKernelSize) ? 
-                        (settleGaussianBlur+resizeToMaxGaussianKernelSize/2)/resizeToMaxGaussianKernelSize
-                        : 1;
-
+                // Convert to Mat and only work on the region of interest from now on.
+                OpenCvUtils.toMat(image, frameMat);
                 int maskDiameter = 0;
-                if (settleMaskCircle > 0.0) {
+                Rect rectCrop;
+                if (roi != null) {
+                    // The caller knows where to look. 
+                    int x = Math.max(0, Math.min(frameMat.cols() - 1, roi.x));
+                    int y = Math.max(0, Math.min(frameMat.rows() - 1, roi.y));
+                    rectCrop = new Rect(x, y, 
+                            Math.max(1, Math.min(frameMat.cols() - x, roi.width)), 
+                            Math.max(1, Math.min(frameMat.rows() - y, roi.height)));
+                }
+                else if (settleMaskCircle > 0.0) {
                     // Crop the image to the mask dimension. 
-                    int imageDimension = Math.min(mat.rows(), mat.cols());
+                    int imageDimension = Math.min(frameMat.rows(), frameMat.cols());
                     maskDiameter = Math.max(1, (int)(settleMaskCircle*imageDimension));
-                    int maskedWidth= Math.min(mat.cols(), maskDiameter);
-                    int maskedHeight= Math.min(mat.rows(), maskDiameter);
-                    // Make it multiples of the rescale divisor*2.
-                    maskDiameter = (int)Math.floor(maskDiameter/divisor/2)*divisor*2;
-                    maskedWidth = (int)Math.floor(maskedWidth/divisor/2)*divisor*2;
-                    maskedHeight = (int)Math.floor(maskedHeight/divisor/2)*divisor*2;
-                    Rect rectCrop = new Rect(
-                            (mat.cols() - maskedWidth)/2, (mat.rows() - maskedHeight)/2,
+                    int maskedWidth = Math.min(frameMat.cols(), maskDiameter);
+                    int maskedHeight = Math.min(frameMat.rows(), maskDiameter);
+                    rectCrop = new Rect(
+                            (frameMat.cols() - maskedWidth)/2, (frameMat.rows() - maskedHeight)/2,
                             maskedWidth, maskedHeight);
-                    Mat cropMat = mat.submat(rectCrop);
-                    mat.release();
-                    mat = cropMat;
-                    if (maskFullsize == null) {
-                        // This must be the first frame, also create the mask circle.
-                        maskFullsize = createMask(mat, maskDiameter);
-                        if (divisor == 1) {
-                            // also valid as the rescaled mask
-                            mask = maskFullsize;
-                        }
-                    }
+                }
+                else {
+                    rectCrop = new Rect(0, 0, frameMat.cols(), frameMat.rows());
+                }
+                Mat roiMat = frameMat.submat(rectCrop);
+                Mat mat = roiMat;
+                int work = 0;
+
+                // If not full color, convert to gray.
+                if (!settleFullColor) {
+                    Imgproc.cvtColor(mat, workMats[work], Imgproc.COLOR_BGR2GRAY);
+                    mat = workMats[work];
+                    work ^= 1;
                 }
 
                 if (settleContrastEnhance > 0.0) {
+                    if (maskDiameter > 0 && maskFullsize == null) {
+                        // This must be the first frame, also create the full size mask circle.
+                        maskFullsize = createMask(mat, maskDiameter);
+                    }
                     // Enhance the contrast. Note we need to do this before scaling the image down, so mixed
                     // colors can be created in the full dynamic range. 
                     mat = enhanceContrast(mat, maskFullsize);
                 }
 
-                if (divisor > 1) {
-                    // Scale the image down, see the calculations further up.  
-                    gaussianBlurEff = ((settleGaussianBlur)/divisor)|1;
-                    Mat resizeMat = new Mat();
-                    Imgproc.resize(mat, resizeMat, new Size(mat.cols()/divisor, mat.rows()/divisor), 1.0/divisor, 1.0/divisor);
-                    mat.release();
-                    mat = resizeMat;
-                    maskDiameter /= divisor;
+                // Scale the image down by a Gaussian pyramid, until it fits settleMaxSize. 
+                // Gaussian blur is the most expensive operation, so if it is large, we also halve 
+                // the image instead, as each level is blurred as part of the pyramid. This is 
+                // effectively the same blur at a fraction of the cost. 
+                final int resizeToMaxGaussianKernelSize = 5;
+                int gaussianBlurEff = settleGaussianBlur;
+                while (mat.cols() > 1 && mat.rows() > 1
+                        && ((settleMaxSize > 0 && Math.max(mat.cols(), mat.rows()) > settleMaxSize)
+                                || gaussianBlurEff/2 >= resizeToMaxGaussianKernelSize)) {
+                    Imgproc.pyrDown(mat, workMats[work]);
+                    mat = workMats[work];
+                    work ^= 1;
+                    gaussianBlurEff /= 2;
+                }
+                if (maskDiameter > 0) {
+                    maskDiameter = Math.max(1, maskDiameter*mat.cols()/roiMat.cols());
                 }
 
                 if (maskDiameter > 0 && mask == null) {
@@ -432,13 +505,17 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
 
                 if (settleGradients) {
                     // Apply Laplacian transform.
-                    Mat gradientMat = new Mat();
                     Imgproc.Laplacian(mat, gradientMat, CvType.CV_16S, 3, 1, 0, Core.BORDER_REPLICATE );
-                    Core.convertScaleAbs(gradientMat, gradientMat);
-                    mat.release();
-                    mat = gradientMat;
+                    Core.convertScaleAbs(gradientMat, workMats[work]);
+                    mat = workMats[work];
                 }
 
+                // Keep the prepared image, the other settle Mat still holds the last one. 
+                Mat settleMat = (lastSettleMat == settleMats[0]) ? settleMats[1] : settleMats[0];
+                mat.copyTo(settleMat);
+                roiMat.release();
+                mat = settleMat;
+
                 // Record the image with the capture time.
                 if (settleGraph != null) {
                     BufferedImage img;
@@ -451,6 +528,7 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
                 // the lastSettleMat and loop again. We need at least two images to check.
                 if (lastSettleMat == null) {
                     lastSettleMat = mat;
+                    tLastFrame = tFrame;
                     continue;
                 }
 
@@ -460,8 +538,7 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
                     settleGraph.getRow(DIFFERENCE, DATA).recordDataPoint(settleGraph.getT(), result);
                 }
 
-                // Release the lastSettleMat and store the new image as the lastSettleMat.
-                lastSettleMat.release();
+                // Store the new image as the lastSettleMat.
                 lastSettleMat = mat;
 
                 long t = System.currentTimeMillis();
@@ -474,16 +551,21 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
                 if (result > settleThreshold) {
                     // No good, reset the debounce count, as we crossed over the limit (again).
                     debounceCount = 0;
+                    settleUnstable = true;
                 }
                 else if (result > 0.0) {
                     // Register one "bounce" under the limit.
+                    if (debounceCount == 0) {
+                        // The previous frame was already stable.
+                        tStable = tLastFrame;
+                    }
                     debounceCount++;
                 }
+                tLastFrame = tFrame;
                 if (t > timeout || debounceCount > settleDebounce) {
                     // Timeout or debounced settleThreshold reached.
-                    // Cleanup.
-                    lastSettleMat.release();
-                    lastSettleMat = null;
+                    settleTimedOut = (debounceCount <= settleDebounce);
+                    settleObservedMs = (settleTimedOut ? t : tStable) - t0;
                     if (settleGraph != null) {
                         // Record last points in the graph. 
                         double tEnd = settleGraph.getT()+1;
@@ -504,18 +586,18 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
         }
         finally {
             // Whatever happens, always release these looping mats.
-            if (maskFullsize != null) {
-                maskFullsize.release();
-                if (mask == maskFullsize) {
-                    mask = null;
-                }
-            }
             if (mask != null) {
                 mask.release();
             }
-            if (lastSettleMat != null) {
-                lastSettleMat.release();
+            if (maskFullsize != null) {
+                maskFullsize.release();
             }
+            frameMat.release();
+            workMats[0].release();
+            workMats[1].release();
+            gradientMat.release();
+            settleMats[0].release();
+            settleMats[1].release();
         }
     }
 
@@ -553,10 +635,8 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
         }
         double scale = settleContrastEnhance/range + (1.0 - settleContrastEnhance);
         double offset = -(max-range)*settleContrastEnhance/range;
-        Mat tmpMat = new Mat();  
-        Core.convertScaleAbs(mat, tmpMat, scale, offset*255.0);
-        mat.release();
-        mat = tmpMat;
+        // Convert in place, so the caller's buffers are reused.
+        Core.convertScaleAbs(mat, mat, scale, offset*255.0);
         return mat;
     }
 
@@ -666,6 +746,11 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
     }
 
     public BufferedImage settleAndCapture() {
+        return settleAndCapture(null);
+    }
+
+    @Override
+    public BufferedImage settleAndCapture(Rectangle roi) {
         try {
             Map<String, Object> globals = new HashMap<>();
             globals.put("camera", this);
@@ -689,8 +774,11 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
                 }
                 return capture();
             }
+            else if (settlePredictive) {
+                return predictiveSettleAndCapture(roi);
+            }
             else {
-                return autoSettleAndCapture();
+                return autoSettleAndCapture(System.currentTimeMillis(), roi);
             }
         }
         finally {
@@ -706,9 +794,64 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
         }
     }
 
+    /**
+     * Waits for the settle time predicted for the last move, then checks that the image is stable
+     * as in autoSettleAndCapture(). Once the prediction is right, only the frames needed to
+     * confirm it are captured. If the model has no prediction yet, the settle time is measured from the end of the
+     * move. Measured settle times and those longer than predicted are learned, unless the settle
+     * timed out, as the time it took is then unknown.
+     */
+    private BufferedImage predictiveSettleAndCapture(Rectangle roi) {
+        long t0 = System.currentTimeMillis();
+        double distance = 0.0;
+        double speed = 1.0;
+        Machine machine = Configuration.get().getMachine();
+        if (machine instanceof AbstractMachine) {
+            AbstractMachine.Motion motion = ((AbstractMachine) machine).getLastMotion();
+            if (motion.sequence != settleMotionSequence) {
+                // Moved since the last settle.
+                settleMotionSequence = motion.sequence;
+                distance = motion.distance;
+                speed = motion.speed;
+            }
+        }
+        long predictedMs = settleTimeModel.predict(distance, speed);
+        if (predictedMs > 0) {
+            try {
+                // Leave at least half the timeout to confirm the image is stable.
+                Thread.sleep(Math.min(predictedMs, settleTimeoutMs / 2));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        BufferedImage image = autoSettleAndCapture(t0, roi);
+        if (!settleTimedOut && (predictedMs < 0 || settleUnstable)) {
+            settleTimeModel.learn(distance, speed, settleObservedMs);
+        }
+        Logger.debug("predictiveSettleAndCapture distance {} speed {} predicted {} ms, settled {} ms{}",
+                distance, speed, predictedMs, settleObservedMs,
+                settleTimedOut ? ", timed out"
+                        : (predictedMs >= 0 && settleUnstable) ? ", prediction too short" : "");
+        return image;
+    }
+
     protected void broadcastCapture(BufferedImage img) {
+        broadcastCapture(img, System.currentTimeMillis());
+    }
+
+    /**
+     * Hands the frame to the listeners. Each listener receives frames on a dispatch thread of its
+     * own while it is busy, so a slow listener neither stalls the capture nor the other listeners.
+     * It just gets the latest frame when it is done, the frames in between are dropped for it.
+     * 
+     * @param img
+     * @param timestamp The time the capture of the frame was started.
+     */
+    protected void broadcastCapture(BufferedImage img, long timestamp) {
+        CapturedFrame frame = new CapturedFrame(img, timestamp);
         for (ListenerEntry listener : new ArrayList<>(listeners)) {
-            listener.listener.frameReceived(img);
+            listener.offer(frame);
         }
     }
 
@@ -718,6 +861,7 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
 
     public void setSettleMethod(SettleMethod settleMethod) {
         this.settleMethod = settleMethod;
+        settleTimeModel.reset();
     }
 
     public long getSettleTimeMs() {
@@ -742,6 +886,7 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
 
     public void setSettleThreshold(double settleThreshold) {
         this.settleThreshold = settleThreshold;
+        settleTimeModel.reset();
     }
 
     public int getSettleDebounce() {
@@ -750,6 +895,16 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
 
     public void setSettleDebounce(int settleDebounce) {
         this.settleDebounce = settleDebounce;
+        settleTimeModel.reset();
+    }
+
+    public boolean isSettlePredictive() {
+        return settlePredictive;
+    }
+
+    public void setSettlePredictive(boolean settlePredictive) {
+        this.settlePredictive = settlePredictive;
+        settleTimeModel.reset();
     }
 
     public boolean isSettleGradients() {
@@ -786,6 +941,15 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
         this.settleMaskCircle = settleMaskCircle;
     }
 
+    public int getSettleMaxSize() {
+        return settleMaxSize;
+    }
+
+    public void setSettleMaxSize(int settleMaxSize) {
+        this.settleMaxSize = settleMaxSize;
+        settleTimeModel.reset();
+    }
+
     public double getSettleContrastEnhance() {
         return settleContrastEnhance;
     }
@@ -824,6 +988,7 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
     protected void setRecordedImages(TreeMap<Double, BufferedImage> recordedImages) {
         this.recordedImages = recordedImages;
         this.heatMappedImages = recordedImages == null ? null : new TreeMap<>();
+        recordedImageBufferPool.clear();
     }
 
     public Double getRecordedImagePlayed() {
@@ -861,14 +1026,12 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
                     Map.Entry<Double, BufferedImage> entry0 = recordedImages.lowerEntry(tFrame);
                     Mat mat0 = null;
                     if (entry0 != null) {
-                        mat0 = OpenCvUtils.toMat(entry0.getValue());
+                        mat0 = OpenCvUtils.toMat(entry0.getValue(), recordedImageBufferPool);
                     }
-                    Mat mat1 = OpenCvUtils.toMat(entry1.getValue());
+                    Mat mat1 = OpenCvUtils.toMat(entry1.getValue(), recordedImageBufferPool);
                     img = createHeatMapDiagnosticImage(mat0, mat1);
-                    if (mat0 != null) {
-                        mat0.release();
-                    }
-                    mat1.release();
+                    recordedImageBufferPool.release(mat0);
+                    recordedImageBufferPool.release(mat1);
                     heatMappedImages.put(tFrame, img);
                 }
                 // I'm sure there's a better way to count the preceding images :-(
@@ -909,14 +1072,66 @@ public abstract class AbstractCamera extends AbstractModelObject implements Came
         return getName();
     }
     
+    /**
+     * A broadcast image with the time its capture was started.
+     */
+    protected static class CapturedFrame {
+        public final BufferedImage image;
+        public final long timestamp;
+
+        public CapturedFrame(BufferedImage image, long timestamp) {
+            this.image = image;
+            this.timestamp = timestamp;
+        }
+    }
+
     protected class ListenerEntry {
         public CameraListener listener;
         public long lastFrameSent;
+        // The frame to deliver next. Not null while a delivery is scheduled or running.
+        private final AtomicReference<CapturedFrame> pending = new AtomicReference<>();
+        private volatile boolean stopped;
 
         public ListenerEntry(CameraListener listener) {
             this.listener = listener;
         }
 
+        void offer(CapturedFrame frame) {
+            if (stopped) {
+                return;
+            }
+            if (pending.getAndSet(frame) == null) {
+                frameDispatcher.execute(this::deliver);
+            }
+        }
+
+        /**
+         * Drops the pending frame and any offered later. A frame that is being delivered right
+         * now still reaches the listener.
+         */
+        void stop() {
+            stopped = true;
+            pending.set(null);
+        }
+
+        private void deliver() {
+            CapturedFrame frame = pending.get();
+            while (frame != null && !stopped) {
+                try {
+                    listener.frameReceived(frame.image);
+                    lastFrameSent = frame.timestamp;
+                }
+                catch (Exception e) {
+                    Logger.warn(e);
+                }
+                // Done, unless a newer frame was offered in the meantime.
+                if (pending.compareAndSet(frame, null)) {
+                    return;
+                }
+                frame = pending.get();
+            }
+        }
+
         @Override
         public int hashCode() {
             return listener.hashCode();
@@ -1,13 +1,18 @@
 package org.openpnp.spi.base;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -82,8 +87,20 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
 
     protected Set<MachineListener> listeners = Collections.synchronizedSet(new HashSet<>());
 
+    /**
+     * If true, tasks submitted with resources run concurrently with other tasks whose resources do
+     * not overlap. Otherwise all tasks run one at a time in the order they were submitted.
+     */
+    @Attribute(required = false)
+    protected boolean concurrentTasks = false;
+
     protected ThreadPoolExecutor executor;
 
+    // State of the concurrent task execution, guarded by synchronized (this).
+    private ExecutorService concurrentExecutor;
+    private final List<ResourceTask> pendingTasks = new ArrayList<>();
+    private final List<ResourceTask> runningTasks = new ArrayList<>();
+
     protected AbstractMachine() {}
 
     @SuppressWarnings("unused")
@@ -257,6 +274,37 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
         }
     }
 
+    /**
+     * A move made by any head mountable, as seen by cameras settling after it.
+     */
+    public static class Motion {
+        public final long sequence;
+        public final double distance;
+        public final double speed;
+
+        public Motion(long sequence, double distance, double speed) {
+            this.sequence = sequence;
+            this.distance = distance;
+            this.speed = speed;
+        }
+    }
+
+    private volatile Motion lastMotion = new Motion(0, 0, 1.0);
+
+    /**
+     * Records a move of a head mountable, so that cameras can predict their settle time from it.
+     * 
+     * @param distance The distance of the move in millimeters.
+     * @param speed The speed factor of the move.
+     */
+    public synchronized void recordMotion(double distance, double speed) {
+        lastMotion = new Motion(lastMotion.sequence + 1, distance, speed);
+    }
+
+    public Motion getLastMotion() {
+        return lastMotion;
+    }
+
     public void fireMachineHeadActivity(Head head) {
         for (MachineListener listener : listeners) {
             listener.machineHeadActivity(this, head);
@@ -316,17 +364,14 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
     @Override
     public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback,
             final boolean ignoreEnabled) {
-        synchronized (this) {
-            if (executor == null || executor.isShutdown()) {
-                executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
-                        new LinkedBlockingQueue<>());
-            }
-        }
+        return submit(callable, callback, ignoreEnabled, new Object[] {});
+    }
 
+    @Override
+    public <T> Future<T> submit(final Callable<T> callable, final FutureCallback<T> callback,
+            final boolean ignoreEnabled, Object... resources) {
         Callable<T> wrapper = new Callable<T>() {
             public T call() throws Exception {
-                // TODO: lock driver
-
                 // Notify listeners that the machine is now busy
                 fireMachineBusy(true);
 
@@ -345,7 +390,7 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
 
                 // If there was an error cancel all pending tasks.
                 if (exception != null) {
-                    executor.shutdownNow();
+                    cancelQueuedTasks();
                 }
 
                 // If a callback was supplied, call it with the results
@@ -362,7 +407,7 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
 
                 // If no more tasks are scheduled notify listeners that
                 // the machine is no longer busy
-                if (executor.getQueue().isEmpty()) {
+                if (!hasQueuedTasks()) {
                     fireMachineBusy(false);
                 }
 
@@ -375,7 +420,114 @@ public abstract class AbstractMachine extends AbstractModelObject implements Mac
             }
         };
 
-        return executor.submit(wrapper);
+        synchronized (this) {
+            if (concurrentTasks) {
+                if (concurrentExecutor == null) {
+                    concurrentExecutor = Executors.newCachedThreadPool();
+                }
+                FutureTask<T> future = new FutureTask<>(wrapper);
+                pendingTasks.add(new ResourceTask(future, getTaskResources(resources)));
+                dispatchTasks();
+                return future;
+            }
+            if (executor == null || executor.isShutdown()) {
+                executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>());
+            }
+            return executor.submit(wrapper);
+        }
+    }
+
+    /**
+     * Get the set of resources a task submitted with the given resources must hold while it runs.
+     * Subclasses can add resources that are used implicitly, such as a driver shared by several
+     * resources. An empty set means the task uses the whole machine.
+     * 
+     * @param resources
+     * @return
+     */
+    protected Set<Object> getTaskResources(Object... resources) {
+        return new HashSet<>(Arrays.asList(resources));
+    }
+
+    /**
+     * Start every pending task that does not conflict with a running task or with a pending task
+     * submitted before it, so conflicting tasks still run in submission order.
+     */
+    private synchronized void dispatchTasks() {
+        List<ResourceTask> waitingTasks = new ArrayList<>();
+        for (Iterator<ResourceTask> i = pendingTasks.iterator(); i.hasNext();) {
+            ResourceTask task = i.next();
+            if (task.future.isCancelled()) {
+                i.remove();
+                continue;
+            }
+            if (task.conflictsWith(runningTasks) || task.conflictsWith(waitingTasks)) {
+                waitingTasks.add(task);
+                continue;
+            }
+            i.remove();
+            runningTasks.add(task);
+            concurrentExecutor.execute(() -> {
+                try {
+                    task.future.run();
+                }
+                finally {
+                    synchronized (AbstractMachine.this) {
+                        runningTasks.remove(task);
+                        dispatchTasks();
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void cancelQueuedTasks() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (ResourceTask task : pendingTasks) {
+            task.future.cancel(true);
+        }
+        pendingTasks.clear();
+    }
+
+    /**
+     * Returns true if there are tasks other than the calling one waiting or running.
+     */
+    private synchronized boolean hasQueuedTasks() {
+        if (executor != null && !executor.getQueue().isEmpty()) {
+            return true;
+        }
+        return !pendingTasks.isEmpty() || runningTasks.size() > 1;
+    }
+
+    public boolean isConcurrentTasks() {
+        return concurrentTasks;
+    }
+
+    public void setConcurrentTasks(boolean concurrentTasks) {
+        this.concurrentTasks = concurrentTasks;
+    }
+
+    private static class ResourceTask {
+        final FutureTask<?> future;
+        final Set<Object> resources;
+
+        ResourceTask(FutureTask<?> future, Set<Object> resources) {
+            this.future = future;
+            this.resources = resources;
+        }
+
+        boolean conflictsWith(List<ResourceTask> tasks) {
+            for (ResourceTask task : tasks) {
+                if (resources.isEmpty() || task.resources.isEmpty()
+                        || !Collections.disjoint(resources, task.resources)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     @Override
@@ -1,36 +1,341 @@
 package org.openpnp.util;
 
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
+import org.openpnp.model.AbstractModelObject;
 import org.openpnp.model.Identifiable;
 
 /**
  * A List specifically for storing implementations of Identifiable. This class adds a get(String)
- * method for getting the Identifiable object with the specified id from the list. Currently
- * performs a simple search through the list but is intended to be indexed eventually.
- * 
- * TODO: Perform indexing on insert and remove so that get(String) can perform better. Consider what
- * happens if an id changes out from under us.
- * 
+ * method for getting the Identifiable object with the specified id from the list.
+ *
+ * get(String) is backed by a hash index from id to the first element with that id. Appending
+ * keeps the index up to date, other changes either update it or drop it, and it is rebuilt on the
+ * next lookup. Structural changes the list does not see directly, such as through a subList(),
+ * are caught by the modCount. Elements that are AbstractModelObjects are watched for changes of
+ * their "id" property while they are in the list. A changed id that is not announced is noticed
+ * when the old id is looked up.
+ *
+ * The index is only used and changed while holding the list's lock, so get(String) can be called
+ * from several threads at once. As with any ArrayList, changing the list still needs external
+ * synchronization.
+ *
  * @param <E>
  */
 public class IdentifiableList<E extends Identifiable> extends ArrayList<E> {
     private static final long serialVersionUID = -2350184908321182804L;
-    
-    public String createId(String prefix) {
-        for (int i = 0; ; i++) {
-            if (get(prefix + i) == null) {
-                return prefix + i;
+
+    private transient Map<String, E> index;
+    private transient int indexModCount;
+    /**
+     * True if two elements in the index have the same id. Removals then have to rebuild the
+     * index to find the next element with that id.
+     */
+    private transient boolean duplicateIds;
+    private transient Map<String, Integer> nextIds;
+    private transient PropertyChangeListener idListener;
+
+    /**
+     * Create an id with the given prefix and a number that is not used by any element in the
+     * list. Numbers are counted up per prefix, so ids are not reused within the lifetime of the
+     * list.
+     */
+    public synchronized String createId(String prefix) {
+        if (nextIds == null) {
+            nextIds = new HashMap<>();
+        }
+        int i = nextIds.getOrDefault(prefix, 0);
+        while (get(prefix + i) != null) {
+            i++;
+        }
+        nextIds.put(prefix, i + 1);
+        return prefix + i;
+    }
+
+    public synchronized E get(String id) {
+        E e = getIndex().get(id);
+        if (e != null && !Objects.equals(e.getId(), id)) {
+            // The id changed without telling us.
+            index = null;
+            e = getIndex().get(id);
+        }
+        return e;
+    }
+
+    private Map<String, E> getIndex() {
+        if (index == null || indexModCount != modCount) {
+            Map<String, E> index = new HashMap<>(size() * 2);
+            duplicateIds = false;
+            for (E e : this) {
+                if (index.putIfAbsent(e.getId(), e) != null) {
+                    duplicateIds = true;
+                }
+            }
+            this.index = index;
+            indexModCount = modCount;
+        }
+        return index;
+    }
+
+    private boolean isIndexed() {
+        return index != null && indexModCount == modCount;
+    }
+
+    /**
+     * Add the element to a valid index, assuming it was appended.
+     */
+    private void indexAppended(E e) {
+        if (index.putIfAbsent(e.getId(), e) != null) {
+            duplicateIds = true;
+        }
+    }
+
+    /**
+     * Remove the element from a valid index, or drop the index if another element may have the
+     * same id.
+     */
+    private void indexRemoved(E e) {
+        if (duplicateIds) {
+            index = null;
+        }
+        else {
+            index.remove(e.getId(), e);
+        }
+    }
+
+    private void watch(E e) {
+        if (!(e instanceof AbstractModelObject)) {
+            return;
+        }
+        if (idListener == null) {
+            idListener = new PropertyChangeListener() {
+                @Override
+                public void propertyChange(PropertyChangeEvent evt) {
+                    if (evt.getPropertyName().equals("id")) {
+                        idChanged(evt.getSource());
+                    }
+                }
+            };
+        }
+        AbstractModelObject o = (AbstractModelObject) e;
+        // Don't add it twice if the element is in the list more than once.
+        o.removePropertyChangeListener("id", idListener);
+        o.addPropertyChangeListener("id", idListener);
+    }
+
+    private void unwatch(E e) {
+        if (idListener != null && e instanceof AbstractModelObject) {
+            ((AbstractModelObject) e).removePropertyChangeListener("id", idListener);
+        }
+    }
+
+    /**
+     * Stop watching the element, unless it is still in the list.
+     */
+    private void unwatchRemoved(E e) {
+        if (!containsInstance(e)) {
+            unwatch(e);
+        }
+    }
+
+    /**
+     * Stop watching the elements that are no longer in the list.
+     */
+    private void unwatchRemoved(List<E> elements) {
+        if (idListener == null) {
+            return;
+        }
+        Set<E> remaining = Collections.newSetFromMap(new IdentityHashMap<>(size() * 2));
+        remaining.addAll(this);
+        for (E e : elements) {
+            if (!remaining.contains(e)) {
+                unwatch(e);
             }
         }
     }
 
-    public E get(String id) {
+    private boolean containsInstance(Object o) {
         for (E e : this) {
-            if (e.getId().equals(id)) {
-                return e;
+            if (e == o) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void idChanged(Object source) {
+        if (containsInstance(source)) {
+            index = null;
+        }
+        else {
+            // Removed from the list without us noticing, e.g. through a sub list.
+            ((AbstractModelObject) source).removePropertyChangeListener("id", idListener);
+        }
+    }
+
+    @Override
+    public synchronized boolean add(E e) {
+        boolean indexed = isIndexed();
+        super.add(e);
+        watch(e);
+        if (indexed) {
+            indexAppended(e);
+            indexModCount = modCount;
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void add(int i, E e) {
+        boolean indexed = isIndexed() && !index.containsKey(e.getId());
+        super.add(i, e);
+        watch(e);
+        if (indexed) {
+            // No other element has the id, so the order does not matter.
+            index.put(e.getId(), e);
+            indexModCount = modCount;
+        }
+    }
+
+    @Override
+    public synchronized boolean addAll(Collection<? extends E> c) {
+        boolean indexed = isIndexed();
+        boolean changed = super.addAll(c);
+        for (E e : c) {
+            watch(e);
+            if (indexed) {
+                indexAppended(e);
             }
         }
-        return null;
+        if (indexed) {
+            indexModCount = modCount;
+        }
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean addAll(int i, Collection<? extends E> c) {
+        for (E e : c) {
+            watch(e);
+        }
+        index = null;
+        return super.addAll(i, c);
+    }
+
+    @Override
+    public synchronized E set(int i, E e) {
+        E old = super.set(i, e);
+        watch(e);
+        unwatchRemoved(old);
+        if (isIndexed() && !duplicateIds && !index.containsKey(e.getId())) {
+            index.remove(old.getId(), old);
+            index.put(e.getId(), e);
+        }
+        else {
+            index = null;
+        }
+        return old;
+    }
+
+    @Override
+    public synchronized E remove(int i) {
+        boolean indexed = isIndexed();
+        E e = super.remove(i);
+        unwatchRemoved(e);
+        if (indexed) {
+            indexRemoved(e);
+            indexModCount = modCount;
+        }
+        return e;
+    }
+
+    @Override
+    public synchronized boolean remove(Object o) {
+        int i = indexOf(o);
+        if (i < 0) {
+            return false;
+        }
+        remove(i);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAll(Collection<?> c) {
+        index = null;
+        List<E> elements = new ArrayList<>(this);
+        boolean changed = super.removeAll(c);
+        unwatchRemoved(elements);
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean retainAll(Collection<?> c) {
+        index = null;
+        List<E> elements = new ArrayList<>(this);
+        boolean changed = super.retainAll(c);
+        unwatchRemoved(elements);
+        return changed;
+    }
+
+    @Override
+    public synchronized boolean removeIf(Predicate<? super E> filter) {
+        index = null;
+        List<E> elements = new ArrayList<>(this);
+        boolean changed = super.removeIf(filter);
+        unwatchRemoved(elements);
+        return changed;
+    }
+
+    @Override
+    protected synchronized void removeRange(int fromIndex, int toIndex) {
+        index = null;
+        List<E> elements = new ArrayList<>(super.subList(fromIndex, toIndex));
+        super.removeRange(fromIndex, toIndex);
+        unwatchRemoved(elements);
+    }
+
+    @Override
+    public synchronized void replaceAll(UnaryOperator<E> operator) {
+        index = null;
+        List<E> elements = new ArrayList<>(this);
+        super.replaceAll(operator);
+        for (E e : this) {
+            watch(e);
+        }
+        unwatchRemoved(elements);
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (E e : this) {
+            unwatch(e);
+        }
+        super.clear();
+        index = null;
+    }
+
+    @Override
+    public synchronized Object clone() {
+        @SuppressWarnings("unchecked")
+        IdentifiableList<E> list = (IdentifiableList<E>) super.clone();
+        list.index = null;
+        list.nextIds = null;
+        list.idListener = null;
+        for (E e : list) {
+            list.watch(e);
+        }
+        return list;
     }
 }
@@ -0,0 +1,96 @@
+package org.openpnp.util;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+
+/**
+ * A pool of Mat and BufferedImage buffers keyed by size and type, so that code converting images
+ * on every frame does not allocate new native and heap buffers each time. Buffers are taken with
+ * getMat() or getBufferedImage() and must be handed back with release() once the caller no longer
+ * uses them, including any reference given to other code. Buffers beyond maxPerKey are dropped on
+ * release, Mats are released natively in that case.
+ */
+public class ImageBufferPool {
+    private final int maxPerKey;
+    private final Map<String, Deque<Mat>> mats = new HashMap<>();
+    private final Map<String, Deque<BufferedImage>> images = new HashMap<>();
+
+    public ImageBufferPool() {
+        this(4);
+    }
+
+    public ImageBufferPool(int maxPerKey) {
+        this.maxPerKey = maxPerKey;
+    }
+
+    /**
+     * Get a Mat with the given size and type. The contents are undefined.
+     */
+    public synchronized Mat getMat(int rows, int cols, int type) {
+        Deque<Mat> pool = mats.get(key(cols, rows, type));
+        if (pool != null && !pool.isEmpty()) {
+            return pool.pop();
+        }
+        return new Mat(rows, cols, type);
+    }
+
+    public synchronized void release(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        String key = key(mat.cols(), mat.rows(), mat.type());
+        Deque<Mat> pool = mats.computeIfAbsent(key, k -> new ArrayDeque<>());
+        if (pool.contains(mat)) {
+            return;
+        }
+        if (pool.size() >= maxPerKey) {
+            mat.release();
+            return;
+        }
+        pool.push(mat);
+    }
+
+    /**
+     * Get a BufferedImage with the given size and type. The contents are undefined.
+     */
+    public synchronized BufferedImage getBufferedImage(int width, int height, int type) {
+        Deque<BufferedImage> pool = images.get(key(width, height, type));
+        if (pool != null && !pool.isEmpty()) {
+            return pool.pop();
+        }
+        return new BufferedImage(width, height, type);
+    }
+
+    public synchronized void release(BufferedImage image) {
+        if (image == null) {
+            return;
+        }
+        String key = key(image.getWidth(), image.getHeight(), image.getType());
+        Deque<BufferedImage> pool = images.computeIfAbsent(key, k -> new ArrayDeque<>());
+        if (pool.size() < maxPerKey && !pool.contains(image)) {
+            pool.push(image);
+        }
+    }
+
+    /**
+     * Drop all pooled buffers, releasing the native memory of the Mats.
+     */
+    public synchronized void clear() {
+        for (Deque<Mat> pool : mats.values()) {
+            for (Mat mat : pool) {
+                mat.release();
+            }
+        }
+        mats.clear();
+        images.clear();
+    }
+
+    private static String key(int width, int height, int type) {
+        return width + "x" + height + ":" + type;
+    }
+}
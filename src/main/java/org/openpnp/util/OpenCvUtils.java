@@ -31,6 +31,10 @@ import org.openpnp.spi.Camera;
 import org.pmw.tinylog.Logger;
 
 public class OpenCvUtils {
+    /**
+     * Rotations of footprint templates are rounded to this many degrees.
+     */
+    private static final double templateRotationStep = 0.01;
 
 
     static {
@@ -39,6 +43,38 @@ public class OpenCvUtils {
     }
 
     public static BufferedImage toBufferedImage(Mat m) {
+        return toBufferedImage(m, (BufferedImage) null);
+    }
+
+    /**
+     * Convert the Mat into the given BufferedImage. If dst is null or does not match the size and
+     * type needed for the Mat a new BufferedImage is created instead. As with
+     * toBufferedImage(Mat), CV_32F and CV_32FC3 Mats are converted to 8 bit in place.
+     * 
+     * @param m
+     * @param dst
+     * @return dst, or the newly created BufferedImage.
+     */
+    public static BufferedImage toBufferedImage(Mat m, BufferedImage dst) {
+        int type = toBufferedImageType(m);
+        if (dst == null || dst.getWidth() != m.cols() || dst.getHeight() != m.rows()
+                || dst.getType() != type) {
+            dst = new BufferedImage(m.cols(), m.rows(), type);
+        }
+        m.get(0, 0, ((DataBufferByte) dst.getRaster().getDataBuffer()).getData());
+        return dst;
+    }
+
+    /**
+     * Convert the Mat into a BufferedImage taken from the pool. The caller must release the
+     * BufferedImage to the pool when it is done with it.
+     */
+    public static BufferedImage toBufferedImage(Mat m, ImageBufferPool pool) {
+        int type = toBufferedImageType(m);
+        return toBufferedImage(m, pool.getBufferedImage(m.cols(), m.rows(), type));
+    }
+
+    private static int toBufferedImageType(Mat m) {
         Integer type = null;
         if (m.type() == CvType.CV_8UC1) {
             type = BufferedImage.TYPE_BYTE_GRAY;
@@ -48,34 +84,36 @@ public class OpenCvUtils {
         }
         else if (m.type() == CvType.CV_32F) {
             type = BufferedImage.TYPE_BYTE_GRAY;
-            Mat tmp = new Mat();
-            m.convertTo(tmp, CvType.CV_8UC1, 255);
-            // Copy the results into the original Mat and release our temp copy so that when
-            // the caller releases the original Mat there is no memory leak.
-            tmp.copyTo(m);
-            tmp.release();
+            // Convert the original Mat in place, so that when the caller releases the original
+            // Mat there is no memory leak.
+            m.convertTo(m, CvType.CV_8UC1, 255);
         } 
         else if (m.type() == CvType.CV_32FC3) {
             // TemplateMatch creates a CV_32FC3 
             type = BufferedImage.TYPE_3BYTE_BGR;
-            Mat tmp = new Mat();
-            m.convertTo(tmp, CvType.CV_8UC3, 255);
-            // Copy the results into the original Mat and release our temp copy so that when
-            // the caller releases the original Mat there is no memory leak.
-            tmp.copyTo(m);
-            tmp.release();
+            m.convertTo(m, CvType.CV_8UC3, 255);
         }
         if (type == null) {
             throw new Error(String.format("Unsupported Mat: type %d, channels %d, depth %d",
                     m.type(), m.channels(), m.depth()));
         }
-        BufferedImage image = new BufferedImage(m.cols(), m.rows(), type);
-        m.get(0, 0, ((DataBufferByte) image.getRaster().getDataBuffer()).getData());
-        return image;
+        return type;
     }
 
     public static Mat toMat(BufferedImage img) {
-        Integer type = null;
+        return toMat(img, new Mat());
+    }
+
+    /**
+     * Convert the BufferedImage into the given Mat. The Mat is only reallocated if it does not
+     * already have the size and type of the image.
+     * 
+     * @param img
+     * @param dst
+     * @return dst
+     */
+    public static Mat toMat(BufferedImage img, Mat dst) {
+        int type;
         if (img.getType() == BufferedImage.TYPE_BYTE_GRAY) {
             type = CvType.CV_8UC1;
         }
@@ -86,9 +124,18 @@ public class OpenCvUtils {
             img = ImageUtils.convertBufferedImage(img, BufferedImage.TYPE_3BYTE_BGR);
             type = CvType.CV_8UC3;
         }
-        Mat mat = new Mat(img.getHeight(), img.getWidth(), type);
-        mat.put(0, 0, ((DataBufferByte) img.getRaster().getDataBuffer()).getData());
-        return mat;
+        dst.create(img.getHeight(), img.getWidth(), type);
+        dst.put(0, 0, ((DataBufferByte) img.getRaster().getDataBuffer()).getData());
+        return dst;
+    }
+
+    /**
+     * Convert the BufferedImage into a Mat taken from the pool. The caller must release the Mat
+     * to the pool when it is done with it.
+     */
+    public static Mat toMat(BufferedImage img, ImageBufferPool pool) {
+        int type = img.getType() == BufferedImage.TYPE_BYTE_GRAY ? CvType.CV_8UC1 : CvType.CV_8UC3;
+        return toMat(img, pool.getMat(img.getHeight(), img.getWidth(), type));
     }
 
     /**
@@ -303,7 +350,9 @@ public class OpenCvUtils {
         // by the camera X and Y units per pixels to get pixel locations.
         tx.scale(unitScale, unitScale);
         tx.scale(1.0 / unitsPerPixel.getX(), 1.0 / unitsPerPixel.getY());
-        tx.rotate(Math.toRadians(-rotation));
+        // Round the rotation to a bucket, so that nearly identical rotations share one cached
+        // template.
+        tx.rotate(Math.toRadians(-Math.round(rotation / templateRotationStep) * templateRotationStep));
 
         // Transform the Shape and draw it out.
         shape = tx.createTransformedShape(shape);
@@ -321,32 +370,50 @@ public class OpenCvUtils {
         // recognition performance because it allows some border around the edges.
         double width = Math.max(bounds.getWidth() * marginFactor, bounds.getWidth()+2*minimumMarginSize);
         double height = Math.max(bounds.getHeight() * marginFactor, bounds.getHeight()+2*minimumMarginSize);
-        BufferedImage template =
-                new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = (Graphics2D) template.getGraphics();
-        if (backgroundColor != null) {
-            g2d.setColor(backgroundColor);
-            g2d.fillRect(0, 0, (int) width, (int) height);
-        }
 
-        //g2d.setStroke(new BasicStroke(1f));
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        // center the drawing
-        g2d.translate(width / 2.0, height / 2.0);
-        if (!topView && bodyColor != null) {
-            g2d.setColor(bodyColor);
-            g2d.fill(bodyShape);
-        }
-        if (padsColor != null) {
-            g2d.setColor(padsColor);
-            g2d.fill(padsShape);
-        }
-        if (topView && bodyColor != null) {
-            g2d.setColor(bodyColor);
-            g2d.fill(bodyShape);
-        }
-        g2d.dispose();
-        return template;
+        // The shapes are already in pixels, so the key covers the footprint, the units per pixel
+        // and the rotation.
+        String key = new TemplateImageCache.Key("footprint")
+                .add(shape)
+                .add(bodyShape)
+                .add(padsShape)
+                .add(topView ? 1 : 0)
+                .add(padsColor)
+                .add(bodyColor)
+                .add(backgroundColor)
+                .add(width)
+                .add(height)
+                .toString();
+        Shape body = bodyShape;
+        Shape pads = padsShape;
+        return TemplateImageCache.get().get(key, () -> {
+            BufferedImage template =
+                    new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = (Graphics2D) template.getGraphics();
+            if (backgroundColor != null) {
+                g2d.setColor(backgroundColor);
+                g2d.fillRect(0, 0, (int) width, (int) height);
+            }
+
+            //g2d.setStroke(new BasicStroke(1f));
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            // center the drawing
+            g2d.translate(width / 2.0, height / 2.0);
+            if (!topView && bodyColor != null) {
+                g2d.setColor(bodyColor);
+                g2d.fill(body);
+            }
+            if (padsColor != null) {
+                g2d.setColor(padsColor);
+                g2d.fill(pads);
+            }
+            if (topView && bodyColor != null) {
+                g2d.setColor(bodyColor);
+                g2d.fill(body);
+            }
+            g2d.dispose();
+            return template;
+        });
     }
 
     /**
@@ -0,0 +1,109 @@
+package org.openpnp.util;
+
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A fixed size ring of timestamped samples, written by a single thread, such as a driver's reader
+ * thread, and read by any number of threads without locking. Samples are numbered from 0 in the
+ * order they were added, the ring keeps the last capacity - 1 of them. Readers remember the count
+ * they have seen and wait for newer samples with await().
+ */
+public class SampleRing {
+    private final double[] values;
+    private final long[] times;
+    private volatile long count;
+    /**
+     * Advances one phase per sample, so waiting readers are released without a lock.
+     */
+    private final Phaser phaser = new Phaser(1);
+
+    public SampleRing(int capacity) {
+        values = new double[capacity];
+        times = new long[capacity];
+    }
+
+    /**
+     * Add a sample. Must only be called from one thread.
+     */
+    public void add(double value) {
+        long n = count;
+        int i = (int) (n % values.length);
+        values[i] = value;
+        times[i] = System.currentTimeMillis();
+        // The volatile write publishes the sample.
+        count = n + 1;
+        phaser.arrive();
+    }
+
+    /**
+     * @return The number of samples added so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    /**
+     * @return The value of the sample with the given number, or NaN if it was not added yet or
+     *         was already overwritten.
+     */
+    public double get(long index) {
+        if (index < 0 || index >= count) {
+            return Double.NaN;
+        }
+        double value = values[(int) (index % values.length)];
+        // Check that the writer did not overwrite it while we were reading. The slot of the
+        // oldest sample may already be written with the next one, before count says so.
+        if (count - index >= values.length) {
+            return Double.NaN;
+        }
+        return value;
+    }
+
+    /**
+     * @return The time in milliseconds the sample with the given number was added, or 0 if it
+     *         was not added yet or was already overwritten.
+     */
+    public long getTime(long index) {
+        if (index < 0 || index >= count) {
+            return 0;
+        }
+        long time = times[(int) (index % times.length)];
+        if (count - index >= times.length) {
+            return 0;
+        }
+        return time;
+    }
+
+    /**
+     * Wait until there are more than count samples.
+     *
+     * @return true if there are, false if the timeout expired first.
+     */
+    public boolean await(long count, long timeoutMilliseconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMilliseconds);
+        while (this.count <= count) {
+            // Take the phase before checking again, so a sample added in between is not missed.
+            int phase = phaser.getPhase();
+            if (this.count > count) {
+                break;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                phaser.awaitAdvanceInterruptibly(phase, remaining, TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e) {
+                return this.count > count;
+            }
+        }
+        return true;
+    }
+}
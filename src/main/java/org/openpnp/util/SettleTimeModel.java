@@ -0,0 +1,93 @@
+package org.openpnp.util;
+
+/**
+ * Learns how long a camera takes to settle after a move, per move distance and speed factor, and
+ * predicts when the image will be stable after the next such move. Distances are bucketed by
+ * powers of two in millimeters, speed factors by quarters. Each bucket keeps a smoothed settle
+ * time and a smoothed deviation, the prediction is the settle time plus a multiple of the
+ * deviation, the same way TCP estimates its retransmission timeout from round trip times.
+ *
+ * A bucket predicts only after minSamples measurements. Every remeasureInterval-th prediction
+ * is declined, so that the caller measures from the start of the settle again and the model can
+ * also learn that a camera settles faster than predicted.
+ */
+public class SettleTimeModel {
+    private static final int distanceBuckets = 12;
+    private static final int speedBuckets = 4;
+    private static final double gain = 0.25;
+    private static final double deviationFactor = 4.0;
+
+    private static class Bucket {
+        int samples;
+        int predictions;
+        double settleTime;
+        double deviation;
+    }
+
+    private final int minSamples;
+    private final int remeasureInterval;
+    private Bucket[] buckets = new Bucket[distanceBuckets * speedBuckets];
+
+    public SettleTimeModel() {
+        this(3, 16);
+    }
+
+    public SettleTimeModel(int minSamples, int remeasureInterval) {
+        this.minSamples = minSamples;
+        this.remeasureInterval = remeasureInterval;
+    }
+
+    /**
+     * @param distance The distance of the move in millimeters.
+     * @param speed The speed factor of the move, 0.0 to 1.0.
+     * @return The predicted settle time in milliseconds from the end of the move, or -1 if the
+     *         settle time should be measured instead.
+     */
+    public synchronized long predict(double distance, double speed) {
+        Bucket bucket = buckets[getBucketIndex(distance, speed)];
+        if (bucket == null || bucket.samples < minSamples) {
+            return -1;
+        }
+        if (++bucket.predictions % remeasureInterval == 0) {
+            return -1;
+        }
+        return Math.round(bucket.settleTime + deviationFactor * bucket.deviation);
+    }
+
+    /**
+     * Records an observed settle time. Callers should only report times measured from the end of
+     * the move, or times that are longer than what was predicted.
+     */
+    public synchronized void learn(double distance, double speed, long settleTime) {
+        int index = getBucketIndex(distance, speed);
+        Bucket bucket = buckets[index];
+        if (bucket == null) {
+            bucket = buckets[index] = new Bucket();
+        }
+        if (bucket.samples == 0) {
+            bucket.settleTime = settleTime;
+            bucket.deviation = settleTime / 2.0;
+        }
+        else {
+            double error = settleTime - bucket.settleTime;
+            bucket.settleTime += gain * error;
+            bucket.deviation += gain * (Math.abs(error) - bucket.deviation);
+        }
+        bucket.samples++;
+    }
+
+    public synchronized void reset() {
+        buckets = new Bucket[distanceBuckets * speedBuckets];
+    }
+
+    private static int getBucketIndex(double distance, double speed) {
+        int distanceBucket = 0;
+        if (distance >= 1.0) {
+            distanceBucket = Math.min(distanceBuckets - 1,
+                    1 + (int) (Math.log(distance) / Math.log(2)));
+        }
+        int speedBucket = (int) (Math.max(0.0, Math.min(1.0, speed)) * speedBuckets);
+        speedBucket = Math.min(speedBuckets - 1, speedBucket);
+        return distanceBucket * speedBuckets + speedBucket;
+    }
+}
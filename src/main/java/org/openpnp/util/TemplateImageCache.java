@@ -0,0 +1,225 @@
+package org.openpnp.util;
+
+import java.awt.Color;
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.imageio.ImageIO;
+
+import org.openpnp.model.Configuration;
+import org.pmw.tinylog.Logger;
+
+/**
+ * A content addressed cache for rendered template images. The key is a digest over everything
+ * the image is rendered from, i.e. the shapes already transformed to pixels, colors and sizes, so
+ * a changed footprint, package or units per pixel calibration simply gives a new key and stale
+ * images are never looked up again. Recently used images are kept in memory, all images are also
+ * written as PNG files to the templates directory in the configuration directory so they survive
+ * a restart. The oldest files are deleted once there are more than maxFiles.
+ *
+ * Images handed out are shared between callers and must not be modified.
+ */
+public class TemplateImageCache {
+    private static final String directoryName = "templates";
+
+    private static TemplateImageCache instance;
+
+    private final int maxImages;
+    private final int maxFiles;
+    private final File directory;
+    private final Map<String, BufferedImage> images;
+    private int filesWritten;
+
+    public static synchronized TemplateImageCache get() {
+        if (instance == null) {
+            File directory = null;
+            if (Configuration.get() != null) {
+                directory = new File(Configuration.get().getConfigurationDirectory(), directoryName);
+            }
+            instance = new TemplateImageCache(directory, 64, 1024);
+        }
+        return instance;
+    }
+
+    /**
+     * @param directory The directory to spill images to, or null to only keep them in memory.
+     */
+    public TemplateImageCache(File directory, int maxImages, int maxFiles) {
+        this.directory = directory;
+        this.maxImages = maxImages;
+        this.maxFiles = maxFiles;
+        this.images = new LinkedHashMap<String, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > TemplateImageCache.this.maxImages;
+            }
+        };
+    }
+
+    /**
+     * Get the image for the key from memory or disk, or render it with the creator and store it.
+     */
+    public BufferedImage get(String key, Callable<BufferedImage> creator) throws Exception {
+        synchronized (this) {
+            BufferedImage image = images.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+        BufferedImage image = read(key);
+        if (image == null) {
+            image = creator.call();
+            write(key, image);
+        }
+        synchronized (this) {
+            images.put(key, image);
+        }
+        return image;
+    }
+
+    public synchronized void clear() {
+        images.clear();
+    }
+
+    private BufferedImage read(String key) {
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, key + ".png");
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) {
+                // Keeps it from being pruned while it is still in use.
+                file.setLastModified(System.currentTimeMillis());
+            }
+            return image;
+        }
+        catch (Exception e) {
+            Logger.warn(e, "Unable to read cached template image {}", file);
+            return null;
+        }
+    }
+
+    private void write(String key, BufferedImage image) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            directory.mkdirs();
+            // Write to a temporary file first so that a concurrent reader or a crash never
+            // leaves a partial image behind under the final name.
+            File tmp = File.createTempFile(key, ".tmp", directory);
+            ImageIO.write(image, "png", tmp);
+            Files.move(tmp.toPath(), new File(directory, key + ".png").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            synchronized (this) {
+                if (++filesWritten % 64 == 1) {
+                    prune();
+                }
+            }
+        }
+        catch (Exception e) {
+            Logger.warn(e, "Unable to write cached template image {}", key);
+        }
+    }
+
+    private void prune() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".png"));
+        if (files == null || files.length <= maxFiles) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - maxFiles; i++) {
+            files[i].delete();
+        }
+    }
+
+    /**
+     * Builds a cache key as a SHA-1 digest over the values added.
+     */
+    public static class Key {
+        private final MessageDigest digest;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8);
+        private String key;
+
+        public Key(String kind) throws Exception {
+            digest = MessageDigest.getInstance("SHA-1");
+            add(kind);
+        }
+
+        public Key add(double value) {
+            buffer.clear();
+            buffer.putDouble(value);
+            digest.update(buffer.array());
+            return this;
+        }
+
+        public Key add(String value) {
+            add(value == null ? -1 : value.length());
+            if (value != null) {
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+            }
+            return this;
+        }
+
+        public Key add(Color value) {
+            return add(value == null ? -1 : value.getRGB());
+        }
+
+        public Key add(Shape shape) {
+            if (shape == null) {
+                return add(-1);
+            }
+            double[] coords = new double[6];
+            for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+                int type = it.currentSegment(coords);
+                add(type);
+                for (int i = 0, n = segmentCoordinates(type); i < n; i++) {
+                    add(coords[i]);
+                }
+            }
+            return add(-2);
+        }
+
+        private static int segmentCoordinates(int type) {
+            switch (type) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:
+                    return 2;
+                case PathIterator.SEG_QUADTO:
+                    return 4;
+                case PathIterator.SEG_CUBICTO:
+                    return 6;
+                default:
+                    return 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (key == null) {
+                StringBuilder sb = new StringBuilder();
+                for (byte b : digest.digest()) {
+                    sb.append(String.format("%02x", b));
+                }
+                key = sb.toString();
+            }
+            return key;
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.openpnp.util;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.IntStream;
 
 import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
@@ -36,7 +37,8 @@ import org.openpnp.model.Location;
  * and/or a Location for the next task after that, as the end Location. These Locations can also be the same, to form 
  * a loop. If left open (null) the solver will choose the best start and/or end Location for the route freely.
  * 
- * The solver uses Simulated Annealing.
+ * The solver uses Simulated Annealing. Multiple independent annealing chains can be run in parallel, see 
+ * {@link #solve(int, long, long)}.
  * 
  * The implementation is a bit extended from the typical school book examples to not only use "swaps" of two Locations 
  * but also "twists", that reverse the travel direction between the swapped out Locations. The latter really improves the 
@@ -60,15 +62,32 @@ public class TravellingSalesman<T> {
         // register the problem
         this.travelInput = travelInput;
         this.locator = locator;
-        // convert to the working List
-        this.travel = new ArrayList<>();
         this.travelSize = travelInput.size();
+        this.startIndex = this.travelSize;
+        this.endIndex = this.travelSize + 1;
+        // convert to plain coordinates, the start and end Locations go after the travel Locations
+        int locationCount = this.travelSize + 2;
+        this.x = new double[locationCount];
+        this.y = new double[locationCount];
+        this.z = new double[locationCount];
         for (int i = 0; i < this.travelSize; i++) {
-            this.travel.add(new TravelLocation(i, this.locator.getLocation(travelInput.get(i))));
+            setCoordinates(i, this.locator.getLocation(travelInput.get(i)));
         }
         // register start/end Locations
-        this.startLocation = startLocation != null ? new TravelLocation(-1, startLocation) : null;
-        this.endLocation = endLocation != null ? new TravelLocation(this.travelSize, endLocation) : null;
+        this.hasStartLocation = startLocation != null;
+        this.hasEndLocation = endLocation != null;
+        if (this.hasStartLocation) {
+            setCoordinates(this.startIndex, startLocation);
+        }
+        if (this.hasEndLocation) {
+            setCoordinates(this.endIndex, endLocation);
+        }
+        // the working route starts in the given order
+        this.travel = new int[this.travelSize];
+        for (int i = 0; i < this.travelSize; i++) {
+            this.travel[i] = i;
+        }
+        this.distances = locationCount <= maxDistanceMatrixSize ? createDistanceMatrix(locationCount) : null;
     }
     
     public interface Locator<T> {
@@ -84,227 +103,335 @@ public class TravellingSalesman<T> {
     private static final int debugLevel = 0;
 
     /**
-     * Plain old data TravelLocation for faster processing. Improved solving by a factor of 6 from using
-     * OpenPNP Locations directly. These are always in Millimeters, no conversions needed.  
+     * Up to this number of Locations (including start and end) all the distances are computed
+     * beforehand. Larger problems compute them on the fly, as a matrix that does not fit the CPU 
+     * caches is no faster than that. 
      */
-    private static class TravelLocation {
-        private  double x, y, z;
-        private  int index;
-
-        private  TravelLocation(int index, Location l) {
-            super();
-            this.index = index;
-            l = l.convertToUnits(LengthUnit.Millimeters);
-            this.x = l.getX();
-            this.y = l.getY();
-            this.z = l.getZ();
-        }
-        private double getLinearDistanceTo(TravelLocation other) {
-            return Math.sqrt(Math.pow(this.x-other.x, 2.0) + Math.pow(this.y-other.y, 2.0) + Math.pow(this.z-other.z, 2.0));
-        }
-    }
+    private static final int maxDistanceMatrixSize = 256;
 
     private final List<T> travelInput; 
     private final int travelSize;
     private final Locator<? super T> locator;
-    private final TravelLocation startLocation;
-    private final TravelLocation endLocation;
-    private final List<TravelLocation> travel;
+    private final boolean hasStartLocation;
+    private final boolean hasEndLocation;
+    private final int startIndex;
+    private final int endIndex;
+    /**
+     * Plain coordinates for faster processing, always in Millimeters. Improved solving by a factor 
+     * of 6 from using OpenPNP Locations directly. Indexed by the travelInput index, followed by the 
+     * start and end Locations.  
+     */
+    private final double[] x, y, z;
+    /**
+     * Precomputed distances between all of the above or null.
+     */
+    private final double[] distances;
+    /**
+     * The current route as travelInput indices.
+     */
+    private int[] travel;
     
     private long solverDuration = 0; 
 
-    private TravelLocation getLocation(int i) {
-        if (i < 0) {
-            return this.startLocation;
-        }
-        else if (i >= this.travelSize) {
-            return this.endLocation;
+    private void setCoordinates(int index, Location l) {
+        l = l.convertToUnits(LengthUnit.Millimeters);
+        this.x[index] = l.getX();
+        this.y[index] = l.getY();
+        this.z[index] = l.getZ();
+    }
+
+    private double[] createDistanceMatrix(int locationCount) {
+        double[] distances = new double[locationCount * locationCount];
+        for (int i = 0; i < locationCount; i++) {
+            for (int j = i + 1; j < locationCount; j++) {
+                double distance = computeDistance(i, j);
+                distances[i * locationCount + j] = distance;
+                distances[j * locationCount + i] = distance;
+            }
         }
-        return this.travel.get(i);
+        return distances;
     }
 
-    private double getDistance(int a, int b) {
-        TravelLocation la = this.getLocation(a);
-        TravelLocation lb = this.getLocation(b);
-        if (la == null || lb == null) {
+    private boolean isPresent(int index) {
+        return (index != this.startIndex || this.hasStartLocation) 
+                && (index != this.endIndex || this.hasEndLocation);
+    }
+
+    private double computeDistance(int i, int j) {
+        if (!isPresent(i) || !isPresent(j)) {
             // no start and/or end location, so the distance is just 0.0
             return 0.0;
         }
-        return la.getLinearDistanceTo(lb);
+        double dx = this.x[i] - this.x[j];
+        double dy = this.y[i] - this.y[j];
+        double dz = this.z[i] - this.z[j];
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
     }
 
-    private double getTravellingDistance() {
-        double distance = 0.0;
-        for (int i = 0; i <= this.travelSize; i++) {
-            distance += this.getDistance(i-1,  i);
+    private double getDistanceBetween(int i, int j) {
+        if (this.distances != null) {
+            return this.distances[i * (this.travelSize + 2) + j];
         }
-        return distance;
+        return computeDistance(i, j);
     }
 
-    private double getSwapDistance(int a, int b, boolean twist) {
-        if (a > b) {
-            // a must come before b
-            int s = a;
-            a = b;
-            b = s;
+    /**
+     * @return The Location index at route position i, where -1 is the start and travelSize the end. 
+     */
+    private int getIndex(int[] travel, int i) {
+        if (i < 0) {
+            return this.startIndex;
         }
-        if (twist) {
-            // twist the loop around
-            double oldSegmentDistance = 
-                    this.getDistance(a-1, a) + this.getDistance(b, b+1);
-            double newSegmentDistance = 
-                    this.getDistance(a-1, b) + this.getDistance(a, b+1);
-            return newSegmentDistance - oldSegmentDistance;
+        else if (i >= this.travelSize) {
+            return this.endIndex;
         }
-        else {
-            // swap out the locations
-            if (a + 1 == b ) {
-                // consecutive
-                double oldSegmentDistance = 
-                        this.getDistance(a-1, a) + this.getDistance(a, b) + this.getDistance(b, b+1);
-                double newSegmentDistance = 
-                        this.getDistance(a-1, b) + this.getDistance(b, a) + this.getDistance(a, b+1);
-                return newSegmentDistance - oldSegmentDistance;
-            }
-            else {
-                // apart
-                double oldSegmentDistance = 
-                        this.getDistance(a-1, a) + this.getDistance(a, a+1) 
-                        +  this.getDistance(b-1, b) + this.getDistance(b, b+1);
-                double newSegmentDistance = 
-                        this.getDistance(a-1, b) + this.getDistance(b, a+1) 
-                        +  this.getDistance(b-1, a) + this.getDistance(a, b+1);
-                return newSegmentDistance - oldSegmentDistance;
-            }
+        return travel[i];
+    }
+
+    private double getTravellingDistance(int[] travel) {
+        double distance = 0.0;
+        for (int i = 0; i <= this.travelSize; i++) {
+            distance += getDistanceBetween(getIndex(travel, i-1), getIndex(travel, i));
         }
+        return distance;
     }
 
-    private void swap(int a, int b) {
-        TravelLocation la = this.travel.get(a);
-        TravelLocation lb = this.travel.get(b);
-        this.travel.set(a, lb);
-        this.travel.set(b, la);
+    private double getTravellingDistance() {
+        return getTravellingDistance(this.travel);
     }
 
-    private void swapLocations(int a, int b, boolean twist) {
-        if (twist) {
+    /**
+     * One Simulated Annealing chain working on its own copy of the route. 
+     */
+    private class Chain {
+        private final int[] travel;
+        private final Random rnd;
+        private double distance;
+
+        private Chain(int[] travel, long seed) {
+            this.travel = travel;
+            this.rnd = new Random(seed);
+        }
+
+        private double getDistance(int a, int b) {
+            return getDistanceBetween(getIndex(this.travel, a), getIndex(this.travel, b));
+        }
+
+        private double getSwapDistance(int a, int b, boolean twist) {
             if (a > b) {
                 // a must come before b
                 int s = a;
                 a = b;
                 b = s;
             }
-            // twist the loop around
-            for (int i = 0; i < (b - a + 1)/2; i++) {
-                this.swap(a+i, b-i);
+            if (twist) {
+                // twist the loop around
+                double oldSegmentDistance = 
+                        this.getDistance(a-1, a) + this.getDistance(b, b+1);
+                double newSegmentDistance = 
+                        this.getDistance(a-1, b) + this.getDistance(a, b+1);
+                return newSegmentDistance - oldSegmentDistance;
+            }
+            else {
+                // swap out the locations
+                if (a + 1 == b ) {
+                    // consecutive
+                    double oldSegmentDistance = 
+                            this.getDistance(a-1, a) + this.getDistance(a, b) + this.getDistance(b, b+1);
+                    double newSegmentDistance = 
+                            this.getDistance(a-1, b) + this.getDistance(b, a) + this.getDistance(a, b+1);
+                    return newSegmentDistance - oldSegmentDistance;
+                }
+                else {
+                    // apart
+                    double oldSegmentDistance = 
+                            this.getDistance(a-1, a) + this.getDistance(a, a+1) 
+                            +  this.getDistance(b-1, b) + this.getDistance(b, b+1);
+                    double newSegmentDistance = 
+                            this.getDistance(a-1, b) + this.getDistance(b, a+1) 
+                            +  this.getDistance(b-1, a) + this.getDistance(a, b+1);
+                    return newSegmentDistance - oldSegmentDistance;
+                }
             }
         }
-        else {
-            // swap out the two locations
-            this.swap(a, b);
-        }
-    }
 
-    @SuppressWarnings("unused")
-    public double simulateAnnealing(double startingTemperature, double coolingRate, int maxIterations) {
-        long startTime = System.currentTimeMillis();
-        if (debugLevel > 0) {
-            System.out.println("Simulated Annealing, size: "+this.travelSize+" temperature: " + startingTemperature + ", max iterations: " + maxIterations + ", cooling rate: " + coolingRate);
+        private void swap(int a, int b) {
+            int la = this.travel[a];
+            this.travel[a] = this.travel[b];
+            this.travel[b] = la;
         }
-        int i = maxIterations;
-        int swaps = 0, twists = 0;
-        double bestDistance = getTravellingDistance();
-        double t = startingTemperature;
-        if (debugLevel > 0) {
-            System.out.println("Initial distance of travel: " + bestDistance);
+
+        private void swapLocations(int a, int b, boolean twist) {
+            if (twist) {
+                if (a > b) {
+                    // a must come before b
+                    int s = a;
+                    a = b;
+                    b = s;
+                }
+                // twist the loop around
+                for (int i = 0; i < (b - a + 1)/2; i++) {
+                    this.swap(a+i, b-i);
+                }
+            }
+            else {
+                // swap out the two locations
+                this.swap(a, b);
+            }
         }
-        if (this.travelSize > 1) {
-            // make this repeatable by seeding the random generator
-            Random rnd = new java.util.Random(0);
-            for (; i > 0; i--) {
-                if (t > 0.1) {
-                    int a = (int) (rnd.nextDouble() * this.travelSize);
-                    int b;
-                    do {
-                        b = (int) (rnd.nextDouble() * this.travelSize);
-                    }
-                    while (b == a);
-                    /* creates a locale emphasis when swapping
-                    do {
 
-                        b = (int) (Math.pow(rnd.nextDouble()*2.0-1.0, 3.0) * this.travelSize);
-                    }
-                    while(b < 0 || a == b || b > this.travelSize );
-                     */
-                    boolean twist = false;//(i % 2 == 0);
-                    double swapDistance = getSwapDistance(a, b, false);
-                    double twistDistance = getSwapDistance(a, b, true);
-                    // choose the better option
-                    if (twistDistance < swapDistance) {
-                        twist = true;
-                        swapDistance = twistDistance;
-                    }
+        @SuppressWarnings("unused")
+        private double anneal(double startingTemperature, double coolingRate, int maxIterations, long deadline) {
+            int i = maxIterations;
+            int swaps = 0, twists = 0;
+            double bestDistance;
+            double t = startingTemperature;
+            if (travelSize > 1) {
+                for (; i > 0; i--) {
+                    if (t > 0.1) {
+                        int a = (int) (rnd.nextDouble() * travelSize);
+                        int b;
+                        do {
+                            b = (int) (rnd.nextDouble() * travelSize);
+                        }
+                        while (b == a);
+                        /* creates a locale emphasis when swapping
+                        do {
 
-                    if (debugLevel > 1) {
-                        // validate the differential swapDistance
-                        bestDistance = getTravellingDistance();
-                        this.swapLocations(a, b, twist);
-                        double newDistance = getTravellingDistance();
-                        this.swapLocations(a, b, twist);
-                        if (Math.abs((newDistance - bestDistance) - swapDistance) > 0.1) {
-                            System.err.println("** Swap distance wrong - newDistance:" + newDistance + ", bestDistance:" + bestDistance +", swapDistance: "+swapDistance + " != "+(newDistance - bestDistance)+", twist: "+twist);
+                            b = (int) (Math.pow(rnd.nextDouble()*2.0-1.0, 3.0) * travelSize);
+                        }
+                        while(b < 0 || a == b || b > travelSize );
+                         */
+                        boolean twist = false;//(i % 2 == 0);
+                        double swapDistance = getSwapDistance(a, b, false);
+                        double twistDistance = getSwapDistance(a, b, true);
+                        // choose the better option
+                        if (twistDistance < swapDistance) {
+                            twist = true;
+                            swapDistance = twistDistance;
                         }
-                    }
 
-                    if (swapDistance < 0.0 || (Math.exp(-swapDistance / t) >= rnd.nextDouble())) {
-                        // better or within annealing probability
-                        this.swapLocations(a, b, twist);
-                        swaps++;
-                        twists += twist ? 1 : 0;
+                        if (debugLevel > 1) {
+                            // validate the differential swapDistance
+                            bestDistance = getTravellingDistance(this.travel);
+                            this.swapLocations(a, b, twist);
+                            double newDistance = getTravellingDistance(this.travel);
+                            this.swapLocations(a, b, twist);
+                            if (Math.abs((newDistance - bestDistance) - swapDistance) > 0.1) {
+                                System.err.println("** Swap distance wrong - newDistance:" + newDistance + ", bestDistance:" + bestDistance +", swapDistance: "+swapDistance + " != "+(newDistance - bestDistance)+", twist: "+twist);
+                            }
+                        }
+
+                        if (swapDistance < 0.0 || (Math.exp(-swapDistance / t) >= rnd.nextDouble())) {
+                            // better or within annealing probability
+                            this.swapLocations(a, b, twist);
+                            swaps++;
+                            twists += twist ? 1 : 0;
+                        }
+                        t *= coolingRate;
+                    } else {
+                        break;
                     }
-                    t *= coolingRate;
-                } else {
-                    break;
-                }
-                if (debugLevel > 0) {
-                    if (i % 100000 == 0) {
-                        bestDistance = getTravellingDistance();
-                        System.out.println("Iterations #" + i +", temperature: "+t+", distance of travel:" + bestDistance+", swaps: "+swaps+", twists: "+twists);
-                        //System.out.println(this.asSvg());
+                    if ((i & 0x3FF) == 0 && System.currentTimeMillis() > deadline) {
+                        // out of time
+                        break;
+                    }
+                    if (debugLevel > 0) {
+                        if (i % 100000 == 0) {
+                            bestDistance = getTravellingDistance(this.travel);
+                            System.out.println("Iterations #" + i +", temperature: "+t+", distance of travel:" + bestDistance+", swaps: "+swaps+", twists: "+twists);
+                        }
                     }
                 }
             }
+            this.distance = getTravellingDistance(this.travel);
+            if (debugLevel > 0) {
+                System.out.println("Iterations #" + i +", temperature: "+t+",  distance of travel:" + this.distance+", swaps: "+swaps+", twists: "+twists);
+            }
+            return this.distance;
         }
-        bestDistance = getTravellingDistance();
+    }
+
+    public double simulateAnnealing(double startingTemperature, double coolingRate, int maxIterations) {
+        // make this repeatable by seeding the random generator
+        return simulateAnnealing(startingTemperature, coolingRate, maxIterations, 1, 0, 0);
+    }
+
+    /**
+     * Run a number of independent Simulated Annealing chains in parallel on the common fork/join pool and keep 
+     * the shortest route found. Chain n uses the random generator seed + n, and on equal distances the lower 
+     * chain wins, so the result only depends on the seed, as long as the time budget does not cut the chains short.
+     * 
+     * @param startingTemperature
+     * @param coolingRate
+     * @param maxIterations Maximum iterations per chain.
+     * @param chains Number of chains.
+     * @param timeBudget Maximum solving time in milliseconds, or 0 for no limit.
+     * @param seed
+     * @return The travelling distance of the best route.
+     */
+    @SuppressWarnings("unused")
+    public double simulateAnnealing(double startingTemperature, double coolingRate, int maxIterations, 
+            int chains, long timeBudget, long seed) {
+        long startTime = System.currentTimeMillis();
+        long deadline = timeBudget > 0 ? startTime + timeBudget : Long.MAX_VALUE;
         if (debugLevel > 0) {
-            System.out.println("Iterations #" + i +", temperature: "+t+",  distance of travel:" + bestDistance+", swaps: "+swaps+", twists: "+twists);
+            System.out.println("Simulated Annealing, size: "+this.travelSize+" temperature: " + startingTemperature + ", max iterations: " + maxIterations + ", cooling rate: " + coolingRate + ", chains: " + chains);
+            System.out.println("Initial distance of travel: " + getTravellingDistance());
         }
+        final int[] initialTravel = this.travel;
+        Chain best = IntStream.range(0, Math.max(1, chains))
+                .parallel()
+                .mapToObj(n -> {
+                    Chain chain = new Chain(initialTravel.clone(), seed + n);
+                    chain.anneal(startingTemperature, coolingRate, maxIterations, deadline);
+                    return chain;
+                })
+                // the stream is ordered, so on equal distances the lower chain is kept 
+                .reduce((a, b) -> b.distance < a.distance ? b : a)
+                .get();
+        this.travel = best.travel;
         long endTime = System.currentTimeMillis();
         this.solverDuration = endTime - startTime;
-        return bestDistance;
+        return best.distance;
     }
 
     public double solve() {
+        return solve(1, 0, 0);
+    }
+
+    /**
+     * Solve with the given number of parallel chains, see 
+     * {@link #simulateAnnealing(double, double, int, int, long, long)}.
+     */
+    public double solve(int chains, long timeBudget, long seed) {
         // heuristic for the simulated annealing params
         int size = Math.max(1, this.travelSize);
-        return simulateAnnealing(getTravellingDistance()/size*2.0, 1.0-0.001/size, size*1000+10000000);
+        return simulateAnnealing(getTravellingDistance()/size*2.0, 1.0-0.001/size, size*1000+10000000, 
+                chains, timeBudget, seed);
     }
 
     public List<T> getTravel() {
-        // convert the working list back to a list of the input objects using the now rearranged t.index order. 
+        // convert the working route back to a list of the input objects using the now rearranged index order. 
         List<T> travelOutput = new ArrayList<>();
-        for (TravelLocation t : this.travel) {
-            travelOutput.add(this.travelInput.get(t.index));
+        for (int index : this.travel) {
+            travelOutput.add(this.travelInput.get(index));
         }
         return travelOutput;
     }
 
     public Location getStartLocation() {
-        return new Location(LengthUnit.Millimeters, startLocation.x, startLocation.y, startLocation.z, 0.);
+        if (!hasStartLocation) {
+            return null;
+        }
+        return new Location(LengthUnit.Millimeters, x[startIndex], y[startIndex], z[startIndex], 0.);
     }
 
     public Location getEndLocation() {
-        return new Location(LengthUnit.Millimeters, endLocation.x, endLocation.y, endLocation.z, 0.);
+        if (!hasEndLocation) {
+            return null;
+        }
+        return new Location(LengthUnit.Millimeters, x[endIndex], y[endIndex], z[endIndex], 0.);
     }
 
     public long getSolverDuration() {
@@ -315,19 +442,19 @@ public class TravellingSalesman<T> {
         double minX = Double.NaN, minY = Double.NaN;
         double maxX = Double.NaN, maxY = Double.NaN;
         for (int i = -1; i <= this.travelSize; i++) {
-            TravelLocation l = this.getLocation(i);
-            if (l != null) {
-                if (Double.isNaN(minX) || minX > l.x) {
-                    minX = l.x;
+            int l = this.getIndex(this.travel, i);
+            if (isPresent(l)) {
+                if (Double.isNaN(minX) || minX > x[l]) {
+                    minX = x[l];
                 }
-                if (Double.isNaN(minY) || minY > l.y) {
-                    minY = l.y;
+                if (Double.isNaN(minY) || minY > y[l]) {
+                    minY = y[l];
                 }
-                if (Double.isNaN(maxX) || maxX < l.x + l.z) {
-                    maxX = l.x + l.z;
+                if (Double.isNaN(maxX) || maxX < x[l] + z[l]) {
+                    maxX = x[l] + z[l];
                 }
-                if (Double.isNaN(maxY) || maxY < l.y + l.z) {
-                    maxY = l.y + l.z;
+                if (Double.isNaN(maxY) || maxY < y[l] + z[l]) {
+                    maxY = y[l] + z[l];
                 }
             }
         }
@@ -347,30 +474,30 @@ public class TravellingSalesman<T> {
         svg.append("<title>Travelling Salesman ("+this.travelSize+" locations, "+Math.round(this.getTravellingDistance())+"mm, "+this.solverDuration+"ms)</title>\n");
         // shadows
         for (int i = -1; i < this.travelSize; i++) {
-            TravelLocation la = this.getLocation(i);
-            TravelLocation lb = this.getLocation(i+1);
-            if (la != null && lb != null) {
-                svg.append("<line x1=\""+(la.x+la.z)+"\" y1=\""+(la.y+la.z)+"\" x2=\""+(lb.x+lb.z)+"\" y2=\""+(lb.y+lb.z)+"\" style=\"stroke:lightgrey;\"/>");
-                svg.append("<circle cx=\""+(lb.x+lb.z)+"\" cy=\""+(lb.y+lb.z)+"\" r=\"2\" style=\"fill:lightgrey;\"/>\n");
+            int la = this.getIndex(this.travel, i);
+            int lb = this.getIndex(this.travel, i+1);
+            if (isPresent(la) && isPresent(lb)) {
+                svg.append("<line x1=\""+(x[la]+z[la])+"\" y1=\""+(y[la]+z[la])+"\" x2=\""+(x[lb]+z[lb])+"\" y2=\""+(y[lb]+z[lb])+"\" style=\"stroke:lightgrey;\"/>");
+                svg.append("<circle cx=\""+(x[lb]+z[lb])+"\" cy=\""+(y[lb]+z[lb])+"\" r=\"2\" style=\"fill:lightgrey;\"/>\n");
             }
         }
         // lines
         for (int i = -1; i < this.travelSize; i++) {
-            TravelLocation la = this.getLocation(i);
-            TravelLocation lb = this.getLocation(i+1);
-            if (la != null && lb != null) {
-                svg.append("<line x1=\""+la.x+"\" y1=\""+la.y+"\" x2=\""+lb.x+"\" y2=\""+lb.y+"\" style=\"stroke:black;\"/>");
+            int la = this.getIndex(this.travel, i);
+            int lb = this.getIndex(this.travel, i+1);
+            if (isPresent(la) && isPresent(lb)) {
+                svg.append("<line x1=\""+x[la]+"\" y1=\""+y[la]+"\" x2=\""+x[lb]+"\" y2=\""+y[lb]+"\" style=\"stroke:black;\"/>");
             }
         }
         // nodes
         for (int i = -1; i <= this.travelSize; i++) {
-            TravelLocation la = this.getLocation(i);
-            if (la != null) {
-                svg.append("<circle cx=\""+la.x+"\" cy=\""+la.y+"\" r=\"2\" style=\"");
-                if (la == this.startLocation) { 
+            int la = this.getIndex(this.travel, i);
+            if (isPresent(la)) {
+                svg.append("<circle cx=\""+x[la]+"\" cy=\""+y[la]+"\" r=\"2\" style=\"");
+                if (la == this.startIndex) { 
                     svg.append("stroke:blue; fill:white;");
                 } 
-                else if (la == this.endLocation) {
+                else if (la == this.endIndex) {
                     svg.append("stroke:green; fill:white;");
                 }
                 else {
@@ -35,6 +35,38 @@ public class UiUtils {
         });
     }
 
+    /**
+     * Same as submitUiMachineTask(Thrunnable) for a task that only uses the given resources. See
+     * Machine.submit(Callable, FutureCallback, boolean, Object...).
+     * 
+     * @param thrunnable
+     * @param resources
+     * @return
+     */
+    public static Future<Void> submitUiMachineTask(final Thrunnable thrunnable,
+            Object... resources) {
+        return submitUiMachineTask(() -> {
+            thrunnable.thrun();
+            return null;
+        }, resources);
+    }
+
+    /**
+     * Same as submitUiMachineTask(Callable) for a task that only uses the given resources. See
+     * Machine.submit(Callable, FutureCallback, boolean, Object...).
+     * 
+     * @param callable
+     * @param resources
+     * @return
+     */
+    public static <T> Future<T> submitUiMachineTask(final Callable<T> callable,
+            Object... resources) {
+        return submitUiMachineTask(callable, (result) -> {
+        } , (t) -> {
+            MessageBoxes.errorBox(MainFrame.get(), "Error", t);
+        }, resources);
+    }
+
     /**
      * Wrapper for submitMachineTask(Callable, Consumer, Consumer) which ignores the return value in
      * onSuccess and shows a MessageBox when an Exception is thrown. Handy for simple tasks that
@@ -62,6 +94,12 @@ public class UiUtils {
      */
     public static <T> Future<T> submitUiMachineTask(final Callable<T> callable,
             final Consumer<T> onSuccess, final Consumer<Throwable> onFailure) {
+        return submitUiMachineTask(callable, onSuccess, onFailure, new Object[] {});
+    }
+
+    private static <T> Future<T> submitUiMachineTask(final Callable<T> callable,
+            final Consumer<T> onSuccess, final Consumer<Throwable> onFailure,
+            Object[] resources) {
         return Configuration.get().getMachine().submit(callable, new FutureCallback<T>() {
             @Override
             public void onSuccess(T result) {
@@ -82,7 +120,7 @@ public class UiUtils {
                     e.printStackTrace();
                 }
             }
-        });
+        }, false, resources);
     }
 
     /**
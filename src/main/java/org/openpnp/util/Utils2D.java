@@ -25,6 +25,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
@@ -200,38 +201,96 @@ public class Utils2D {
         return ret;
     }
 
-    public static Location calculateBoardPlacementLocation(BoardLocation bl,
-            Location placementLocation) {
-        AffineTransform tx = bl.getPlacementTransform();        
-        if (tx == null) {
-            tx = getDefaultBoardPlacementLocationTransform(bl);
+    /**
+     * The placement transform of a BoardLocation compiled to the coefficients of its matrix, in
+     * millimeters, along with its angle and the board's Z. It is immutable and remembers the
+     * BoardLocation's location, side, placement transform and, if used, board dimensions it was
+     * compiled from, so BoardLocation can tell whether its cached copy is still valid. Locations
+     * are immutable, so a changed location is always a different instance. The placement
+     * transform is not, it is copied and compared by value, so changing it in place is noticed.
+     */
+    public static class BoardPlacementTransform {
+        private final Location location;
+        private final Side side;
+        private final AffineTransform placementTransform;
+        private final Location boardDimensions;
+
+        private final double m00, m01, m02, m10, m11, m12;
+        private final double angle;
+        private final double z;
+
+        public BoardPlacementTransform(BoardLocation bl) {
+            location = bl.getLocation();
+            side = bl.getSide();
+            AffineTransform tx = bl.getPlacementTransform();
+            placementTransform = (tx == null) ? null : new AffineTransform(tx);
+            if (tx == null) {
+                boardDimensions = side == Side.Bottom ? bl.getBoard().getDimensions() : null;
+                tx = getDefaultBoardPlacementLocationTransform(bl);
+            }
+            else {
+                boardDimensions = null;
+            }
+            m00 = tx.getScaleX();
+            m01 = tx.getShearX();
+            m02 = tx.getTranslateX();
+            m10 = tx.getShearY();
+            m11 = tx.getScaleY();
+            m12 = tx.getTranslateY();
+            angle = getTransformAngle(tx);
+            z = location.convertToUnits(LengthUnit.Millimeters).getZ();
         }
-        
-        // The affine calculations are always done in millimeters, so we convert everything
-        // before we start calculating and then we'll convert it back to the original
-        // units at the end.
-        LengthUnit placementUnits = placementLocation.getUnits();
-        Location boardLocation = bl.getLocation().convertToUnits(LengthUnit.Millimeters);
-        placementLocation = placementLocation.convertToUnits(LengthUnit.Millimeters);
 
-        if (bl.getSide() == Side.Bottom) {
-        	placementLocation = placementLocation.invert(true, false, false, false);
+        /**
+         * @return true if the BoardLocation still has the location, side, placement transform
+         *         and board dimensions this was compiled from.
+         */
+        public boolean isValidFor(BoardLocation bl) {
+            if (bl.getLocation() != location || bl.getSide() != side
+                    || !Objects.equals(bl.getPlacementTransform(), placementTransform)) {
+                return false;
+            }
+            if (boardDimensions != null) {
+                return bl.getBoard() != null && bl.getBoard().getDimensions() == boardDimensions;
+            }
+            return true;
         }
 
-        double angle = getTransformAngle(tx);
-        
-        Point2D p = new Point2D.Double(placementLocation.getX(), placementLocation.getY());
-        p = tx.transform(p, null);
-        
-        // The final result is the transformed X,Y, the BoardLocation's Z, and the
-        // transform angle + placement angle.
-        Location l = new Location(LengthUnit.Millimeters, 
-                p.getX(), 
-                p.getY(), 
-                boardLocation.getZ(), 
-                angle + placementLocation.getRotation());
-        l = l.convertToUnits(placementUnits);
-        return l;
+        /**
+         * Transform a placement location to a machine location, in the placement location's
+         * units.
+         */
+        public Location transform(Location placementLocation) {
+            LengthUnit placementUnits = placementLocation.getUnits();
+            if (placementUnits != LengthUnit.Millimeters) {
+                placementLocation = placementLocation.convertToUnits(LengthUnit.Millimeters);
+            }
+            double x = placementLocation.getX();
+            double y = placementLocation.getY();
+            if (side == Side.Bottom) {
+                x = -x;
+            }
+            // The final result is the transformed X,Y, the BoardLocation's Z, and the
+            // transform angle + placement angle.
+            Location l = new Location(LengthUnit.Millimeters,
+                    x * m00 + y * m01 + m02,
+                    x * m10 + y * m11 + m12,
+                    z,
+                    angle + placementLocation.getRotation());
+            if (placementUnits != LengthUnit.Millimeters) {
+                l = l.convertToUnits(placementUnits);
+            }
+            return l;
+        }
+
+        public double getAngle() {
+            return angle;
+        }
+    }
+
+    public static Location calculateBoardPlacementLocation(BoardLocation bl,
+            Location placementLocation) {
+        return bl.getBoardPlacementTransform().transform(placementLocation);
     }
 
     public static Location calculateBoardPlacementLocationInverse(BoardLocation bl,
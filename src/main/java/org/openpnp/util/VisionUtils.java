@@ -1,14 +1,24 @@
 package org.openpnp.util;
 
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import org.openpnp.model.BoardLocation;
 import org.openpnp.model.Configuration;
+import org.openpnp.model.Footprint;
 import org.openpnp.model.Length;
 import org.openpnp.model.Location;
 import org.openpnp.model.Part;
@@ -18,6 +28,7 @@ import org.openpnp.spi.HeadMountable;
 import org.openpnp.spi.Nozzle;
 import org.openpnp.spi.PartAlignment;
 import org.openpnp.spi.PartAlignment.PartAlignmentOffset;
+import org.openpnp.vision.pipeline.CvPipeline;
 import org.pmw.tinylog.Logger;
 
 import com.google.zxing.BinaryBitmap;
@@ -203,7 +214,138 @@ public class VisionUtils {
         }
     }
     
+    /**
+     * Get the region of the camera image that should settle before the camera looks at a
+     * footprint expected at the center of the image, for the settleRoi pipeline property. The
+     * region covers the footprint at any rotation plus the given margin on every side. Returns
+     * null if there is no footprint or the image size is not known, so that the whole image
+     * settles.
+     * 
+     * @param camera
+     * @param footprint
+     * @param margin
+     * @return
+     */
+    public static Rectangle getSettleRoi(Camera camera, Footprint footprint, Length margin) {
+        if (footprint == null || camera.getWidth() <= 0 || camera.getHeight() <= 0) {
+            return null;
+        }
+        Rectangle2D bounds = footprint.getShape().getBounds2D();
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        // The footprint rotates around its origin, so take the farthest corner.
+        double radius = Math.max(
+                Math.max(Math.hypot(bounds.getMinX(), bounds.getMinY()),
+                        Math.hypot(bounds.getMaxX(), bounds.getMinY())),
+                Math.max(Math.hypot(bounds.getMinX(), bounds.getMaxY()),
+                        Math.hypot(bounds.getMaxX(), bounds.getMaxY())));
+        double size = 2 * (toPixels(new Length(radius, footprint.getUnits()), camera)
+                + toPixels(margin, camera));
+        int width = (int) Math.min(camera.getWidth(), Math.ceil(size));
+        int height = (int) Math.min(camera.getHeight(), Math.ceil(size));
+        return new Rectangle((camera.getWidth() - width) / 2, (camera.getHeight() - height) / 2,
+                width, height);
+    }
+
+    /**
+     * Share identical pipelines among the given part settings, instead of each part keeping its
+     * own copy. Pipelines identical to the default pipeline are dropped, so those parts use the
+     * default pipeline. Parts with identical custom pipelines get the same instance, which they
+     * must copy before it is edited. Pipelines are compared by their XML.
+     * 
+     * @param defaultPipeline
+     * @param partSettings
+     * @param getPipeline Returns the part's own pipeline, or null if it uses the default.
+     * @param useSharedPipeline Makes the part use the given shared pipeline, or the default
+     *        pipeline if it is null.
+     */
+    public static <T> void sharePipelines(CvPipeline defaultPipeline,
+            Collection<T> partSettings, Function<T, CvPipeline> getPipeline,
+            BiConsumer<T, CvPipeline> useSharedPipeline) {
+        String defaultPipelineXml;
+        try {
+            defaultPipelineXml = defaultPipeline.toXmlString();
+        }
+        catch (Exception e) {
+            Logger.warn("Unable to compare part pipelines to the default pipeline: {}", e);
+            return;
+        }
+        Map<String, List<T>> partSettingsByXml = new HashMap<>();
+        for (T settings : partSettings) {
+            CvPipeline pipeline = getPipeline.apply(settings);
+            if (pipeline == null) {
+                continue;
+            }
+            try {
+                String xml = pipeline.toXmlString();
+                if (xml.equals(defaultPipelineXml)) {
+                    useSharedPipeline.accept(settings, null);
+                }
+                else {
+                    partSettingsByXml.computeIfAbsent(xml, k -> new ArrayList<>()).add(settings);
+                }
+            }
+            catch (Exception e) {
+                Logger.warn("Unable to compare part pipeline to the other pipelines: {}", e);
+            }
+        }
+        for (List<T> identical : partSettingsByXml.values()) {
+            if (identical.size() > 1) {
+                CvPipeline pipeline = getPipeline.apply(identical.get(0));
+                for (T settings : identical) {
+                    useSharedPipeline.accept(settings, pipeline);
+                }
+            }
+        }
+    }
+
     public static PartAlignment.PartAlignmentOffset findPartAlignmentOffsets(PartAlignment p, Part part, BoardLocation boardLocation, Location placementLocation, Nozzle nozzle) throws Exception {
+        scriptPartAlignmentBefore(part, nozzle);
+        PartAlignmentOffset offsets = null;
+        try {
+            offsets = p.findOffsets(part, boardLocation, placementLocation, nozzle);
+            return offsets;
+        }
+        finally {
+            scriptPartAlignmentAfter(part, nozzle, offsets);
+        }
+    }
+
+    /**
+     * Start a part alignment with PartAlignment.findOffsetsAsync(). The returned Future must be
+     * passed to getPartAlignmentOffsets() to get the offsets, which also runs the
+     * Vision.PartAlignment.After script.
+     */
+    public static Future<PartAlignmentOffset> startPartAlignment(PartAlignment p, Part part, BoardLocation boardLocation, Location placementLocation, Nozzle nozzle, Executor executor) throws Exception {
+        scriptPartAlignmentBefore(part, nozzle);
+        try {
+            return p.findOffsetsAsync(part, boardLocation, placementLocation, nozzle, executor);
+        }
+        catch (Exception e) {
+            scriptPartAlignmentAfter(part, nozzle, null);
+            throw e;
+        }
+    }
+
+    public static PartAlignmentOffset getPartAlignmentOffsets(Future<PartAlignmentOffset> future, Part part, Nozzle nozzle) throws Exception {
+        PartAlignmentOffset offsets = null;
+        try {
+            offsets = future.get();
+            return offsets;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+        finally {
+            scriptPartAlignmentAfter(part, nozzle, offsets);
+        }
+    }
+
+    private static void scriptPartAlignmentBefore(Part part, Nozzle nozzle) {
         try {
             Map<String, Object> globals = new HashMap<>();
             globals.put("part", part);
@@ -213,22 +355,18 @@ public class VisionUtils {
         catch (Exception e) {
             Logger.warn(e);
         }
-        PartAlignmentOffset offsets = null;
+    }
+
+    private static void scriptPartAlignmentAfter(Part part, Nozzle nozzle, PartAlignmentOffset offsets) {
         try {
-            offsets = p.findOffsets(part, boardLocation, placementLocation, nozzle);
-            return offsets;
+            Map<String, Object> globals = new HashMap<>();
+            globals.put("part", part);
+            globals.put("nozzle", nozzle);
+            globals.put("offsets", offsets);
+            Configuration.get().getScripting().on("Vision.PartAlignment.After", globals);
         }
-        finally {
-            try {
-                Map<String, Object> globals = new HashMap<>();
-                globals.put("part", part);
-                globals.put("nozzle", nozzle);
-                globals.put("offsets", offsets);
-                Configuration.get().getScripting().on("Vision.PartAlignment.After", globals);
-            }
-            catch (Exception e) {
-                Logger.warn(e);
-            }
+        catch (Exception e) {
+            Logger.warn(e);
         }
     }
 }
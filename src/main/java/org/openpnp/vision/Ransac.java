@@ -1,20 +1,38 @@
 package org.openpnp.vision;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.opencv.core.Point;
 
 public class Ransac {
-    private static class LineIndices implements Comparable<LineIndices> {
-        public List<Integer> indices = new ArrayList<>();
+    /**
+     * Iterations below this number are not worth spreading across cores.
+     */
+    private static final int minParallelIterations = 64;
+
+    /**
+     * The inliers of a line as a bitset over the point indices. Lines with the same inliers are
+     * the same line, so this is also the key used to remove duplicates.
+     */
+    private static class LineIndices {
+        long[] bits;
+        int count;
+        int iteration;
+
+        LineIndices(long[] bits) {
+            this.bits = bits;
+        }
 
-        public LineIndices(List<Integer> indices) {
-            this.indices.addAll(indices);
-            this.indices.sort(null);
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bits);
         }
 
         @Override
@@ -25,30 +43,131 @@ public class Ransac {
             if (o == null || getClass() != o.getClass()) {
                 return false;
             }
+            return Arrays.equals(bits, ((LineIndices) o).bits);
+        }
+    }
 
-            LineIndices that = (LineIndices) o;
+    /**
+     * The state of one run over a range of iterations. All buffers are reused between
+     * iterations, only lines not seen before are copied.
+     */
+    private static class Search {
+        final double[] x;
+        final double[] y;
+        final int n;
+        final double pointToLineDistanceThreshold;
+        final double pointSpacing;
+        final double pointSpacingEpsilon;
+        final long seed;
+        final long[] inliers;
+        final long[] spacedInliers;
+        final long[] indicesOnLine;
+        final LineIndices probe;
+        final Map<LineIndices, LineIndices> lines = new HashMap<>();
 
-            return indices.equals(that.indices);
+        Search(double[] x, double[] y, double pointToLineDistanceThreshold, double pointSpacing,
+                double pointSpacingEpsilon, long seed) {
+            this.x = x;
+            this.y = y;
+            this.n = x.length;
+            this.pointToLineDistanceThreshold = pointToLineDistanceThreshold;
+            this.pointSpacing = pointSpacing;
+            this.pointSpacingEpsilon = pointSpacingEpsilon;
+            this.seed = seed;
+            this.inliers = new long[(n + 63) / 64];
+            this.spacedInliers = pointSpacing > 0 ? new long[inliers.length] : null;
+            this.indicesOnLine = pointSpacing > 0 ? new long[n] : null;
+            this.probe = new LineIndices(null);
         }
 
-        @Override
-        public int compareTo(LineIndices o) {
-            // NOTE: aIndex and bIndex don't matter for comparisons
-            int cmp = Integer.compare(this.indices.size(), o.indices.size());
-            if (cmp != 0) {
-                return cmp;
+        void run(int from, int to) {
+            for (int i = from; i < to; i++) {
+                // take a random sample of two points, derived from the seed and the iteration
+                // alone so that any split of the iterations gives the same lines
+                long h = mix(seed + i * 0x9E3779B97F4A7C15L);
+                int aIndex = (int) ((h & 0x7fffffffL) % n);
+                int bIndex = (int) (((h >>> 32) & 0x7fffffffL) % (n - 1));
+                if (bIndex >= aIndex) {
+                    bIndex++;
+                }
+                // find the inliers
+                int count = findInliers(aIndex, bIndex);
+                long[] bits = inliers;
+                if (spacedInliers != null) {
+                    count = filterInliersWithSpacing(aIndex, bIndex);
+                    bits = spacedInliers;
+                }
+                if (count >= 2) {
+                    // Must check for duplicates as we're just randomly sampling and testing again; the same line may
+                    // come up many times, both from the same starting points or from other points on the same line
+                    probe.bits = bits;
+                    if (!lines.containsKey(probe)) {
+                        LineIndices line = new LineIndices(bits.clone());
+                        line.count = count;
+                        line.iteration = i;
+                        lines.put(line, line);
+                    }
+                }
             }
+        }
 
-            for (int i=0; i<this.indices.size(); i++) {
-                Integer a = this.indices.get(i);
-                Integer b = o.indices.get(i);
-                cmp = a.compareTo(b);
-                if (cmp != 0) {
-                    return cmp;
+        private int findInliers(int aIndex, int bIndex) {
+            double ax = x[aIndex], ay = y[aIndex];
+            double dx = x[bIndex] - ax, dy = y[bIndex] - ay;
+            // same as FluentCv.pointToLineDistance()
+            double normalLength = Math.sqrt(dx * dx + dy * dy);
+            Arrays.fill(inliers, 0);
+            int count = 0;
+            for (int p = 0; p < n; p++) {
+                double distance = Math.abs((x[p] - ax) * dy - (y[p] - ay) * dx) / normalLength;
+                if (distance <= pointToLineDistanceThreshold) {
+                    inliers[p >> 6] |= 1L << p;
+                    count++;
                 }
             }
+            return count;
+        }
 
-            return 0;
+        private int filterInliersWithSpacing(int aIndex, int bIndex) {
+            double ax = x[aIndex], ay = y[aIndex];
+            double lineDirX = x[bIndex] - ax, lineDirY = y[bIndex] - ay;
+            // Collect the index on the line of every inlier that is on the spacing grid, packed
+            // with the point index so that sorting orders by index on the line, then by point.
+            int k = 0;
+            for (int p = nextSetBit(inliers, 0); p >= 0; p = nextSetBit(inliers, p + 1)) {
+                double diffX = x[p] - ax, diffY = y[p] - ay;
+                double distance = Math.sqrt(diffX * diffX + diffY * diffY);
+                double variance = distance % pointSpacing;
+                if ((variance <= pointSpacingEpsilon) || ((pointSpacing - variance) <= pointSpacingEpsilon)) {
+                    double signedDistance = distance * (lineDirX * diffX + lineDirY * diffY > 0.0 ? 1.0 : -1.0);
+                    int indexOnLine = (int) Math.round(signedDistance / pointSpacing);
+                    indicesOnLine[k++] = ((long) indexOnLine << 32) | p;
+                }
+            }
+            Arrays.fill(spacedInliers, 0);
+            if (k == 0) {
+                return 0;
+            }
+            Arrays.sort(indicesOnLine, 0, k);
+            // Keep the first point for each index on the line and discard this line if any
+            // index is missing
+            int count = 0;
+            long previousIndex = 0;
+            for (int j = 0; j < k; j++) {
+                long indexOnLine = indicesOnLine[j] >> 32;
+                if (count > 0 && indexOnLine == previousIndex) {
+                    continue;
+                }
+                if (count > 0 && indexOnLine != previousIndex + 1) {
+                    Arrays.fill(spacedInliers, 0);
+                    return 0;
+                }
+                int p = (int) indicesOnLine[j];
+                spacedInliers[p >> 6] |= 1L << p;
+                previousIndex = indexOnLine;
+                count++;
+            }
+            return count;
         }
     }
 
@@ -67,164 +186,135 @@ public class Ransac {
      * http://introcs.cs.princeton.edu/java/36inheritance/LeastSquares.java.html
      */
     public static List<Line> ransac(List<Point> points, int maxIterations, double pointToLineDistanceThreshold) {
-        List<Integer> pointMapping = new ArrayList<>(points.size());
-        for (int i=0; i<points.size(); i++) {
-            pointMapping.add(i);
-        }
-
-        List<LineIndices> resultIndices = new ArrayList<>();
-        for (int i = 0; i < maxIterations; i++) {
-            // take a random sample of two points
-            Collections.shuffle(pointMapping);
-            Integer aIndex = pointMapping.get(0);
-            Integer bIndex = pointMapping.get(1);
-            Point a = points.get(aIndex);
-            Point b = points.get(bIndex);
-            // find the inliers
-            List<Integer> inliers = new ArrayList<>();
-            for (Integer pIndex : pointMapping) {
-                Point p = points.get(pIndex);
-                double distance = FluentCv.pointToLineDistance(a, b, p);
-                if (distance <= pointToLineDistanceThreshold) {
-                    inliers.add(pIndex);
-                }
-            }
-            if (inliers.size() >= 2) {
-                // Must check for duplicates as we're just randomly shuffling and testing again; the same line may
-                // come up many times, both from the same starting points or from other points on the same line
-                LineIndices lineIndices = new LineIndices(inliers);
-                if (!resultIndices.contains(lineIndices)) {
-                    resultIndices.add(lineIndices);
-                }
-            }
-        }
-
-        // Sort the results by the number of points, descending
-        resultIndices.sort(new Comparator<LineIndices>() {
-            @Override
-            public int compare(LineIndices o1, LineIndices o2) {
-                return -Integer.compare(o1.indices.size(), o2.indices.size());
-            }
-        });
+        return ransac(points, maxIterations, pointToLineDistanceThreshold, 0, false);
+    }
 
-        List<Line> results = new ArrayList<>(resultIndices.size());
-        for (LineIndices lineIndices : resultIndices) {
-            Line line = getLongestLine(points, lineIndices);
-            results.add(line);
-        }
-        return results;
+    /**
+     * Find the lines through the points. Each iteration samples two of the points from the seed
+     * and the iteration number, so the result is the same for the same seed, whether it is run in
+     * parallel or not.
+     *
+     * @param points
+     * @param maxIterations
+     * @param pointToLineDistanceThreshold
+     * @param seed
+     * @param parallel Spread the iterations across the common fork/join pool.
+     * @return The lines found, with the most points first.
+     */
+    public static List<Line> ransac(List<Point> points, int maxIterations, double pointToLineDistanceThreshold, long seed, boolean parallel) {
+        return ransac(points, maxIterations, pointToLineDistanceThreshold, 0, 0, seed, parallel);
     }
 
     public static List<Line> ransac(List<Point> points, int maxIterations, double pointToLineDistanceThreshold, double pointSpacing, double pointSpacingEpsilon) {
+        return ransac(points, maxIterations, pointToLineDistanceThreshold, pointSpacing, pointSpacingEpsilon, 0, false);
+    }
+
+    /**
+     * Like {@link #ransac(List, int, double, long, boolean)} but only keeps lines whose inliers
+     * are spaced pointSpacing apart, without gaps.
+     */
+    public static List<Line> ransac(List<Point> points, int maxIterations, double pointToLineDistanceThreshold, double pointSpacing, double pointSpacingEpsilon, long seed, boolean parallel) {
         if (points.size() < 2) {
             return new ArrayList<Line>();
         }
 
-        List<Integer> pointMapping = new ArrayList<>(points.size());
-        for (int i=0; i<points.size(); i++) {
-            pointMapping.add(i);
-        }
-
-        List<LineIndices> resultIndices = new ArrayList<>();
-        for (int i = 0; i < maxIterations; i++) {
-            // take a random sample of two points
-            Collections.shuffle(pointMapping);
-            Integer aIndex = pointMapping.get(0);
-            Integer bIndex = pointMapping.get(1);
-            Point a = points.get(aIndex);
-            Point b = points.get(bIndex);
-            // find the inliers
-            List<Integer> inliers = new ArrayList<>();
-            for (Integer pIndex : pointMapping) {
-                Point p = points.get(pIndex);
-                double distance = FluentCv.pointToLineDistance(a, b, p);
-                if (distance <= pointToLineDistanceThreshold) {
-                    inliers.add(pIndex);
-                }
-            }
-            List<Integer> spacedInliers = filterInliersWithSpacing(a, b, points, inliers, pointSpacing, pointSpacingEpsilon);
-            if (spacedInliers.size() >= 2) {
-                // Must check for duplicates as we're just randomly shuffling and testing again; the same line may
-                // come up many times, both from the same starting points or from other points on the same line
-                LineIndices lineIndices = new LineIndices(spacedInliers);
-                if (!resultIndices.contains(lineIndices)) {
-                    resultIndices.add(lineIndices);
+        double[] x = new double[points.size()];
+        double[] y = new double[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            x[i] = points.get(i).x;
+            y[i] = points.get(i).y;
+        }
+
+        int chunks = 1;
+        if (parallel && maxIterations >= 2 * minParallelIterations) {
+            chunks = Math.min(Runtime.getRuntime().availableProcessors(), maxIterations / minParallelIterations);
+        }
+        final int chunkCount = chunks;
+        List<Map<LineIndices, LineIndices>> chunkLines = IntStream.range(0, chunkCount)
+                .parallel()
+                .mapToObj(c -> {
+                    Search search = new Search(x, y, pointToLineDistanceThreshold, pointSpacing, pointSpacingEpsilon, seed);
+                    search.run((int) ((long) maxIterations * c / chunkCount), (int) ((long) maxIterations * (c + 1) / chunkCount));
+                    return search.lines;
+                })
+                .collect(Collectors.toList());
+
+        // Merge, keeping the iteration that found a line first.
+        Map<LineIndices, LineIndices> lines = chunkLines.get(0);
+        for (int c = 1; c < chunkLines.size(); c++) {
+            for (LineIndices line : chunkLines.get(c).values()) {
+                LineIndices existing = lines.putIfAbsent(line, line);
+                if (existing != null && existing.iteration > line.iteration) {
+                    existing.iteration = line.iteration;
                 }
             }
         }
 
-        // Sort the results by the number of points, descending
+        // Sort the results by the number of points, descending, then in the order they were found
+        List<LineIndices> resultIndices = new ArrayList<>(lines.values());
         resultIndices.sort(new Comparator<LineIndices>() {
             @Override
             public int compare(LineIndices o1, LineIndices o2) {
-                return -Integer.compare(o1.indices.size(), o2.indices.size());
+                int cmp = -Integer.compare(o1.count, o2.count);
+                if (cmp != 0) {
+                    return cmp;
+                }
+                return Integer.compare(o1.iteration, o2.iteration);
             }
         });
 
         List<Line> results = new ArrayList<>(resultIndices.size());
         for (LineIndices lineIndices : resultIndices) {
-            Line line = getLongestLine(points, lineIndices);
+            Line line = getLongestLine(points, x, y, lineIndices);
             results.add(line);
         }
         return results;
     }
 
-    private static List<Integer> filterInliersWithSpacing(Point firstPoint, Point secondPoint, List<Point> points, List<Integer> inliers, double pointSpacing, double pointSpacingEpsilon) {
-        Point lineDir = new Point(secondPoint.x - firstPoint.x, secondPoint.y - firstPoint.y);
-
-        TreeSet<Integer> indicesOnLine = new TreeSet<>();
-        List<Integer> spacedInliers = new ArrayList<>(inliers.size());
-        for (Integer pIndex : inliers) {
-            Point p = points.get(pIndex);
-
-            Point diff = new Point(p.x - firstPoint.x, p.y - firstPoint.y);
-            double distance = Math.sqrt(diff.dot(diff));
-            double variance = distance % pointSpacing;
-            if ((variance <= pointSpacingEpsilon) || ((pointSpacing - variance) <= pointSpacingEpsilon)) {
-                double signedDistance = distance * (lineDir.dot(diff) > 0.0 ? 1.0 : -1.0);
-                Integer indexOnLine = (int)Math.round(signedDistance / pointSpacing);
-                if (!indicesOnLine.contains(indexOnLine)) {
-                    indicesOnLine.add(indexOnLine);
-
-                    spacedInliers.add(pIndex);
+    private static Line getLongestLine(List<Point> points, double[] x, double[] y, LineIndices lineIndices) {
+        int bestAIndex = 0;
+        int bestBIndex = 0;
+        double bestDistance = 0.0;
+        long[] bits = lineIndices.bits;
+        for (int a = nextSetBit(bits, 0); a >= 0; a = nextSetBit(bits, a + 1)) {
+            for (int b = nextSetBit(bits, a + 1); b >= 0; b = nextSetBit(bits, b + 1)) {
+                double diffX = x[b] - x[a];
+                double diffY = y[b] - y[a];
+                double distance = Math.sqrt(diffX * diffX + diffY * diffY);
+                if (distance > bestDistance) {
+                    bestAIndex = a;
+                    bestBIndex = b;
+                    bestDistance = distance;
                 }
             }
         }
 
-        // Discard this line if any index is missing
-        if (indicesOnLine.size() > 0) {
-            Integer minIndex = indicesOnLine.first();
-            Integer maxIndex = indicesOnLine.last();
-            for (Integer idx=minIndex + 1; idx<maxIndex; idx++) {
-                if (!indicesOnLine.contains(idx)) {
-                    return new ArrayList<>();
-                }
-            }
-        }
-        return spacedInliers;
+        return new Line(points.get(bestAIndex), points.get(bestBIndex));
     }
 
-    private static Line getLongestLine(List<Point> points, LineIndices lineIndices) {
-        Integer bestAIndex = 0;
-        Integer bestBIndex = 0;
-        double bestDistance = 0.0;
-        for (int i=0; i<(lineIndices.indices.size() - 1); i++) {
-            for (int j=i+1; j<lineIndices.indices.size(); j++) {
-                Integer aIndex = lineIndices.indices.get(i);
-                Integer bIndex = lineIndices.indices.get(j);
-                Point a = points.get(aIndex);
-                Point b = points.get(bIndex);
-
-                Point diff = new Point(b.x - a.x, b.y - a.y);
-                double distance = Math.sqrt(diff.dot(diff));
-                if (distance > bestDistance) {
-                    bestAIndex = aIndex;
-                    bestBIndex = bIndex;
-                    bestDistance = distance;
-                }
+    private static int nextSetBit(long[] bits, int from) {
+        int word = from >> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long w = bits[word] & (-1L << from);
+        while (true) {
+            if (w != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(w);
             }
+            if (++word >= bits.length) {
+                return -1;
+            }
+            w = bits[word];
         }
+    }
 
-        return new Line(points.get(bestAIndex), points.get(bestBIndex));
+    /**
+     * SplitMix64 finalizer, turns consecutive numbers into well distributed random bits.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 }
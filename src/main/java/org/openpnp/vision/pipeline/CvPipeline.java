@@ -3,11 +3,16 @@ package org.openpnp.vision.pipeline;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -15,6 +20,8 @@ import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
 import org.openpnp.vision.pipeline.CvStage.Result;
+import org.openpnp.vision.pipeline.stages.ImageCapture;
+import org.openpnp.vision.pipeline.stages.ScriptRun;
 import org.simpleframework.xml.ElementList;
 import org.simpleframework.xml.Root;
 import org.simpleframework.xml.Serializer;
@@ -61,7 +68,11 @@ public class CvPipeline implements AutoCloseable {
     private Object workingModel;
     
     private long totalProcessingTimeNs;
-    
+
+    private Set<String> retainedStageNames;
+
+    private boolean measureAllocation;
+
     public CvPipeline() {
         
     }
@@ -190,10 +201,84 @@ public class CvPipeline implements AutoCloseable {
       this.totalProcessingTimeNs = totalProcessingTimeNs;
     }
 
+    public boolean isMeasureAllocation() {
+        return measureAllocation;
+    }
+
+    /**
+     * If set, the Java heap allocated by each stage is measured and stored in its result's
+     * allocatedBytes. This is for benchmarking, it needs a JVM that supports measuring the
+     * allocation per thread, such as HotSpot.
+     */
+    public void setMeasureAllocation(boolean measureAllocation) {
+        this.measureAllocation = measureAllocation;
+    }
+
+    /**
+     * Process the pipeline, keeping only the result images that other stages refer to. The
+     * models of all stages are kept. Use process(true) if all result images are needed, such as
+     * in the pipeline editor.
+     */
     public void process() {
+        process(false);
+    }
+
+    /**
+     * Process the pipeline. If retainAllImages is true a copy of the image of every stage is
+     * stored in its result. Otherwise copies are only made for stages that are referenced by name
+     * from another stage, such as by ImageRecall, which saves a full frame copy per stage.
+     * 
+     * @param retainAllImages
+     */
+    public void process(boolean retainAllImages) {
+        startProcessing(retainAllImages);
+        processStages(0, stages.size());
+    }
+
+    /**
+     * Run the first part of the pipeline, up to and including the last ImageCapture stage. Once
+     * this returns the camera is no longer needed and the caller may move the machine while
+     * processCaptured() runs the remaining stages, possibly on another thread. capture() followed
+     * by processCaptured() gives the same results as process().
+     */
+    public void capture() {
+        startProcessing(false);
+        processStages(0, getCaptureStageCount());
+    }
+
+    /**
+     * Run the stages after the ones run by capture().
+     */
+    public void processCaptured() {
+        processStages(getCaptureStageCount(), stages.size());
+    }
+
+    private int getCaptureStageCount() {
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            if (stages.get(i) instanceof ImageCapture) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private void startProcessing(boolean retainAllImages) {
         totalProcessingTimeNs = 0;
         release();
-        for (CvStage stage : stages) {
+        retainedStageNames = retainAllImages ? null : getReferencedStageNames();
+    }
+
+    private void processStages(int from, int to) {
+        com.sun.management.ThreadMXBean threadMXBean = null;
+        if (measureAllocation) {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                threadMXBean = (com.sun.management.ThreadMXBean) bean;
+            }
+        }
+        for (CvStage stage : stages.subList(from, to)) {
+            long allocatedBytes = threadMXBean == null ? 0
+                    : threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
             // Process and time the stage and get the result.
             long processingTimeNs = System.nanoTime();
             Result result = null;
@@ -208,6 +293,10 @@ public class CvPipeline implements AutoCloseable {
             }
             processingTimeNs = System.nanoTime() - processingTimeNs;
             totalProcessingTimeNs += processingTimeNs;
+            if (threadMXBean != null) {
+                allocatedBytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+                        - allocatedBytes;
+            }
 
             Mat image = null;
             Object model = null;
@@ -218,10 +307,12 @@ public class CvPipeline implements AutoCloseable {
             if(stage.isEnabled() && model != null) {
               workingModel=model;
             }
+            boolean retainImage = retainedStageNames == null
+                    || retainedStageNames.contains(stage.getName());
             // If the result image is null and there is a working image,
             // replace the result image with a clone of the working image.
             if (image == null) {
-                if (workingImage != null) {
+                if (workingImage != null && retainImage) {
                     image = workingImage.clone();
                 }
             }
@@ -234,11 +325,41 @@ public class CvPipeline implements AutoCloseable {
                     workingImage.release();
                 }
                 workingImage = image;
-                image = image.clone();
+                image = retainImage ? image.clone() : null;
             }
 
-            results.put(stage, new Result(image, model, processingTimeNs));
+            results.put(stage, new Result(image, model, processingTimeNs, allocatedBytes));
+        }
+    }
+
+    /**
+     * Get the names of the stages whose results are referenced by other stages, i.e. the values of
+     * their String properties named like "imageStageName". Returns null if all results must be
+     * kept, because a ScriptRun stage may read any of them.
+     */
+    private Set<String> getReferencedStageNames() {
+        Set<String> names = new HashSet<>();
+        for (CvStage stage : stages) {
+            if (stage instanceof ScriptRun) {
+                return null;
+            }
+            for (Class<?> cls = stage.getClass(); cls != CvStage.class; cls = cls.getSuperclass()) {
+                for (Field field : cls.getDeclaredFields()) {
+                    if (field.getType() != String.class || !field.getName().endsWith("StageName")) {
+                        continue;
+                    }
+                    try {
+                        field.setAccessible(true);
+                        names.add((String) field.get(stage));
+                    }
+                    catch (Exception e) {
+                        // Better to keep everything than to lose an image a stage needs.
+                        return null;
+                    }
+                }
+            }
         }
+        return names;
     }
 
     /**
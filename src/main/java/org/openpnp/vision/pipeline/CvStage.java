@@ -163,11 +163,20 @@ public abstract class CvStage {
         final public Mat image;
         final public Object model;
         final public long processingTimeNs;
+        /**
+         * Java heap allocated by the stage, only measured if the pipeline is set to.
+         */
+        final public long allocatedBytes;
 
-        public Result(Mat image, Object model, long processingTimeNs) {
+        public Result(Mat image, Object model, long processingTimeNs, long allocatedBytes) {
             this.image = image;
             this.model = model;
             this.processingTimeNs = processingTimeNs;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public Result(Mat image, Object model, long processingTimeNs) {
+            this(image, model, processingTimeNs, 0);
         }
 
         public Result(Mat image, Object model) {
@@ -233,6 +242,10 @@ public abstract class CvStage {
             public double width;
             public double height;
             public double score;
+            /**
+             * Rotation of the template in degrees, counter-clockwise, if it was searched rotated.
+             */
+            public double angle;
 
             public TemplateMatch(double x, double y, double width, double height, double score) {
                 this.x = x;
@@ -282,10 +295,18 @@ public abstract class CvStage {
                 this.score = score;
             }
 
+            public double getAngle() {
+                return angle;
+            }
+
+            public void setAngle(double angle) {
+                this.angle = angle;
+            }
+
             @Override
             public String toString() {
                 return "TemplateMatch [x=" + x + ", y=" + y + ", width=" + width + ", height="
-                        + height + ", score=" + score + "]";
+                        + height + ", score=" + score + ", angle=" + angle + "]";
             }
         }
     }
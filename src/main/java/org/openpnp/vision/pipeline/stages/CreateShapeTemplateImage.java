@@ -15,6 +15,7 @@ import org.openpnp.model.LengthUnit;
 import org.openpnp.model.Location;
 import org.openpnp.spi.Camera;
 import org.openpnp.util.OpenCvUtils;
+import org.openpnp.util.TemplateImageCache;
 import org.openpnp.vision.pipeline.CvPipeline;
 import org.openpnp.vision.pipeline.CvStage;
 import org.openpnp.vision.pipeline.Property;
@@ -98,18 +99,28 @@ public class CreateShapeTemplateImage extends CvStage {
         }
         double width = Math.ceil(bounds.getWidth() * oversizeEffective);
         double height = Math.ceil(bounds.getHeight() * oversizeEffective);
-        BufferedImage template =
-                new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = (Graphics2D) template.getGraphics();
-
-        g2d.setStroke(new BasicStroke(1f));
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setColor(Color.white);
-        // center the drawing
-        g2d.translate(width / 2, height / 2);
-        g2d.fill(shape);
-
-        g2d.dispose();
+        Shape templateShape = shape;
+        BufferedImage template = TemplateImageCache.get().get(
+                new TemplateImageCache.Key("shape")
+                    .add(templateShape)
+                    .add(width)
+                    .add(height)
+                    .toString(),
+                () -> {
+                    BufferedImage image =
+                            new BufferedImage((int) width, (int) height, BufferedImage.TYPE_INT_ARGB);
+                    Graphics2D g2d = (Graphics2D) image.getGraphics();
+
+                    g2d.setStroke(new BasicStroke(1f));
+                    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    g2d.setColor(Color.white);
+                    // center the drawing
+                    g2d.translate(width / 2, height / 2);
+                    g2d.fill(templateShape);
+
+                    g2d.dispose();
+                    return image;
+                });
 
         return new Result(OpenCvUtils.toMat(template));
     }
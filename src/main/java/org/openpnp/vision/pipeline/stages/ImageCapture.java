@@ -1,5 +1,6 @@
 package org.openpnp.vision.pipeline.stages;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 import org.opencv.core.Core;
@@ -56,7 +57,14 @@ public class ImageCapture extends CvStage {
         Mat image;
         Mat avgImage;
         if (settleFirst) {
-            image = OpenCvUtils.toMat(camera.settleAndCapture());
+            // The caller may tell the camera which part of the image needs to settle.
+            Rectangle settleRoi = (Rectangle) pipeline.getProperty("settleRoi");
+            if (settleRoi != null) {
+                image = OpenCvUtils.toMat(camera.settleAndCapture(settleRoi));
+            }
+            else {
+                image = OpenCvUtils.toMat(camera.settleAndCapture());
+            }
         }
         else {
             image = OpenCvUtils.toMat(camera.capture());
@@ -9,6 +9,9 @@ import java.util.List;
 import org.opencv.core.Core;
 import org.opencv.core.Core.MinMaxLocResult;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.openpnp.util.OpenCvUtils;
 import org.openpnp.vision.pipeline.CvPipeline;
@@ -22,6 +25,12 @@ import org.simpleframework.xml.Attribute;
  * OpenCV based image template matching with local maxima detection improvements from FireSight:
  * https://github.com/firepick1/FireSight. Scans the working image for matches of a template image
  * and returns a list of matches.
+ * 
+ * With pyramidLevels set, the image and template are first scaled down by a Gaussian pyramid and
+ * searched at the reduced resolution. Only the best candidates are then matched again at full
+ * resolution, in a window just large enough to cover the position lost by the scaling. With
+ * rotationRange set, the template is also searched rotated in rotationStep increments and the
+ * angle of the best rotation is reported with each match.
  */
 @Stage(category = "Image Processing",
         description = "OpenCV based image template matching with local maxima detection improvements.")
@@ -55,6 +64,34 @@ public class MatchTemplate extends CvStage {
     @Property(description = "Normalize results to maximum value.")
     private boolean normalize = true;
 
+    @Attribute(required = false)
+    @Property(description = "Number of pyramid levels to search at reduced resolution first, each level halves the image size. "
+            + "Only the candidates found are matched at full resolution. 0 searches the full resolution only.")
+    private int pyramidLevels = 0;
+
+    @Attribute(required = false)
+    @Property(description = "Maximum number of candidates from the reduced resolution or rotation search that are matched at full resolution. 0 for no limit.")
+    private int maxCandidates = 0;
+
+    @Attribute(required = false)
+    @Property(description = "Also search the template rotated by up to this many degrees, in either direction. 0 for no rotation search.")
+    private double rotationRange = 0;
+
+    @Attribute(required = false)
+    @Property(description = "Rotation step of the rotation search, in degrees.")
+    private double rotationStep = 5;
+
+    /**
+     * Templates are not scaled down further than this many pixels on their smaller side.
+     */
+    private static final int minPyramidTemplateSize = 8;
+
+    /**
+     * Scores at reduced resolution are lower than at full resolution, so candidates are accepted
+     * by this much below the threshold.
+     */
+    private static final double pyramidThresholdSlack = 0.2;
+
     public String getTemplateStageName() {
         return templateStageName;
     }
@@ -87,6 +124,38 @@ public class MatchTemplate extends CvStage {
         this.normalize = normalize;
     }
 
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    public void setPyramidLevels(int pyramidLevels) {
+        this.pyramidLevels = pyramidLevels;
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+
+    public void setMaxCandidates(int maxCandidates) {
+        this.maxCandidates = maxCandidates;
+    }
+
+    public double getRotationRange() {
+        return rotationRange;
+    }
+
+    public void setRotationRange(double rotationRange) {
+        this.rotationRange = rotationRange;
+    }
+
+    public double getRotationStep() {
+        return rotationStep;
+    }
+
+    public void setRotationStep(double rotationStep) {
+        this.rotationStep = rotationStep;
+    }
+
     @Override
     public Result process(CvPipeline pipeline) throws Exception {
         if (templateStageName == null) {
@@ -95,6 +164,9 @@ public class MatchTemplate extends CvStage {
 
         Mat mat = pipeline.getWorkingImage();
         Mat template = pipeline.getResult(templateStageName).image;
+        if (pyramidLevels > 0 || rotationRange > 0) {
+            return searchCoarseToFine(mat, template);
+        }
         Mat result = new Mat();
 
         Imgproc.matchTemplate(mat, template, result, Imgproc.TM_CCOEFF_NORMED);
@@ -125,4 +197,191 @@ public class MatchTemplate extends CvStage {
 
         return new Result(result, matches);
     }
+
+    private static class Candidate {
+        final int angleIndex;
+        final double x;
+        final double y;
+        final double score;
+
+        Candidate(int angleIndex, double x, double y, double score) {
+            this.angleIndex = angleIndex;
+            this.x = x;
+            this.y = y;
+            this.score = score;
+        }
+    }
+
+    private Result searchCoarseToFine(Mat mat, Mat template) {
+        // Don't scale the template down to nothing.
+        int levels = 0;
+        while (levels < pyramidLevels
+                && (Math.min(template.cols(), template.rows()) >> (levels + 1)) >= minPyramidTemplateSize) {
+            levels++;
+        }
+        int scale = 1 << levels;
+
+        List<Double> angles = new ArrayList<>();
+        angles.add(0.0);
+        if (rotationRange > 0 && rotationStep > 0) {
+            for (double angle = rotationStep; angle <= rotationRange + 1e-6; angle += rotationStep) {
+                angles.add(angle);
+                angles.add(-angle);
+            }
+        }
+
+        Mat coarseMat = pyrDown(mat, levels);
+        List<Mat> templates = new ArrayList<>();
+        List<Candidate> candidates = new ArrayList<>();
+        Mat coarseResult = null;
+        double coarseResultMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < angles.size(); i++) {
+            Mat rotated = angles.get(i) == 0.0 ? template : rotate(template, angles.get(i));
+            templates.add(rotated);
+            if (rotated.cols() > mat.cols() || rotated.rows() > mat.rows()) {
+                continue;
+            }
+            Mat coarseTemplate = pyrDown(rotated, levels);
+            Mat result = new Mat();
+            Imgproc.matchTemplate(coarseMat, coarseTemplate, result, Imgproc.TM_CCOEFF_NORMED);
+            if (coarseTemplate != rotated) {
+                coarseTemplate.release();
+            }
+
+            double maxVal = Core.minMaxLoc(result).maxVal;
+            double rangeMin = Math.max(threshold, corr * maxVal);
+            if (levels > 0) {
+                rangeMin -= pyramidThresholdSlack;
+            }
+            for (Point point : OpenCvUtils.matMaxima(result, rangeMin, maxVal)) {
+                candidates.add(new Candidate(i, point.x, point.y, result.get(point.y, point.x)[0]));
+            }
+
+            // Keep the result of the best rotation as the result image.
+            if (maxVal > coarseResultMax) {
+                if (coarseResult != null) {
+                    coarseResult.release();
+                }
+                coarseResult = result;
+                coarseResultMax = maxVal;
+            }
+            else {
+                result.release();
+            }
+        }
+        if (coarseMat != mat) {
+            coarseMat.release();
+        }
+
+        Collections.sort(candidates, (o1, o2) -> Double.compare(o2.score, o1.score));
+        if (maxCandidates > 0 && candidates.size() > maxCandidates) {
+            candidates = candidates.subList(0, maxCandidates);
+        }
+
+        // Match the candidates at full resolution, in a window around their position scaled up.
+        List<Candidate> refined = new ArrayList<>();
+        Mat window = new Mat();
+        for (Candidate candidate : candidates) {
+            if (levels == 0) {
+                refined.add(candidate);
+                continue;
+            }
+            Mat rotated = templates.get(candidate.angleIndex);
+            int x0 = Math.max(0, (int) candidate.x * scale - scale);
+            int y0 = Math.max(0, (int) candidate.y * scale - scale);
+            int x1 = Math.min(mat.cols() - rotated.cols(), (int) candidate.x * scale + scale);
+            int y1 = Math.min(mat.rows() - rotated.rows(), (int) candidate.y * scale + scale);
+            if (x1 < x0 || y1 < y0) {
+                continue;
+            }
+            Mat roi = mat.submat(new Rect(x0, y0, x1 - x0 + rotated.cols(), y1 - y0 + rotated.rows()));
+            Imgproc.matchTemplate(roi, rotated, window, Imgproc.TM_CCOEFF_NORMED);
+            roi.release();
+            MinMaxLocResult mmr = Core.minMaxLoc(window);
+            refined.add(new Candidate(candidate.angleIndex, x0 + mmr.maxLoc.x, y0 + mmr.maxLoc.y, mmr.maxVal));
+        }
+        window.release();
+
+        // Candidates from neighboring positions or rotations may end up on the same match, keep
+        // the best of those.
+        Collections.sort(refined, (o1, o2) -> Double.compare(o2.score, o1.score));
+        double minDistance = Math.min(template.cols(), template.rows()) / 2.0;
+        double maxVal = refined.isEmpty() ? 0 : refined.get(0).score;
+        double rangeMin = Math.max(threshold, corr * maxVal);
+        List<TemplateMatch> matches = new ArrayList<>();
+        for (Candidate candidate : refined) {
+            if (candidate.score < rangeMin) {
+                break;
+            }
+            Mat rotated = templates.get(candidate.angleIndex);
+            // Report the position of the unrotated template with the same center.
+            double x = candidate.x + (rotated.cols() - template.cols()) / 2.0;
+            double y = candidate.y + (rotated.rows() - template.rows()) / 2.0;
+            boolean duplicate = false;
+            for (TemplateMatch match : matches) {
+                if (Math.hypot(match.x - x, match.y - y) < minDistance) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (duplicate) {
+                continue;
+            }
+            TemplateMatch match = new TemplateMatch(x, y, template.cols(), template.rows(),
+                    candidate.score / (normalize ? maxVal : 1.0));
+            match.angle = angles.get(candidate.angleIndex);
+            matches.add(match);
+        }
+        for (Mat rotated : templates) {
+            if (rotated != template) {
+                rotated.release();
+            }
+        }
+
+        // Scale the reduced resolution result up, so the result image is the same size as
+        // without the pyramid.
+        Mat result = new Mat();
+        if (coarseResult != null && mat.cols() >= template.cols() && mat.rows() >= template.rows()) {
+            Imgproc.resize(coarseResult, result, new Size(mat.cols() - template.cols() + 1,
+                    mat.rows() - template.rows() + 1));
+        }
+        if (coarseResult != null) {
+            coarseResult.release();
+        }
+        return new Result(result, matches);
+    }
+
+    private static Mat pyrDown(Mat mat, int levels) {
+        Mat result = mat;
+        for (int i = 0; i < levels; i++) {
+            Mat down = new Mat();
+            Imgproc.pyrDown(result, down);
+            if (result != mat) {
+                result.release();
+            }
+            result = down;
+        }
+        return result;
+    }
+
+    /**
+     * Rotate the template counter-clockwise by angle degrees, onto an image large enough to hold
+     * all of it. The corners are filled with black.
+     */
+    private static Mat rotate(Mat template, double angle) {
+        org.opencv.core.Point center =
+                new org.opencv.core.Point(template.cols() / 2.0, template.rows() / 2.0);
+        Rect bbox = new RotatedRect(center, template.size(), -angle).boundingRect();
+        Mat mapMatrix = Imgproc.getRotationMatrix2D(center, angle, 1.0);
+        double[] cx = mapMatrix.get(0, 2);
+        double[] cy = mapMatrix.get(1, 2);
+        cx[0] += bbox.width / 2D - center.x;
+        cy[0] += bbox.height / 2D - center.y;
+        mapMatrix.put(0, 2, cx);
+        mapMatrix.put(1, 2, cy);
+        Mat rotated = new Mat();
+        Imgproc.warpAffine(template, rotated, mapMatrix, bbox.size(), Imgproc.INTER_LINEAR);
+        mapMatrix.release();
+        return rotated;
+    }
 }
@@ -198,7 +198,8 @@ public class CvPipelineEditor extends JPanel {
     }
 
     public void process() {
-        getPipeline().process();
+        // The editor shows the image of every stage, so keep them all.
+        getPipeline().process(true);
         resultsPanel.refresh();
     }
 
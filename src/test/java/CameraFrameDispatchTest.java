@@ -0,0 +1,149 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpnp.CameraListener;
+import org.openpnp.gui.support.Wizard;
+import org.openpnp.machine.reference.ReferenceCamera;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.PropertySheetHolder;
+
+import com.google.common.io.Files;
+
+public class CameraFrameDispatchTest {
+    /**
+     * A camera that only broadcasts the frames it is given.
+     */
+    static class BroadcastCamera extends ReferenceCamera {
+        @Override
+        protected BufferedImage internalCapture() {
+            return null;
+        }
+
+        @Override
+        public Wizard getConfigurationWizard() {
+            return null;
+        }
+
+        @Override
+        public String getPropertySheetHolderTitle() {
+            return getName();
+        }
+
+        @Override
+        public PropertySheetHolder[] getChildPropertySheetHolders() {
+            return null;
+        }
+
+        void broadcast(BufferedImage img) {
+            broadcastCapture(img);
+        }
+    }
+
+    /**
+     * Blocks in the first frame until released, and records all frames received.
+     */
+    static class BlockingListener implements CameraListener {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<BufferedImage> frames = new ArrayList<>();
+
+        @Override
+        public void frameReceived(BufferedImage img) {
+            synchronized (frames) {
+                frames.add(img);
+                frames.notifyAll();
+            }
+            entered.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+            }
+        }
+
+        void awaitFrames(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (frames) {
+                while (frames.size() < count && System.currentTimeMillis() < deadline) {
+                    frames.wait(100);
+                }
+            }
+        }
+
+        List<BufferedImage> getFrames() {
+            synchronized (frames) {
+                return new ArrayList<>(frames);
+            }
+        }
+    }
+
+    private BroadcastCamera camera;
+
+    @Before
+    public void before() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        camera = new BroadcastCamera();
+    }
+
+    private static BufferedImage[] createFrames(int count) {
+        BufferedImage[] frames = new BufferedImage[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        }
+        return frames;
+    }
+
+    @Test
+    public void testLatestFrameWins() throws Exception {
+        BufferedImage[] frames = createFrames(10);
+        BlockingListener listener = new BlockingListener();
+        camera.startContinuousCapture(listener);
+
+        // The broadcast must not wait for the busy listener.
+        camera.broadcast(frames[0]);
+        Assert.assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < frames.length; i++) {
+            camera.broadcast(frames[i]);
+        }
+        listener.release.countDown();
+        listener.awaitFrames(2);
+        Thread.sleep(100);
+
+        // The frames broadcast while the listener was busy are dropped, except the latest one.
+        List<BufferedImage> received = listener.getFrames();
+        Assert.assertEquals(2, received.size());
+        Assert.assertSame(frames[0], received.get(0));
+        Assert.assertSame(frames[frames.length - 1], received.get(1));
+        camera.stopContinuousCapture(listener);
+    }
+
+    @Test
+    public void testStopDropsPendingFrames() throws Exception {
+        BufferedImage[] frames = createFrames(3);
+        BlockingListener listener = new BlockingListener();
+        camera.startContinuousCapture(listener);
+
+        camera.broadcast(frames[0]);
+        Assert.assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+        camera.broadcast(frames[1]);
+        camera.stopContinuousCapture(listener);
+        listener.release.countDown();
+        camera.broadcast(frames[2]);
+        Thread.sleep(100);
+
+        // Only the frame that was already being delivered reached the listener.
+        List<BufferedImage> received = listener.getFrames();
+        Assert.assertEquals(1, received.size());
+        Assert.assertSame(frames[0], received.get(0));
+    }
+}
@@ -0,0 +1,311 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Part;
+import org.openpnp.spi.Camera;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.util.OpenCvUtils;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.CvStage.Result;
+import org.openpnp.vision.pipeline.stages.ImageCapture;
+
+import com.google.common.io.Files;
+
+/**
+ * Runs the default vision pipelines, and any pipeline XML files given, against camera frames and
+ * reports per stage latency, Java heap allocation and the size of the native image each stage
+ * leaves behind. ImageCapture stages are replaced by a stage returning the frame.
+ *
+ * The default machine configuration is loaded, so the pipelines get the same properties as on a
+ * machine: the camera that took the frame, the default nozzle, part R0805-1K and the footprint of
+ * package FIDUCIAL-1X2. Pipelines that need other properties, such as a feeder, fail in the
+ * stages using them. Those are listed with their error and their time is still reported.
+ *
+ * Without frames on the command line, one frame is captured from each camera of the default
+ * machine: the down looking ImageCamera shows the board photo in samples/pnp-test/pnp-test.png,
+ * the up looking SimulatedUpCamera renders the nozzle. The default pipelines only run on the
+ * frames of the camera they are meant for. Frames from files are run through every pipeline, as
+ * seen by the down looking camera.
+ *
+ * This is not a unit test, run it from the test classpath:
+ *
+ * Usage: CvPipelineBenchmark [-warmup n] [-iterations n] [-no-defaults] [frame or directory...]
+ * [pipeline.xml...]
+ */
+public class CvPipelineBenchmark {
+    static {
+        nu.pattern.OpenCV.loadShared();
+        System.loadLibrary(org.opencv.core.Core.NATIVE_LIBRARY_NAME);
+    }
+
+    /**
+     * The default pipelines, with the camera they are meant for.
+     */
+    private static final Map<String, Camera.Looking> defaultPipelines = new LinkedHashMap<>();
+
+    static {
+        defaultPipelines.put(
+                "/org/openpnp/machine/reference/vision/ReferenceBottomVision-DefaultPipeline.xml",
+                Camera.Looking.Up);
+        defaultPipelines.put(
+                "/org/openpnp/machine/reference/vision/ReferenceFiducialLocator-DefaultPipeline.xml",
+                Camera.Looking.Down);
+        defaultPipelines.put(
+                "/org/openpnp/machine/reference/ReferenceNozzleTip-Calibration-DefaultPipeline.xml",
+                Camera.Looking.Up);
+        defaultPipelines.put(
+                "/org/openpnp/machine/reference/feeder/ReferencePushPullFeeder-DefaultPipeline.xml",
+                Camera.Looking.Down);
+        defaultPipelines.put(
+                "/org/openpnp/machine/reference/feeder/BlindsFeeder-DefaultPipeline.xml",
+                Camera.Looking.Down);
+    }
+
+    private static final List<String> imageSuffixes = Arrays.asList(".png", ".jpg", ".jpeg", ".bmp", ".tif", ".tiff");
+
+    /**
+     * Returns the recorded frame in place of an ImageCapture stage.
+     */
+    static class RecordedFrame extends CvStage {
+        final Mat frame;
+
+        RecordedFrame(Mat frame) {
+            this.frame = frame;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            return new Result(frame.clone());
+        }
+    }
+
+    static class StageStats {
+        final String name;
+        final String type;
+        final List<Long> times = new ArrayList<>();
+        long allocatedBytes;
+        long matBytes;
+        int errors;
+        String error;
+
+        StageStats(CvStage stage) {
+            this.name = stage.getName();
+            this.type = stage.getClass().getSimpleName();
+        }
+
+        void add(Result result) {
+            times.add(result.processingTimeNs);
+            allocatedBytes += result.allocatedBytes;
+            if (result.image != null) {
+                matBytes = Math.max(matBytes, result.image.total() * result.image.elemSize());
+            }
+            if (result.model instanceof Exception) {
+                errors++;
+                if (error == null) {
+                    error = ((Exception) result.model).getMessage();
+                }
+            }
+        }
+
+        long percentile(double p) {
+            List<Long> sorted = new ArrayList<>(times);
+            sorted.sort(null);
+            return sorted.get((int) Math.min(sorted.size() - 1, Math.floor(p * sorted.size())));
+        }
+
+        long mean() {
+            long sum = 0;
+            for (long t : times) {
+                sum += t;
+            }
+            return sum / Math.max(1, times.size());
+        }
+    }
+
+    private int warmup = 5;
+    private int iterations = 20;
+    private Nozzle nozzle;
+    private Part part;
+    private org.openpnp.model.Package fiducialPackage;
+
+    public static void main(String[] args) throws Exception {
+        CvPipelineBenchmark benchmark = new CvPipelineBenchmark();
+        Map<String, String> pipelines = new LinkedHashMap<>();
+        Map<String, Camera.Looking> pipelineLooking = new LinkedHashMap<>();
+        List<File> frameFiles = new ArrayList<>();
+        boolean defaults = true;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-warmup")) {
+                benchmark.warmup = Integer.parseInt(args[++i]);
+            }
+            else if (arg.equals("-iterations")) {
+                benchmark.iterations = Math.max(1, Integer.parseInt(args[++i]));
+            }
+            else if (arg.equals("-no-defaults")) {
+                defaults = false;
+            }
+            else if (arg.toLowerCase().endsWith(".xml")) {
+                File file = new File(arg);
+                pipelines.put(file.getName(), FileUtils.readFileToString(file));
+            }
+            else if (!addFrameFiles(new File(arg), frameFiles)) {
+                System.err.println("No frames found in " + arg);
+                System.exit(1);
+            }
+        }
+        if (defaults) {
+            Map<String, String> all = new LinkedHashMap<>();
+            for (Map.Entry<String, Camera.Looking> pipeline : defaultPipelines.entrySet()) {
+                String name = new File(pipeline.getKey()).getName();
+                all.put(name, IOUtils.toString(
+                        CvPipelineBenchmark.class.getResource(pipeline.getKey())));
+                pipelineLooking.put(name, pipeline.getValue());
+            }
+            all.putAll(pipelines);
+            pipelines = all;
+        }
+        if (pipelines.isEmpty()) {
+            System.err.println("Usage: CvPipelineBenchmark [-warmup n] [-iterations n] "
+                    + "[-no-defaults] [frame or directory...] [pipeline.xml...]");
+            System.exit(1);
+        }
+
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Machine machine = Configuration.get().getMachine();
+        benchmark.nozzle = machine.getDefaultHead().getDefaultNozzle();
+        benchmark.part = Configuration.get().getPart("R0805-1K");
+        benchmark.fiducialPackage = Configuration.get().getPackage("FIDUCIAL-1X2");
+        Camera downCamera = machine.getDefaultHead().getDefaultCamera();
+
+        // The frames with the camera that took them.
+        Map<String, Mat> frames = new LinkedHashMap<>();
+        Map<String, Camera> frameCameras = new LinkedHashMap<>();
+        if (frameFiles.isEmpty()) {
+            List<Camera> cameras = new ArrayList<>(machine.getCameras());
+            cameras.addAll(machine.getDefaultHead().getCameras());
+            for (Camera camera : cameras) {
+                String name = camera.getName() + " camera";
+                frames.put(name, OpenCvUtils.toMat(camera.capture()));
+                frameCameras.put(name, camera);
+            }
+        }
+        for (File frameFile : frameFiles) {
+            Mat frame = Imgcodecs.imread(frameFile.getAbsolutePath());
+            if (frame.empty()) {
+                System.err.println("Unable to read " + frameFile);
+                continue;
+            }
+            frames.put(frameFile.getName(), frame);
+            frameCameras.put(frameFile.getName(), downCamera);
+        }
+
+        for (Map.Entry<String, Mat> frame : frames.entrySet()) {
+            Camera camera = frameCameras.get(frame.getKey());
+            for (Map.Entry<String, String> pipeline : pipelines.entrySet()) {
+                Camera.Looking looking = pipelineLooking.get(pipeline.getKey());
+                if (frameFiles.isEmpty() && looking != null && looking != camera.getLooking()) {
+                    continue;
+                }
+                System.out.println();
+                System.out.println(pipeline.getKey() + " on " + frame.getKey() + " ("
+                        + frame.getValue().cols() + "x" + frame.getValue().rows() + ")");
+                benchmark.run(new CvPipeline(pipeline.getValue()), frame.getValue(), camera);
+            }
+            frame.getValue().release();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Adds the image files found at file to frameFiles and returns true if there were any.
+     */
+    private static boolean addFrameFiles(File file, List<File> frameFiles) {
+        int count = frameFiles.size();
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                Arrays.sort(files);
+                for (File f : files) {
+                    addFrameFiles(f, frameFiles);
+                }
+            }
+        }
+        else if (file.isFile()) {
+            String name = file.getName().toLowerCase();
+            for (String suffix : imageSuffixes) {
+                if (name.endsWith(suffix)) {
+                    frameFiles.add(file);
+                    break;
+                }
+            }
+        }
+        return frameFiles.size() > count;
+    }
+
+    public void run(CvPipeline pipeline, Mat frame, Camera camera) {
+        pipeline.setProperty("camera", camera);
+        pipeline.setProperty("nozzle", nozzle);
+        pipeline.setProperty("part", part);
+        pipeline.setProperty("footprint", fiducialPackage.getFootprint());
+        List<CvStage> stages = new ArrayList<>(pipeline.getStages());
+        for (int i = 0; i < stages.size(); i++) {
+            CvStage stage = stages.get(i);
+            if (stage instanceof ImageCapture) {
+                pipeline.remove(stage);
+                pipeline.insert(stage.getName(), new RecordedFrame(frame), i);
+            }
+        }
+        pipeline.setMeasureAllocation(true);
+
+        List<StageStats> stats = new ArrayList<>();
+        for (CvStage stage : pipeline.getStages()) {
+            stats.add(new StageStats(stage));
+        }
+        long totalTime = 0;
+        long totalAllocated = 0;
+        for (int i = 0; i < warmup + iterations; i++) {
+            // Retain all images, so the native image size of each stage can be measured. The
+            // copies are made outside of the stage times.
+            pipeline.process(true);
+            if (i < warmup) {
+                continue;
+            }
+            totalTime += pipeline.getTotalProcessingTimeNs();
+            for (int j = 0; j < stats.size(); j++) {
+                Result result = pipeline.getResult(pipeline.getStages().get(j));
+                stats.get(j).add(result);
+                totalAllocated += result.allocatedBytes;
+            }
+        }
+        pipeline.release();
+
+        System.out.println(String.format("%-24s %-28s %10s %10s %10s %12s %10s", "Stage", "Type",
+                "Mean us", "P50 us", "P95 us", "Alloc KB", "Mat KB"));
+        for (StageStats s : stats) {
+            System.out.println(String.format("%-24s %-28s %10d %10d %10d %12.1f %10.1f%s",
+                    s.name, s.type, s.mean() / 1000, s.percentile(0.5) / 1000,
+                    s.percentile(0.95) / 1000, s.allocatedBytes / 1024.0 / iterations,
+                    s.matBytes / 1024.0,
+                    s.errors > 0 ? "  error: " + s.error : ""));
+        }
+        double seconds = totalTime / 1e9;
+        System.out.println(String.format("Total %.2f ms per run, %.1f MB/s allocated",
+                totalTime / 1e6 / iterations,
+                seconds > 0 ? totalAllocated / 1024.0 / 1024.0 / seconds : 0.0));
+    }
+}
@@ -1,4 +1,6 @@
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -7,6 +9,7 @@ import org.junit.Test;
 import org.openpnp.machine.reference.ReferenceActuator;
 import org.openpnp.machine.reference.ReferenceMachine;
 import org.openpnp.machine.reference.driver.GcodeDriver;
+import org.openpnp.machine.reference.driver.GcodeDriver.CommandTemplate;
 import org.openpnp.machine.reference.driver.GcodeDriver.CommandType;
 import org.openpnp.machine.reference.driver.TcpCommunications;
 import org.openpnp.model.Configuration;
@@ -167,6 +170,187 @@ public class GcodeDriverTest {
         }
     }
     
+    /**
+     * Streams actuator commands from one thread while another waits for their completion, as a
+     * camera task does while the head task is moving. Every confirmation must be collected
+     * exactly once.
+     */
+    @Test
+    public void testConcurrentStreaming() throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        ReferenceActuator actuator = new ReferenceActuator();
+        actuator.setName("A1");
+        machine.addActuator(actuator);
+        GcodeDriver driver = (GcodeDriver) ((ReferenceMachine) machine).getDriver();
+        driver.setMaxUnacknowledgedCommands(4);
+        driver.setCommand(actuator, CommandType.ACTUATE_BOOLEAN_COMMAND, "SET A1");
+        server.addCommandResponse("SET A1", "ok");
+
+        Exception[] error = new Exception[1];
+        Thread waiter = new Thread(() -> {
+            try {
+                for (int i = 0; i < 200; i++) {
+                    driver.waitForCompletion(null);
+                }
+            }
+            catch (Exception e) {
+                error[0] = e;
+            }
+        });
+        waiter.start();
+        for (int i = 0; i < 200; i++) {
+            driver.actuate(actuator, true);
+        }
+        waiter.join();
+        driver.waitForCompletion(null);
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    /**
+     * A controller error for a streamed command must not leave the confirmations of the other
+     * streamed commands behind, where they would be taken for the confirmation of later commands.
+     */
+    @Test
+    public void testStreamingErrorResynchronizes() throws Exception {
+        Machine machine = Configuration.get().getMachine();
+        ReferenceActuator actuator = new ReferenceActuator();
+        actuator.setName("A1");
+        machine.addActuator(actuator);
+        ReferenceActuator badActuator = new ReferenceActuator();
+        badActuator.setName("A2");
+        machine.addActuator(badActuator);
+        GcodeDriver driver = (GcodeDriver) ((ReferenceMachine) machine).getDriver();
+        driver.setMaxUnacknowledgedCommands(4);
+        driver.setCommand(null, CommandType.COMMAND_ERROR_REGEX, "^error.*");
+        driver.setCommand(actuator, CommandType.ACTUATE_BOOLEAN_COMMAND, "SET A1");
+        driver.setCommand(actuator, CommandType.ACTUATOR_READ_COMMAND, "READ A1");
+        driver.setCommand(actuator, CommandType.ACTUATOR_READ_REGEX, "read:a1:(?<Value>-?\\d+)");
+        driver.setCommand(badActuator, CommandType.ACTUATE_BOOLEAN_COMMAND, "BAD A2");
+        server.addCommandResponse("SET A1", "ok");
+        server.addCommandResponse("READ A1", "read:a1:497\nok");
+        server.addCommandResponse("M400 ; Wait for moves to complete before returning", "ok");
+
+        driver.actuate(actuator, true);
+        driver.actuate(badActuator, true);
+        driver.actuate(actuator, true);
+        driver.actuate(actuator, true);
+        try {
+            driver.waitForCompletion(null);
+            throw new AssertionError("Expected the controller error to be reported.");
+        }
+        catch (Exception e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("error:unknown command"));
+        }
+
+        Assert.assertEquals("497", actuator.read());
+        for (int i = 0; i < 10; i++) {
+            driver.actuate(actuator, true);
+        }
+        driver.waitForCompletion(null);
+        Assert.assertEquals("497", actuator.read());
+    }
+
+    /**
+     * Loopback benchmark of the communications read path. Reads many multi-line status reports
+     * from the GcodeServer and checks that they are split into the right lines. 
+     */
+    @Test
+    public void testTcpCommunicationsReadLines() throws Exception {
+        int reportLines = 100;
+        int requests = 200;
+        StringBuilder response = new StringBuilder();
+        for (int i = 0; i < reportLines; i++) {
+            response.append("<Idle|MPos:" + i + ".000,0.000,0.000|FS:0,0>\n");
+        }
+        response.append("ok");
+        server.addCommandResponse("?", response.toString());
+
+        TcpCommunications tcp = new TcpCommunications();
+        tcp.setIpAddress("localhost");
+        tcp.setPort(server.getListenerPort());
+        tcp.connect();
+        try {
+            StringBuilder line = new StringBuilder();
+            long t = System.nanoTime();
+            for (int r = 0; r < requests; r++) {
+                tcp.writeLine("?");
+                for (int i = 0; i < reportLines; i++) {
+                    Assert.assertTrue(tcp.readLine(line));
+                    Assert.assertEquals("<Idle|MPos:" + i + ".000,0.000,0.000|FS:0,0>", line.toString());
+                }
+                Assert.assertEquals("ok", tcp.readLine());
+            }
+            t = System.nanoTime() - t;
+            System.out.println("GcodeDriverTest.testTcpCommunicationsReadLines() read " 
+                    + (requests * (reportLines + 1)) + " lines in " + (t / 1000000) + "ms");
+        }
+        finally {
+            tcp.disconnect();
+        }
+    }
+    
+    @Test
+    public void testCommandTemplateFormat() throws Exception {
+        CommandTemplate template =
+                new CommandTemplate("G0 {X:X%.4f} {Y:Y%.4f} F{FeedRate:%.0f} ; {Name}");
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("X", 1.5);
+        variables.put("Y", -20.25);
+        variables.put("FeedRate", 1000.4);
+        variables.put("Name", "N1");
+        Assert.assertEquals("G0 X1.5000 Y-20.2500 F1000 ; N1", template.format(variables));
+    }
+
+    @Test
+    public void testCommandTemplateHasVariable() throws Exception {
+        CommandTemplate template = new CommandTemplate("G0 {X:X%.4f} {XF:X%.4f} {Rotation}");
+        Assert.assertTrue(template.hasVariable("X"));
+        Assert.assertTrue(template.hasVariable("XF"));
+        Assert.assertTrue(template.hasVariable("Rotation"));
+        Assert.assertFalse(template.hasVariable("Y"));
+        Assert.assertFalse(template.hasVariable("RotationF"));
+        Assert.assertFalse(new CommandTemplate("G28 ; Home all axes").hasVariable("X"));
+    }
+
+    /**
+     * Variables that are not given are left in the command, variables with a null value are
+     * removed.
+     */
+    @Test
+    public void testCommandTemplateMissingAndNullVariables() throws Exception {
+        CommandTemplate template = new CommandTemplate("G0 {X:X%.4f} {Y:Y%.4f} {Z:Z%.4f}");
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("X", 1.0);
+        variables.put("Y", null);
+        Assert.assertEquals("G0 X1.0000  {Z:Z%.4f}", template.format(variables));
+        Assert.assertEquals("G0 {X:X%.4f} {Y:Y%.4f} {Z:Z%.4f}",
+                template.format(new HashMap<>()));
+    }
+
+    /**
+     * Values are substituted like a Matcher.appendReplacement() replacement, as they were
+     * before commands were cached as templates, so $ refers to a group of the variable and \
+     * escapes the next character.
+     */
+    @Test
+    public void testCommandTemplateReplacementCharacters() throws Exception {
+        CommandTemplate template = new CommandTemplate("M800 {StringValue}");
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("StringValue", "\\$5 C:\\\\dir");
+        Assert.assertEquals("M800 $5 C:\\dir", template.format(variables));
+        variables.put("StringValue", "$1");
+        Assert.assertEquals("M800 StringValue", template.format(variables));
+        variables.put("StringValue", "$");
+        try {
+            template.format(variables);
+            Assert.fail("Expected an IllegalArgumentException for a lone $");
+        }
+        catch (IllegalArgumentException e) {
+        }
+    }
+
     @After
     public void after() throws Exception {
         /**
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.model.AbstractModelObject;
+import org.openpnp.model.Identifiable;
+import org.openpnp.model.Placement;
+import org.openpnp.util.IdentifiableList;
+
+public class IdentifiableListTest {
+    static class Item extends AbstractModelObject implements Identifiable {
+        private String id;
+
+        Item(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            Object oldValue = this.id;
+            this.id = id;
+            firePropertyChange("id", oldValue, id);
+        }
+
+        int getIdListenerCount() {
+            return propertyChangeSupport.getPropertyChangeListeners("id").length;
+        }
+    }
+
+    @Test
+    public void testLookup() {
+        IdentifiableList<Placement> list = new IdentifiableList<>();
+        int n = 5000;
+        long t = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            list.add(new Placement(list.createId("R")));
+        }
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals("R" + i, list.get("R" + i).getId());
+        }
+        t = System.nanoTime() - t;
+        System.out.println("IdentifiableListTest " + n + " placements added and found in "
+                + (t / 1000) + "us");
+        Assert.assertNull(list.get("R" + n));
+        Assert.assertEquals("R" + n, list.createId("R"));
+        Assert.assertEquals("C0", list.createId("C"));
+    }
+
+    @Test
+    public void testMutations() {
+        IdentifiableList<Item> list = new IdentifiableList<>();
+        for (int i = 0; i < 10; i++) {
+            list.add(new Item("I" + i));
+        }
+        Item i3 = list.get("I3");
+        Assert.assertSame(i3, list.get(3));
+
+        // Set replaces the old id.
+        Item x = new Item("X");
+        list.set(3, x);
+        Assert.assertNull(list.get("I3"));
+        Assert.assertSame(x, list.get("X"));
+
+        // Remove by index and by object.
+        list.remove(0);
+        Assert.assertNull(list.get("I0"));
+        list.remove(x);
+        Assert.assertNull(list.get("X"));
+
+        // Insert in the middle.
+        Item y = new Item("Y");
+        list.add(2, y);
+        Assert.assertSame(y, list.get("Y"));
+
+        // Duplicate ids find the first, then the next one once the first is removed.
+        Item d1 = new Item("D");
+        Item d2 = new Item("D");
+        list.add(d1);
+        list.add(d2);
+        Assert.assertSame(d1, list.get("D"));
+        list.remove(d1);
+        Assert.assertSame(d2, list.get("D"));
+
+        // Removal through an iterator and a sub list.
+        for (Iterator<Item> it = list.iterator(); it.hasNext();) {
+            if (it.next().getId().equals("I5")) {
+                it.remove();
+            }
+        }
+        Assert.assertNull(list.get("I5"));
+        list.subList(0, 2).clear();
+        Assert.assertNull(list.get("I1"));
+        Assert.assertNull(list.get("I2"));
+        Assert.assertNotNull(list.get("I4"));
+
+        // Changing the id of an element.
+        Item i4 = list.get("I4");
+        i4.setId("Z");
+        Assert.assertNull(list.get("I4"));
+        Assert.assertSame(i4, list.get("Z"));
+
+        // A removed element no longer affects the list.
+        list.remove(i4);
+        i4.setId("I4");
+        Assert.assertNull(list.get("I4"));
+        Assert.assertNull(list.get("Z"));
+
+        list.removeIf(e -> e.getId().startsWith("I"));
+        Assert.assertNull(list.get("I6"));
+        Assert.assertSame(y, list.get("Y"));
+        list.clear();
+        Assert.assertNull(list.get("Y"));
+    }
+
+    @Test
+    public void testRemovedElementsAreNotWatched() {
+        IdentifiableList<Item> list = new IdentifiableList<>();
+        Item[] items = new Item[10];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new Item("I" + i);
+            list.add(items[i]);
+            Assert.assertEquals(1, items[i].getIdListenerCount());
+        }
+
+        list.remove(0);
+        Assert.assertEquals(0, items[0].getIdListenerCount());
+        list.remove(items[1]);
+        Assert.assertEquals(0, items[1].getIdListenerCount());
+        list.set(0, new Item("X"));
+        Assert.assertEquals(0, items[2].getIdListenerCount());
+        list.removeAll(Arrays.asList(items[3]));
+        Assert.assertEquals(0, items[3].getIdListenerCount());
+        list.removeIf(e -> e == items[4]);
+        Assert.assertEquals(0, items[4].getIdListenerCount());
+        list.subList(1, 2).clear();
+        Assert.assertEquals(0, items[5].getIdListenerCount());
+        list.replaceAll(e -> e == items[6] ? new Item("Y") : e);
+        Assert.assertEquals(0, items[6].getIdListenerCount());
+        list.retainAll(Arrays.asList(items[7], items[8], items[9]));
+        Assert.assertEquals(1, items[7].getIdListenerCount());
+
+        // An element that is in the list twice is still watched after removing one of them.
+        list.add(items[7]);
+        list.remove(items[7]);
+        Assert.assertEquals(1, items[7].getIdListenerCount());
+        Assert.assertSame(items[7], list.get("I7"));
+
+        list.clear();
+        for (Item item : items) {
+            Assert.assertEquals(0, item.getIdListenerCount());
+        }
+    }
+
+    @Test
+    public void testConcurrentLookup() throws Exception {
+        IdentifiableList<Item> list = new IdentifiableList<>();
+        int n = 1000;
+        for (int i = 0; i < n; i++) {
+            list.add(new Item("I" + i));
+        }
+        // Each round drops the index, the lookups all race to rebuild it.
+        for (int round = 0; round < 20; round++) {
+            list.get(round).setId("R" + round);
+            AtomicInteger found = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < n; i++) {
+                        String id = list.get(i).getId();
+                        if (list.get(id) == list.get(i)) {
+                            found.incrementAndGet();
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertEquals(4 * n, found.get());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Part;
+
+import com.google.common.io.Files;
+
+public class LazyLibraryTest {
+    /**
+     * Loads a large parts library, reads a few parts, and checks that saving leaves the file
+     * untouched until a part changes, and then keeps the change and all the other parts.
+     */
+    @Test
+    public void testLargePartsLibrary() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        System.out.println("Configuration directory: " + workingDirectory);
+
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/packages.xml"),
+                new File(workingDirectory, "packages.xml"));
+
+        int count = 40000;
+        StringBuilder sb = new StringBuilder();
+        sb.append("<openpnp-parts>\n");
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                sb.append(String.format(
+                        "   <part id=\"R-%d\" name=\"R &amp; %d\" height-units=\"Millimeters\" height=\"%d.0\" package-id=\"0805\"/>\n",
+                        i, i, i % 10));
+            }
+            else {
+                sb.append(String.format(
+                        "   <part id=\"C-%d\" height-units=\"Millimeters\" height=\"%d.0\" package-id=\"0805\">\n   </part>\n",
+                        i, i % 10));
+            }
+        }
+        sb.append("</openpnp-parts>\n");
+        File partsFile = new File(workingDirectory, "parts.xml");
+        FileUtils.writeStringToFile(partsFile, sb.toString(), StandardCharsets.UTF_8);
+
+        Configuration.initialize(workingDirectory);
+        long t = System.nanoTime();
+        Configuration.get().load();
+        t = System.nanoTime() - t;
+        System.out.println("LazyLibraryTest loaded " + count + " parts in " + (t / 1000000) + "ms");
+
+        Assert.assertEquals(count, Configuration.get().getParts().size());
+        Part part = Configuration.get().getPart("r-100");
+        Assert.assertEquals("R-100", part.getId());
+        Assert.assertEquals("R & 100", part.getName());
+        Assert.assertEquals(0.0, part.getHeight().convertToUnits(LengthUnit.Millimeters).getValue(),
+                0.0001);
+        Assert.assertEquals("0805", part.getPackage().getId());
+        Assert.assertSame(part, Configuration.get().getPart("R-100"));
+        Assert.assertEquals(7.0, Configuration.get().getParts().get(count - 3).getHeight().getValue(),
+                0.0001);
+        Assert.assertEquals("C-39999", Configuration.get().getParts().get(count - 1).getId());
+        Assert.assertNull(Configuration.get().getPart("R-99999"));
+
+        // Nothing changed, so nothing is written.
+        long lastModified = partsFile.lastModified();
+        Thread.sleep(1100);
+        Configuration.get().save();
+        Assert.assertEquals(lastModified, partsFile.lastModified());
+
+        part.setName("Changed");
+        Part added = new Part("ADDED");
+        added.setPackage(Configuration.get().getPackage("0805"));
+        Configuration.get().addPart(added);
+        Configuration.get().save();
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Assert.assertEquals(count + 1, Configuration.get().getParts().size());
+        Assert.assertEquals("Changed", Configuration.get().getPart("R-100").getName());
+        Assert.assertEquals("R & 102", Configuration.get().getPart("R-102").getName());
+        Assert.assertEquals("0805", Configuration.get().getPart("ADDED").getPackage().getId());
+        Assert.assertEquals(3.0, Configuration.get().getPart("C-39993").getHeight().getValue(),
+                0.0001);
+
+        // Parts are read from the saved content while it is written in the background.
+        Configuration.get().getPart("R-102").setName("Changed too");
+        CompletableFuture<Void> save = Configuration.get().saveInBackground();
+        Assert.assertEquals("R & 104", Configuration.get().getPart("R-104").getName());
+        Assert.assertEquals(5.0, Configuration.get().getPart("C-39995").getHeight().getValue(),
+                0.0001);
+        save.get();
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Assert.assertEquals(count + 1, Configuration.get().getParts().size());
+        Assert.assertEquals("Changed too", Configuration.get().getPart("R-102").getName());
+        Assert.assertEquals("R & 104", Configuration.get().getPart("R-104").getName());
+    }
+
+    /**
+     * Changes that are only made through setters without a property change of their own, changes
+     * made to parts.xml by others after loading and parts whose package no longer exists.
+     */
+    @Test
+    public void testChangesAndExternalEdits() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/packages.xml"),
+                new File(workingDirectory, "packages.xml"));
+        File partsFile = new File(workingDirectory, "parts.xml");
+        FileUtils.writeStringToFile(partsFile, "<openpnp-parts>\n"
+                + "   <part id=\"A\" height-units=\"Millimeters\" height=\"1.0\" package-id=\"0805\"/>\n"
+                + "   <part id=\"B\" height-units=\"Millimeters\" height=\"2.0\" package-id=\"0805\"/>\n"
+                + "   <part id=\"C\" height-units=\"Millimeters\" height=\"3.0\" package-id=\"GONE\"/>\n"
+                + "</openpnp-parts>\n", StandardCharsets.UTF_8);
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        // Others change the file, the parts are still read from what was loaded.
+        FileUtils.writeStringToFile(partsFile, "<openpnp-parts>\n"
+                + "   <part id=\"X\" height-units=\"Millimeters\" height=\"9.0\" package-id=\"0805\"/>\n"
+                + "</openpnp-parts>\n", StandardCharsets.UTF_8);
+        Assert.assertEquals(2.0, Configuration.get().getPart("B").getHeight().getValue(), 0.0001);
+
+        Configuration.get().getPart("A").setId("A2");
+        Part c = Configuration.get().getPart("C");
+        Assert.assertNull(c.getPackage());
+        c.setName("No package");
+        Configuration.get().save();
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        Assert.assertEquals(3, Configuration.get().getParts().size());
+        Assert.assertNull(Configuration.get().getPart("A"));
+        Assert.assertEquals(1.0, Configuration.get().getPart("A2").getHeight().getValue(), 0.0001);
+        Assert.assertEquals(2.0, Configuration.get().getPart("B").getHeight().getValue(), 0.0001);
+        Assert.assertNull(Configuration.get().getPart("X"));
+        Assert.assertEquals("No package", Configuration.get().getPart("C").getName());
+        Assert.assertNull(Configuration.get().getPart("C").getPackage());
+        Assert.assertFalse(FileUtils.readFileToString(partsFile, StandardCharsets.UTF_8)
+                .contains("GONE"));
+    }
+}
@@ -0,0 +1,90 @@
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpnp.machine.reference.ReferenceMachine;
+import org.openpnp.model.Configuration;
+import org.openpnp.spi.Camera;
+import org.openpnp.spi.Head;
+
+import com.google.common.io.Files;
+
+public class MachineTaskTest {
+    private ReferenceMachine machine;
+    private Head head;
+    private Camera upCamera;
+
+    @Before
+    public void before() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        machine = (ReferenceMachine) Configuration.get().getMachine();
+        machine.setConcurrentTasks(true);
+        head = machine.getDefaultHead();
+        for (Camera camera : machine.getCameras()) {
+            if (camera.getLooking() == Camera.Looking.Up) {
+                upCamera = camera;
+            }
+        }
+        Assert.assertNotNull(upCamera);
+    }
+
+    /**
+     * A task that moves the head and a task that only captures from the up looking camera have
+     * disjoint resources, so the second one must start while the first one is still running.
+     */
+    @Test
+    public void testDisjointResourcesOverlap() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        Callable<Boolean> task = () -> {
+            started.countDown();
+            return started.await(5, TimeUnit.SECONDS);
+        };
+        Future<Boolean> headTask = machine.submit(task, null, true, head);
+        Future<Boolean> cameraTask = machine.submit(task, null, true, upCamera);
+        Assert.assertTrue("Tasks did not overlap", headTask.get());
+        Assert.assertTrue("Tasks did not overlap", cameraTask.get());
+    }
+
+    /**
+     * Tasks that share a resource, here the driver behind the head and its nozzle, run one
+     * after the other in submission order.
+     */
+    @Test
+    public void testSharedResourcesDoNotOverlap() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        Callable<Boolean> task = () -> {
+            started.countDown();
+            return started.await(200, TimeUnit.MILLISECONDS);
+        };
+        Future<Boolean> headTask = machine.submit(task, null, true, head);
+        Future<Boolean> nozzleTask =
+                machine.submit(task, null, true, head.getDefaultNozzle());
+        Assert.assertFalse("Tasks overlapped", headTask.get());
+        Assert.assertTrue(nozzleTask.get());
+    }
+
+    /**
+     * A task without resources uses the whole machine and never overlaps.
+     */
+    @Test
+    public void testNoResourcesDoNotOverlap() throws Exception {
+        CountDownLatch started = new CountDownLatch(2);
+        Callable<Boolean> task = () -> {
+            started.countDown();
+            return started.await(200, TimeUnit.MILLISECONDS);
+        };
+        Future<Boolean> cameraTask = machine.submit(task, null, true, upCamera);
+        Future<Boolean> machineTask = machine.submit(task, null, true);
+        Assert.assertFalse("Tasks overlapped", cameraTask.get());
+        Assert.assertTrue(machineTask.get());
+    }
+}
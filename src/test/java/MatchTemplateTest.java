@@ -0,0 +1,138 @@
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.CvStage;
+import org.openpnp.vision.pipeline.CvStage.Result.TemplateMatch;
+import org.openpnp.vision.pipeline.stages.MatchTemplate;
+
+public class MatchTemplateTest {
+    static {
+        nu.pattern.OpenCV.loadShared();
+        System.loadLibrary(org.opencv.core.Core.NATIVE_LIBRARY_NAME);
+    }
+
+    static class MatStage extends CvStage {
+        final Mat mat;
+
+        MatStage(Mat mat) {
+            this.mat = mat;
+        }
+
+        @Override
+        public Result process(CvPipeline pipeline) throws Exception {
+            return new Result(mat.clone());
+        }
+    }
+
+    static Mat createTemplate() {
+        Mat template = new Mat(48, 48, CvType.CV_8UC1, new Scalar(0));
+        Imgproc.circle(template, new Point(24, 24), 10, new Scalar(255), -1);
+        Imgproc.rectangle(template, new Point(30, 8), new Point(40, 14), new Scalar(255), -1);
+        return template;
+    }
+
+    static Mat createImage(Mat template, int[][] positions) {
+        Mat image = new Mat(800, 1000, CvType.CV_8UC1);
+        Core.randn(image, 40, 10);
+        for (int[] position : positions) {
+            template.copyTo(image.submat(new Rect(position[0], position[1], template.cols(), template.rows())));
+        }
+        // Something bright that is not a match.
+        Imgproc.rectangle(image, new Point(500, 60), new Point(580, 90), new Scalar(255), -1);
+        return image;
+    }
+
+    static List<TemplateMatch> match(Mat image, Mat template, MatchTemplate stage) throws Exception {
+        CvPipeline pipeline = new CvPipeline();
+        pipeline.add("template", new MatStage(template));
+        pipeline.add("image", new MatStage(image));
+        stage.setTemplateStageName("template");
+        pipeline.add("match", stage);
+        long t = System.nanoTime();
+        pipeline.process(true);
+        t = System.nanoTime() - t;
+        CvStage.Result result = pipeline.getResult("match");
+        if (result.model instanceof Exception) {
+            throw (Exception) result.model;
+        }
+        @SuppressWarnings("unchecked")
+        List<TemplateMatch> matches = (List<TemplateMatch>) result.model;
+        System.out.println("MatchTemplateTest pyramidLevels " + stage.getPyramidLevels()
+                + ", rotationRange " + stage.getRotationRange() + ": " + matches.size()
+                + " matches in " + (t / 1000) + "us");
+        pipeline.release();
+        return matches;
+    }
+
+    /**
+     * The pyramid search must find the same matches as the full resolution search, at the same
+     * positions.
+     */
+    @Test
+    public void testPyramidParity() throws Exception {
+        int[][] positions = { { 100, 100 }, { 700, 120 }, { 333, 444 }, { 860, 690 }, { 5, 740 } };
+        Mat template = createTemplate();
+        Mat image = createImage(template, positions);
+
+        List<TemplateMatch> expected = match(image, template, new MatchTemplate());
+        Assert.assertEquals(positions.length, expected.size());
+
+        for (int levels = 1; levels <= 3; levels++) {
+            MatchTemplate stage = new MatchTemplate();
+            stage.setPyramidLevels(levels);
+            List<TemplateMatch> matches = match(image, template, stage);
+            Assert.assertEquals(expected.size(), matches.size());
+            for (TemplateMatch match : matches) {
+                TemplateMatch nearest = null;
+                for (TemplateMatch e : expected) {
+                    if (nearest == null || Math.hypot(e.x - match.x, e.y - match.y) < Math
+                            .hypot(nearest.x - match.x, nearest.y - match.y)) {
+                        nearest = e;
+                    }
+                }
+                Assert.assertEquals(nearest.x, match.x, 0.5);
+                Assert.assertEquals(nearest.y, match.y, 0.5);
+                Assert.assertEquals(nearest.score, match.score, 0.01);
+            }
+        }
+
+        // Limit the candidates to the best one.
+        MatchTemplate stage = new MatchTemplate();
+        stage.setPyramidLevels(2);
+        stage.setMaxCandidates(1);
+        Assert.assertEquals(1, match(image, template, stage).size());
+    }
+
+    /**
+     * A rotated copy of the template is found with its angle.
+     */
+    @Test
+    public void testRotationSearch() throws Exception {
+        Mat template = createTemplate();
+        Mat rotated = new Mat();
+        Mat mapMatrix = Imgproc.getRotationMatrix2D(new Point(24, 24), 20, 1.0);
+        Imgproc.warpAffine(template, rotated, mapMatrix, template.size(), Imgproc.INTER_LINEAR);
+        Mat image = createImage(rotated, new int[][] { { 400, 300 } });
+
+        MatchTemplate stage = new MatchTemplate();
+        stage.setPyramidLevels(1);
+        stage.setRotationRange(30);
+        stage.setRotationStep(10);
+        stage.setMaxCandidates(4);
+        List<TemplateMatch> matches = match(image, template, stage);
+        Assert.assertTrue(matches.size() >= 1);
+        TemplateMatch best = matches.get(0);
+        Assert.assertEquals(20, best.angle, 0.01);
+        Assert.assertEquals(400, best.x, 1);
+        Assert.assertEquals(300, best.y, 1);
+    }
+}
@@ -0,0 +1,223 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpnp.machine.reference.OptimizingPnpJobPlanner;
+import org.openpnp.machine.reference.ReferencePnpJobProcessor.SimplePnpJobPlanner;
+import org.openpnp.model.Board;
+import org.openpnp.model.Board.Side;
+import org.openpnp.model.BoardLocation;
+import org.openpnp.model.Configuration;
+import org.openpnp.model.Length;
+import org.openpnp.model.LengthUnit;
+import org.openpnp.model.Location;
+import org.openpnp.model.Part;
+import org.openpnp.model.Placement;
+import org.openpnp.spi.Head;
+import org.openpnp.spi.Machine;
+import org.openpnp.spi.Nozzle;
+import org.openpnp.spi.NozzleTip;
+import org.openpnp.spi.PnpJobPlanner;
+import org.openpnp.spi.PnpJobPlanner.PlannedPlacement;
+import org.openpnp.spi.PnpJobProcessor.JobPlacement;
+
+import com.google.common.io.Files;
+
+public class OptimizingPnpJobPlannerTest {
+    private Head head;
+    private List<JobPlacement> jobPlacements;
+
+    @Before
+    public void setUp() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/machine.xml"),
+                new File(workingDirectory, "machine.xml"));
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/packages.xml"),
+                new File(workingDirectory, "packages.xml"));
+        FileUtils.copyURLToFile(ClassLoader.getSystemResource("config/BasicJobTest/parts.xml"),
+                new File(workingDirectory, "parts.xml"));
+
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+
+        Machine machine = Configuration.get().getMachine();
+        head = machine.getHead("H1");
+        jobPlacements = createSampleJob(machine.getNozzleTip("NT1"), machine.getNozzleTip("NT2"));
+    }
+
+    @Test
+    public void testEveryPlacementPlannedOnce() throws Exception {
+        for (boolean preserveHeightOrder : new boolean[] {true, false}) {
+            OptimizingPnpJobPlanner planner = new OptimizingPnpJobPlanner();
+            planner.setPreserveHeightOrder(preserveHeightOrder);
+            List<List<PlannedPlacement>> schedule = planAll(planner);
+
+            List<JobPlacement> planned = new ArrayList<>();
+            for (List<PlannedPlacement> cycle : schedule) {
+                Set<Nozzle> nozzles = new HashSet<>();
+                for (PlannedPlacement plannedPlacement : cycle) {
+                    Assert.assertTrue("Nozzle used twice in a cycle",
+                            nozzles.add(plannedPlacement.nozzle));
+                    Assert.assertTrue("Incompatible nozzle tip",
+                            plannedPlacement.jobPlacement.getPlacement()
+                                                         .getPart()
+                                                         .getPackage()
+                                                         .getCompatibleNozzleTips()
+                                                         .contains(plannedPlacement.nozzleTip));
+                    planned.add(plannedPlacement.jobPlacement);
+                }
+            }
+            Assert.assertEquals(jobPlacements.size(), planned.size());
+            Assert.assertEquals(new HashSet<>(jobPlacements), new HashSet<>(planned));
+        }
+    }
+
+    @Test
+    public void testHeightOrder() throws Exception {
+        OptimizingPnpJobPlanner planner = new OptimizingPnpJobPlanner();
+        planner.setPreserveHeightOrder(true);
+        double height = 0;
+        for (List<PlannedPlacement> cycle : planAll(planner)) {
+            for (PlannedPlacement plannedPlacement : cycle) {
+                Assert.assertTrue(plannedPlacement.jobPlacement + " placed after a taller part",
+                        plannedPlacement.jobPlacement.getPartHeight() >= height);
+                height = plannedPlacement.jobPlacement.getPartHeight();
+            }
+        }
+    }
+
+    @Test
+    public void testNozzleTipChanges() throws Exception {
+        for (boolean preserveHeightOrder : new boolean[] {true, false}) {
+            OptimizingPnpJobPlanner planner = new OptimizingPnpJobPlanner();
+            planner.setPreserveHeightOrder(preserveHeightOrder);
+            int changes = countNozzleTipChanges(planAll(planner));
+            int simpleChanges = countNozzleTipChanges(planAllSimple());
+            Assert.assertTrue(String.format("%d nozzle tip changes, SimplePnpJobPlanner %d",
+                    changes, simpleChanges), changes <= simpleChanges);
+        }
+    }
+
+    /**
+     * Plan the job the way the job processor does, one cycle at a time, removing the planned
+     * placements from the pending ones.
+     */
+    private List<List<PlannedPlacement>> planAll(PnpJobPlanner planner) {
+        List<JobPlacement> pending = new ArrayList<>(jobPlacements);
+        List<List<PlannedPlacement>> schedule = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            List<PlannedPlacement> cycle = planner.plan(head, new ArrayList<>(pending));
+            Assert.assertFalse("Planner made no progress", cycle.isEmpty());
+            for (PlannedPlacement plannedPlacement : cycle) {
+                Assert.assertTrue("Placement planned twice",
+                        pending.remove(plannedPlacement.jobPlacement));
+            }
+            schedule.add(cycle);
+        }
+        return schedule;
+    }
+
+    /**
+     * Plan the job with SimplePnpJobPlanner, sorted by part height as the job processor does,
+     * keeping track of the nozzle tips it would load.
+     */
+    private List<List<PlannedPlacement>> planAllSimple() {
+        SimplePnpJobPlanner planner = new SimplePnpJobPlanner();
+        Map<Nozzle, NozzleTip> loadedNozzleTips = getLoadedNozzleTips();
+        List<JobPlacement> pending = new ArrayList<>(jobPlacements);
+        pending.sort(Comparator.comparing(JobPlacement::getPartHeight));
+        List<List<PlannedPlacement>> schedule = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            List<PlannedPlacement> cycle = planner.plan(head, pending, loadedNozzleTips);
+            Assert.assertFalse("Planner made no progress", cycle.isEmpty());
+            for (PlannedPlacement plannedPlacement : cycle) {
+                loadedNozzleTips.put(plannedPlacement.nozzle, plannedPlacement.nozzleTip);
+            }
+            schedule.add(cycle);
+        }
+        return schedule;
+    }
+
+    private int countNozzleTipChanges(List<List<PlannedPlacement>> schedule) {
+        Map<Nozzle, NozzleTip> loadedNozzleTips = getLoadedNozzleTips();
+        int changes = 0;
+        for (List<PlannedPlacement> cycle : schedule) {
+            for (PlannedPlacement plannedPlacement : cycle) {
+                if (loadedNozzleTips.get(plannedPlacement.nozzle) != plannedPlacement.nozzleTip) {
+                    loadedNozzleTips.put(plannedPlacement.nozzle, plannedPlacement.nozzleTip);
+                    changes++;
+                }
+            }
+        }
+        return changes;
+    }
+
+    private Map<Nozzle, NozzleTip> getLoadedNozzleTips() {
+        Map<Nozzle, NozzleTip> loadedNozzleTips = new HashMap<>();
+        for (Nozzle nozzle : head.getNozzles()) {
+            loadedNozzleTips.put(nozzle, nozzle.getNozzleTip());
+        }
+        return loadedNozzleTips;
+    }
+
+    /**
+     * A job with parts of several heights, some of which can only be handled by one of the two
+     * nozzle tips, in no particular order.
+     */
+    private static List<JobPlacement> createSampleJob(NozzleTip nt1, NozzleTip nt2) {
+        Board board = new Board();
+        board.setName("test");
+        BoardLocation boardLocation = new BoardLocation(board);
+        boardLocation.setLocation(new Location(LengthUnit.Millimeters, 0, 0, 0, 0));
+        boardLocation.setSide(Side.Top);
+
+        addPlacements(board, createPart("R0402", 0.35, nt1), 2);
+        addPlacements(board, createPart("R0805", 0.5, nt1, nt2), 4);
+        addPlacements(board, createPart("C0805", 0.5, nt2), 3);
+        addPlacements(board, createPart("SOT23", 1.0, nt1, nt2), 3);
+        addPlacements(board, createPart("SOIC8", 1.75, nt2), 2);
+        addPlacements(board, createPart("ELCO", 5.0, nt1), 2);
+
+        List<JobPlacement> jobPlacements = new ArrayList<>();
+        for (Placement placement : board.getPlacements()) {
+            jobPlacements.add(new JobPlacement(boardLocation, placement));
+        }
+        Collections.shuffle(jobPlacements, new Random(1));
+        return jobPlacements;
+    }
+
+    private static Part createPart(String id, double height, NozzleTip... nozzleTips) {
+        org.openpnp.model.Package pkg = new org.openpnp.model.Package(id);
+        for (NozzleTip nozzleTip : nozzleTips) {
+            pkg.addCompatibleNozzleTip(nozzleTip);
+        }
+        Part part = new Part(id);
+        part.setHeight(new Length(height, LengthUnit.Millimeters));
+        part.setPackage(pkg);
+        return part;
+    }
+
+    private static void addPlacements(Board board, Part part, int count) {
+        for (int i = 0; i < count; i++) {
+            int n = board.getPlacements().size();
+            Placement placement = new Placement(part.getId() + "-" + i);
+            placement.setPart(part);
+            placement.setLocation(new Location(LengthUnit.Millimeters, 10 * n, 7 * (n % 3), 0, 0));
+            placement.setSide(Side.Top);
+            board.addPlacement(placement);
+        }
+    }
+}
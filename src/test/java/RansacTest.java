@@ -0,0 +1,53 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.Point;
+import org.openpnp.vision.Ransac;
+
+public class RansacTest {
+    /**
+     * Find two rows of sprocket holes among random points, sequentially and in parallel. Both
+     * must give the same lines for the same seed and the best line must be one of the rows.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRansacParallel() throws Exception {
+        // make this test repeatable, by seeding the random generator.
+        Random rnd = new Random(1);
+        List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            points.add(new Point(100 + i * 20 + rnd.nextGaussian() * 0.5, 50 + rnd.nextGaussian() * 0.5));
+            points.add(new Point(100 + i * 20 + rnd.nextGaussian() * 0.5, 90 + rnd.nextGaussian() * 0.5));
+        }
+        for (int i = 0; i < 60; i++) {
+            points.add(new Point(rnd.nextDouble() * 400, rnd.nextDouble() * 200));
+        }
+        Collections.shuffle(points, rnd);
+
+        for (long seed = 0; seed < 3; seed++) {
+            long t = System.nanoTime();
+            List<Ransac.Line> lines = Ransac.ransac(points, 5000, 2.0, 20, 2, seed, false);
+            long sequentialTime = System.nanoTime() - t;
+            t = System.nanoTime();
+            List<Ransac.Line> parallelLines = Ransac.ransac(points, 5000, 2.0, 20, 2, seed, true);
+            long parallelTime = System.nanoTime() - t;
+            System.out.println("RansacTest.testRansacParallel() seed " + seed + ", " + lines.size()
+                    + " lines, sequential: " + (sequentialTime / 1000) + "us, parallel: " + (parallelTime / 1000) + "us");
+
+            Assert.assertEquals(lines.size(), parallelLines.size());
+            for (int i = 0; i < lines.size(); i++) {
+                Assert.assertSame(lines.get(i).a, parallelLines.get(i).a);
+                Assert.assertSame(lines.get(i).b, parallelLines.get(i).b);
+            }
+
+            Ransac.Line best = lines.get(0);
+            Assert.assertEquals(220, Math.abs(best.b.x - best.a.x), 2);
+            Assert.assertEquals(0, Math.abs(best.b.y - best.a.y), 2);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openpnp.machine.reference.ReferenceNozzle;
+import org.openpnp.machine.reference.ReferenceNozzleTip;
+import org.openpnp.model.Configuration;
+import org.openpnp.util.SampleRing;
+import org.openpnp.util.SimpleGraph;
+
+import com.google.common.io.Files;
+
+public class ReferenceNozzleVacuumTest {
+    /**
+     * A nozzle whose vacuum actuator is reported by the controller on its own.
+     */
+    static class ReportedVacuumNozzle extends ReferenceNozzle {
+        final SampleRing samples = new SampleRing(16);
+
+        @Override
+        protected SampleRing getVacuumSamples() {
+            return samples;
+        }
+
+        double read() throws Exception {
+            return readVacuumLevel();
+        }
+
+        double record(SimpleGraph vacuumGraph, long timeout, boolean checkRange, double low,
+                double high) throws Exception {
+            return recordVacuumLevels(vacuumGraph, timeout, checkRange, low, high);
+        }
+
+        static long getReportTimeout() {
+            return VACUUM_REPORT_TIMEOUT_MS;
+        }
+    }
+
+    private ReportedVacuumNozzle nozzle;
+
+    @Before
+    public void before() throws Exception {
+        File workingDirectory = Files.createTempDir();
+        workingDirectory = new File(workingDirectory, ".openpnp");
+        Configuration.initialize(workingDirectory);
+        Configuration.get().load();
+        nozzle = new ReportedVacuumNozzle();
+    }
+
+    /**
+     * Add the levels as reports, the first one after the delay, the others one after the other.
+     */
+    private Thread report(long delay, double... levels) {
+        Thread reader = new Thread(() -> {
+            try {
+                Thread.sleep(delay);
+                for (double level : levels) {
+                    nozzle.samples.add(level);
+                    Thread.sleep(10);
+                }
+            }
+            catch (InterruptedException e) {
+            }
+        });
+        reader.start();
+        return reader;
+    }
+
+    @Test
+    public void testReadWaitsForNewReport() throws Exception {
+        nozzle.samples.add(10);
+        Thread reader = report(50, 20);
+        Assert.assertEquals(20, nozzle.read(), 0);
+        reader.join();
+    }
+
+    @Test
+    public void testReadWithoutNewReport() throws Exception {
+        // A controller that only reports changes, the latest report is still current.
+        nozzle.samples.add(10);
+        long t = System.currentTimeMillis();
+        Assert.assertEquals(10, nozzle.read(), 0);
+        Assert.assertTrue(System.currentTimeMillis() - t >= ReportedVacuumNozzle.getReportTimeout());
+    }
+
+    @Test
+    public void testRecordIgnoresStaleReport() throws Exception {
+        // The stale report is within range, but must not end the recording.
+        nozzle.samples.add(20);
+        Thread reader = report(50, 5, 18);
+        SimpleGraph vacuumGraph = new SimpleGraph();
+        double vacuumLevel = nozzle.record(vacuumGraph, System.currentTimeMillis() + 5000, true,
+                15, 25);
+        reader.join();
+        Assert.assertEquals(18, vacuumLevel, 0);
+        SimpleGraph.DataRow vacuumData =
+                vacuumGraph.getRow(ReferenceNozzleTip.PRESSURE, ReferenceNozzleTip.VACUUM);
+        Assert.assertEquals(2, vacuumData.size());
+        Assert.assertEquals(5, vacuumData.getMinimum().y, 0);
+    }
+
+    @Test
+    public void testRecordWaitsForNewReportAfterTimeout() throws Exception {
+        nozzle.samples.add(10);
+        Thread reader = report(50, 12);
+        SimpleGraph vacuumGraph = new SimpleGraph();
+        Assert.assertEquals(12, nozzle.record(vacuumGraph, System.currentTimeMillis(), false, 0, 0),
+                0);
+        reader.join();
+    }
+}
@@ -0,0 +1,46 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.util.SampleRing;
+
+public class SampleRingTest {
+    @Test
+    public void testSampleRing() throws Exception {
+        SampleRing samples = new SampleRing(4);
+        Assert.assertTrue(Double.isNaN(samples.get(0)));
+        Assert.assertFalse(samples.await(0, 10));
+
+        for (int i = 0; i < 6; i++) {
+            samples.add(i);
+        }
+        Assert.assertEquals(6, samples.getCount());
+        Assert.assertEquals(5, samples.get(5), 0);
+        Assert.assertEquals(3, samples.get(3), 0);
+        // Overwritten.
+        Assert.assertTrue(Double.isNaN(samples.get(2)));
+        Assert.assertTrue(samples.await(5, 0));
+
+        // A reader waiting for the next sample is released by the writer.
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 6; i < 1000; i++) {
+                    Thread.sleep(i % 100 == 0 ? 1 : 0);
+                    samples.add(i);
+                }
+            }
+            catch (InterruptedException e) {
+            }
+        });
+        writer.start();
+        long seen = samples.getCount();
+        while (seen < 1000) {
+            Assert.assertTrue(samples.await(seen, 5000));
+            long count = samples.getCount();
+            Assert.assertTrue(count > seen);
+            double latest = samples.get(count - 1);
+            Assert.assertTrue(Double.isNaN(latest) || latest >= count - 1);
+            seen = count;
+        }
+        writer.join();
+        Assert.assertEquals(999, samples.get(999), 0);
+    }
+}
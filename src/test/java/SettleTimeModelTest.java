@@ -0,0 +1,44 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.util.SettleTimeModel;
+
+public class SettleTimeModelTest {
+    @Test
+    public void testSettleTimeModel() throws Exception {
+        SettleTimeModel model = new SettleTimeModel(3, 16);
+        // No prediction until enough settle times are measured.
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(-1, model.predict(100, 1.0));
+            model.learn(100, 1.0, 120);
+        }
+        long predicted = model.predict(100, 1.0);
+        Assert.assertTrue(predicted >= 120);
+
+        // Short moves and other speeds are learned separately.
+        Assert.assertEquals(-1, model.predict(0.5, 1.0));
+        Assert.assertEquals(-1, model.predict(100, 0.1));
+
+        // A steady settle time makes the prediction converge on it.
+        for (int i = 0; i < 50; i++) {
+            model.learn(100, 1.0, 120);
+        }
+        int remeasured = 0;
+        for (int i = 0; i < 32; i++) {
+            predicted = model.predict(100, 1.0);
+            if (predicted < 0) {
+                remeasured++;
+            }
+            else {
+                Assert.assertEquals(120, predicted, 5);
+            }
+        }
+        Assert.assertEquals(2, remeasured);
+
+        // A longer settle time raises the prediction right away.
+        model.learn(100, 1.0, 200);
+        Assert.assertTrue(model.predict(100, 1.0) > 200);
+
+        model.reset();
+        Assert.assertEquals(-1, model.predict(100, 1.0));
+    }
+}
@@ -91,4 +91,75 @@ public class TavellingSalesmanTest {
             }
         }
     }
+
+    /**
+     * Benchmark the parallel solver against the single chain solver on the same problems as above. 
+     * 
+     * As the parallel solver's first chain is the single chain, its route must never be longer. With a fixed seed
+     * it must also be reproducible.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testTravellingSalesmanParallel() throws Exception {
+        int chains = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int t = 2, scale = 100; scale > 0; t--, scale /= 10) {
+            List<Location> list = createLocations(scale);
+            TravellingSalesman<Location> single = createSolver(list, t);
+            double singleDistance = single.solve();
+            TravellingSalesman<Location> parallel = createSolver(list, t);
+            double parallelDistance = parallel.solve(chains, 0, 0);
+            System.out.println("TavellingSalesmanTest.testTravellingSalesmanParallel() solved "+list.size()+" locations, "
+                    +"single chain: "+Math.round(singleDistance)+"mm, "+single.getSolverDuration()+"ms, "
+                    +chains+" chains: "+Math.round(parallelDistance)+"mm, "+parallel.getSolverDuration()+"ms");
+            if (parallelDistance > singleDistance) {
+                throw new Exception("org.openpnp.util.TravellingSalesman.solve("+chains+") distance "+parallelDistance+" is greater than single chain distance " + singleDistance);
+            }
+            TravellingSalesman<Location> repeated = createSolver(list, t);
+            repeated.solve(chains, 0, 0);
+            if (!repeated.getTravel().equals(parallel.getTravel())) {
+                throw new Exception("org.openpnp.util.TravellingSalesman.solve("+chains+") is not reproducible with the same seed");
+            }
+        }
+    }
+
+    /**
+     * Generates Locations roughly arranged in X- and Y-aligned rows, like feeders would be. Plus some additional 
+     * random Locations strewn in all over.
+     */
+    private static List<Location> createLocations(int scale) {
+        // make this test repeatable, by seeding the random generator.
+        Random rnd = new java.util.Random(42);
+        List<Location> list = new ArrayList<Location>();
+        // add some random Locations all over 
+        for (int i = 0; i < 1*scale+10; i++) {
+            list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, rnd.nextDouble()*500.0, rnd.nextDouble()*20.0, 0.0));
+        }
+        // add some X-aligned rows of feeders
+        for (int i = 0; i < 3*scale; i++) {
+            list.add(new Location(LengthUnit.Millimeters, Math.floor(rnd.nextDouble()*5.0)*250.0+rnd.nextDouble()*20.0, rnd.nextDouble()*500.0, rnd.nextDouble()*10.0, 0.0));
+        }
+        // add some Y-aligned rows of feeders
+        for (int i = 0; i < 2*scale; i++) {
+            list.add(new Location(LengthUnit.Millimeters, rnd.nextDouble()*1000.0, Math.floor(rnd.nextDouble()*2.0)*500.0+rnd.nextDouble()*20.0, rnd.nextDouble()*10.0, 0.0));
+        }
+        return list;
+    }
+
+    private static TravellingSalesman<Location> createSolver(List<Location> list, int t) {
+        return new TravellingSalesman<>(
+                list, 
+                new TravellingSalesman.Locator<Location>() { 
+                    @Override
+                    public Location getLocation(Location locatable) {
+                        return locatable;
+                    }
+                }, 
+                // start from origin 
+                new Location(LengthUnit.Millimeters), 
+                // across, loop, and no given end location respectively
+                (t == 1 ? new Location(LengthUnit.Millimeters) : 
+                    (t == 0 ? new Location(LengthUnit.Millimeters, 1000.0, 500.0, 0.0, 0.0) : 
+                        null)));
+    }
 }
@@ -0,0 +1,54 @@
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openpnp.util.TemplateImageCache;
+
+public class TemplateImageCacheTest {
+    @Test
+    public void testTemplateImageCache() throws Exception {
+        File directory = Files.createTempDirectory("template-image-cache").toFile();
+        AtomicInteger renders = new AtomicInteger();
+
+        TemplateImageCache cache = new TemplateImageCache(directory, 2, 16);
+        String key = new TemplateImageCache.Key("test")
+                .add(new Rectangle2D.Double(-5, -5, 10, 10))
+                .toString();
+        BufferedImage image = cache.get(key, () -> {
+            renders.incrementAndGet();
+            BufferedImage template = new BufferedImage(20, 20, BufferedImage.TYPE_INT_ARGB);
+            template.setRGB(10, 10, 0xffffffff);
+            return template;
+        });
+        Assert.assertSame(image, cache.get(key, () -> null));
+        Assert.assertEquals(1, renders.get());
+
+        // The same geometry gives the same key, a different one does not.
+        Assert.assertEquals(key, new TemplateImageCache.Key("test")
+                .add(new Rectangle2D.Double(-5, -5, 10, 10))
+                .toString());
+        Assert.assertNotEquals(key, new TemplateImageCache.Key("test")
+                .add(new Rectangle2D.Double(-5, -5, 10, 10.001))
+                .toString());
+
+        // A new cache, as after a restart, reads the image back from disk.
+        cache = new TemplateImageCache(directory, 2, 16);
+        BufferedImage restored = cache.get(key, () -> {
+            renders.incrementAndGet();
+            return null;
+        });
+        Assert.assertEquals(1, renders.get());
+        Assert.assertEquals(20, restored.getWidth());
+        Assert.assertEquals(0xffffffff, restored.getRGB(10, 10));
+        Assert.assertEquals(0, restored.getRGB(0, 0));
+
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+}
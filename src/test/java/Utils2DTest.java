@@ -143,6 +143,75 @@ public class Utils2DTest {
         check(locationBefore, 60.22, 14.22, -8, 84);
         check(locationAfter, 60.22, 14.22, -8, 84);
     }
-}
 
+    /**
+     * The compiled board transform is reused until the board location changes, and always gives
+     * the same results as a freshly compiled one.
+     */
+    @Test
+    public void testBoardPlacementTransformCache() throws Exception {
+        Board board = new Board();
+        board.setDimensions(new Location(LengthUnit.Millimeters, 100, 50, 0, 0));
+        BoardLocation boardLocation = new BoardLocation(board);
+        boardLocation.setLocation(new Location(LengthUnit.Millimeters, 5, 15, -8, -6));
+        for (int i = 0; i < 20; i++) {
+            Placement placement = new Placement("P" + i);
+            placement.setLocation(i % 2 == 0 ? randomLocation()
+                    : randomLocation().convertToUnits(LengthUnit.Inches));
+            board.addPlacement(placement);
+        }
+
+        Utils2D.BoardPlacementTransform transform = boardLocation.getBoardPlacementTransform();
+        if (transform != boardLocation.getBoardPlacementTransform()) {
+            throw new Exception("Transform was not cached");
+        }
+        checkPlacements(boardLocation);
+
+        boardLocation.setSide(Side.Bottom);
+        if (transform == boardLocation.getBoardPlacementTransform()) {
+            throw new Exception("Transform was not invalidated by the side");
+        }
+        checkPlacements(boardLocation);
+
+        transform = boardLocation.getBoardPlacementTransform();
+        board.setDimensions(new Location(LengthUnit.Millimeters, 80, 50, 0, 0));
+        if (transform == boardLocation.getBoardPlacementTransform()) {
+            throw new Exception("Transform was not invalidated by the board dimensions");
+        }
+        Location location = Utils2D.calculateBoardPlacementLocation(boardLocation,
+                new Location(LengthUnit.Millimeters));
+        check(location, 5 + 80 * Math.cos(Math.toRadians(-6)),
+                15 + 80 * Math.sin(Math.toRadians(-6)), -8, -6);
 
+        boardLocation.setLocation(new Location(LengthUnit.Millimeters, 10, 20, -8, 45));
+        checkPlacements(boardLocation);
+
+        AffineTransform tx = new AffineTransform();
+        tx.translate(3, 4);
+        tx.rotate(Math.toRadians(30));
+        boardLocation.setPlacementTransform(tx);
+        check(Utils2D.calculateBoardPlacementLocation(boardLocation,
+                new Location(LengthUnit.Millimeters, 0, 0, 0, 10)), 3, 4, -8, 40);
+        checkPlacements(boardLocation);
+
+        // Changing the placement transform in place is noticed, too.
+        tx.translate(1, 0);
+        check(Utils2D.calculateBoardPlacementLocation(boardLocation,
+                new Location(LengthUnit.Millimeters, 0, 0, 0, 10)),
+                3 + Math.cos(Math.toRadians(30)), 4 + Math.sin(Math.toRadians(30)), -8, 40);
+        checkPlacements(boardLocation);
+    }
+
+    static void checkPlacements(BoardLocation boardLocation) throws Exception {
+        Utils2D.BoardPlacementTransform transform =
+                new Utils2D.BoardPlacementTransform(boardLocation);
+        for (Placement placement : boardLocation.getBoard().getPlacements()) {
+            Location expected = transform.transform(placement.getLocation())
+                    .convertToUnits(LengthUnit.Millimeters);
+            Location location = Utils2D
+                    .calculateBoardPlacementLocation(boardLocation, placement.getLocation())
+                    .convertToUnits(LengthUnit.Millimeters);
+            check(location, expected);
+        }
+    }
+}
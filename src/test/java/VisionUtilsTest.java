@@ -1,5 +1,8 @@
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -17,9 +20,50 @@ import org.openpnp.spi.PropertySheetHolder;
 import org.openpnp.spi.VisionProvider;
 import org.openpnp.spi.Movable.MoveToOption;
 import org.openpnp.util.VisionUtils;
+import org.openpnp.vision.pipeline.CvPipeline;
+import org.openpnp.vision.pipeline.stages.BlurGaussian;
 
 
 public class VisionUtilsTest {
+    static class PipelineHolder {
+        CvPipeline pipeline;
+        boolean shared;
+
+        PipelineHolder(CvPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+    }
+
+    @Test
+    public void testSharePipelines() throws Exception {
+        CvPipeline defaultPipeline = new CvPipeline();
+        defaultPipeline.add(new BlurGaussian());
+        CvPipeline custom = new CvPipeline();
+        PipelineHolder usesDefault = new PipelineHolder(null);
+        PipelineHolder likeDefault = new PipelineHolder(defaultPipeline.clone());
+        PipelineHolder custom1 = new PipelineHolder(custom);
+        PipelineHolder custom2 = new PipelineHolder(custom.clone());
+        PipelineHolder unique = new PipelineHolder(new CvPipeline());
+        unique.pipeline.add(new BlurGaussian());
+        unique.pipeline.add(new BlurGaussian());
+        List<PipelineHolder> holders = new ArrayList<>(
+                Arrays.asList(usesDefault, likeDefault, custom1, custom2, unique));
+        CvPipeline uniquePipeline = unique.pipeline;
+
+        VisionUtils.sharePipelines(defaultPipeline, holders, holder -> holder.pipeline,
+                (holder, pipeline) -> {
+                    holder.pipeline = pipeline;
+                    holder.shared = pipeline != null;
+                });
+
+        Assert.assertNull(usesDefault.pipeline);
+        Assert.assertNull(likeDefault.pipeline);
+        Assert.assertSame(custom1.pipeline, custom2.pipeline);
+        Assert.assertTrue(custom1.shared && custom2.shared);
+        Assert.assertSame(uniquePipeline, unique.pipeline);
+        Assert.assertFalse(unique.shared);
+    }
+
     @Test
     public void testOffsets() {
         Camera camera = new TestCamera();